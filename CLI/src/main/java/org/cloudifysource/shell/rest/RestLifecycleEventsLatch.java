@@ -33,6 +33,8 @@ import org.cloudifysource.shell.installer.CLIEventsDisplayer;
 /**
  * The RestLifecycleEventsLatch will poll the rest for installation lifecycle events 
  * and print the new events to the CLI console. 
+ * Each request is held by the rest server until new events arrive (long polling), so new events are printed as soon
+ * as the server has them. Rest servers that do not support long polling are polled at a fixed interval.
  * The polling latch will stop polling the rest for three reasons:
  * 				* The timeout period expired.
  * 				* Installation on the remote rest gateway ended.
@@ -46,6 +48,9 @@ public class RestLifecycleEventsLatch {
 	private static final Logger logger = Logger.getLogger(RestLifecycleEventsLatch.class.getName());
 	private static final long MIN_POLLING_INTERVAL = 2000;
 	private static final String DEFAULT_TIMEOUT_MESSAGE = "installation timed out";
+	private static final int LONG_POLLING_TIMEOUT_SEC = 20;
+	private static final long LONG_POLLING_INTERVAL = 100;
+	private static final String URL_NOT_FOUND_REASON_CODE = "URL_not_found";
 
 	private long pollingInterval = MIN_POLLING_INTERVAL;
 	private String timeoutMessage = DEFAULT_TIMEOUT_MESSAGE;
@@ -57,6 +62,7 @@ public class RestLifecycleEventsLatch {
 	private String url;
 	private Map<String, Object> lifecycleEventLogs = null;
 	private long remoteTaskLeaseExpiration;
+	private boolean longPolling = true;
 
 	/**
 	 * Constructor.
@@ -82,15 +88,31 @@ public class RestLifecycleEventsLatch {
 			@SuppressWarnings("unchecked")
 			@Override
 			public boolean isDone() throws CLIException, InterruptedException {
+				if (!longPolling) {
+					// the latch interval is kept short for long polling
+					Thread.sleep(pollingInterval - LONG_POLLING_INTERVAL);
+				}
 				url = "/service/lifecycleEventContainerID/" + pollingID
 						+ "/cursor/" + cursor;
+				if (longPolling) {
+					url += "/timeout/" + LONG_POLLING_TIMEOUT_SEC;
+				}
 				try {
 					lifecycleEventLogs = (Map<String, Object>) client.get(url);
 				} catch (final ErrorStatusException e) {
 					if (e.getCause() instanceof IOException) {
 						displayer.printEvent("Communication Error accessing "+ url); 
+						if (longPolling) {
+							Thread.sleep(pollingInterval - LONG_POLLING_INTERVAL);
+						}
 						return false;
 					} 
+					if (longPolling && URL_NOT_FOUND_REASON_CODE.equals(e.getReasonCode())) {
+						logger.fine("Rest server does not support long polling for lifecycle events, "
+								+ "polling at a fixed interval");
+						longPolling = false;
+						return false;
+					}
 					throw new CLIException("Operation failed. Reason: " + e.getMessage(), e);
 				}
 
@@ -148,12 +170,12 @@ public class RestLifecycleEventsLatch {
 	 */
 	private ConditionLatch createConditionLatch(final long timeout, final TimeUnit timeunit) {
 		return new ConditionLatch().timeout(timeout, timeunit)
-				.pollingInterval(this.pollingInterval, TimeUnit.MILLISECONDS)
+				.pollingInterval(LONG_POLLING_INTERVAL, TimeUnit.MILLISECONDS)
 				.timeoutErrorMessage(this.timeoutMessage);
 	}
 
 	/**
-	 * Sets the polling interval.
+	 * Sets the polling interval, used if the rest server does not support long polling.
 	 * 
 	 * @param pollingInterval 
 	 * 			Polling interval.
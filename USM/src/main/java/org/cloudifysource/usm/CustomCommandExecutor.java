@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import org.cloudifysource.dsl.CustomCommandsExecution;
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.usm.events.EventResult;
+import org.cloudifysource.usm.launcher.ProcessLauncher;
+
+/***************
+ * Executes the custom commands of a service on a bounded thread pool, instead of on the threads of the callers.
+ *
+ * Each command may have a limit on its number of concurrent executions - invocations beyond the limit wait in a queue of
+ * the command, without holding a thread. The total number of waiting invocations is bounded, and invocations beyond
+ * that bound are rejected. Commands have no timeout unless the service sets one. A caller that waits longer than the
+ * timeout of the command cancels the invocation: a waiting invocation is removed from its queue, and a running one is
+ * interrupted, and its external process, if any, is destroyed. Identical concurrent invocations of an idempotent command are collapsed into a single execution, and all
+ * callers receive its result.
+ *
+ * @since 2.6.0
+ *
+ */
+public class CustomCommandExecutor {
+
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(CustomCommandExecutor.class
+			.getName());
+
+	/*************
+	 * An invocation of a command.
+	 */
+	private final class CommandTask extends FutureTask<EventResult> {
+		private final CommandQueue queue;
+		private final String collapseKey;
+		// all fields below are guarded by the executor.
+		private int waiters = 1;
+		private boolean started = false;
+		private Thread runner;
+
+		private CommandTask(final CommandQueue queue, final String collapseKey, final Callable<EventResult> command) {
+			super(command);
+			this.queue = queue;
+			this.collapseKey = collapseKey;
+		}
+
+		@Override
+		public void run() {
+			synchronized (CustomCommandExecutor.this) {
+				--waitingCount;
+				if (isCancelled()) {
+					releaseSlot(queue);
+					return;
+				}
+				started = true;
+				runner = Thread.currentThread();
+			}
+			try {
+				super.run();
+			} finally {
+				synchronized (CustomCommandExecutor.this) {
+					runner = null;
+					// clear an interrupt caused by a cancellation, before the thread returns to the pool.
+					Thread.interrupted();
+					releaseSlot(queue);
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			synchronized (CustomCommandExecutor.this) {
+				if (collapseKey != null && inFlight.get(collapseKey) == this) {
+					inFlight.remove(collapseKey);
+				}
+				allTasks.remove(this);
+			}
+		}
+	}
+
+	/*************
+	 * Execution state of a single command.
+	 */
+	private static final class CommandQueue {
+		private final int maxConcurrency;
+		private int running = 0;
+		private final LinkedList<CommandTask> waiting = new LinkedList<CommandTask>();
+
+		private CommandQueue(final int maxConcurrency) {
+			this.maxConcurrency = maxConcurrency;
+		}
+	}
+
+	private final CustomCommandsExecution settings;
+	private final ProcessLauncher launcher;
+	private final ThreadPoolExecutor pool;
+
+	// all fields below are guarded by the executor.
+	private final Map<String, CommandQueue> queues = new HashMap<String, CommandQueue>();
+	private final Map<String, CommandTask> inFlight = new HashMap<String, CommandTask>();
+	private final Set<CommandTask> allTasks = new HashSet<CommandTask>();
+	// invocations that were accepted and did not start yet
+	private int waitingCount = 0;
+	// invocations that were passed to the pool
+	private int dispatchedCount = 0;
+	private boolean shutdown = false;
+
+	/*********
+	 * Constructor.
+	 *
+	 * @param settings
+	 *            the custom commands execution settings of the service.
+	 * @param launcher
+	 *            the process launcher, used to destroy the processes of cancelled commands.
+	 */
+	public CustomCommandExecutor(final CustomCommandsExecution settings, final ProcessLauncher launcher) {
+		this.settings = settings == null ? new CustomCommandsExecution() : settings;
+		this.launcher = launcher;
+		this.pool = new ThreadPoolExecutor(this.settings.getThreads(), this.settings.getThreads(),
+				THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				USMUtils.createDaemonThreadFactory("USMCustomCommand"));
+		this.pool.allowCoreThreadTimeOut(true);
+	}
+
+	/*********
+	 * Executes a custom command, and waits for its result.
+	 *
+	 * @param commandName
+	 *            the command name.
+	 * @param namedArgs
+	 *            the invocation arguments, used to identify identical invocations.
+	 * @param command
+	 *            the command execution.
+	 * @return the command result.
+	 * @throws RejectedExecutionException
+	 *             if too many invocations are waiting, or the executor was shut down.
+	 * @throws TimeoutException
+	 *             if the command did not complete within its timeout. The invocation is cancelled.
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting.
+	 * @throws ExecutionException
+	 *             if the command threw an exception.
+	 */
+	public EventResult execute(final String commandName, final Map<String, Object> namedArgs,
+			final Callable<EventResult> command)
+			throws TimeoutException, InterruptedException, ExecutionException {
+		final CommandTask task = submit(commandName, namedArgs, command);
+		final long timeoutSeconds = getTimeoutSeconds(commandName);
+		try {
+			if (timeoutSeconds <= 0) {
+				return task.get();
+			}
+			return task.get(timeoutSeconds, TimeUnit.SECONDS);
+		} catch (final TimeoutException e) {
+			logger.warning("Custom command " + commandName + " did not complete within " + timeoutSeconds
+					+ " seconds, and will be cancelled");
+			release(task);
+			throw new TimeoutException("Custom command " + commandName + " did not complete within "
+					+ timeoutSeconds + " seconds");
+		} catch (final InterruptedException e) {
+			release(task);
+			throw e;
+		} catch (final CancellationException e) {
+			throw new ExecutionException("Custom command " + commandName + " was cancelled", e);
+		}
+	}
+
+	/*********
+	 * Cancels all invocations, and stops the execution threads.
+	 */
+	public void shutdown() {
+		final List<CommandTask> tasks;
+		synchronized (this) {
+			shutdown = true;
+			tasks = new ArrayList<CommandTask>(allTasks);
+		}
+		for (final CommandTask task : tasks) {
+			cancel(task);
+		}
+		pool.shutdown();
+	}
+
+	private synchronized CommandTask submit(final String commandName, final Map<String, Object> namedArgs,
+			final Callable<EventResult> command) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Custom command executor is shut down");
+		}
+
+		final String collapseKey = isIdempotent(commandName) ? createCollapseKey(commandName, namedArgs) : null;
+		if (collapseKey != null) {
+			final CommandTask existing = inFlight.get(collapseKey);
+			if (existing != null && !existing.isDone()) {
+				logger.fine("Custom command " + commandName + " is already executing with the same parameters, "
+						+ "waiting for its result");
+				++existing.waiters;
+				return existing;
+			}
+		}
+
+		if (waitingCount >= settings.getQueueSize() && !hasFreeSlot(commandName)) {
+			// an invocation that starts immediately never waits, so it is not limited by the queue size.
+			throw new RejectedExecutionException("Too many invocations of custom commands are waiting ("
+					+ waitingCount + "), custom command " + commandName + " was rejected");
+		}
+
+		CommandQueue queue = queues.get(commandName);
+		if (queue == null) {
+			queue = new CommandQueue(getMaxConcurrency(commandName));
+			queues.put(commandName, queue);
+		}
+
+		final CommandTask task = new CommandTask(queue, collapseKey, command);
+		allTasks.add(task);
+		if (collapseKey != null) {
+			inFlight.put(collapseKey, task);
+		}
+		++waitingCount;
+		if (queue.maxConcurrency <= 0 || queue.running < queue.maxConcurrency) {
+			dispatch(queue, task);
+		} else {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Custom command " + commandName + " has reached its maximum concurrency of "
+						+ queue.maxConcurrency + ", the invocation is queued");
+			}
+			queue.waiting.add(task);
+		}
+		return task;
+	}
+
+	// called with the lock held.
+	private boolean hasFreeSlot(final String commandName) {
+		final CommandQueue queue = queues.get(commandName);
+		if (queue != null && queue.maxConcurrency > 0 && queue.running >= queue.maxConcurrency) {
+			return false;
+		}
+		return dispatchedCount < settings.getThreads();
+	}
+
+	// called with the lock held.
+	private void dispatch(final CommandQueue queue, final CommandTask task) {
+		++queue.running;
+		++dispatchedCount;
+		pool.execute(task);
+	}
+
+	// called with the lock held, when a task that was dispatched completes.
+	private void releaseSlot(final CommandQueue queue) {
+		--queue.running;
+		--dispatchedCount;
+		// waiting invocations are cancelled on shutdown, and must not start meanwhile.
+		if (!shutdown && !queue.waiting.isEmpty()) {
+			dispatch(queue, queue.waiting.removeFirst());
+		}
+	}
+
+	// a caller stopped waiting - the task is cancelled if no other caller is waiting for it.
+	private synchronized void release(final CommandTask task) {
+		--task.waiters;
+		if (task.waiters == 0) {
+			cancel(task);
+		}
+	}
+
+	// the lock is held while the task is cancelled, so the runner thread can not move on to another task meanwhile.
+	private synchronized void cancel(final CommandTask task) {
+		if (!task.started && task.queue.waiting.remove(task)) {
+			--waitingCount;
+		}
+		final Thread runner = task.runner;
+		if (task.cancel(true) && runner != null && launcher != null) {
+			launcher.destroySynchronousProcess(runner);
+		}
+	}
+
+	private boolean isIdempotent(final String commandName) {
+		final List<String> idempotent = settings.getIdempotentCommands();
+		return idempotent != null && idempotent.contains(commandName);
+	}
+
+	private int getMaxConcurrency(final String commandName) {
+		final Map<String, ?> map = settings.getMaxConcurrency();
+		return (int) getNumber(map == null ? null : map.get(commandName), 0);
+	}
+
+	// a timeout that is not positive means that the caller waits until the command completes.
+	private long getTimeoutSeconds(final String commandName) {
+		final Map<String, ?> map = settings.getTimeouts();
+		final long timeout = getNumber(map == null ? null : map.get(commandName), 0);
+		if (timeout > 0) {
+			return timeout;
+		}
+		return settings.getTimeoutSeconds();
+	}
+
+	// DSL maps may hold any type of value, as generic types are not checked when the DSL is parsed.
+	private static long getNumber(final Object value, final long defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		try {
+			return Long.parseLong(value.toString().trim());
+		} catch (final NumberFormatException e) {
+			logger.warning("Invalid custom command execution setting: " + value + ", using the default value: "
+					+ defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private static String createCollapseKey(final String commandName, final Map<String, Object> namedArgs) {
+		final Map<String, Object> parameters = new TreeMap<String, Object>();
+		if (namedArgs != null) {
+			for (final Map.Entry<String, Object> entry : namedArgs.entrySet()) {
+				if (entry.getKey().startsWith(CloudifyConstants.INVOCATION_PARAMETERS_KEY)) {
+					parameters.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return commandName + parameters;
+	}
+}
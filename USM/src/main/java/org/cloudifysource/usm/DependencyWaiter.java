@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.dsl.internal.CloudifyConstants.USMState;
+import org.openspaces.admin.Admin;
+import org.openspaces.admin.pu.ProcessingUnit;
+import org.openspaces.admin.pu.ProcessingUnitInstance;
+import org.openspaces.admin.pu.ProcessingUnitInstanceStatistics;
+import org.openspaces.admin.pu.events.ProcessingUnitAddedEventListener;
+import org.openspaces.admin.pu.events.ProcessingUnitInstanceAddedEventListener;
+import org.openspaces.admin.pu.events.ProcessingUnitInstanceStatisticsChangedEvent;
+import org.openspaces.admin.pu.events.ProcessingUnitInstanceStatisticsChangedEventListener;
+import org.openspaces.pu.service.ServiceMonitors;
+
+/***************
+ * Waits until at least one instance of each of a set of services is running.
+ *
+ * All dependencies are waited for at the same time. The waiter registers admin listeners for the processing units of
+ * the dependencies, their instances, and changes in the statistics of these instances, which include the USM state.
+ * An event only wakes up the waiting thread, which then checks the pending dependencies - the admin event threads are
+ * never used for remote calls. The pending dependencies are also checked at a fixed interval, in case an event was
+ * missed.
+ *
+ * @since 2.6.0
+ *
+ */
+public class DependencyWaiter {
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(DependencyWaiter.class
+			.getName());
+
+	private final Admin admin;
+	private final long checkIntervalMillis;
+	private final Object lock = new Object();
+
+	// all fields below are guarded by the lock.
+	private final Set<String> pending;
+	private final Set<String> runningByEvent = new LinkedHashSet<String>();
+	private final Map<String, ProcessingUnit> attached = new HashMap<String, ProcessingUnit>();
+	private final List<ProcessingUnit> monitoringStarted = new ArrayList<ProcessingUnit>();
+	private boolean changed = false;
+
+	private final ProcessingUnitAddedEventListener puAddedListener = new ProcessingUnitAddedEventListener() {
+
+		@Override
+		public void processingUnitAdded(final ProcessingUnit processingUnit) {
+			signal(processingUnit.getName(), false);
+		}
+	};
+
+	private final ProcessingUnitInstanceAddedEventListener puiAddedListener =
+			new ProcessingUnitInstanceAddedEventListener() {
+
+				@Override
+				public void processingUnitInstanceAdded(final ProcessingUnitInstance processingUnitInstance) {
+					signal(processingUnitInstance.getName(), false);
+				}
+			};
+
+	private final ProcessingUnitInstanceStatisticsChangedEventListener statisticsListener =
+			new ProcessingUnitInstanceStatisticsChangedEventListener() {
+
+				@Override
+				public void processingUnitInstanceStatisticsChanged(
+						final ProcessingUnitInstanceStatisticsChangedEvent event) {
+					// the event carries the new statistics, so the state is checked without a remote call.
+					if (getState(event.getNewStatistics()) == USMState.RUNNING) {
+						signal(event.getProcessingUnitInstance().getName(), true);
+					}
+				}
+			};
+
+	/*********
+	 * Constructor.
+	 *
+	 * @param admin
+	 *            the admin.
+	 * @param dependencies
+	 *            the names of the processing units of the required services.
+	 * @param checkIntervalMillis
+	 *            the interval between checks of the dependencies if no event is received.
+	 */
+	public DependencyWaiter(final Admin admin, final String[] dependencies, final long checkIntervalMillis) {
+		this.admin = admin;
+		this.pending = new LinkedHashSet<String>(Arrays.asList(dependencies));
+		this.checkIntervalMillis = checkIntervalMillis;
+	}
+
+	/*********
+	 * Blocks until all dependencies have a running instance.
+	 *
+	 * @param timeoutMillis
+	 *            the maximum time to wait.
+	 * @throws IllegalStateException
+	 *             if a dependency was not found in time.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 */
+	public void waitForAll(final long timeoutMillis)
+			throws InterruptedException {
+		final long endTime = System.currentTimeMillis() + timeoutMillis;
+		admin.getProcessingUnits().getProcessingUnitAdded().add(puAddedListener);
+		try {
+			while (true) {
+				final List<String> toCheck;
+				synchronized (lock) {
+					pending.removeAll(runningByEvent);
+					if (pending.isEmpty()) {
+						return;
+					}
+					toCheck = new ArrayList<String>(pending);
+					changed = false;
+				}
+
+				for (final String dependency : toCheck) {
+					if (checkDependency(dependency)) {
+						synchronized (lock) {
+							pending.remove(dependency);
+						}
+					}
+				}
+
+				synchronized (lock) {
+					if (pending.isEmpty()) {
+						return;
+					}
+					final long remaining = endTime - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new IllegalStateException("Could not find dependencies " + pending
+								+ " required for this service");
+					}
+					if (!changed) {
+						lock.wait(Math.min(remaining, checkIntervalMillis));
+					}
+				}
+			}
+		} finally {
+			detach();
+		}
+	}
+
+	private void signal(final String name, final boolean running) {
+		synchronized (lock) {
+			if (!pending.contains(name)) {
+				return;
+			}
+			if (running) {
+				logger.info("Dependency " + name + " reported a running instance");
+				runningByEvent.add(name);
+			}
+			changed = true;
+			lock.notifyAll();
+		}
+	}
+
+	// called on the waiting thread, so remote calls to the instances do not block the admin event threads.
+	private boolean checkDependency(final String dependency) {
+		final ProcessingUnit pu = admin.getProcessingUnits().getProcessingUnit(dependency);
+		if (pu == null) {
+			logger.fine("Processing unit of dependency " + dependency + " was not found yet");
+			return false;
+		}
+		attach(dependency, pu);
+
+		final ProcessingUnitInstance[] puis = pu.getInstances();
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Found " + puis.length + " instances of dependency " + dependency);
+		}
+		for (final ProcessingUnitInstance pui : puis) {
+			final USMState state = getState(pui.getStatistics());
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Instance " + pui.getInstanceId() + " of dependency " + dependency + " is in state: "
+						+ state);
+			}
+			if (state == USMState.RUNNING) {
+				logger.info("Found a running instance of dependant service: " + dependency);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void attach(final String dependency, final ProcessingUnit pu) {
+		synchronized (lock) {
+			if (attached.containsKey(dependency)) {
+				return;
+			}
+			attached.put(dependency, pu);
+			if (!pu.isMonitoring()) {
+				// the statistics changed events are only sent while the statistics are monitored.
+				pu.startStatisticsMonitor();
+				monitoringStarted.add(pu);
+			}
+		}
+		pu.getProcessingUnitInstanceAdded().add(puiAddedListener);
+		pu.getProcessingUnitInstanceStatisticsChanged().add(statisticsListener);
+	}
+
+	private void detach() {
+		admin.getProcessingUnits().getProcessingUnitAdded().remove(puAddedListener);
+		final List<ProcessingUnit> pus;
+		final List<ProcessingUnit> monitored;
+		synchronized (lock) {
+			pus = new ArrayList<ProcessingUnit>(attached.values());
+			monitored = new ArrayList<ProcessingUnit>(monitoringStarted);
+			attached.clear();
+			monitoringStarted.clear();
+		}
+		for (final ProcessingUnit pu : pus) {
+			pu.getProcessingUnitInstanceAdded().remove(puiAddedListener);
+			pu.getProcessingUnitInstanceStatisticsChanged().remove(statisticsListener);
+		}
+		for (final ProcessingUnit pu : monitored) {
+			pu.stopStatisticsMonitor();
+		}
+	}
+
+	private static USMState getState(final ProcessingUnitInstanceStatistics statistics) {
+		if (statistics == null) {
+			return null;
+		}
+		final ServiceMonitors sm = statistics.getMonitors().get(CloudifyConstants.USM_MONITORS_SERVICE_ID);
+		if (sm == null) {
+			return null;
+		}
+		final Object stateObject = sm.getMonitors().get(CloudifyConstants.USM_MONITORS_STATE_ID);
+		if (!(stateObject instanceof Integer)) {
+			return null;
+		}
+		final int stateIndex = (Integer) stateObject;
+		if (stateIndex < 0 || stateIndex >= USMState.values().length) {
+			return null;
+		}
+		return USMState.values()[stateIndex];
+	}
+}
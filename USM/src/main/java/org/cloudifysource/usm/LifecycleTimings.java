@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***************
+ * Records the durations of lifecycle events and of their listeners in fixed bucket histograms, so the USM can report
+ * count, max and percentiles of each without keeping the individual samples.
+ *
+ * Percentiles are the upper bound of the bucket the percentile falls in, capped by the largest recorded duration.
+ *
+ * @since 2.6.0
+ *
+ */
+public class LifecycleTimings {
+
+	/**********
+	 * Upper bounds of the histogram buckets, in milliseconds. Durations above the last bound go to an overflow bucket.
+	 */
+	private static final long[] BUCKET_BOUNDS_MILLIS = {
+			10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 60000, 120000, 300000, 600000, 1800000 };
+
+	private static final double P50 = 0.5;
+	private static final double P99 = 0.99;
+
+	/*************
+	 * A summary of the durations recorded for a single key.
+	 */
+	public static final class Summary {
+		private final long count;
+		private final long totalMillis;
+		private final long maxMillis;
+		private final long p50Millis;
+		private final long p99Millis;
+
+		private Summary(final long count, final long totalMillis, final long maxMillis, final long p50Millis,
+				final long p99Millis) {
+			this.count = count;
+			this.totalMillis = totalMillis;
+			this.maxMillis = maxMillis;
+			this.p50Millis = p50Millis;
+			this.p99Millis = p99Millis;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalMillis() {
+			return totalMillis;
+		}
+
+		public long getMaxMillis() {
+			return maxMillis;
+		}
+
+		public long getP50Millis() {
+			return p50Millis;
+		}
+
+		public long getP99Millis() {
+			return p99Millis;
+		}
+
+		@Override
+		public String toString() {
+			return "Summary [count=" + count + ", totalMillis=" + totalMillis + ", maxMillis=" + maxMillis
+					+ ", p50Millis=" + p50Millis + ", p99Millis=" + p99Millis + "]";
+		}
+	}
+
+	private static final class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private void record(final long durationMillis) {
+			buckets.incrementAndGet(bucketOf(durationMillis));
+			count.incrementAndGet();
+			total.addAndGet(durationMillis);
+			long currentMax = max.get();
+			while (durationMillis > currentMax && !max.compareAndSet(currentMax, durationMillis)) {
+				currentMax = max.get();
+			}
+		}
+
+		private Summary summarize() {
+			// the fields are read one by one, so a summary taken while a duration is recorded may be slightly off.
+			final long[] counts = new long[buckets.length()];
+			long sampleCount = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets.get(i);
+				sampleCount += counts[i];
+			}
+			final long maxMillis = max.get();
+			return new Summary(sampleCount, total.get(), maxMillis,
+					percentile(counts, sampleCount, P50, maxMillis),
+					percentile(counts, sampleCount, P99, maxMillis));
+		}
+
+		private static long percentile(final long[] counts, final long sampleCount, final double percentile,
+				final long maxMillis) {
+			if (sampleCount == 0) {
+				return 0;
+			}
+			final long rank = (long) Math.ceil(percentile * sampleCount);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(BUCKET_BOUNDS_MILLIS[i], maxMillis);
+				}
+			}
+			return maxMillis;
+		}
+	}
+
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	/**********
+	 * Records a duration.
+	 *
+	 * @param key
+	 *            the name of the timed operation.
+	 * @param durationMillis
+	 *            the duration, in milliseconds.
+	 */
+	public void record(final String key, final long durationMillis) {
+		Histogram histogram = this.histograms.get(key);
+		if (histogram == null) {
+			final Histogram newHistogram = new Histogram();
+			histogram = this.histograms.putIfAbsent(key, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		histogram.record(Math.max(0, durationMillis));
+	}
+
+	/**********
+	 * Returns the summaries of all recorded operations.
+	 *
+	 * @return the summaries, sorted by key.
+	 */
+	public Map<String, Summary> getSummaries() {
+		final Map<String, Summary> result = new TreeMap<String, Summary>();
+		for (final Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().summarize());
+		}
+		return result;
+	}
+
+	private static int bucketOf(final long durationMillis) {
+		for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+			if (durationMillis <= BUCKET_BOUNDS_MILLIS[i]) {
+				return i;
+			}
+		}
+		return BUCKET_BOUNDS_MILLIS.length;
+	}
+}
@@ -19,12 +19,28 @@ package org.cloudifysource.usm;
 import groovy.lang.Closure;
 import groovy.lang.GString;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.cloudifysource.dsl.internal.CloudifyConstants;
@@ -37,10 +53,13 @@ import org.openspaces.pu.service.ServiceDetails;
 import org.openspaces.pu.service.ServiceMonitors;
 
 /*****************
- * A synchronized wrapper to the monitors functionality. The last monitors
- * results are cached for a set time. Note: this class also contains the code to
- * create the service details. The code for services and details is very
- * similar, even though service details is called exactly once.
+ * Provides the service monitors without blocking the caller. Monitors are sampled by a background task, which runs all
+ * monitors in parallel, waits for each one up to a set timeout, and then publishes the results as a new snapshot.
+ * Readers always receive the last published snapshot, so a slow monitor never delays a statistics request. The sampler
+ * also adds the latency and failure count of each monitor to the published monitors, and records the numeric monitors
+ * in the monitors history, if one is kept. Note: this class also contains
+ * the code to create the service details. The code for services and details is very similar, even though service
+ * details are computed once and cached until they are invalidated.
  * 
  * 
  * @author barakme
@@ -49,13 +68,50 @@ import org.openspaces.pu.service.ServiceMonitors;
  */
 public class MonitorsCache {
 
+	/**
+	 * Default time to wait for a single monitor to return its values.
+	 */
+	public static final long DEFAULT_MONITOR_TIMEOUT_MILLIS = 10000;
+	private static final int MAX_SAMPLER_THREADS = 8;
+
 	private final USMLifecycleBean lifecycleBean;
 
-	private ServiceMonitors[] lastResult;
 	private final UniversalServiceManagerBean usm;
 
 	private final long cacheExpirationTimeout;
-	private long cacheExpirationTime = 0;
+	private final long monitorTimeout;
+
+	// the last sample taken while the service was running. Published snapshots are never modified.
+	private volatile ServiceMonitors[] lastResult;
+	private final AtomicBoolean sampleRequested = new AtomicBoolean(false);
+
+	private final MonitorSampler[] samplers;
+	private final MonitorsHistory history;
+	private volatile ScheduledExecutorService samplingExecutor;
+	private volatile ExecutorService monitorsExecutor;
+
+	/***********
+	 * Computed details of the recipe, never modified after creation. Timings change while the service runs, so they
+	 * are not part of the snapshot.
+	 */
+	private final class DetailsSnapshot {
+		private final Map<String, Object> attributes;
+		private final long createdAt = System.currentTimeMillis();
+
+		private DetailsSnapshot(final Map<String, Object> attributes) {
+			this.attributes = Collections.unmodifiableMap(attributes);
+		}
+
+		private boolean isExpired() {
+			final long ttl = detailsTimeToLiveMillis;
+			return ttl > 0 && System.currentTimeMillis() - this.createdAt >= ttl;
+		}
+	}
+
+	private volatile DetailsSnapshot detailsSnapshot;
+	private final AtomicLong detailsGeneration = new AtomicLong();
+	private final Object detailsMutex = new Object();
+	private volatile long detailsTimeToLiveMillis = 0;
 
 	private final String serviceSubType = "USM";
 	private final String serviceDescription = "USM";
@@ -64,28 +120,91 @@ public class MonitorsCache {
 	public MonitorsCache(final UniversalServiceManagerBean usm,
 			final USMLifecycleBean lifecycleBean,
 			final long cacheExpirationTimeout) {
+		this(usm, lifecycleBean, cacheExpirationTimeout, DEFAULT_MONITOR_TIMEOUT_MILLIS, 0);
+	}
+
+	public MonitorsCache(final UniversalServiceManagerBean usm,
+			final USMLifecycleBean lifecycleBean,
+			final long cacheExpirationTimeout, final long monitorTimeout, final int historySize) {
 		this.usm = usm;
+		this.history = historySize > 0 ? new MonitorsHistory(historySize) : null;
 		this.cacheExpirationTimeout = cacheExpirationTimeout;
+		this.monitorTimeout = monitorTimeout;
 		this.lifecycleBean = lifecycleBean;
+		this.samplers = createSamplers(lifecycleBean.getMonitors());
+	}
+
+	private MonitorSampler[] createSamplers(final Monitor[] monitors) {
+		final MonitorSampler[] result = new MonitorSampler[monitors.length];
+		final Set<String> names = new HashSet<String>();
+		for (int i = 0; i < monitors.length; i++) {
+			final String className = monitors[i].getClass().getName();
+			String name = className.substring(className.lastIndexOf('.') + 1);
+			if (!names.add(name)) {
+				name = name + "-" + i;
+			}
+			result[i] = new MonitorSampler(monitors[i], name);
+		}
+		return result;
 	}
 
 	/***********
-	 * Returns the monitors from the cache if the cache expiration time has not
-	 * been exceeded, or reads the new monitor values and caches them, returning
-	 * the result.
+	 * Starts the background sampling of the monitors. A sample is taken immediately, and then every cache expiration
+	 * period.
+	 */
+	public synchronized void start() {
+		if (this.samplingExecutor != null) {
+			return;
+		}
+		this.samplingExecutor =
+				Executors.newSingleThreadScheduledExecutor(USMUtils.createDaemonThreadFactory("USMMonitorsSampler"));
+		this.monitorsExecutor =
+				Executors.newFixedThreadPool(Math.max(1, Math.min(this.samplers.length, MAX_SAMPLER_THREADS)),
+						USMUtils.createDaemonThreadFactory("USMMonitorsExecutor"));
+
+		this.samplingExecutor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+		}, 0, this.cacheExpirationTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/***********
+	 * Stops the background sampling of the monitors.
+	 */
+	public synchronized void shutdown() {
+		if (this.samplingExecutor != null) {
+			this.samplingExecutor.shutdownNow();
+			this.monitorsExecutor.shutdownNow();
+			this.samplingExecutor = null;
+			this.monitorsExecutor = null;
+		}
+	}
+
+	/***********
+	 * Returns the last published monitors snapshot. This method never executes the monitors, so it returns
+	 * immediately. If the service is not running, only the service state is returned.
 	 * 
 	 * @return the monitors.
 	 */
-	public synchronized ServiceMonitors[] getMonitors() {
-		final long now = System.currentTimeMillis();
-
-		if (now >= cacheExpirationTime) {
-			logger.fine("Reloading monitors at: " + now);
-			this.lastResult = createMonitors();
-			this.cacheExpirationTime = now + cacheExpirationTimeout;
+	public ServiceMonitors[] getMonitors() {
+		final USMState currentState = usm.getState();
+		if (currentState != USMState.RUNNING) {
+			return createStateMonitors(currentState);
 		}
 
-		return this.lastResult;
+		final ServiceMonitors[] result = this.lastResult;
+		if (result == null) {
+			// service has just started running - do not wait for the next scheduled sample.
+			requestSample();
+			final CustomServiceMonitors csm = new CustomServiceMonitors(
+					CloudifyConstants.USM_MONITORS_SERVICE_ID);
+			putDefaultMonitorsInMap(csm.getMonitors());
+			return new ServiceMonitors[] { csm };
+		}
+		return result;
 
 	}
 
@@ -119,44 +238,196 @@ public class MonitorsCache {
 		}
 	}
 
-	private ServiceMonitors[] createMonitors() {
+	private void requestSample() {
+		final ScheduledExecutorService executor = this.samplingExecutor;
+		if (executor == null || !this.sampleRequested.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					sample();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// sampler is shutting down
+			this.sampleRequested.set(false);
+		}
+	}
+
+	private ServiceMonitors[] createStateMonitors(final USMState currentState) {
 		final CustomServiceMonitors csm = new CustomServiceMonitors(
 				CloudifyConstants.USM_MONITORS_SERVICE_ID);
+		csm.getMonitors().put(CloudifyConstants.USM_MONITORS_STATE_ID,
+				currentState.ordinal());
+		return new ServiceMonitors[] { csm };
+	}
 
-		final ServiceMonitors[] res = new ServiceMonitors[] { csm };
-
-		final USMState currentState = usm.getState();
-		// If the underlying service is not running
-		if (currentState != USMState.RUNNING) {
-			csm.getMonitors().put(CloudifyConstants.USM_MONITORS_STATE_ID,
-					currentState.ordinal());
-			return res;
+	// executes on the sampling thread only
+	private void sample() {
+		this.sampleRequested.set(false);
+		final ExecutorService executor = this.monitorsExecutor;
+		if (executor == null) {
+			return;
+		}
+		if (usm.getState() != USMState.RUNNING) {
+			// the process ids and values of a previous run are no longer relevant
+			this.lastResult = null;
+			return;
 		}
 
+		final long now = System.currentTimeMillis();
+		logger.fine("Reloading monitors at: " + now);
+
+		final CustomServiceMonitors csm = new CustomServiceMonitors(
+				CloudifyConstants.USM_MONITORS_SERVICE_ID);
 		final Map<String, Object> map = csm.getMonitors();
 		// default monitors
 		putDefaultMonitorsInMap(map);
 
-		for (final Monitor monitor : lifecycleBean.getMonitors()) {
+		final List<Future<Map<String, Number>>> futures = new ArrayList<Future<Map<String, Number>>>(
+				this.samplers.length);
+		for (final MonitorSampler sampler : this.samplers) {
+			futures.add(sampler.submit(executor));
+		}
+
+		// all monitors run in parallel, so they share the same deadline
+		final long deadline = now + this.monitorTimeout;
+		for (int i = 0; i < this.samplers.length; i++) {
+			final Future<Map<String, Number>> future = futures.get(i);
+			if (future == null) {
+				continue;
+			}
+			final MonitorSampler sampler = this.samplers[i];
 			try {
-				logger.fine("Executing monitor: " + monitor);
-				final Map<String, Number> monitorValues = monitor
-						.getMonitorValues(usm, lifecycleBean.getConfiguration());
-				removeNonSerializableObjectsFromMap(monitorValues, "monitors");
-				// add monitor values to Monitors map
-				map.putAll(monitorValues);
-			} catch (final Exception e) {
+				final Map<String, Number> monitorValues =
+						future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				if (monitorValues != null) {
+					removeNonSerializableObjectsFromMap(monitorValues, "monitors");
+					// add monitor values to Monitors map
+					map.putAll(monitorValues);
+				}
+			} catch (final TimeoutException e) {
+				sampler.failures.incrementAndGet();
+				future.cancel(true);
+				logger.warning("USM service monitor " + sampler.name + " did not complete within "
+						+ this.monitorTimeout + " milliseconds. Its values will be missing from this sample");
+			} catch (final ExecutionException e) {
 				logger.log(Level.SEVERE,
-						"Failed to execute a USM service monitor", e);
+						"Failed to execute a USM service monitor", e.getCause());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
 			}
 		}
 
+		for (final MonitorSampler sampler : this.samplers) {
+			sampler.putStatistics(map);
+		}
+
 		if (logger.isLoggable(Level.FINE)) {
-			logger.fine("Monitors are: " + Arrays.toString(res));
+			logger.fine("Monitors are: " + map);
 		}
 
-		return res;
+		// the service may have stopped while the monitors were executing
+		if (usm.getState() == USMState.RUNNING) {
+			this.lastResult = new ServiceMonitors[] { csm };
+			if (this.history != null) {
+				this.history.record(now, map);
+			}
+		}
+	}
 
+	/***********
+	 * Returns the history of the sampled monitors.
+	 * 
+	 * @return the monitors history, or null if no history is kept.
+	 */
+	public MonitorsHistory getHistory() {
+		return this.history;
+	}
+
+	/***********
+	 * Executes a single monitor and keeps its latency and failure statistics. A monitor that is still running from a
+	 * previous sample is not submitted again, so a stuck monitor can only ever hold one thread.
+	 */
+	private final class MonitorSampler implements Callable<Map<String, Number>> {
+
+		private final Monitor monitor;
+		private final String name;
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private final AtomicLong lastLatencyMillis = new AtomicLong(0);
+		private final AtomicLong failures = new AtomicLong(0);
+
+		private MonitorSampler(final Monitor monitor, final String name) {
+			this.monitor = monitor;
+			this.name = name;
+		}
+
+		@Override
+		public Map<String, Number> call()
+				throws Exception {
+			logger.fine("Executing monitor: " + monitor);
+			final long start = System.currentTimeMillis();
+			try {
+				return monitor.getMonitorValues(usm, lifecycleBean.getConfiguration());
+			} catch (final Exception e) {
+				failures.incrementAndGet();
+				throw e;
+			} finally {
+				lastLatencyMillis.set(System.currentTimeMillis() - start);
+			}
+		}
+
+		private Future<Map<String, Number>> submit(final ExecutorService executor) {
+			if (!running.compareAndSet(false, true)) {
+				logger.fine("Monitor " + name + " is still running from a previous sample");
+				return null;
+			}
+
+			// the flag is cleared by whoever claims the sample first - the sample itself, once the monitor returns, or a
+			// cancellation of a sample that did not start. A monitor that ignores the interrupt of a timed out sample
+			// keeps its flag, so it is not submitted again while its thread is still stuck.
+			final AtomicBoolean claimed = new AtomicBoolean(false);
+			final FutureTask<Map<String, Number>> task = new FutureTask<Map<String, Number>>(
+					new Callable<Map<String, Number>>() {
+
+						@Override
+						public Map<String, Number> call()
+								throws Exception {
+							if (!claimed.compareAndSet(false, true)) {
+								return null;
+							}
+							try {
+								return MonitorSampler.this.call();
+							} finally {
+								running.set(false);
+							}
+						}
+					}) {
+
+				@Override
+				protected void done() {
+					if (isCancelled() && claimed.compareAndSet(false, true)) {
+						running.set(false);
+					}
+				}
+			};
+			try {
+				executor.execute(task);
+			} catch (final RejectedExecutionException e) {
+				running.set(false);
+				return null;
+			}
+			return task;
+		}
+
+		private void putStatistics(final Map<String, Object> map) {
+			map.put(CloudifyConstants.USM_MONITORS_SAMPLE_LATENCY_PREFIX + name, lastLatencyMillis.get());
+			map.put(CloudifyConstants.USM_MONITORS_SAMPLE_FAILURES_PREFIX + name, failures.get());
+		}
 	}
 
 	private void putDefaultMonitorsInMap(final Map<String, Object> map) {
@@ -174,15 +445,79 @@ public class MonitorsCache {
 		}
 		map.put(CloudifyConstants.USM_MONITORS_STATE_ID, usm.getState()
 				.ordinal());
+		putLifecycleTimings(map, false);
+	}
+
+	// listener timings are only included in the details, to keep the number of monitors small.
+	private void putLifecycleTimings(final Map<String, Object> map, final boolean includeListeners) {
+		for (final Map.Entry<String, LifecycleTimings.Summary> entry : lifecycleBean.getLifecycleTimings()
+				.getSummaries().entrySet()) {
+			final String key = entry.getKey();
+			if (!includeListeners && key.indexOf('/') >= 0) {
+				continue;
+			}
+			final LifecycleTimings.Summary summary = entry.getValue();
+			final String prefix = CloudifyConstants.USM_MONITORS_LIFECYCLE_TIMING_PREFIX + key;
+			map.put(prefix + CloudifyConstants.USM_LIFECYCLE_TIMING_COUNT_SUFFIX, summary.getCount());
+			map.put(prefix + CloudifyConstants.USM_LIFECYCLE_TIMING_P50_SUFFIX, summary.getP50Millis());
+			map.put(prefix + CloudifyConstants.USM_LIFECYCLE_TIMING_P99_SUFFIX, summary.getP99Millis());
+			map.put(prefix + CloudifyConstants.USM_LIFECYCLE_TIMING_MAX_SUFFIX, summary.getMaxMillis());
+		}
 	}
 
 	/**************
-	 * Creates the service details - executed once.
+	 * Returns the service details. Once the service is running, the details of the recipe are computed once and cached
+	 * until they are invalidated or expire. The startup and lifecycle timings are added on each read, and every caller
+	 * receives details of its own.
 	 * 
 	 * @return the service details.
 	 */
 	public ServiceDetails[] getServicesDetails() {
-		logger.fine("Executing getServiceDetails()");
+		return createServicesDetails(getDetailsAttributes());
+	}
+
+	private Map<String, Object> getDetailsAttributes() {
+		final DetailsSnapshot snapshot = this.detailsSnapshot;
+		if (snapshot != null && !snapshot.isExpired()) {
+			return snapshot.attributes;
+		}
+
+		synchronized (this.detailsMutex) {
+			final DetailsSnapshot current = this.detailsSnapshot;
+			if (current != null && !current.isExpired()) {
+				return current.attributes;
+			}
+			final long generation = this.detailsGeneration.get();
+			final boolean running = usm.getState() == USMState.RUNNING;
+			final Map<String, Object> attributes = createDetailsAttributes();
+			// details computed before the service is running may change once it starts, so they are not cached.
+			// details computed while an invalidation took place may already be out of date.
+			if (running && generation == this.detailsGeneration.get()) {
+				this.detailsSnapshot = new DetailsSnapshot(attributes);
+			}
+			return attributes;
+		}
+	}
+
+	/**************
+	 * Discards the cached service details. They are computed again on the next read.
+	 */
+	public void invalidateDetails() {
+		logger.fine("Service details invalidated");
+		this.detailsGeneration.incrementAndGet();
+		this.detailsSnapshot = null;
+	}
+
+	/**************
+	 * Sets the time the cached service details are kept before they are computed again.
+	 * 
+	 * @param detailsTimeToLiveMillis the time to live, or zero to keep the details until they are invalidated.
+	 */
+	public void setDetailsTimeToLiveMillis(final long detailsTimeToLiveMillis) {
+		this.detailsTimeToLiveMillis = detailsTimeToLiveMillis;
+	}
+
+	private ServiceDetails[] createServicesDetails(final Map<String, Object> attributes) {
 		@SuppressWarnings("deprecation")
 		final CustomServiceDetails csd = new CustomServiceDetails(
 				CloudifyConstants.USM_DETAILS_SERVICE_ID,
@@ -191,8 +526,23 @@ public class MonitorsCache {
 
 		final ServiceDetails[] res = new ServiceDetails[] { csd };
 
-		final Details[] alldetails = lifecycleBean.getDetails();
 		final Map<String, Object> result = csd.getAttributes();
+		result.putAll(attributes);
+		for (final Map.Entry<String, Long> timing : usm.getStartupPhaseTimings().entrySet()) {
+			result.put(CloudifyConstants.USM_DETAILS_STARTUP_PHASE_PREFIX + timing.getKey(), timing.getValue());
+		}
+		putLifecycleTimings(result, true);
+
+		if (logger.isLoggable(Level.FINER)) {
+			logger.finer("Details are: " + Arrays.toString(res));
+		}
+		return res;
+	}
+
+	private Map<String, Object> createDetailsAttributes() {
+		logger.fine("Executing getServiceDetails()");
+		final Details[] alldetails = lifecycleBean.getDetails();
+		final Map<String, Object> result = new HashMap<String, Object>();
 		for (final Details details : alldetails) {
 
 			try {
@@ -209,12 +559,7 @@ public class MonitorsCache {
 
 		// convert GStrings
 		handleGStringDetails(result);
-
-		if (logger.isLoggable(Level.FINER)) {
-			logger.finer("Details are: " + Arrays.toString(res));
-		}
-		return res;
-
+		return result;
 	}
 
 	/**********
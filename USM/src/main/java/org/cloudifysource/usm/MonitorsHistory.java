@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/*****************
+ * Keeps a fixed size history of the numeric service monitors. Each monitor has its own ring buffer of primitive
+ * timestamps and values - integral monitors are stored as longs and all others as doubles - so recording a sample
+ * does not allocate. A monitor that starts with integral values and later reports a fractional value is widened to
+ * doubles, once. When the buffer is full, the oldest sample is overwritten.
+ *
+ * The number of monitors with a history is limited as well. Monitor names may change over the lifetime of a service
+ * (for instance, process metrics include the process ID when there are several processes), so when the limit is
+ * reached the monitor that was updated least recently is dropped.
+ *
+ * @since 2.6.0
+ *
+ */
+public class MonitorsHistory {
+
+	/*****
+	 * Key of the sample timestamps array in a query result.
+	 */
+	public static final String TIMESTAMPS_KEY = "timestamps";
+	/*****
+	 * Key of the sample values array in a query result.
+	 */
+	public static final String VALUES_KEY = "values";
+
+	private static final int DEFAULT_MAX_MONITORS = 512;
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(MonitorsHistory.class
+			.getName());
+
+	/********
+	 * Ring buffer of a single monitor. Only one of the value arrays is allocated.
+	 */
+	private static final class MonitorSeries {
+		private final long[] timestamps;
+		private long[] longValues;
+		private double[] doubleValues;
+		private int next;
+		private int size;
+
+		private MonitorSeries(final int capacity, final boolean integral) {
+			this.timestamps = new long[capacity];
+			this.longValues = integral ? new long[capacity] : null;
+			this.doubleValues = integral ? null : new double[capacity];
+		}
+
+		private void add(final long timestamp, final Number value) {
+			if (longValues != null && !isIntegral(value)) {
+				widen();
+			}
+			timestamps[next] = timestamp;
+			if (longValues != null) {
+				longValues[next] = value.longValue();
+			} else {
+				doubleValues[next] = value.doubleValue();
+			}
+			next = (next + 1) % timestamps.length;
+			if (size < timestamps.length) {
+				++size;
+			}
+		}
+
+		// converts the recorded values to doubles, so fractional values are not truncated.
+		private void widen() {
+			doubleValues = new double[longValues.length];
+			for (int i = 0; i < longValues.length; i++) {
+				doubleValues[i] = longValues[i];
+			}
+			longValues = null;
+		}
+
+		private long lastTimestamp() {
+			return timestamps[(next - 1 + timestamps.length) % timestamps.length];
+		}
+
+		private Map<String, Object> query(final long from, final long to, final long step) {
+			final int capacity = timestamps.length;
+			final int first = (next - size + capacity) % capacity;
+
+			// count the result points, so the result arrays are allocated once
+			int count = 0;
+			long currentBucket = Long.MIN_VALUE;
+			for (int i = 0; i < size; i++) {
+				final long timestamp = timestamps[(first + i) % capacity];
+				if (timestamp >= from && timestamp <= to) {
+					final long bucket = bucketOf(timestamp, from, step);
+					if (bucket != currentBucket) {
+						currentBucket = bucket;
+						++count;
+					}
+				}
+			}
+
+			final long[] resultTimestamps = new long[count];
+			final long[] resultLongs = longValues != null ? new long[count] : null;
+			final double[] resultDoubles = longValues != null ? null : new double[count];
+
+			int resultIndex = -1;
+			int samplesInBucket = 0;
+			double sum = 0;
+			currentBucket = Long.MIN_VALUE;
+			for (int i = 0; i < size; i++) {
+				final int index = (first + i) % capacity;
+				final long timestamp = timestamps[index];
+				if (timestamp < from || timestamp > to) {
+					continue;
+				}
+				final long bucket = bucketOf(timestamp, from, step);
+				if (bucket != currentBucket) {
+					if (resultIndex >= 0) {
+						setAverage(resultLongs, resultDoubles, resultIndex, sum, samplesInBucket);
+					}
+					currentBucket = bucket;
+					++resultIndex;
+					resultTimestamps[resultIndex] = step > 0 ? bucket : timestamp;
+					sum = 0;
+					samplesInBucket = 0;
+				}
+				sum += longValues != null ? longValues[index] : doubleValues[index];
+				++samplesInBucket;
+			}
+			if (resultIndex >= 0) {
+				setAverage(resultLongs, resultDoubles, resultIndex, sum, samplesInBucket);
+			}
+
+			final Map<String, Object> result = new HashMap<String, Object>();
+			result.put(TIMESTAMPS_KEY, resultTimestamps);
+			result.put(VALUES_KEY, resultLongs != null ? resultLongs : resultDoubles);
+			return result;
+		}
+
+		private static long bucketOf(final long timestamp, final long from, final long step) {
+			if (step <= 0) {
+				return timestamp;
+			}
+			return from + ((timestamp - from) / step) * step;
+		}
+
+		private static void setAverage(final long[] longs, final double[] doubles, final int index, final double sum,
+				final int count) {
+			if (longs != null) {
+				longs[index] = Math.round(sum / count);
+			} else {
+				doubles[index] = sum / count;
+			}
+		}
+	}
+
+	private final int capacity;
+	private final int maxMonitors;
+	private final Map<String, MonitorSeries> series = new HashMap<String, MonitorSeries>();
+	private boolean limitReported = false;
+
+	/**********
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            number of samples kept for each monitor.
+	 */
+	public MonitorsHistory(final int capacity) {
+		this(capacity, DEFAULT_MAX_MONITORS);
+	}
+
+	/**********
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            number of samples kept for each monitor.
+	 * @param maxMonitors
+	 *            maximum number of monitors with a history.
+	 */
+	public MonitorsHistory(final int capacity, final int maxMonitors) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("History capacity must be positive, got: " + capacity);
+		}
+		this.capacity = capacity;
+		this.maxMonitors = maxMonitors;
+	}
+
+	/**********
+	 * Records the numeric values of a monitors sample. Values that are not numbers are ignored.
+	 *
+	 * @param timestamp
+	 *            the sample time.
+	 * @param monitors
+	 *            the sampled monitors.
+	 */
+	public synchronized void record(final long timestamp, final Map<String, Object> monitors) {
+		for (final Entry<String, Object> entry : monitors.entrySet()) {
+			final Object value = entry.getValue();
+			if (!(value instanceof Number)) {
+				continue;
+			}
+			MonitorSeries monitorSeries = this.series.get(entry.getKey());
+			if (monitorSeries == null) {
+				if (this.series.size() >= this.maxMonitors && !evictStaleSeries(timestamp)) {
+					continue;
+				}
+				monitorSeries = new MonitorSeries(this.capacity, isIntegral((Number) value));
+				this.series.put(entry.getKey(), monitorSeries);
+			}
+			monitorSeries.add(timestamp, (Number) value);
+		}
+	}
+
+	/**********
+	 * Returns the history of the requested monitors in a time window. Each monitor is mapped to a map with two
+	 * arrays of the same length: the sample timestamps under {@link #TIMESTAMPS_KEY}, and the values under
+	 * {@link #VALUES_KEY} (long[] for monitors that only reported integral values, double[] for all others). If a step
+	 * is given, samples are averaged over consecutive windows of that length, and each window is reported with its
+	 * start time.
+	 *
+	 * @param from
+	 *            start of the time window, inclusive.
+	 * @param to
+	 *            end of the time window, inclusive.
+	 * @param step
+	 *            length of the downsampling window in milliseconds. Zero or less returns all samples.
+	 * @param monitorNames
+	 *            the monitors to return, or null for all monitors.
+	 * @return the monitors history.
+	 */
+	public synchronized Map<String, Object> query(final long from, final long to, final long step,
+			final Collection<String> monitorNames) {
+		final Map<String, Object> result = new HashMap<String, Object>();
+		if (monitorNames == null) {
+			for (final Entry<String, MonitorSeries> entry : this.series.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().query(from, to, step));
+			}
+		} else {
+			for (final String name : monitorNames) {
+				final MonitorSeries monitorSeries = this.series.get(name);
+				if (monitorSeries != null) {
+					result.put(name, monitorSeries.query(from, to, step));
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean evictStaleSeries(final long timestamp) {
+		Entry<String, MonitorSeries> stalest = null;
+		for (final Entry<String, MonitorSeries> entry : this.series.entrySet()) {
+			if (stalest == null || entry.getValue().lastTimestamp() < stalest.getValue().lastTimestamp()) {
+				stalest = entry;
+			}
+		}
+
+		if (stalest == null || stalest.getValue().lastTimestamp() >= timestamp) {
+			// all monitors are current
+			if (!this.limitReported) {
+				this.limitReported = true;
+				logger.warning("Number of service monitors exceeds the monitors history limit of " + this.maxMonitors
+						+ ". Some monitors will not have a history");
+			}
+			return false;
+		}
+		this.series.remove(stalest.getKey());
+		return true;
+	}
+
+	private static boolean isIntegral(final Number value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+}
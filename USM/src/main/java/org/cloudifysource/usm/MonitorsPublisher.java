@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.cloudifysource.dsl.internal.ServiceInstanceMonitorsHolder;
+import org.openspaces.core.GigaSpace;
+import org.openspaces.pu.service.ServiceMonitors;
+
+import com.gigaspaces.client.ChangeResult;
+import com.gigaspaces.client.ChangeSet;
+import com.gigaspaces.client.WriteModifiers;
+import com.j_spaces.core.client.SQLQuery;
+
+/***************
+ * Publishes the monitors of a service instance to the management space at a fixed interval, so readers can subscribe
+ * to them instead of pulling the instance statistics.
+ *
+ * The full monitors map is written once. Later publications only send the values that changed, and the keys that were
+ * removed, as a change operation on the entry. A publication that finds no entry to change, for example after the
+ * management space was restarted, writes the full map again.
+ *
+ * @since 2.6.0
+ *
+ */
+public class MonitorsPublisher {
+
+	// the entry outlives a few missed publications before it expires.
+	private static final int LEASE_INTERVALS = 3;
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(MonitorsPublisher.class
+			.getName());
+
+	private final GigaSpace managementSpace;
+	private final MonitorsCache monitorsCache;
+	private final String processingUnitName;
+	private final int instanceId;
+	private final String id;
+	private final long publishIntervalMillis;
+
+	// the values of the last successful publication, or null if the full map must be written. Accessed only by the
+	// publishing thread.
+	private Map<String, Object> lastPublished;
+	private ScheduledExecutorService executor;
+
+	/*********
+	 * Constructor.
+	 *
+	 * @param managementSpace
+	 *            the management space.
+	 * @param monitorsCache
+	 *            the monitors cache of the USM.
+	 * @param processingUnitName
+	 *            the absolute processing unit name of the service.
+	 * @param instanceId
+	 *            the instance ID.
+	 * @param publishIntervalMillis
+	 *            the interval between publications.
+	 */
+	public MonitorsPublisher(final GigaSpace managementSpace, final MonitorsCache monitorsCache,
+			final String processingUnitName, final int instanceId, final long publishIntervalMillis) {
+		this.managementSpace = managementSpace;
+		this.monitorsCache = monitorsCache;
+		this.processingUnitName = processingUnitName;
+		this.instanceId = instanceId;
+		this.id = ServiceInstanceMonitorsHolder.createId(processingUnitName, instanceId);
+		this.publishIntervalMillis = publishIntervalMillis;
+	}
+
+	/*********
+	 * Starts publishing.
+	 */
+	public synchronized void start() {
+		if (this.executor != null) {
+			return;
+		}
+		this.executor = Executors.newSingleThreadScheduledExecutor(USMUtils
+				.createDaemonThreadFactory("USMMonitorsPublisher"));
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				publish();
+			}
+		}, 0, this.publishIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/*********
+	 * Stops publishing, and removes the published entry.
+	 */
+	public synchronized void shutdown() {
+		if (this.executor == null) {
+			return;
+		}
+		this.executor.shutdownNow();
+		this.executor = null;
+		try {
+			this.managementSpace.clear(new SQLQuery<ServiceInstanceMonitorsHolder>(
+					ServiceInstanceMonitorsHolder.class, "id = ?", this.id));
+		} catch (final Exception e) {
+			logger.log(Level.FINE, "Failed to remove the published monitors of " + this.id + ", the entry will "
+					+ "expire: " + e.getMessage(), e);
+		}
+	}
+
+	// executes on the publishing thread only
+	private void publish() {
+		final ServiceMonitors[] monitors = this.monitorsCache.getMonitors();
+		final Map<String, Object> current = new HashMap<String, Object>();
+		for (final ServiceMonitors serviceMonitors : monitors) {
+			for (final Map.Entry<String, Object> entry : serviceMonitors.getMonitors().entrySet()) {
+				if (entry.getValue() instanceof Serializable) {
+					current.put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		final long now = System.currentTimeMillis();
+
+		try {
+			if (this.lastPublished == null || !publishChanges(current, now)) {
+				writeEntry(current, now);
+			}
+			this.lastPublished = current;
+		} catch (final Exception e) {
+			// the full map is written on the next publication
+			this.lastPublished = null;
+			logger.log(Level.WARNING, "Failed to publish the monitors of " + this.id + ": " + e.getMessage(), e);
+		}
+	}
+
+	private void writeEntry(final Map<String, Object> current, final long now) {
+		final ServiceInstanceMonitorsHolder holder = new ServiceInstanceMonitorsHolder();
+		holder.setId(this.id);
+		holder.setProcessingUnitName(this.processingUnitName);
+		holder.setInstanceId(this.instanceId);
+		holder.setVersion(0L);
+		holder.setTimestamp(now);
+		holder.setPublishIntervalMillis(this.publishIntervalMillis);
+		holder.setMonitors(new HashMap<String, Object>(current));
+		this.managementSpace.write(holder, getLeaseMillis(), 0, WriteModifiers.UPDATE_OR_WRITE);
+		logger.fine("Published all monitors of " + this.id);
+	}
+
+	// returns false if the entry was not found
+	private boolean publishChanges(final Map<String, Object> current, final long now) {
+		final ChangeSet changeSet = new ChangeSet();
+		int changes = 0;
+		for (final Map.Entry<String, Object> entry : current.entrySet()) {
+			final Object previous = this.lastPublished.get(entry.getKey());
+			if (previous == null ? entry.getValue() != null : !previous.equals(entry.getValue())) {
+				changeSet.putInMap(ServiceInstanceMonitorsHolder.MONITORS_PROPERTY, entry.getKey(),
+						(Serializable) entry.getValue());
+				++changes;
+			}
+		}
+		for (final String key : this.lastPublished.keySet()) {
+			if (!current.containsKey(key)) {
+				changeSet.removeFromMap(ServiceInstanceMonitorsHolder.MONITORS_PROPERTY, key);
+				++changes;
+			}
+		}
+		if (changes > 0) {
+			changeSet.increment(ServiceInstanceMonitorsHolder.VERSION_PROPERTY, 1L);
+		}
+		// the timestamp and lease are updated even if no value changed, so readers know the instance is alive.
+		changeSet.set(ServiceInstanceMonitorsHolder.TIMESTAMP_PROPERTY, now);
+		changeSet.lease(getLeaseMillis());
+
+		final ChangeResult<ServiceInstanceMonitorsHolder> result = this.managementSpace.change(
+				new SQLQuery<ServiceInstanceMonitorsHolder>(ServiceInstanceMonitorsHolder.class, "id = ?", this.id),
+				changeSet);
+		if (result.getNumberOfChangedEntries() == 0) {
+			logger.fine("Published monitors of " + this.id + " were not found, publishing all monitors");
+			return false;
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Published " + changes + " changed monitors of " + this.id);
+		}
+		return true;
+	}
+
+	private long getLeaseMillis() {
+		return this.publishIntervalMillis * LEASE_INTERVALS;
+	}
+}
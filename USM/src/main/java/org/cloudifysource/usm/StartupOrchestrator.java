@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/***************
+ * Runs the start-up phases of the USM. Each phase declares the phases it depends on, and starts as soon as they have
+ * completed, so independent phases run concurrently. The duration of each phase is recorded.
+ *
+ * Phases may be added after earlier phases were started - a later phase may depend on any phase that was added before
+ * it. A phase that depends on a failed phase is not executed.
+ *
+ * @since 2.6.0
+ *
+ */
+public class StartupOrchestrator {
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(StartupOrchestrator.class
+			.getName());
+
+	/*************
+	 * A start-up phase.
+	 */
+	public interface Phase {
+
+		/**********
+		 * Executes the phase.
+		 *
+		 * @throws USMException
+		 *             if the phase failed.
+		 * @throws TimeoutException
+		 *             if the phase timed out.
+		 */
+		void execute()
+				throws USMException, TimeoutException;
+	}
+
+	private static final class PhaseEntry {
+		private final String name;
+		private final Phase phase;
+		private final List<PhaseEntry> dependencies;
+		private Future<?> future;
+		private volatile long durationMillis = -1;
+
+		private PhaseEntry(final String name, final Phase phase, final List<PhaseEntry> dependencies) {
+			this.name = name;
+			this.phase = phase;
+			this.dependencies = dependencies;
+		}
+	}
+
+	// phases are added and started by the USM thread, and awaited by any thread.
+	private final Map<String, PhaseEntry> phases = new LinkedHashMap<String, PhaseEntry>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(USMUtils
+			.createDaemonThreadFactory("USMStartup"));
+
+	/**********
+	 * Adds a phase. The phase is executed on the next call to {@link #start()}.
+	 *
+	 * @param name
+	 *            the phase name.
+	 * @param phase
+	 *            the phase.
+	 * @param dependencies
+	 *            the names of the phases that must complete before this phase starts. These phases must already have
+	 *            been added.
+	 */
+	public synchronized void addPhase(final String name, final Phase phase, final String... dependencies) {
+		if (this.phases.containsKey(name)) {
+			throw new IllegalArgumentException("Startup phase " + name + " was already added");
+		}
+		final List<PhaseEntry> dependencyEntries = new ArrayList<PhaseEntry>(dependencies.length);
+		for (final String dependency : dependencies) {
+			final PhaseEntry entry = this.phases.get(dependency);
+			if (entry == null) {
+				throw new IllegalArgumentException("Startup phase " + name + " depends on unknown phase "
+						+ dependency);
+			}
+			dependencyEntries.add(entry);
+		}
+		this.phases.put(name, new PhaseEntry(name, phase, dependencyEntries));
+	}
+
+	/**********
+	 * Starts all phases that were not started yet. Returns immediately.
+	 */
+	public synchronized void start() {
+		for (final PhaseEntry entry : this.phases.values()) {
+			if (entry.future == null) {
+				entry.future = this.executor.submit(createTask(entry));
+			}
+		}
+	}
+
+	/**********
+	 * Waits for phases to complete.
+	 *
+	 * @param names
+	 *            the phases to wait for. If none are specified, waits for all started phases.
+	 * @throws USMException
+	 *             if a phase failed, or the calling thread was interrupted.
+	 * @throws TimeoutException
+	 *             if a phase timed out.
+	 */
+	public void await(final String... names)
+			throws USMException, TimeoutException {
+		final List<PhaseEntry> entries = new ArrayList<PhaseEntry>();
+		synchronized (this) {
+			if (names.length == 0) {
+				entries.addAll(this.phases.values());
+			} else {
+				for (final String name : names) {
+					final PhaseEntry entry = this.phases.get(name);
+					if (entry == null) {
+						throw new IllegalArgumentException("Unknown startup phase: " + name);
+					}
+					entries.add(entry);
+				}
+			}
+		}
+
+		// phases are waited for in the order they were added, so the first failure reported is the root cause.
+		for (final PhaseEntry entry : entries) {
+			final Future<?> future;
+			synchronized (this) {
+				future = entry.future;
+			}
+			if (future == null) {
+				throw new IllegalStateException("Startup phase " + entry.name + " was not started");
+			}
+			try {
+				future.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new USMException("Interrupted while waiting for startup phase " + entry.name, e);
+			} catch (final ExecutionException e) {
+				throw unwrap(entry.name, e);
+			}
+		}
+	}
+
+	/**********
+	 * Checks if a phase was added.
+	 *
+	 * @param name
+	 *            the phase name.
+	 * @return true if the phase was added.
+	 */
+	public synchronized boolean hasPhase(final String name) {
+		return this.phases.containsKey(name);
+	}
+
+	/**********
+	 * Returns the durations of the completed phases.
+	 *
+	 * @return the phase durations in milliseconds, by phase name, in the order the phases were added.
+	 */
+	public synchronized Map<String, Long> getTimings() {
+		final Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (final PhaseEntry entry : this.phases.values()) {
+			final long duration = entry.durationMillis;
+			if (duration >= 0) {
+				result.put(entry.name, duration);
+			}
+		}
+		return result;
+	}
+
+	/**********
+	 * Stops the threads of the orchestrator. Phases that are running are not interrupted.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	private Callable<Object> createTask(final PhaseEntry entry) {
+		return new Callable<Object>() {
+
+			@Override
+			public Object call()
+					throws Exception {
+				for (final PhaseEntry dependency : entry.dependencies) {
+					try {
+						dependency.future.get();
+					} catch (final ExecutionException e) {
+						throw new USMException("Startup phase " + entry.name + " was not executed, as phase "
+								+ dependency.name + " failed", e.getCause());
+					}
+				}
+
+				final long start = System.currentTimeMillis();
+				try {
+					entry.phase.execute();
+				} catch (final Exception e) {
+					logger.log(Level.FINE, "Startup phase " + entry.name + " failed: " + e.getMessage(), e);
+					throw e;
+				}
+				entry.durationMillis = System.currentTimeMillis() - start;
+				if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Startup phase " + entry.name + " completed in " + entry.durationMillis + " ms");
+				}
+				return null;
+			}
+		};
+	}
+
+	private static USMException unwrap(final String name, final ExecutionException e)
+			throws TimeoutException {
+		final Throwable cause = e.getCause();
+		if (cause instanceof USMException) {
+			return (USMException) cause;
+		}
+		if (cause instanceof TimeoutException) {
+			throw (TimeoutException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new USMException("Startup phase " + name + " failed: " + cause, cause);
+	}
+}
@@ -15,13 +15,23 @@
  *******************************************************************************/
 package org.cloudifysource.usm;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -33,6 +43,7 @@ import org.apache.commons.lang.time.DurationFormatUtils;
 import org.cloudifysource.dsl.LifecycleEvents;
 import org.cloudifysource.dsl.Service;
 import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.dsl.internal.EventLogConstants;
 import org.cloudifysource.usm.details.Details;
 import org.cloudifysource.usm.dsl.DSLCommandsLifecycleListener;
 import org.cloudifysource.usm.dsl.ServiceConfiguration;
@@ -54,6 +65,8 @@ import org.cloudifysource.usm.events.StopReason;
 import org.cloudifysource.usm.events.USMEvent;
 import org.cloudifysource.usm.launcher.ProcessLauncher;
 import org.cloudifysource.usm.liveness.LivenessDetector;
+import org.cloudifysource.usm.liveness.PortBasedLivenessDetector;
+import org.cloudifysource.usm.liveness.PortProbe;
 import org.cloudifysource.usm.locator.ProcessLocator;
 import org.cloudifysource.usm.monitors.Monitor;
 import org.cloudifysource.usm.shutdown.ProcessKiller;
@@ -74,6 +87,11 @@ import org.springframework.stereotype.Component;
 public class USMLifecycleBean implements ClusterInfoAware {
 
 	private static final int DEFAULT_PIDS_SIZE_LIMIT = 10;
+	// first interval between start detection rounds. Doubles up to the service's start detection interval.
+	private static final long MIN_START_DETECTION_INTERVAL_MILLIS = 100;
+	private static final long PORT_PROBE_TIMEOUT_MILLIS = 5000;
+	private static final int MAX_CONCURRENT_EVENT_LISTENERS = 8;
+	private static final String LISTENER_TIMING_SEPARATOR = "/";
 	@Autowired(required = true)
 	private ServiceConfiguration configuration;
 	@Autowired(required = true)
@@ -141,6 +159,8 @@ public class USMLifecycleBean implements ClusterInfoAware {
 	private Details[] details = new Details[0];
 	private String eventPrefix;
 
+	private final LifecycleTimings lifecycleTimings = new LifecycleTimings();
+
 	/**********
 	 * Post construct method.
 	 */
@@ -218,18 +238,27 @@ public class USMLifecycleBean implements ClusterInfoAware {
 		}
 	}
 
-	private void logEventSuccess(final LifecycleEvents event, final USMEvent[] listeners, final long eventStartTime) {
+	private void logEventSuccess(final LifecycleEvents event, final USMEvent[] listeners,
+			final long eventExecDuration) {
 		if (isLoggableEvent(
 				event, listeners)) {
-			long eventExecDuration = System.currentTimeMillis() - eventStartTime;
 			String durationAsString = DurationFormatUtils.formatDuration(eventExecDuration, "s.S");
 			float formattedDurationAsLong = Float.parseFloat(durationAsString);
 			String formattedDurationAsString = String.format("%.1f", formattedDurationAsLong);
 			eventLogger.info(eventPrefix + event + CloudifyConstants.USM_EVENT_EXEC_SUCCESSFULLY 
-					+ ", duration: " + formattedDurationAsString + " seconds");
+					+ ", duration: " + formattedDurationAsString + " seconds"
+					+ EventLogConstants.formatEventFields(createEventFields(event, eventExecDuration)));
 		}
 	}
 
+	// the REST server extracts these fields from the event text, and aggregates them per service.
+	private Map<String, String> createEventFields(final LifecycleEvents event, final long eventExecDuration) {
+		final Map<String, String> fields = new LinkedHashMap<String, String>();
+		fields.put(EventLogConstants.getLifecycleEventKey(), event.toString());
+		fields.put(EventLogConstants.getEventDurationMillisKey(), Long.toString(eventExecDuration));
+		return fields;
+	}
+
 	private void logEventFailure(final LifecycleEvents event, final USMEvent[] listeners, final EventResult er) {
 		if (eventLogger.isLoggable(Level.INFO)) {
 			eventLogger.info(eventPrefix + event + CloudifyConstants.USM_EVENT_EXEC_FAILED + ". Reason: "
@@ -356,62 +385,164 @@ public class USMLifecycleBean implements ClusterInfoAware {
 			logEventStart(
 					event, listeners);
 			long eventStartTime = System.currentTimeMillis();
-			for (final USMEvent listener : listeners) {
-				EventResult er = null;
-				switch (event) {
-				case PRE_SERVICE_START:
-					er = ((PreServiceStartListener) listener).onPreServiceStart();
-					break;
-				case INIT:
-					er = ((InitListener) listener).onInit();
-					break;
-				case PRE_INSTALL:
-					er = ((PreInstallListener) listener).onPreInstall();
-					break;
-				case INSTALL:
-					er = ((InstallListener) listener).onInstall();
-					break;
-				case POST_INSTALL:
-					er = ((PostInstallListener) listener).onPostInstall();
-					break;
-				case PRE_START:
-					er = ((PreStartListener) listener).onPreStart((StartReason) reason);
-					break;
-				case POST_START:
-					er = ((PostStartListener) listener).onPostStart((StartReason) reason);
-					break;
-				case PRE_STOP:
-					er = ((PreStopListener) listener).onPreStop((StopReason) reason);
-					break;
-				case STOP:
-					er = ((StopListener) listener).onStop((StopReason) reason);
-					break;
-				case POST_STOP:
-					er = ((PostStopListener) listener).onPostStop((StopReason) reason);
-					break;
-				case SHUTDOWN:
-					er = ((ShutdownListener) listener).onShutdown();
-					break;
-				case PRE_SERVICE_STOP:
-					er = ((PreServiceStopListener) listener).onPreServiceStop();
-					break;
-
-				default:
-					break;
+			for (final List<USMEvent> step : groupListeners(listeners)) {
+				if (step.size() == 1) {
+					final long listenerStartTime = System.currentTimeMillis();
+					final EventResult er = executeListener(event, step.get(0), reason);
+					logListenerDuration(event, step.get(0), listenerStartTime);
+					checkEventResult(event, listeners, er);
+				} else {
+					executeListenersConcurrently(event, listeners, step, reason);
 				}
+			}
+			final long eventExecDuration = System.currentTimeMillis() - eventStartTime;
+			this.lifecycleTimings.record(event.toString(), eventExecDuration);
+			logEventSuccess(
+					event, listeners, eventExecDuration);
+		}
+	}
 
-				if (er == null) {
-					throw new IllegalStateException("An event execution returned a null value!");
-				}
-				if (!er.isSuccess()) {
-					logEventFailure(
-							event, listeners, er);
-					throw new USMException("Failed to execute event: " + event + ". Error was: "
-							+ er.getException());
+	private EventResult executeListener(final LifecycleEvents event, final USMEvent listener, final Object reason) {
+		EventResult er = null;
+		switch (event) {
+		case PRE_SERVICE_START:
+			er = ((PreServiceStartListener) listener).onPreServiceStart();
+			break;
+		case INIT:
+			er = ((InitListener) listener).onInit();
+			break;
+		case PRE_INSTALL:
+			er = ((PreInstallListener) listener).onPreInstall();
+			break;
+		case INSTALL:
+			er = ((InstallListener) listener).onInstall();
+			break;
+		case POST_INSTALL:
+			er = ((PostInstallListener) listener).onPostInstall();
+			break;
+		case PRE_START:
+			er = ((PreStartListener) listener).onPreStart((StartReason) reason);
+			break;
+		case POST_START:
+			er = ((PostStartListener) listener).onPostStart((StartReason) reason);
+			break;
+		case PRE_STOP:
+			er = ((PreStopListener) listener).onPreStop((StopReason) reason);
+			break;
+		case STOP:
+			er = ((StopListener) listener).onStop((StopReason) reason);
+			break;
+		case POST_STOP:
+			er = ((PostStopListener) listener).onPostStop((StopReason) reason);
+			break;
+		case SHUTDOWN:
+			er = ((ShutdownListener) listener).onShutdown();
+			break;
+		case PRE_SERVICE_STOP:
+			er = ((PreServiceStopListener) listener).onPreServiceStop();
+			break;
+
+		default:
+			break;
+		}
+		return er;
+	}
+
+	private void checkEventResult(final LifecycleEvents event, final USMEvent[] listeners, final EventResult er)
+			throws USMException {
+		if (er == null) {
+			throw new IllegalStateException("An event execution returned a null value!");
+		}
+		if (!er.isSuccess()) {
+			logEventFailure(
+					event, listeners, er);
+			throw new USMException("Failed to execute event: " + event + ". Error was: "
+					+ er.getException());
+		}
+	}
+
+	/**********
+	 * Splits the listeners of an event into execution steps. Listeners of plugins in the same order group that are
+	 * next to each other form a single step, and are executed concurrently. Any other listener is a step of its own.
+	 */
+	private List<List<USMEvent>> groupListeners(final USMEvent[] listeners) {
+		final List<List<USMEvent>> steps = new ArrayList<List<USMEvent>>(listeners.length);
+		String previousGroup = null;
+		for (final USMEvent listener : listeners) {
+			final String group = this.configuration == null ? null : this.configuration.getPluginOrderGroup(listener);
+			if (group != null && group.equals(previousGroup)) {
+				steps.get(steps.size() - 1).add(listener);
+			} else {
+				final List<USMEvent> step = new ArrayList<USMEvent>(1);
+				step.add(listener);
+				steps.add(step);
+			}
+			previousGroup = group;
+		}
+		return steps;
+	}
+
+	/**********
+	 * Executes independent listeners concurrently. The first listener to fail fails the event, and the listeners that
+	 * are still running are interrupted.
+	 */
+	private void executeListenersConcurrently(final LifecycleEvents event, final USMEvent[] listeners,
+			final List<USMEvent> step, final Object reason)
+			throws USMException {
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(step.size(), MAX_CONCURRENT_EVENT_LISTENERS),
+				USMUtils.createDaemonThreadFactory("USMEventListener"));
+		final ExecutorCompletionService<EventResult> completionService =
+				new ExecutorCompletionService<EventResult>(executor);
+		final List<Future<EventResult>> futures = new ArrayList<Future<EventResult>>(step.size());
+		try {
+			for (final USMEvent listener : step) {
+				futures.add(completionService.submit(new Callable<EventResult>() {
+
+					@Override
+					public EventResult call() {
+						final long listenerStartTime = System.currentTimeMillis();
+						final EventResult er = executeListener(event, listener, reason);
+						logListenerDuration(event, listener, listenerStartTime);
+						return er;
+					}
+				}));
+			}
+
+			// results are checked in completion order, so a failure is reported as soon as it happens.
+			for (int i = 0; i < step.size(); i++) {
+				final EventResult er;
+				try {
+					er = completionService.take().get();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new USMException("Interrupted while executing event: " + event, e);
+				} catch (final ExecutionException e) {
+					final Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new USMException("Failed to execute event: " + event, cause);
 				}
+				checkEventResult(event, listeners, er);
 			}
-			logEventSuccess(
-					event, listeners, eventStartTime);
+		} finally {
+			for (final Future<EventResult> future : futures) {
+				future.cancel(true);
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	private void logListenerDuration(final LifecycleEvents event, final USMEvent listener, final long startTime) {
+		final long duration = System.currentTimeMillis() - startTime;
+		this.lifecycleTimings.record(event + LISTENER_TIMING_SEPARATOR + listener.getClass().getSimpleName(), duration);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Event " + event + " listener " + listener.getClass().getName() + " completed in "
+					+ duration + " ms");
 		}
 	}
 
@@ -546,10 +677,24 @@ public class USMLifecycleBean implements ClusterInfoAware {
 		this.monitors = monitors;
 	}
 
+	/**********
+	 * Returns the durations of the lifecycle events and event listeners executed by this USM. Listener timings are
+	 * keyed by the event name and the listener class name.
+	 * 
+	 * @return the lifecycle timings.
+	 */
+	public LifecycleTimings getLifecycleTimings() {
+		return lifecycleTimings;
+	}
+
 	public ServiceConfiguration getConfiguration() {
 		return this.configuration;
 	}
 
+	public void setConfiguration(final ServiceConfiguration configuration) {
+		this.configuration = configuration;
+	}
+
 	public ShutdownListener[] getPreUndeployListeners() {
 		return this.shutdownListeners;
 	}
@@ -670,6 +815,10 @@ public class USMLifecycleBean implements ClusterInfoAware {
 	 * Executes all start detection implementations, until all have passed or a timeout is reached. Once a start
 	 * detector passes, it is not executed again.
 	 * 
+	 * In each round, the addresses of all port based detectors are checked together with a single port probe, while
+	 * the other detectors run concurrently. Rounds start at a short interval, which doubles after every round up to
+	 * the service's start detection interval, so a service that starts quickly is detected quickly.
+	 * 
 	 * @param launchedProcess the process launched by the service's 'start' implementation.
 	 * @return true if liveness test passed, false if the timeout is reached without the tests passing.
 	 * @throws USMException if a start detector failed, or if the 'start' process exited with a non-zero exit code.
@@ -685,66 +834,168 @@ public class USMLifecycleBean implements ClusterInfoAware {
 
 		final long startTime = System.currentTimeMillis();
 		final long endTime = startTime + TimeUnit.SECONDS.toMillis(configuration.getService().getLifecycle().getStartDetectionTimeoutSecs());
-		int currentTestIndex = 0;
+		final long maxInterval =
+				Math.max(MIN_START_DETECTION_INTERVAL_MILLIS, TimeUnit.SECONDS.toMillis(configuration.getService()
+						.getLifecycle().getStartDetectionIntervalSecs()));
+		long interval = MIN_START_DETECTION_INTERVAL_MILLIS;
+
+		final List<LivenessDetector> pendingDetectors = new ArrayList<LivenessDetector>(Arrays.asList(this.livenessDetectors));
+		ExecutorService executor = null;
 
 		// indicates if the process launched by START (if it exitst) is still running
 		boolean processIsRunning = (launchedProcess != null);
-		while (System.currentTimeMillis() < endTime && currentTestIndex < this.livenessDetectors.length) {
+		try {
+			while (System.currentTimeMillis() < endTime) {
 
-			// first check if process ended
-			if (processIsRunning) {
-				processIsRunning = checkProcessIsRunning(launchedProcess);
+				// first check if process ended
+				if (processIsRunning) {
+					processIsRunning = checkProcessIsRunning(launchedProcess);
+				}
+
+				if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Executing iteration of liveness detection test");
+					logger.fine("Pending liveness detectors: " + pendingDetectors);
+				}
+				if (executor == null && pendingDetectors.size() > 1) {
+					executor = Executors.newCachedThreadPool(USMUtils.createDaemonThreadFactory("USMStartDetection"));
+				}
+				runLivenessDetectionRound(pendingDetectors, executor, endTime);
+
+				if (pendingDetectors.isEmpty()) {
+					// all tests passed
+					logger.fine("All liveness detectors passed after " + (System.currentTimeMillis() - startTime)
+							+ " ms");
+					return true;
+				}
+
+				try {
+					Thread.sleep(Math.max(0, Math.min(interval, endTime - System.currentTimeMillis())));
+				} catch (final InterruptedException e) {
+					throw new USMException("Interruped while waiting for start detection", e);
+				}
+				interval = Math.min(interval * 2, maxInterval);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
 			}
+		}
+		return false;
 
-			int index = currentTestIndex;
-			if (logger.isLoggable(Level.FINE)) {
-				logger.fine("Executing iteration of liveness detection test");
-				logger.fine("Executing liveness detectors from index: " + index);
-				logger.fine("Liveness detectors: " + Arrays.toString(this.livenessDetectors));
-				logger.fine("detectors length: " + this.livenessDetectors.length);
+	}
+
+	/********
+	 * Runs one round of the pending liveness detectors, and removes the detectors that passed from the list.
+	 */
+	private void runLivenessDetectionRound(final List<LivenessDetector> pendingDetectors,
+			final ExecutorService executor, final long endTime)
+			throws USMException, TimeoutException {
+
+		final List<PortBasedLivenessDetector> portDetectors = new ArrayList<PortBasedLivenessDetector>();
+		final List<LivenessDetector> otherDetectors = new ArrayList<LivenessDetector>();
+		for (final LivenessDetector detector : pendingDetectors) {
+			if (detector instanceof PortBasedLivenessDetector) {
+				portDetectors.add((PortBasedLivenessDetector) detector);
+			} else {
+				otherDetectors.add(detector);
 			}
-			while (index < this.livenessDetectors.length) {
-				logger.fine("getting detector at index: " + index);
-				final LivenessDetector detector = this.livenessDetectors[index];
+		}
 
-				boolean testResult = false;
-				try {
-					testResult = detector.isProcessAlive();
-					logger.fine("Detection Test results are: " + testResult);
-				} catch (final USMException e) {
-					// may indicate that the underlying process has terminated
-					if (e.getCause() instanceof InterruptedException) {
-						// ignore
-						logger.info("A start detector failed due to an InterruptedException");
-					} else {
-						throw e;
+		// start the other detectors first, so they run while the ports are probed.
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(otherDetectors.size());
+		if (otherDetectors.size() > 1 || (otherDetectors.size() == 1 && !portDetectors.isEmpty())) {
+			for (final LivenessDetector detector : otherDetectors) {
+				futures.add(executor.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call()
+							throws Exception {
+						return detector.isProcessAlive();
 					}
-				}
+				}));
+			}
+		}
 
-				if (testResult) {
-					// this liveness detector has succeeded.
-					++index;
-				} else {
-					break;
+		if (!portDetectors.isEmpty()) {
+			final Set<InetSocketAddress> addresses = new LinkedHashSet<InetSocketAddress>();
+			for (final PortBasedLivenessDetector detector : portDetectors) {
+				addresses.addAll(detector.getLivenessAddresses());
+			}
+			Set<InetSocketAddress> openAddresses;
+			try {
+				openAddresses = PortProbe.findOpenAddresses(addresses,
+						Math.max(0, Math.min(PORT_PROBE_TIMEOUT_MILLIS, endTime - System.currentTimeMillis())));
+			} catch (final IOException e) {
+				throw new USMException("Failed to check liveness ports " + addresses + ": " + e.getMessage(), e);
+			}
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Open liveness ports: " + openAddresses + " out of: " + addresses);
+			}
+			for (final PortBasedLivenessDetector detector : portDetectors) {
+				if (openAddresses.containsAll(detector.getLivenessAddresses())) {
+					pendingDetectors.remove(detector);
 				}
-
 			}
+		}
 
-			if (index == this.livenessDetectors.length) {
-				// all tests passed
-				return true;
-			} else {
-				currentTestIndex = index;
+		if (futures.isEmpty()) {
+			if (otherDetectors.size() == 1 && isLivenessDetectorPassed(otherDetectors.get(0))) {
+				pendingDetectors.remove(otherDetectors.get(0));
 			}
+			return;
+		}
 
+		for (int i = 0; i < futures.size(); i++) {
+			final Future<Boolean> future = futures.get(i);
+			boolean testResult = false;
 			try {
-				Thread.sleep(TimeUnit.SECONDS.toMillis(configuration.getService().getLifecycle().getStartDetectionIntervalSecs()));
+				testResult = future.get(Math.max(0, endTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
 			} catch (final InterruptedException e) {
 				throw new USMException("Interruped while waiting for start detection", e);
+			} catch (final TimeoutException e) {
+				// start detection timed out - the caller will return
+				future.cancel(true);
+				continue;
+			} catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof TimeoutException) {
+					throw (TimeoutException) cause;
+				} else if (cause instanceof USMException) {
+					handleLivenessDetectorException((USMException) cause);
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else {
+					throw new USMException("Start detector failed: " + cause.getMessage(), cause);
+				}
+			}
+			logger.fine("Detection Test results are: " + testResult);
+			if (testResult) {
+				pendingDetectors.remove(otherDetectors.get(i));
 			}
 		}
-		return false;
+	}
+
+	private boolean isLivenessDetectorPassed(final LivenessDetector detector)
+			throws USMException, TimeoutException {
+		try {
+			final boolean testResult = detector.isProcessAlive();
+			logger.fine("Detection Test results are: " + testResult);
+			return testResult;
+		} catch (final USMException e) {
+			handleLivenessDetectorException(e);
+			return false;
+		}
+	}
 
+	private void handleLivenessDetectorException(final USMException e)
+			throws USMException {
+		// may indicate that the underlying process has terminated
+		if (e.getCause() instanceof InterruptedException) {
+			// ignore
+			logger.info("A start detector failed due to an InterruptedException");
+		} else {
+			throw e;
+		}
 	}
 
 	private boolean checkProcessIsRunning(final Process launchedProcess)
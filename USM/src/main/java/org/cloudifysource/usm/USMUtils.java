@@ -28,6 +28,8 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.math.NumberUtils;
 import org.cloudifysource.dsl.utils.ServiceUtils;
@@ -388,6 +390,25 @@ public final class USMUtils {
 
 	}
 
+	/*********
+	 * Creates a thread factory for daemon threads, named with the given prefix and a running number.
+	 * 
+	 * @param namePrefix the thread name prefix.
+	 * @return the thread factory.
+	 */
+	public static ThreadFactory createDaemonThreadFactory(final String namePrefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, namePrefix + "-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
 	/*********
 	 * Returns the exit code of the given process handle, or null if the process has not terminated.
 	 * 
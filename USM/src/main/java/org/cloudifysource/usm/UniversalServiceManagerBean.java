@@ -28,13 +28,19 @@ import org.cloudifysource.dsl.context.kvstorage.AttributesFacadeImpl;
 import org.cloudifysource.dsl.entry.ExecutableDSLEntry;
 import org.cloudifysource.dsl.internal.CloudifyConstants;
 import org.cloudifysource.dsl.internal.CloudifyConstants.USMState;
+import org.cloudifysource.dsl.internal.context.ServiceContextImpl;
 import org.cloudifysource.dsl.utils.ServiceUtils;
 import org.cloudifysource.usm.dsl.DSLEntryExecutor;
 import org.cloudifysource.usm.events.EventResult;
 import org.cloudifysource.usm.events.StartReason;
 import org.cloudifysource.usm.events.StopReason;
+import org.cloudifysource.usm.jmx.JmxConnectionPool;
+import org.cloudifysource.usm.stopDetection.ProcessExitWatcher;
+import org.cloudifysource.usm.tail.OutputShipper;
 import org.cloudifysource.usm.tail.RollingFileAppenderTailer;
 import org.cloudifysource.usm.tail.RollingFileAppenderTailer.LineHandler;
+import org.cloudifysource.usm.tail.ServiceOutputLog;
+import org.cloudifysource.usm.tail.SharedFileTailer;
 import org.hyperic.sigar.Sigar;
 import org.hyperic.sigar.SigarException;
 import org.jini.rio.boot.ServiceClassLoader;
@@ -65,10 +71,13 @@ import java.lang.reflect.Field;
 
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -87,8 +96,14 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 		InvocableService, MemberAliveIndicator, BeanLevelPropertiesAware {
 
 	private static final int DEFAULT_MONITORS_CACHE_EXPIRATION_TIMEOUT = 5000;
+	// one hour of history with the default monitors cache expiration
+	private static final int DEFAULT_MONITORS_HISTORY_SIZE = 720;
+	private static final int DEFAULT_OUTPUT_LOG_SIZE = 1000;
+	private static final int DEFAULT_OUTPUT_LOG_RATE_LIMIT = 1000;
 	private static final int THREAD_POOL_SIZE = 5;
 	private static final int STOP_DETECTION_INTERVAL_SECS = 5;
+	// stop detection interval when process exits are detected by the process exit watcher
+	private static final int STOP_DETECTION_SAFETY_NET_INTERVAL_SECS = 30;
 	private static final int STOP_DETECTION_INITIAL_INTERVAL_SECS = 2;
 	private static final int INTEGREATED_PU_INIT_TIMEOUT_SECS = 5;
 	private static final int PRE_SHUTDOWN_TIMEOUT_MILLIS = 10000;
@@ -100,6 +115,13 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 	private static final int FILE_TAILER_INTERVAL_SECS_DEFAULT = 5;
 	private static final int DEFAULT_POST_LAUNCH_WAIT_PERIOD_MILLIS = 2000;
 	private static final int DEFAULT_POST_DEATH_WAIT_PERIOD_MILLIS = 2000;
+	private static final String STARTUP_PHASE_SERVICE_NAME = "Service Name";
+	private static final String STARTUP_PHASE_MONITORS_CACHE = "Monitors Cache";
+	private static final String STARTUP_PHASE_PID_FILE = "PID File";
+	private static final String STARTUP_PHASE_MANAGEMENT_SPACE = "Management Space";
+	private static final String STARTUP_PHASE_EVENTS = "Events";
+	private static final String STARTUP_PHASE_MONITORS_PUBLISHER = "Monitors Publisher";
+	private static final String STARTUP_PHASE_STORAGE = "Storage";
 
 	private static final java.util.logging.Logger logger = java.util.logging.Logger
 			.getLogger(UniversalServiceManagerBean.class.getName());
@@ -119,6 +141,7 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 	private USMLifecycleBean usmLifecycleBean;
 
 	private Process process;
+	private volatile ProcessExitWatcher.Watch processExitWatch;
 
 	private String streamLoggerLevel = Level.INFO.getName();
 
@@ -142,6 +165,7 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 	private String uniqueFileNamePrefix;
 	private ProcessDeathNotifier processDeathNotifier;
 	private RollingFileAppenderTailer tailer;
+	private volatile ServiceOutputLog outputLog;
 
 	private int fileTailerIntervalSecs = FILE_TAILER_INTERVAL_SECS_DEFAULT;
 
@@ -151,9 +175,18 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 
 	// monitors accessor and thread-safe cache.
 	private MonitorsCache monitorsCache;
+	// publishes the monitors to the management space, if enabled.
+	private MonitorsPublisher monitorsPublisher;
+
+	// created on the first invocation of a custom command
+	private CustomCommandExecutor customCommandExecutor;
+	private final Object customCommandExecutorMutex = new Object();
 
 	private GigaSpace managementSpace;
 
+	// runs the independent start-up phases concurrently, and records their durations.
+	private final StartupOrchestrator startupOrchestrator = new StartupOrchestrator();
+
 	/********
 	 * The USM Bean entry point. This is where processing of a service instance starts.
 	 *
@@ -164,21 +197,70 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 	@PostConstruct
 	public void init() throws USMException, TimeoutException {
 
-		initServiceName();
-		initMonitorsCache();
+		final AtomicBoolean existingProcessFound = new AtomicBoolean();
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_SERVICE_NAME, new StartupOrchestrator.Phase() {
+
+			@Override
+			public void execute() {
+				initServiceName();
+			}
+		});
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_MONITORS_CACHE, new StartupOrchestrator.Phase() {
+
+			@Override
+			public void execute() {
+				initMonitorsCache();
+			}
+		}, STARTUP_PHASE_SERVICE_NAME);
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_PID_FILE, new StartupOrchestrator.Phase() {
+
+			@Override
+			public void execute()
+					throws USMException {
+				initUniqueFileName();
+				initCustomProperties();
+				myPid = sigar.getPid();
+
+				existingProcessFound.set(checkForPIDFile());
+			}
+		});
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_MANAGEMENT_SPACE, new StartupOrchestrator.Phase() {
+
+			@Override
+			public void execute() {
+				initManagementSpace();
+			}
+		});
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_EVENTS, new StartupOrchestrator.Phase() {
 
-		initUniqueFileName();
-		initCustomProperties();
-		this.myPid = this.sigar.getPid();
+			@Override
+			public void execute() {
+				// Initialize and sort events
+				initEvents();
+			}
+		}, STARTUP_PHASE_SERVICE_NAME);
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_MONITORS_PUBLISHER, new StartupOrchestrator.Phase() {
 
-		final boolean existingProcessFound = checkForPIDFile();
+			@Override
+			public void execute() {
+				initMonitorsPublisher();
+			}
+		}, STARTUP_PHASE_MONITORS_CACHE, STARTUP_PHASE_MANAGEMENT_SPACE);
 
-		initManagementSpace();
+		this.startupOrchestrator.start();
+		this.startupOrchestrator.await();
+		logger.info("USM startup phases completed, durations in millis: " + this.startupOrchestrator.getTimings());
 
-		// Initialize and sort events
-		initEvents();
+		reset(existingProcessFound.get());
+	}
 
-		reset(existingProcessFound);
+	/**********
+	 * Returns the durations of the completed start-up phases of this USM.
+	 *
+	 * @return the phase durations in milliseconds, by phase name.
+	 */
+	public Map<String, Long> getStartupPhaseTimings() {
+		return this.startupOrchestrator.getTimings();
 	}
 
 	/**********
@@ -204,6 +286,30 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 				executors.shutdown();
 			}
 
+			if (this.tailer != null) {
+				SharedFileTailer.getInstance().unregister(this.tailer);
+			}
+			if (this.outputLog != null) {
+				OutputShipper.getInstance().unregister(this.outputLog);
+			}
+
+			cancelProcessExitWatch();
+
+			if (this.monitorsPublisher != null) {
+				this.monitorsPublisher.shutdown();
+			}
+
+			if (this.monitorsCache != null) {
+				this.monitorsCache.shutdown();
+			}
+			JmxConnectionPool.getInstance().closeAll();
+
+			synchronized (this.customCommandExecutorMutex) {
+				if (this.customCommandExecutor != null) {
+					this.customCommandExecutor.shutdown();
+				}
+			}
+
 			try {
 				getUsmLifecycleBean().fireShutdown();
 			} catch (final USMException e) {
@@ -223,6 +329,16 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 				// Integrated PU
 			}
 
+			try {
+				// a storage allocation that is still running must complete before the storage can be de-allocated.
+				if (this.startupOrchestrator.hasPhase(STARTUP_PHASE_STORAGE)) {
+					this.startupOrchestrator.await(STARTUP_PHASE_STORAGE);
+				}
+			} catch (final Exception e) {
+				logger.log(Level.FINE, "Storage allocation failed: " + e.getMessage(), e);
+			}
+			this.startupOrchestrator.shutdown();
+
 			try {
 				deAllocateStorageSync();
 			} catch (final Exception e) {
@@ -510,8 +626,66 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 		if (tmp != null) {
 			cacheExpirationTimeout = Long.parseLong(tmp);
 		}
+		final String monitorTimeoutProperty = this.usmLifecycleBean
+				.getConfiguration()
+				.getService()
+				.getCustomProperties()
+				.get(CloudifyConstants.CUSTOM_PROPERTY_MONITOR_TIMEOUT);
+		long monitorTimeout = MonitorsCache.DEFAULT_MONITOR_TIMEOUT_MILLIS;
+		if (monitorTimeoutProperty != null) {
+			monitorTimeout = Long.parseLong(monitorTimeoutProperty);
+		}
+		final String historySizeProperty = this.usmLifecycleBean
+				.getConfiguration()
+				.getService()
+				.getCustomProperties()
+				.get(CloudifyConstants.CUSTOM_PROPERTY_MONITORS_HISTORY_SIZE);
+		int historySize = DEFAULT_MONITORS_HISTORY_SIZE;
+		if (historySizeProperty != null) {
+			historySize = Integer.parseInt(historySizeProperty);
+		}
+		final String detailsTimeToLiveProperty = this.usmLifecycleBean
+				.getConfiguration()
+				.getService()
+				.getCustomProperties()
+				.get(CloudifyConstants.CUSTOM_PROPERTY_DETAILS_CACHE_TTL);
 		this.monitorsCache = new MonitorsCache(this, this.usmLifecycleBean,
-				cacheExpirationTimeout);
+				cacheExpirationTimeout, monitorTimeout, historySize);
+		if (detailsTimeToLiveProperty != null) {
+			this.monitorsCache.setDetailsTimeToLiveMillis(Long.parseLong(detailsTimeToLiveProperty));
+		}
+		this.monitorsCache.start();
+
+		// context.invalidateDetails() in the recipe closures reaches the cache directly.
+		final ServiceContextImpl serviceContext = this.usmLifecycleBean.getConfiguration().getServiceContext();
+		if (serviceContext != null) {
+			serviceContext.setDetailsInvalidationHandler(new Runnable() {
+
+				@Override
+				public void run() {
+					monitorsCache.invalidateDetails();
+				}
+			});
+		}
+	}
+
+	private void initMonitorsPublisher() {
+		final String publishIntervalProperty = this.usmLifecycleBean
+				.getConfiguration()
+				.getService()
+				.getCustomProperties()
+				.get(CloudifyConstants.CUSTOM_PROPERTY_MONITORS_PUBLISH_INTERVAL);
+		if (publishIntervalProperty == null || this.managementSpace == null) {
+			return;
+		}
+		final long publishInterval = Long.parseLong(publishIntervalProperty);
+		if (publishInterval <= 0) {
+			return;
+		}
+		logger.info("Publishing monitors to the management space every " + publishInterval + " milliseconds");
+		this.monitorsPublisher = new MonitorsPublisher(this.managementSpace, this.monitorsCache,
+				this.clusterName, this.instanceId, publishInterval);
+		this.monitorsPublisher.start();
 	}
 
 	private void initCustomProperties() {
@@ -622,6 +796,18 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 
 		getUsmLifecycleBean().fireInit();
 
+		// init listeners may prepare the storage, so it is allocated only after they complete.
+		// It is waited for before install.
+		this.startupOrchestrator.addPhase(STARTUP_PHASE_STORAGE, new StartupOrchestrator.Phase() {
+
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				allocateStorage();
+			}
+		}, STARTUP_PHASE_MANAGEMENT_SPACE);
+		this.startupOrchestrator.start();
+
 		logger.info("start lifecycle. async = " + this.asyncInstall);
 		if (this.asyncInstall) {
 
@@ -719,7 +905,7 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 
 	private void installAndRun() throws USMException, TimeoutException {
 		try {
-			allocateStorage();
+			this.startupOrchestrator.await(STARTUP_PHASE_STORAGE);
 			getUsmLifecycleBean().install();
 			if (this.asyncInstall) {
 				waitForDependencies();
@@ -743,105 +929,19 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 	}
 
 	private void waitForDependencies() {
-		logger.info("Waiting for dependencies");
-		final long startTime = System.currentTimeMillis();
-		final long endTime = startTime + WAIT_FOR_DEPENDENCIES_TIMEOUT_MILLIS;
-		final Admin admin = USMUtils.getAdmin();
-		for (final String dependantService : this.dependencies) {
-
-			logger.info("Waiting for dependency: " + dependantService);
-			final ProcessingUnit pu = waitForPU(endTime, admin,
-					dependantService);
-
-			waitForPUI(endTime, dependantService, pu);
-			logger.info("Dependency " + dependantService + " is available");
-
+		logger.info("Waiting for dependencies: " + Arrays.toString(this.dependencies));
+		final DependencyWaiter waiter = new DependencyWaiter(USMUtils.getAdmin(), this.dependencies,
+				WAIT_FOR_DEPENDENCIES_INTERVAL_MILLIS);
+		try {
+			waiter.waitForAll(WAIT_FOR_DEPENDENCIES_TIMEOUT_MILLIS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for dependencies", e);
 		}
 
 		logger.info("All dependencies are available");
 	}
 
-	private void waitForPUI(final long endTime, final String dependantService,
-			final ProcessingUnit pu) {
-		while (true) {
-			final long waitForPUIPeriod = endTime - System.currentTimeMillis();
-			if (waitForPUIPeriod <= 0) {
-				throw new IllegalStateException("Could not find dependency "
-						+ dependantService + " required for this service");
-			}
-
-			logger.info("Waiting for PUI of service: " + dependantService
-					+ " for " + waitForPUIPeriod + " Milliseconds");
-			// TODO: Switch to waitFor using waitForPUPeriod. this admin
-			// sampling routine is a workaround for a
-			// possible bug in the admin api where the admin does not recognize
-			// the PUI.
-			final boolean found = pu.waitFor(1, 2, TimeUnit.MILLISECONDS);
-
-			logger.info("Timeout ended. processing unit " + dependantService
-					+ " found result is " + found);
-			if (found) {
-				final ProcessingUnitInstance[] puis = pu.getInstances();
-				logger.info("Found " + puis.length + " instances");
-				for (final ProcessingUnitInstance pui : puis) {
-					final ServiceMonitors sm = pui.getStatistics()
-							.getMonitors()
-							.get(CloudifyConstants.USM_MONITORS_SERVICE_ID);
-					if (sm != null) {
-						final Object stateObject = sm.getMonitors().get(
-								CloudifyConstants.USM_MONITORS_STATE_ID);
-						logger.info("USM state is: " + stateObject);
-						if (stateObject == null) {
-							logger.warning("Could not find the instance state in the PUI monitors");
-						} else {
-							final int stateIndex = (Integer) stateObject;
-							final USMState usmState = USMState.values()[stateIndex];
-							logger.info("PUI is in state: " + usmState);
-							if (usmState == USMState.RUNNING) {
-								logger.info("Found a running instance of dependant service: "
-										+ dependantService);
-								return;
-							}
-						}
-
-					}
-				}
-			} else {
-				logger.info("Could not find a running instance of service: "
-						+ dependantService + ". Sleeping before trying again");
-			}
-			try {
-				Thread.sleep(WAIT_FOR_DEPENDENCIES_INTERVAL_MILLIS);
-			} catch (final InterruptedException e) {
-				// ignore.
-			}
-
-		}
-	}
-
-	private ProcessingUnit waitForPU(final long endTime, final Admin admin,
-			final String dependantService) {
-		ProcessingUnit pu = null;
-		while (true) {
-			final long waitForPUPeriod = endTime - System.currentTimeMillis();
-			if (waitForPUPeriod <= 0) {
-				throw new IllegalStateException("Could not find dependency "
-						+ dependantService + " required for this service");
-			}
-
-			logger.info("Waiting for PU: " + dependantService);
-			// TODO: Switch to waitFor using waitForPUPeriod. this admin
-			// sampling routine is a workaround for a
-			// possible bug in the admin api where the admin does not recognize
-			// the PU.
-			pu = admin.getProcessingUnits().waitFor(dependantService, 2,
-					TimeUnit.MILLISECONDS);
-			if (pu != null) {
-				return pu;
-			}
-		}
-	}
-
 	/**********
 	 * Checks if a PID file exists from a previous execution of this service and instance on this host.
 	 *
@@ -1134,6 +1234,7 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 		this.processDeathNotifier = new ProcessDeathNotifier(this);
 		// make sure all death notifications are applied to the current process
 		final ProcessDeathNotifier notifier = this.processDeathNotifier;
+		final ScheduledExecutorService executor = this.executors;
 
 		// Schedule Stop Detector task
 		final Runnable task = new Runnable() {
@@ -1148,32 +1249,74 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 
 			}
 		};
-		executors.scheduleWithFixedDelay(task,
+
+		// run the stop detectors as soon as a monitored process exits. Scheduled stop detection is kept as a safety
+		// net, and for stop detectors that do not depend on the monitored processes.
+		cancelProcessExitWatch();
+		final Process spawnedProcess =
+				this.process != null && USMUtils.getProcessExitCode(this.process) == null ? this.process : null;
+		final ProcessExitWatcher watcher = ProcessExitWatcher.getInstance();
+		this.processExitWatch = watcher.watch(this.serviceProcessPIDs, spawnedProcess,
+				new ProcessExitWatcher.Listener() {
+
+					@Override
+					public void processExited() {
+						try {
+							executor.execute(task);
+						} catch (final RejectedExecutionException e) {
+							// USM is shutting down or restarting
+						}
+					}
+				});
+
+		final int stopDetectionInterval =
+				watcher.isSupported() ? STOP_DETECTION_SAFETY_NET_INTERVAL_SECS : STOP_DETECTION_INTERVAL_SECS;
+		executor.scheduleWithFixedDelay(task,
 				STOP_DETECTION_INITIAL_INTERVAL_SECS,
-				STOP_DETECTION_INTERVAL_SECS, TimeUnit.SECONDS);
+				stopDetectionInterval, TimeUnit.SECONDS);
+
+	}
 
+	private void cancelProcessExitWatch() {
+		final ProcessExitWatcher.Watch watch = this.processExitWatch;
+		if (watch != null) {
+			watch.cancel();
+			this.processExitWatch = null;
+		}
 	}
 
 	private void startFileMonitoringTask() {
-		// We should switch this to the file system notifier when Java 7 comes
-		// out
-		// Schedule task for reading output and error files.
+		// Read output and error files. All USMs in this JVM share the same tailer thread.
 		if (this.tailer == null) {
-			this.tailer = createFileTailerTask();
+			this.outputLog = createOutputLog();
+			this.tailer = createFileTailerTask(this.outputLog);
 		}
+		OutputShipper.getInstance().register(this.outputLog);
 		logger.info("Launching tailer task");
-		executors.scheduleWithFixedDelay(tailer, 1, fileTailerIntervalSecs,
-				TimeUnit.SECONDS);
+		SharedFileTailer.getInstance().register(tailer, TimeUnit.SECONDS.toMillis(fileTailerIntervalSecs));
 	}
 
-	private RollingFileAppenderTailer createFileTailerTask() {
-		final String filePattern = createUniqueFileName() + "("
-				+ OUTPUT_FILE_NAME_SUFFIX + "|" + ERROR_FILE_NAME_SUFFFIX + ")";
+	private ServiceOutputLog createOutputLog() {
+		final Map<String, String> props = getUsmLifecycleBean().getConfiguration().getService().getCustomProperties();
+		int size = DEFAULT_OUTPUT_LOG_SIZE;
+		if (props.containsKey(CloudifyConstants.CUSTOM_PROPERTY_OUTPUT_LOG_SIZE)) {
+			size = Integer.parseInt(props.get(CloudifyConstants.CUSTOM_PROPERTY_OUTPUT_LOG_SIZE));
+		}
+		int rateLimit = DEFAULT_OUTPUT_LOG_RATE_LIMIT;
+		if (props.containsKey(CloudifyConstants.CUSTOM_PROPERTY_OUTPUT_LOG_RATE_LIMIT)) {
+			rateLimit = Integer.parseInt(props.get(CloudifyConstants.CUSTOM_PROPERTY_OUTPUT_LOG_RATE_LIMIT));
+		}
 
 		final Logger outputLogger = Logger.getLogger(getUsmLifecycleBean()
 				.getOutputReaderLoggerName());
 		final Logger errorLogger = Logger.getLogger(getUsmLifecycleBean()
 				.getErrorReaderLoggerName());
+		return new ServiceOutputLog(size, outputLogger, errorLogger, rateLimit);
+	}
+
+	private RollingFileAppenderTailer createFileTailerTask(final ServiceOutputLog serviceOutputLog) {
+		final String filePattern = createUniqueFileName() + "("
+				+ OUTPUT_FILE_NAME_SUFFIX + "|" + ERROR_FILE_NAME_SUFFFIX + ")";
 
 		logger.info("Creating tailer for dir: " + getLogsDir()
 				+ ", with regex: " + filePattern);
@@ -1183,13 +1326,8 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 					@Override
 					public void handleLine(final String fileName,
 							final String line) {
-						//
-						if (fileName.endsWith(".out")) {
-							outputLogger.info(line);
-						} else {
-							errorLogger.info(line);
-						}
-
+						// lines are logged asynchronously by the output shipper
+						serviceOutputLog.append(line, !fileName.endsWith(".out"));
 					}
 				});
 		return tailer;
@@ -1311,11 +1449,15 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 			}
 
 			// kill all current tasks, and create new thread pool for tasks
+			cancelProcessExitWatch();
 			this.executors.shutdownNow();
 
 			this.state = USMState.LAUNCHING;
 			this.executors = Executors.newScheduledThreadPool(THREAD_POOL_SIZE);
 
+			// the details of the new process are computed once it is running
+			this.monitorsCache.invalidateDetails();
+
 			// Restart USM
 			new Thread(new Runnable() {
 
@@ -1419,11 +1561,99 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 		final String commandName = (String) namedArgs
 				.get(CloudifyConstants.INVOCATION_PARAMETER_COMMAND_NAME);
 
-		invokeCustomCommand(commandName, namedArgs, result);
+		if (CloudifyConstants.INVOCATION_COMMAND_MONITORS_HISTORY.equals(commandName)) {
+			invokeMonitorsHistory(namedArgs, result);
+		} else if (CloudifyConstants.INVOCATION_COMMAND_LOG_TAIL.equals(commandName)) {
+			invokeLogTail(namedArgs, result);
+		} else if (CloudifyConstants.INVOCATION_COMMAND_INVALIDATE_DETAILS.equals(commandName)) {
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_COMMAND_NAME,
+					CloudifyConstants.INVOCATION_COMMAND_INVALIDATE_DETAILS);
+			this.monitorsCache.invalidateDetails();
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, true);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_RESULT, null);
+		} else {
+			invokeCustomCommand(commandName, namedArgs, result);
+		}
 		return result;
 
 	}
 
+	/************
+	 * Returns the monitors history of this instance. Optional parameters are, in order: the length of the time window
+	 * in milliseconds, ending now (defaults to the whole history), the downsampling step in milliseconds (defaults to
+	 * no downsampling) and a comma separated list of monitor names (defaults to all monitors).
+	 */
+	private void invokeMonitorsHistory(final Map<String, Object> namedArgs, final Map<String, Object> result) {
+		result.put(CloudifyConstants.INVOCATION_RESPONSE_COMMAND_NAME,
+				CloudifyConstants.INVOCATION_COMMAND_MONITORS_HISTORY);
+
+		final MonitorsHistory history = this.monitorsCache == null ? null : this.monitorsCache.getHistory();
+		if (history == null) {
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, false);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_EXCEPTION, "Monitors history is not enabled");
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_RESULT, "Monitors history is not enabled");
+			return;
+		}
+
+		try {
+			final String windowParam = (String) namedArgs.get(CloudifyConstants.INVOCATION_PARAMETERS_KEY + 0);
+			final String stepParam = (String) namedArgs.get(CloudifyConstants.INVOCATION_PARAMETERS_KEY + 1);
+			final String monitorsParam = (String) namedArgs.get(CloudifyConstants.INVOCATION_PARAMETERS_KEY + 2);
+
+			final long now = System.currentTimeMillis();
+			final long from = windowParam == null ? 0 : now - Long.parseLong(windowParam.trim());
+			final long step = stepParam == null ? 0 : Long.parseLong(stepParam.trim());
+			List<String> monitorNames = null;
+			if (monitorsParam != null && monitorsParam.trim().length() > 0) {
+				monitorNames = new ArrayList<String>();
+				for (final String name : monitorsParam.split(",")) {
+					monitorNames.add(name.trim());
+				}
+			}
+
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, true);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_RESULT, history.query(from, now, step, monitorNames));
+		} catch (final NumberFormatException e) {
+			logger.warning("Invalid parameters for monitors history invocation: " + e.getMessage());
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, false);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_EXCEPTION, e);
+		}
+	}
+
+	/************
+	 * Returns the last lines of the service output and error streams, from memory, and whether any of them were not
+	 * written to the container log. The optional parameter is the number of lines (defaults to all lines in memory).
+	 */
+	private void invokeLogTail(final Map<String, Object> namedArgs, final Map<String, Object> result) {
+		result.put(CloudifyConstants.INVOCATION_RESPONSE_COMMAND_NAME,
+				CloudifyConstants.INVOCATION_COMMAND_LOG_TAIL);
+
+		final ServiceOutputLog log = this.outputLog;
+		if (log == null) {
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, false);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_EXCEPTION, "Service output is not available");
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_RESULT, "Service output is not available");
+			return;
+		}
+
+		try {
+			final String numLinesParam = (String) namedArgs.get(CloudifyConstants.INVOCATION_PARAMETERS_KEY + 0);
+			final int numLines = numLinesParam == null ? Integer.MAX_VALUE : Integer.parseInt(numLinesParam.trim());
+			final ServiceOutputLog.Tail tail = log.getTail(numLines);
+			final StringBuilder sb = new StringBuilder();
+			for (final String line : tail.getLines()) {
+				sb.append(line).append(System.getProperty("line.separator"));
+			}
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, true);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_RESULT, sb.toString());
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_UNLOGGED_LINES, tail.hasUnloggedLines());
+		} catch (final NumberFormatException e) {
+			logger.warning("Invalid parameters for log tail invocation: " + e.getMessage());
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS, false);
+			result.put(CloudifyConstants.INVOCATION_RESPONSE_EXCEPTION, e);
+		}
+	}
+
 	private void invokeCustomCommand(final String commandName,
 			final Map<String, Object> namedArgs,
 			final Map<String, Object> result) {
@@ -1464,9 +1694,17 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 				logger.fine("Executing custom command: " + commandName
 						+ ". Custom command is: " + customCommand);
 			}
-			final EventResult executionResult = new DSLEntryExecutor(
+			final DSLEntryExecutor entryExecutor = new DSLEntryExecutor(
 					customCommand, this.getUsmLifecycleBean().getLauncher(),
-					this.getPuExtDir(), namedArgs, LifecycleEvents.CUSTOM_COMMAND).run();
+					this.getPuExtDir(), namedArgs, LifecycleEvents.CUSTOM_COMMAND);
+			final EventResult executionResult = getCustomCommandExecutor().execute(commandName, namedArgs,
+					new Callable<EventResult>() {
+
+						@Override
+						public EventResult call() {
+							return entryExecutor.run();
+						}
+					});
 
 			result.put(CloudifyConstants.INVOCATION_RESPONSE_STATUS,
 					executionResult.isSuccess());
@@ -1484,6 +1722,16 @@ public class UniversalServiceManagerBean implements ApplicationContextAware,
 		}
 	}
 
+	private CustomCommandExecutor getCustomCommandExecutor() {
+		synchronized (this.customCommandExecutorMutex) {
+			if (this.customCommandExecutor == null) {
+				this.customCommandExecutor = new CustomCommandExecutor(getUsmLifecycleBean().getConfiguration()
+						.getService().getCustomCommandsExecution(), getUsmLifecycleBean().getLauncher());
+			}
+			return this.customCommandExecutor;
+		}
+	}
+
 	private Exception shutdownUSMException;
 	private String[] dependencies;
 
@@ -209,16 +209,20 @@ public class DSLBeanConfiguration implements ApplicationContextAware {
 					// ignore - this is the expected result
 				}
 
-				// Add the bean definition to the application context
-				((DefaultListableBeanFactory) this.context.getBeanFactory()).registerBeanDefinition(pluginClass
-						.getSimpleName(), BeanDefinitionBuilder.rootBeanDefinition(pluginClass.getName())
-						.getBeanDefinition());
+				// Add the bean definition to the application context, under the plugin name, so a plugin class
+				// that is configured more than once has an instance for each configuration.
+				((DefaultListableBeanFactory) this.context.getBeanFactory()).registerBeanDefinition(name,
+						BeanDefinitionBuilder.rootBeanDefinition(pluginClass.getName()).getBeanDefinition());
 
 				// Initialize the bean
-				final Object pluginObject = this.context.getBeanFactory().getBean(pluginClass);
+				final Object pluginObject = this.context.getBeanFactory().getBean(name);
 				final Plugin component = (Plugin) pluginObject;
 				component.setServiceContext(this.serviceContext);
 				component.setConfig(descriptor.getConfig());
+				final String orderGroup = descriptor.getOrderGroup();
+				if (orderGroup != null && orderGroup.trim().length() > 0) {
+					this.configuration.setPluginOrderGroup(pluginObject, orderGroup);
+				}
 
 			}
 
@@ -16,6 +16,9 @@
 package org.cloudifysource.usm.dsl;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.cloudifysource.dsl.Service;
 import org.cloudifysource.dsl.internal.context.ServiceContextImpl;
@@ -35,6 +38,9 @@ public class ServiceConfiguration {
 	private final ServiceContextImpl serviceContext;
 	private final File serviceFile;
 	private final ClassLoader dslClassLoader;
+	// plugin instance to the order group of its descriptor. The same plugin class may be configured more than once.
+	private final Map<Object, String> pluginOrderGroups =
+			Collections.synchronizedMap(new IdentityHashMap<Object, String>());
 
 	public File getServiceFile() {
 		return serviceFile;
@@ -73,4 +79,24 @@ public class ServiceConfiguration {
 		return dslClassLoader;
 	}
 
+	/************
+	 * Sets the order group of a plugin instance.
+	 *
+	 * @param plugin the plugin.
+	 * @param orderGroup the order group of the plugin.
+	 */
+	public void setPluginOrderGroup(final Object plugin, final String orderGroup) {
+		this.pluginOrderGroups.put(plugin, orderGroup);
+	}
+
+	/************
+	 * Returns the order group of a plugin instance.
+	 *
+	 * @param plugin the plugin.
+	 * @return the order group, or null if the plugin is not in an order group.
+	 */
+	public String getPluginOrderGroup(final Object plugin) {
+		return this.pluginOrderGroups.get(plugin);
+	}
+
 }
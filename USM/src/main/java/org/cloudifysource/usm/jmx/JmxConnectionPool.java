@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.jmx;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.cloudifysource.usm.USMUtils;
+
+/***************
+ * Keeps JMX connections open between samples, so reading JMX monitors does not require an RMI handshake on every
+ * sample. Connections are shared by all clients of the same server and credentials.
+ *
+ * A connection that was idle for a while is checked with a single cheap call before it is handed out, and a
+ * connection that failed or was closed by the server is discarded, and re-opened on the next request. Failed connection
+ * attempts are retried with an exponential back-off, so an unavailable server is not hammered by every sample.
+ * Connections that are not used at all for a long time are closed by a background timer, and {@link #closeAll()}
+ * closes all connections when the USM shuts down.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class JmxConnectionPool {
+
+	private static final String JMX_URL_FORMAT = "service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi";
+	private static final long HEALTH_CHECK_IDLE_MILLIS = 30000;
+	private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	private static final long IDLE_CHECK_INTERVAL_MILLIS = 60 * 1000;
+	private static final long MIN_RETRY_INTERVAL_MILLIS = 1000;
+	private static final long MAX_RETRY_INTERVAL_MILLIS = 60000;
+
+	private static final java.util.logging.Logger logger =
+			java.util.logging.Logger.getLogger(JmxConnectionPool.class.getName());
+
+	private static final JmxConnectionPool INSTANCE = new JmxConnectionPool();
+
+	/**********
+	 * A pooled connection to a single server. All fields are guarded by the entry.
+	 */
+	private static final class Entry implements NotificationListener {
+		private final String key;
+		private final String host;
+		private final int port;
+		private final String username;
+		private final String password;
+
+		private JMXConnector connector;
+		private MBeanServerConnection connection;
+		private volatile boolean broken = false;
+		private boolean closed = false;
+		private volatile long lastUsedMillis = System.currentTimeMillis();
+		private long lastVerifiedMillis;
+		private long nextAttemptMillis = 0;
+		private long retryIntervalMillis = MIN_RETRY_INTERVAL_MILLIS;
+
+		private Entry(final String key, final String host, final int port, final String username,
+				final String password) {
+			this.key = key;
+			this.host = host;
+			this.port = port;
+			this.username = username;
+			this.password = password;
+		}
+
+		@Override
+		public void handleNotification(final Notification notification, final Object handback) {
+			final String type = notification.getType();
+			if (JMXConnectionNotification.CLOSED.equals(type) || JMXConnectionNotification.FAILED.equals(type)) {
+				// the connection is discarded the next time it is requested.
+				this.broken = true;
+			}
+		}
+
+		private synchronized MBeanServerConnection getConnection()
+				throws IOException {
+			if (this.closed) {
+				throw new IOException("The JMX connection pool was closed");
+			}
+			final long now = System.currentTimeMillis();
+			if (this.connection != null && !this.broken) {
+				if (now - this.lastVerifiedMillis < HEALTH_CHECK_IDLE_MILLIS) {
+					return this.connection;
+				}
+				try {
+					this.connection.getMBeanCount();
+					this.lastVerifiedMillis = now;
+					return this.connection;
+				} catch (final IOException e) {
+					logger.fine("Pooled JMX connection to " + key + " failed a health check: " + e.getMessage());
+				}
+			}
+			close();
+
+			if (now < this.nextAttemptMillis) {
+				throw new IOException("JMX server " + key + " is unavailable, next connection attempt in "
+						+ (this.nextAttemptMillis - now) + " ms");
+			}
+
+			try {
+				this.connector = JMXConnectorFactory.connect(createJMXServiceURL(), createEnvironment());
+				this.connector.addConnectionNotificationListener(this, null, null);
+				this.connection = this.connector.getMBeanServerConnection();
+			} catch (final IOException e) {
+				close();
+				this.nextAttemptMillis = now + this.retryIntervalMillis;
+				this.retryIntervalMillis = Math.min(this.retryIntervalMillis * 2, MAX_RETRY_INTERVAL_MILLIS);
+				throw e;
+			}
+
+			this.broken = false;
+			this.lastVerifiedMillis = now;
+			this.nextAttemptMillis = 0;
+			this.retryIntervalMillis = MIN_RETRY_INTERVAL_MILLIS;
+			return this.connection;
+		}
+
+		private synchronized void invalidate(final MBeanServerConnection failed) {
+			// another thread may have already replaced the failed connection.
+			if (failed == this.connection) {
+				close();
+			}
+		}
+
+		private boolean closeIfIdle(final long now) {
+			// checked before locking the entry, so an entry that is in use is never waited for.
+			if (now - this.lastUsedMillis < IDLE_TIMEOUT_MILLIS) {
+				return false;
+			}
+			shutdown();
+			return true;
+		}
+
+		private synchronized void shutdown() {
+			// an entry that was removed from the pool must not open a new connection for a client that still holds it.
+			this.closed = true;
+			close();
+		}
+
+		private void close() {
+			if (this.connector != null) {
+				try {
+					this.connector.removeConnectionNotificationListener(this);
+				} catch (final Exception e) {
+					// ignore
+				}
+				try {
+					this.connector.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+			this.connector = null;
+			this.connection = null;
+		}
+
+		private JMXServiceURL createJMXServiceURL() {
+			try {
+				return new JMXServiceURL(String.format(JMX_URL_FORMAT, host, port));
+			} catch (final MalformedURLException e) {
+				// none recoverable
+				throw new IllegalArgumentException("Failed to initialize JMX Service URL: "
+						+ String.format(JMX_URL_FORMAT, host, port), e);
+			}
+		}
+
+		private Map<String, Object> createEnvironment() {
+			final Map<String, Object> env = new HashMap<String, Object>();
+			if (this.username != null || this.password != null) {
+				env.put(JMXConnector.CREDENTIALS, new String[] { username, password });
+			}
+			return env;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	// started with the first connection, and stopped when the pool is closed. Guarded by the entries lock.
+	private ScheduledExecutorService idleChecker;
+
+	private JmxConnectionPool() {
+	}
+
+	/**********
+	 * Returns the JMX connection pool of this JVM.
+	 *
+	 * @return the pool.
+	 */
+	public static JmxConnectionPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**********
+	 * Returns an open connection to a JMX server, opening one if required.
+	 *
+	 * @param host
+	 *            the server host.
+	 * @param port
+	 *            the server port.
+	 * @param username
+	 *            the user name, or null.
+	 * @param password
+	 *            the password, or null.
+	 * @return the connection.
+	 * @throws IOException
+	 *             if a connection could not be opened, or if the server is in its back-off period after a failed
+	 *             connection attempt.
+	 */
+	public MBeanServerConnection getConnection(final String host, final int port, final String username,
+			final String password)
+			throws IOException {
+		return getEntry(host, port, username, password).getConnection();
+	}
+
+	/**********
+	 * Discards a connection after a call on it failed with an I/O error. The next request opens a new connection.
+	 *
+	 * @param host
+	 *            the server host.
+	 * @param port
+	 *            the server port.
+	 * @param username
+	 *            the user name, or null.
+	 * @param password
+	 *            the password, or null.
+	 * @param connection
+	 *            the failed connection.
+	 */
+	public void invalidate(final String host, final int port, final String username, final String password,
+			final MBeanServerConnection connection) {
+		getEntry(host, port, username, password).invalidate(connection);
+	}
+
+	/**********
+	 * Closes all connections and stops the idle connection timer. Called when the USM shuts down. Connections requested
+	 * after the pool was closed are opened again.
+	 */
+	public void closeAll() {
+		synchronized (this.entries) {
+			for (final Entry entry : this.entries.values()) {
+				entry.shutdown();
+			}
+			if (!this.entries.isEmpty()) {
+				logger.fine("Closed " + this.entries.size() + " pooled JMX connections");
+			}
+			this.entries.clear();
+			if (this.idleChecker != null) {
+				this.idleChecker.shutdownNow();
+				this.idleChecker = null;
+			}
+		}
+	}
+
+	private Entry getEntry(final String host, final int port, final String username, final String password) {
+		final String key = createKey(host, port, username, password);
+		synchronized (this.entries) {
+			if (this.idleChecker == null) {
+				startIdleChecker();
+			}
+			Entry entry = this.entries.get(key);
+			if (entry == null) {
+				entry = new Entry(host + ":" + port, host, port, username, password);
+				this.entries.put(key, entry);
+			}
+			// marked as used while the lock is held, so the entry is not closed as idle before it is used.
+			entry.lastUsedMillis = System.currentTimeMillis();
+			return entry;
+		}
+	}
+
+	// called with the entries lock held.
+	private void startIdleChecker() {
+		this.idleChecker = Executors.newSingleThreadScheduledExecutor(USMUtils
+				.createDaemonThreadFactory("JmxConnectionPoolIdleChecker"));
+		this.idleChecker.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					closeIdleEntries();
+				} catch (final RuntimeException e) {
+					// keep the timer running
+					logger.log(Level.WARNING, "Failed to close idle JMX connections: " + e.getMessage(), e);
+				}
+			}
+		}, IDLE_CHECK_INTERVAL_MILLIS, IDLE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void closeIdleEntries() {
+		final long now = System.currentTimeMillis();
+		synchronized (this.entries) {
+			final Iterator<Entry> iterator = this.entries.values().iterator();
+			while (iterator.hasNext()) {
+				final Entry entry = iterator.next();
+				if (entry.closeIfIdle(now)) {
+					if (logger.isLoggable(Level.FINE)) {
+						logger.fine("Closed idle JMX connection to " + entry.key);
+					}
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private static String createKey(final String host, final int port, final String username,
+			final String password) {
+		// the credentials are part of the key, so clients with different credentials never share a connection.
+		return host + ":" + port + '\0' + username + '\0' + password;
+	}
+}
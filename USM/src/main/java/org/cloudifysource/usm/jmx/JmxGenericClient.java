@@ -16,7 +16,6 @@
 package org.cloudifysource.usm.jmx;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,12 +29,10 @@ import javax.management.AttributeList;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
 
 /**
- * Generic fetcher for external-process JMX data.
+ * Generic fetcher for external-process JMX data. Connections are taken from the shared {@link JmxConnectionPool}, and
+ * the attributes of each bean are read in a single call.
  *
  * @author giladh
  * @since 8.0.1
@@ -48,8 +45,6 @@ public class JmxGenericClient {
 
 	private static final int DEFAULT_JMX_PORT = 8080;
 
-	private static final String JMX_URL_FORMAT = "service:jmx:rmi:///jndi/rmi://%s:%d/jmxrmi";
-
 	private int port = DEFAULT_JMX_PORT;
 
 	private String host = "127.0.0.1";
@@ -80,6 +75,8 @@ public class JmxGenericClient {
 		private String objectName = "";
 		private final List<JmxAttribute> attributes = new LinkedList<JmxAttribute>();
 		private final Map<String, JmxAttribute> attributesByName = new HashMap<String, JmxAttribute>();
+		private ObjectName beanName;
+		private String[] attributeNames;
 
 		public JmxBeanAttributes(final String objectName) {
 			this.objectName = objectName;
@@ -95,14 +92,25 @@ public class JmxGenericClient {
 
 		}
 
+		public ObjectName getBeanName()
+				throws MalformedObjectNameException {
+			if (this.beanName == null) {
+				this.beanName = new ObjectName(this.objectName);
+			}
+			return this.beanName;
+		}
+
 		public String[] getAttributeNames() {
-			final String[] arr = new String[this.attributes.size()];
-			int i = 0;
-			for (final JmxAttribute att : this.attributes) {
-				arr[i] = att.getAttributeName();
-				++i;
+			if (this.attributeNames == null) {
+				final String[] arr = new String[this.attributes.size()];
+				int i = 0;
+				for (final JmxAttribute att : this.attributes) {
+					arr[i] = att.getAttributeName();
+					++i;
+				}
+				this.attributeNames = arr;
 			}
-			return arr;
+			return this.attributeNames;
 
 		}
 
@@ -147,17 +155,13 @@ public class JmxGenericClient {
 
 	public ArrayList<JmxAttribute> getData() {
 
-		final JMXServiceURL jmxUrl = createJMXServiceURL();
-
-		JMXConnector jmxc = null;
-
-		final Map<String, Object> env = createEnvironment();
+		final JmxConnectionPool pool = JmxConnectionPool.getInstance();
+		MBeanServerConnection mbsc = null;
 
 		final ArrayList<JmxAttribute> resultList = new ArrayList<JmxAttribute>(this.numOfTargets);
 
 		try {
-			jmxc = JMXConnectorFactory.connect(jmxUrl, env);
-			final MBeanServerConnection mbsc = jmxc.getMBeanServerConnection();
+			mbsc = pool.getConnection(host, port, username, password);
 
 			for (final JmxBeanAttributes t : targetList) {
 
@@ -166,28 +170,28 @@ public class JmxGenericClient {
 			}
 
 			return resultList;
+		} catch (final IOException e) {
+			if (mbsc != null) {
+				// the connection is broken - the next sample opens a new one.
+				pool.invalidate(host, port, username, password, mbsc);
+			}
+			final String msg = "Failed to fetch JMX values for " + host + ":" + port + ". Error: " + e;
+			logger.severe(msg);
 		} catch (final Exception e) {
 			final String msg = "Failed to fetch JMX values for " + host + ":" + port + ". Error: " + e;
 			logger.severe(msg);
-		} finally {
-			if (jmxc != null) {
-				try {
-					jmxc.close();
-				} catch (final IOException e) {
-				}
-			}
 		}
 		return null;
 	}
 
 	protected void handleJMXBean(final ArrayList<JmxAttribute> resultList, final MBeanServerConnection mbsc,
 			final JmxBeanAttributes t)
-			throws MalformedObjectNameException {
-
-		final ObjectName beanName = new ObjectName(t.getObjectName());
-		final String[] attributeNames = t.getAttributeNames();
+			throws IOException {
 
 		try {
+			final ObjectName beanName = t.getBeanName();
+			final String[] attributeNames = t.getAttributeNames();
+
 			// This is the remote call!
 			// Object val = mbsc.getAttribute(beanName, attributeNames[0]);
 			final AttributeList vals = mbsc.getAttributes(beanName, attributeNames);
@@ -202,6 +206,8 @@ public class JmxGenericClient {
                 }
             }
 
+		} catch (final IOException e) {
+			throw e;
 		} catch (final Exception e) {
 			if (logger.isLoggable(Level.WARNING)) {
 				logger.warning("Failed to read Attributes for JMX Bean: " + t + ": " + e.getMessage());
@@ -212,38 +218,6 @@ public class JmxGenericClient {
 		}
 	}
 
-    /**
-     * Create a jmx client
-     * @return    a jmx client
-     */
-	private JMXServiceURL createJMXServiceURL() {
-		try {
-			return new JMXServiceURL(String.format(JMX_URL_FORMAT, host, port));
-		} catch (final MalformedURLException e) {
-			// none recoverable
-			final String msg = "Failed to create JMXServiceURL for " + host + "," + port + ". Error: " + e;
-			logger.severe(msg);
-			throw new IllegalArgumentException("Failed to initialize JMX Service URL: "
-					+ String.format(JMX_URL_FORMAT, host, port), e);
-		}
-	}
-
-	private Map<String, Object> createEnvironment() {
-		final Map<String, Object> env = new HashMap<String, Object>();
-
-		if (this.hasCredentials()) {
-			final String[] credentials = new String[] { username, password };
-			env.put("jmx.remote.credentials", credentials);
-
-		}
-		return env;
-	}
-
-	private boolean hasCredentials() {
-		return this.username != null || this.password != null;
-
-	}
-
 	public Map<String, Object> getAttributes() {
 
 		final ArrayList<JmxAttribute> resArr = getData();
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.launcher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/***************
+ * Writes command output lines to a logger on a background thread. Lines are queued in a bounded queue - if the queue is
+ * full, because the log can not keep up with the command, lines are dropped and the number of dropped lines is logged
+ * instead. All instances share a single daemon thread, so the order of lines is preserved. The thread exits when no
+ * lines were queued for a while, and is started again by the next line.
+ *
+ * @since 2.6.0
+ *
+ */
+public class AsyncOutputLogger {
+
+	private static final int QUEUE_CAPACITY = 10000;
+	private static final long IDLE_TIMEOUT_SECONDS = 60;
+	private static final String THREAD_NAME = "USMCommandOutputLogger";
+
+	/**********
+	 * A queued line, or a flush marker.
+	 */
+	private static final class Item {
+		private final AsyncOutputLogger owner;
+		private final String line;
+		private final CountDownLatch flushed;
+
+		private Item(final AsyncOutputLogger owner, final String line, final CountDownLatch flushed) {
+			this.owner = owner;
+			this.line = line;
+			this.flushed = flushed;
+		}
+	}
+
+	private static final BlockingQueue<Item> QUEUE = new LinkedBlockingQueue<Item>(QUEUE_CAPACITY);
+	// guarded by the class lock.
+	private static Thread thread;
+
+	private final Logger logger;
+	private final Level level;
+	private final AtomicLong droppedLines = new AtomicLong();
+
+	/**********
+	 * Constructor.
+	 *
+	 * @param logger
+	 *            the logger the lines are written to.
+	 * @param level
+	 *            the log level of the lines.
+	 */
+	public AsyncOutputLogger(final Logger logger, final Level level) {
+		this.logger = logger;
+		this.level = level;
+	}
+
+	/**********
+	 * Queues a line for logging. Never blocks.
+	 *
+	 * @param line
+	 *            the line.
+	 */
+	public void log(final String line) {
+		if (!logger.isLoggable(level)) {
+			return;
+		}
+		if (!QUEUE.offer(new Item(this, line, null))) {
+			droppedLines.incrementAndGet();
+		}
+		startThread();
+	}
+
+	/**********
+	 * Waits until all lines queued by this logger were written.
+	 *
+	 * @param timeoutMillis
+	 *            the maximum time to wait.
+	 * @return true if all lines were written.
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting.
+	 */
+	public boolean flush(final long timeoutMillis)
+			throws InterruptedException {
+		final long endTime = System.currentTimeMillis() + timeoutMillis;
+		final CountDownLatch latch = new CountDownLatch(1);
+		startThread();
+		if (!QUEUE.offer(new Item(this, null, latch), timeoutMillis, TimeUnit.MILLISECONDS)) {
+			return false;
+		}
+		startThread();
+		return latch.await(Math.max(0, endTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+	}
+
+	private void write(final Item item) {
+		final long dropped = droppedLines.getAndSet(0);
+		if (dropped > 0) {
+			logger.warning(dropped + " lines of command output were not logged, as output was written faster "
+					+ "than it could be logged");
+		}
+		if (item.flushed != null) {
+			item.flushed.countDown();
+		} else {
+			logger.log(level, item.line);
+		}
+	}
+
+	// called after an item is queued, so a thread that exits never leaves an item behind.
+	private static synchronized void startThread() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, THREAD_NAME);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void writeLoop() {
+		while (true) {
+			try {
+				final Item item = QUEUE.poll(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				if (item != null) {
+					item.owner.write(item);
+				} else if (exitIfIdle()) {
+					return;
+				}
+			} catch (final InterruptedException e) {
+				// the next queued line starts a new thread.
+				synchronized (AsyncOutputLogger.class) {
+					thread = null;
+				}
+				return;
+			} catch (final RuntimeException e) {
+				Logger.getLogger(AsyncOutputLogger.class.getName()).log(Level.WARNING,
+						"Failed to log command output: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static synchronized boolean exitIfIdle() {
+		if (!QUEUE.isEmpty()) {
+			return false;
+		}
+		thread = null;
+		return true;
+	}
+}
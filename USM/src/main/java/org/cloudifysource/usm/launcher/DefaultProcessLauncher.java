@@ -14,14 +14,14 @@ package org.cloudifysource.usm.launcher;
 
 import groovy.lang.Closure;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,12 +36,14 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.StringUtils;
 import org.cloudifysource.dsl.LifecycleEvents;
+import org.cloudifysource.dsl.context.ServiceContextFactory;
 import org.cloudifysource.dsl.entry.ClosureExecutableEntry;
 import org.cloudifysource.dsl.entry.ExecutableDSLEntry;
 import org.cloudifysource.dsl.entry.ExecutableDSLEntryType;
@@ -74,12 +76,18 @@ import com.j_spaces.kernel.PlatformVersion;
  */
 public class DefaultProcessLauncher implements ProcessLauncher, ClusterInfoAware, BeanLevelPropertiesAware {
 
-	private static final int POST_SYNC_PROCESS_SLEEP_INTERVAL = 200;
+	private static final long OUTPUT_LOG_FLUSH_TIMEOUT_MILLIS = 5000;
+	// child processes of a command may hold its error stream open after it exits.
+	private static final long ERROR_READER_JOIN_TIMEOUT_MILLIS = 5000;
+	private static final int MAX_CACHED_GROOVY_SCRIPTS = 64;
+	private static final String IN_PROCESS_GROOVY_ENV_VARIABLE = "env";
+	private static final String IN_PROCESS_GROOVY_WORKING_DIR_VARIABLE = "workingDir";
 	private static final String LINUX_EXECUTE_PREFIX = "./";
 	private static final String[] WINDOWS_BATCH_FILE_PREFIX_PARAMS = { "cmd.exe", "/c " };
 	private List<String> groovyCommandLinePrefixParams;
-	// last command line to be executed
-	private List<String> commandLine;
+	// last command line to be executed, only reported by getCommandLine(). Each launch uses a command line of its own,
+	// as listeners may launch commands concurrently.
+	private volatile List<String> commandLine;
 	private final Sigar sigar = SigarHolder.getSigar();
 	private ClusterInfo clusterInfo;
 	private String groovyEnvironmentClassPath;
@@ -89,6 +97,10 @@ public class DefaultProcessLauncher implements ProcessLauncher, ClusterInfoAware
 	private boolean debugAllEvents;
 	private Set<LifecycleEvents> debugEvents = Collections.emptySet();
 	private DebugModes debugMode = DebugModes.INSTEAD;
+	// processes launched by threads that are waiting for them to exit
+	private final Map<Thread, Process> synchronousProcesses = new ConcurrentHashMap<Thread, Process>();
+	// created on first use, only if in-process groovy execution is enabled
+	private InProcessGroovyExecutor inProcessGroovyExecutor;
 
 	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(DefaultProcessLauncher.class
 			.getName());
@@ -610,11 +622,11 @@ public class DefaultProcessLauncher implements ProcessLauncher, ClusterInfoAware
 
 		}
 
-		commandLine = getCommandLineFromArgument(arg,
+		final List<String> processCommandLine = getCommandLineFromArgument(arg,
 				workingDir,
 				params);
 
-		return this.launch(commandLine,
+		return this.launch(processCommandLine,
 				workingDir,
 				retries,
 				redirectErrorStream,
@@ -673,71 +685,244 @@ public class DefaultProcessLauncher implements ProcessLauncher, ClusterInfoAware
 			}
 		}
 
-		final Process proc = launchProcessAsync(arg,
+		final InProcessGroovyExecutor groovyExecutor = getInProcessGroovyExecutor();
+		if (groovyExecutor != null && !isDebugEvent(event)) {
+			final List<String> groovyCommandLine = getCommandLineFromArgument(arg,
+					workingDir,
+					paramsList);
+			final File scriptFile = getInProcessGroovyScript(groovyCommandLine, workingDir);
+			if (scriptFile != null) {
+				return launchGroovyInProcess(groovyExecutor, scriptFile, workingDir, groovyCommandLine,
+						redirectErrorStream);
+			}
+		}
+
+		final List<String> processCommandLine = getCommandLineFromArgument(arg,
+				workingDir,
+				paramsList);
+		final Process proc = this.launch(processCommandLine,
 				workingDir,
 				retries,
 				redirectErrorStream,
-				paramsList, event);
-		final BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+				null,
+				null, event);
+		this.synchronousProcesses.put(Thread.currentThread(), proc);
+		try {
+			return captureProcessOutput(proc, redirectErrorStream, processCommandLine);
+		} finally {
+			this.synchronousProcesses.remove(Thread.currentThread());
+		}
+	}
 
-		String line = null;
-		final StringBuilder sb = new StringBuilder();
-		final String newline = System.getProperty("line.separator");
+	@Override
+	public boolean destroySynchronousProcess(final Thread thread) {
+		final Process proc = this.synchronousProcesses.get(thread);
+		if (proc == null) {
+			return false;
+		}
+		logger.info("Destroying command process of thread " + thread.getName());
+		proc.destroy();
+		return true;
+	}
+
+	private String captureProcessOutput(final Process proc, final boolean redirectErrorStream,
+			final List<String> processCommandLine)
+			throws USMException {
+		final AsyncOutputLogger outputLogger = new AsyncOutputLogger(logger, Level.INFO);
+		final ProcessOutputCapture output = new ProcessOutputCapture(ProcessOutputCapture.DEFAULT_HEAD_CHARS,
+				ProcessOutputCapture.DEFAULT_TAIL_CHARS, outputLogger);
+		// if the error stream is not redirected it must still be drained, or the process may block on a full pipe.
+		final ProcessOutputCapture error = redirectErrorStream ? null : new ProcessOutputCapture(
+				ProcessOutputCapture.DEFAULT_HEAD_CHARS, ProcessOutputCapture.DEFAULT_TAIL_CHARS, outputLogger);
+		final Thread errorReader = error == null ? null : startErrorReader(proc, error);
 
 		logger.info("Command Output:");
 		try {
-			do {
-				if (line != null) {
-					sb.append(line).append(newline);
-					logger.info(line);
-				}
-				line = reader.readLine();
+			output.consume(proc.getInputStream());
 
-			} while (line != null);
-		} catch (final IOException ioe) {
-			throw new USMException("Failed to execute command: " + commandLine, ioe);
+			// waitFor returns after the process was reaped, so its pid is no longer in the process table.
+			final int exitValue = proc.waitFor();
+			joinErrorReader(errorReader);
+			outputLogger.flush(OUTPUT_LOG_FLUSH_TIMEOUT_MILLIS);
 
+			logger.info("Command exited with value: " + exitValue);
+			if (output.isTruncated()) {
+				logger.info("Command wrote " + output.getTotalChars()
+						+ " characters of output, only its beginning and end were retained");
+			}
+			if (exitValue != 0) {
+				throwAbnormalExitException(exitValue,
+						error == null ? output.getOutput() : output.getOutput() + error.getOutput());
+			}
+		} catch (final IOException ioe) {
+			proc.destroy();
+			throw new USMException("Failed to execute command: " + processCommandLine, ioe);
+		} catch (final InterruptedException e) {
+			logger.warning("Interrupted while waiting for process to exit");
 		} finally {
-			if (reader != null) {
+			// also when the command failed or was interrupted, so the reader thread and the pipes are not leaked.
+			try {
+				joinErrorReader(errorReader);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			closeProcessStreams(proc);
+		}
+
+		return output.getOutput();
+	}
+
+	private static void joinErrorReader(final Thread errorReader)
+			throws InterruptedException {
+		if (errorReader != null) {
+			errorReader.join(ERROR_READER_JOIN_TIMEOUT_MILLIS);
+		}
+	}
+
+	private Thread startErrorReader(final Process proc, final ProcessOutputCapture error) {
+		final Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
 				try {
-					reader.close();
+					error.consume(proc.getErrorStream());
 				} catch (final IOException e) {
-					// ignore
+					logger.log(Level.FINE, "Failed to read the error stream of a command: " + e.getMessage(), e);
 				}
-
 			}
+		}, "USMCommandErrorReader");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
 
+	private static void closeProcessStreams(final Process proc) {
+		try {
+			proc.getOutputStream().close();
+		} catch (final IOException e) {
+			// ignore
 		}
-
 		try {
-			final int exitValue = proc.waitFor();
-			logger.info("Command exited with value: " + exitValue);
-			if (exitValue != 0) {
-				logger.severe("Event lifecycle external process exited with abnormal status code: " + exitValue);
+			proc.getInputStream().close();
+		} catch (final IOException e) {
+			// ignore
+		}
+		try {
+			proc.getErrorStream().close();
+		} catch (final IOException e) {
+			// ignore
+		}
+	}
 
-				final String result = sb.toString();
-				final String exceptionReason = GroovyExceptionHandler.getExceptionString(result);
+	private void throwAbnormalExitException(final int exitValue, final String output)
+			throws USMException {
+		logger.severe("Event lifecycle external process exited with abnormal status code: " + exitValue);
 
-				logger.log(Level.SEVERE,
-						"Event lifecycle external process failed: " + result);
+		final String exceptionReason = GroovyExceptionHandler.getExceptionString(output);
+
+		logger.log(Level.SEVERE,
+				"Event lifecycle external process failed: " + output);
+
+		throw new USMException("Event lifecycle external process exited with abnormal status code: "
+				+ exitValue + " " + exceptionReason);
+	}
 
-				throw new USMException("Event lifecycle external process exited with abnormal status code: "
-						+ exitValue + " " + exceptionReason);
+	private synchronized InProcessGroovyExecutor getInProcessGroovyExecutor() {
+		if (this.inProcessGroovyExecutor == null && !getInProcessGroovyScriptNames().isEmpty()) {
+			ClassLoader parent = this.configutaion.getDslClassLoader();
+			if (parent == null) {
+				parent = this.getClass().getClassLoader();
 			}
-		} catch (final InterruptedException e) {
-			logger.warning("Interrupted while waiting for process to exit");
+			logger.info("In-process execution of groovy scripts is enabled");
+			this.inProcessGroovyExecutor = new InProcessGroovyExecutor(parent, MAX_CACHED_GROOVY_SCRIPTS);
 		}
+		return this.inProcessGroovyExecutor;
+	}
 
-		// sleeping for a short interval, to make sure process table is cleaned
-		// of the dead process
+	// an in-process script shares the working directory and environment of the container, so only scripts that the
+	// recipe explicitly lists are executed in-process.
+	private Set<String> getInProcessGroovyScriptNames() {
+		final Set<String> names = new HashSet<String>();
+		if (this.configutaion == null) {
+			return names;
+		}
+		final String value = this.configutaion.getService().getCustomProperties()
+				.get(CloudifyConstants.CUSTOM_PROPERTY_IN_PROCESS_GROOVY_SCRIPTS);
+		if (value != null) {
+			for (final String name : value.split(",")) {
+				if (name.trim().length() > 0) {
+					names.add(name.trim());
+				}
+			}
+		}
+		return names;
+	}
+
+	// returns the groovy script to execute in-process, or null if the command line should run as an external process
+	private File getInProcessGroovyScript(final List<String> groovyCommandLine, final File workingDir) {
+		if (groovyCommandLine == null || groovyCommandLine.isEmpty()
+				|| !groovyCommandLine.get(0).endsWith(".groovy")) {
+			return null;
+		}
+
+		final String scriptName = groovyCommandLine.get(0);
+		final File scriptFile = getFileFromRelativeOrAbsolutePath(workingDir, scriptName);
+		if (scriptFile == null) {
+			return null;
+		}
+
+		final Set<String> names = getInProcessGroovyScriptNames();
+		if (!names.contains(scriptName) && !names.contains(scriptFile.getName())) {
+			return null;
+		}
+		return scriptFile;
+	}
+
+	private Object launchGroovyInProcess(final InProcessGroovyExecutor groovyExecutor, final File scriptFile,
+			final File workingDir, final List<String> groovyCommandLine, final boolean redirectErrorStream)
+			throws USMException {
+
+		this.commandLine = groovyCommandLine;
+		logger.info("Executing groovy script in-process: " + groovyCommandLine);
+
+		final StringWriter output = new StringWriter();
+		final Writer error = redirectErrorStream ? output : new StringWriter();
+		final List<String> args = groovyCommandLine.subList(1,
+				groovyCommandLine.size());
+
+		// the environment and working directory an external process would get, for scripts that need them.
+		final Map<String, String> env = new HashMap<String, String>(System.getenv());
+		env.putAll(createEnvironment());
+		final Map<String, Object> variables = new HashMap<String, Object>();
+		variables.put(IN_PROCESS_GROOVY_ENV_VARIABLE, Collections.unmodifiableMap(env));
+		variables.put(IN_PROCESS_GROOVY_WORKING_DIR_VARIABLE, workingDir);
+
+		int exitValue;
+		ServiceContextFactory.setInProcessServiceContext(this.configutaion.getServiceContext());
 		try {
-			Thread.sleep(POST_SYNC_PROCESS_SLEEP_INTERVAL);
-		} catch (final InterruptedException e) {
-			// ignore
+			exitValue = groovyExecutor.execute(scriptFile,
+					args,
+					variables,
+					output,
+					error);
+		} finally {
+			ServiceContextFactory.setInProcessServiceContext(null);
 		}
 
-		return sb.toString();
+		final String result = output.toString();
+		logger.info("Command Output:");
+		for (final String line : result.split(System.getProperty("line.separator"))) {
+			if (line.length() > 0) {
+				logger.info(line);
+			}
+		}
 
+		logger.info("Command exited with value: " + exitValue);
+		if (exitValue != 0) {
+			throwAbnormalExitException(exitValue,
+					redirectErrorStream ? result : result + error.toString());
+		}
+		return result;
 	}
 
 	private List<String> getParamsListFromMap(final Map<String, Object> params) {
@@ -757,7 +942,8 @@ public class DefaultProcessLauncher implements ProcessLauncher, ClusterInfoAware
 
 	@Override
 	public String getCommandLine() {
-		return this.commandLine.toString();
+		final List<String> lastCommandLine = this.commandLine;
+		return lastCommandLine == null ? null : lastCommandLine.toString();
 	}
 
 	private void modifyCommandLine(final List<String> commandLineParams, final File workingDir, final File outputFile,
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.launcher;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.Script;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudifysource.usm.USMException;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.StackTraceUtils;
+
+/******************
+ * Executes groovy lifecycle scripts inside the USM's JVM, instead of launching a new groovy process for each one.
+ * Compiled script classes are cached by script path, and are recompiled only when the contents of the script file
+ * change. Each compiled script is loaded by its own GroovyClassLoader, so classes declared by one script never leak
+ * into another script, and a recompiled script releases the class loader of its previous version.
+ *
+ * A script runs on the calling thread, with the parent class loader as its context class loader. It does not get its
+ * own working directory or environment variables - the caller is responsible for only executing scripts that do not
+ * depend on them, and that do not call System.exit(), which would terminate the container.
+ *
+ * @since 2.6.0
+ *
+ */
+public class InProcessGroovyExecutor {
+
+	/*****
+	 * Exit code reported for a script that completed normally.
+	 */
+	public static final int EXIT_CODE_SUCCESS = 0;
+	/*****
+	 * Exit code reported for a script that failed to compile or threw an exception. Same value used by the groovy
+	 * command line.
+	 */
+	public static final int EXIT_CODE_FAILURE = 1;
+
+	// same code base used by GroovyShell
+	private static final String SCRIPT_CODE_BASE = "/groovy/shell";
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(InProcessGroovyExecutor.class
+			.getName());
+
+	/********
+	 * A compiled script, and the hash of the script contents it was compiled from.
+	 */
+	private static class CompiledScript {
+		private final String contentHash;
+		private final Class<?> scriptClass;
+
+		CompiledScript(final String contentHash, final Class<?> scriptClass) {
+			this.contentHash = contentHash;
+			this.scriptClass = scriptClass;
+		}
+	}
+
+	private final ClassLoader parentClassLoader;
+	private final Map<String, CompiledScript> cache;
+
+	/**********
+	 * Constructor.
+	 *
+	 * @param parentClassLoader
+	 *            the parent class loader of the script class loaders.
+	 * @param maxCachedScripts
+	 *            maximum number of compiled scripts to keep. The least recently used script is evicted when the limit is
+	 *            reached.
+	 */
+	public InProcessGroovyExecutor(final ClassLoader parentClassLoader, final int maxCachedScripts) {
+		this.parentClassLoader = parentClassLoader;
+		this.cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CompiledScript> eldest) {
+				return size() > maxCachedScripts;
+			}
+		};
+	}
+
+	/**********
+	 * Executes a script on the calling thread. The script's 'out' and 'err' variables are bound to the given writers,
+	 * so println calls in the script are captured. The parent class loader is the context class loader of the thread
+	 * while the script runs. Exceptions thrown by the script, including compilation errors, are
+	 * written to the error writer in the same format used by the groovy command line.
+	 *
+	 * @param scriptFile
+	 *            the script to execute.
+	 * @param args
+	 *            the script arguments, available to the script as 'args'.
+	 * @param variables
+	 *            additional variables to bind to the script.
+	 * @param out
+	 *            writer for the script output.
+	 * @param err
+	 *            writer for the script errors.
+	 * @return the script exit code.
+	 * @throws USMException
+	 *             if the script file could not be read.
+	 */
+	public int execute(final File scriptFile, final List<String> args, final Map<String, Object> variables,
+			final Writer out, final Writer err)
+			throws USMException {
+
+		final PrintWriter outWriter = new PrintWriter(out, true);
+		final PrintWriter errWriter = new PrintWriter(err, true);
+		try {
+			final Class<?> scriptClass;
+			try {
+				scriptClass = getScriptClass(scriptFile);
+			} catch (final CompilationFailedException e) {
+				errWriter.println(e.getMessage());
+				return EXIT_CODE_FAILURE;
+			}
+
+			final Binding binding = new Binding(args.toArray(new String[args.size()]));
+			if (variables != null) {
+				for (final Map.Entry<String, Object> entry : variables.entrySet()) {
+					binding.setVariable(entry.getKey(), entry.getValue());
+				}
+			}
+			binding.setVariable("out", outWriter);
+			binding.setVariable("err", errWriter);
+
+			final Thread currentThread = Thread.currentThread();
+			final ClassLoader previousContextClassLoader = currentThread.getContextClassLoader();
+			currentThread.setContextClassLoader(this.parentClassLoader);
+			try {
+				final Script script = InvokerHelper.createScript(scriptClass, binding);
+				script.run();
+				return EXIT_CODE_SUCCESS;
+			} catch (final Throwable t) {
+				final Throwable sanitized = StackTraceUtils.deepSanitize(t);
+				logger.log(Level.FINE, "In-process script " + scriptFile + " failed", sanitized);
+				errWriter.println("Caught: " + sanitized);
+				sanitized.printStackTrace(errWriter);
+				return EXIT_CODE_FAILURE;
+			} finally {
+				currentThread.setContextClassLoader(previousContextClassLoader);
+			}
+		} finally {
+			outWriter.flush();
+			errWriter.flush();
+		}
+	}
+
+	/**********
+	 * Removes all compiled scripts from the cache.
+	 */
+	public synchronized void clear() {
+		this.cache.clear();
+	}
+
+	private synchronized Class<?> getScriptClass(final File scriptFile)
+			throws USMException {
+		final String key = scriptFile.getAbsolutePath();
+		final String contents = readScript(scriptFile);
+		final String hash = hash(contents);
+
+		final CompiledScript cached = this.cache.get(key);
+		if (cached != null && cached.contentHash.equals(hash)) {
+			return cached.scriptClass;
+		}
+
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Compiling script " + key + " for in-process execution");
+		}
+		final GroovyClassLoader loader = new GroovyClassLoader(this.parentClassLoader);
+		final Class<?> scriptClass = loader.parseClass(new GroovyCodeSource(contents, key, SCRIPT_CODE_BASE),
+				false);
+		this.cache.put(key, new CompiledScript(hash, scriptClass));
+		return scriptClass;
+	}
+
+	private String readScript(final File scriptFile)
+			throws USMException {
+		try {
+			return FileUtils.readFileToString(scriptFile);
+		} catch (final IOException e) {
+			throw new USMException("Failed to read groovy script: " + scriptFile, e);
+		}
+	}
+
+	private static String hash(final String contents) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			return new BigInteger(1, digest.digest(contents.getBytes())).toString(16);
+		} catch (final NoSuchAlgorithmException e) {
+			// MD5 is always available in the JDK - fall back to the content itself just in case.
+			return contents;
+		}
+	}
+}
@@ -108,4 +108,13 @@ public interface ProcessLauncher extends USMComponent {
 	 */
 	Object launchProcess(ExecutableDSLEntry arg, File workingDir, Map<String, Object> params, final LifecycleEvents event)
 			throws USMException;
+
+	/*********************
+	 * Destroys the process launched by a thread that is waiting for it to exit, in one of the synchronous
+	 * launchProcess methods. Used to cancel a command that is taking too long.
+	 *
+	 * @param thread the thread that launched the process.
+	 * @return true if a process was found and destroyed.
+	 */
+	boolean destroySynchronousProcess(Thread thread);
 }
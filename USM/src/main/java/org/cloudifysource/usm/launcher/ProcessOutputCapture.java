@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.launcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/***************
+ * Captures the output of a command in a bounded amount of memory. The first characters of the output are kept in a
+ * head buffer, and the last characters in a ring buffer - the beginning of a failed script's output usually holds
+ * compilation errors, and its end holds the runtime failure. Characters between the two are counted, and replaced with
+ * a marker line in the captured output.
+ *
+ * Each line is also passed to an {@link AsyncOutputLogger}, if one is set, so writing the log never slows down the
+ * reading of the output pipe.
+ *
+ * @since 2.6.0
+ *
+ */
+public class ProcessOutputCapture {
+
+	/**
+	 * Default size of the head buffer, in characters.
+	 */
+	public static final int DEFAULT_HEAD_CHARS = 32 * 1024;
+	/**
+	 * Default size of the tail buffer, in characters.
+	 */
+	public static final int DEFAULT_TAIL_CHARS = 64 * 1024;
+
+	private static final int READ_BUFFER_CHARS = 8 * 1024;
+	private static final int MAX_LINE_CHARS = 16 * 1024;
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	private final StringBuilder head;
+	private final int headChars;
+	private final char[] tail;
+	// index of the oldest character in the tail, and the number of characters in it
+	private int tailStart = 0;
+	private int tailLength = 0;
+	private long omittedChars = 0;
+	private long totalChars = 0;
+
+	private final AsyncOutputLogger outputLogger;
+
+	/**********
+	 * Constructor.
+	 *
+	 * @param headChars
+	 *            the number of characters kept from the beginning of the output.
+	 * @param tailChars
+	 *            the number of characters kept from the end of the output.
+	 * @param outputLogger
+	 *            the logger of the output lines, or null.
+	 */
+	public ProcessOutputCapture(final int headChars, final int tailChars, final AsyncOutputLogger outputLogger) {
+		this.headChars = headChars;
+		this.head = new StringBuilder(Math.min(headChars, READ_BUFFER_CHARS));
+		this.tail = new char[tailChars];
+		this.outputLogger = outputLogger;
+	}
+
+	/**********
+	 * Reads a stream until its end, capturing all its lines. The stream is closed when this method returns.
+	 *
+	 * @param in
+	 *            the stream.
+	 * @throws IOException
+	 *             if the stream could not be read.
+	 */
+	public void consume(final InputStream in)
+			throws IOException {
+		final Reader reader = new InputStreamReader(in);
+		try {
+			final char[] buffer = new char[READ_BUFFER_CHARS];
+			final StringBuilder line = new StringBuilder();
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				for (int i = 0; i < read; i++) {
+					final char c = buffer[i];
+					if (c == '\n' || line.length() >= MAX_LINE_CHARS) {
+						appendLine(stripCarriageReturn(line));
+						line.setLength(0);
+						if (c == '\n') {
+							continue;
+						}
+					}
+					line.append(c);
+				}
+			}
+			if (line.length() > 0) {
+				appendLine(stripCarriageReturn(line));
+			}
+		} finally {
+			try {
+				reader.close();
+			} catch (final IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static String stripCarriageReturn(final StringBuilder line) {
+		final int length = line.length();
+		if (length > 0 && line.charAt(length - 1) == '\r') {
+			return line.substring(0, length - 1);
+		}
+		return line.toString();
+	}
+
+	/**********
+	 * Adds a line to the captured output.
+	 *
+	 * @param line
+	 *            the line, without a line separator.
+	 */
+	public synchronized void appendLine(final String line) {
+		if (outputLogger != null) {
+			outputLogger.log(line);
+		}
+		totalChars += line.length() + NEWLINE.length();
+		if (tailLength == 0 && omittedChars == 0 && head.length() + line.length() + NEWLINE.length() <= headChars) {
+			head.append(line).append(NEWLINE);
+			return;
+		}
+		appendToTail(line);
+		appendToTail(NEWLINE);
+	}
+
+	private void appendToTail(final String text) {
+		if (tail.length == 0) {
+			omittedChars += text.length();
+			return;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (tailLength < tail.length) {
+				tail[(tailStart + tailLength) % tail.length] = text.charAt(i);
+				++tailLength;
+			} else {
+				tail[tailStart] = text.charAt(i);
+				tailStart = (tailStart + 1) % tail.length;
+				++omittedChars;
+			}
+		}
+	}
+
+	/**********
+	 * Returns the captured output. If the output was longer than the buffers, the omitted part is replaced with a
+	 * line noting the number of omitted characters.
+	 *
+	 * @return the captured output.
+	 */
+	public synchronized String getOutput() {
+		final StringBuilder sb = new StringBuilder(head.length() + tailLength + 64);
+		sb.append(head);
+		final StringBuilder tailText = new StringBuilder(tailLength);
+		for (int i = 0; i < tailLength; i++) {
+			tailText.append(tail[(tailStart + i) % tail.length]);
+		}
+		if (omittedChars > 0) {
+			// the tail starts in the middle of a line - drop the partial line.
+			int cut = tailText.indexOf(NEWLINE);
+			cut = cut < 0 ? tailText.length() : cut + NEWLINE.length();
+			sb.append("... [").append(omittedChars + cut).append(" characters of output omitted] ...").append(NEWLINE);
+			sb.append(tailText, cut, tailText.length());
+		} else {
+			sb.append(tailText);
+		}
+		return sb.toString();
+	}
+
+	/**********
+	 * Returns the number of characters written to the output, including omitted characters.
+	 *
+	 * @return the output length.
+	 */
+	public synchronized long getTotalChars() {
+		return totalChars;
+	}
+
+	/**********
+	 * Checks if part of the output was omitted.
+	 *
+	 * @return true if the output was longer than the buffers.
+	 */
+	public synchronized boolean isTruncated() {
+		return omittedChars > 0;
+	}
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.liveness;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/***************
+ * A liveness detector that passes when a set of TCP addresses accept connections. During start detection, the
+ * addresses of all such detectors are checked together with a single {@link PortProbe}, instead of calling each
+ * detector's isProcessAlive() method.
+ *
+ * @since 2.6.0
+ *
+ */
+public interface PortBasedLivenessDetector extends LivenessDetector {
+
+	/****************
+	 * Returns the addresses that must accept connections for this detector to pass.
+	 *
+	 * @return the addresses.
+	 */
+	List<InetSocketAddress> getLivenessAddresses();
+}
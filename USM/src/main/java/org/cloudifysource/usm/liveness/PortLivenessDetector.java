@@ -15,12 +15,15 @@
  *******************************************************************************/
 package org.cloudifysource.usm.liveness;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
 
 import org.cloudifysource.dsl.Plugin;
 import org.cloudifysource.dsl.context.ServiceContext;
 import org.cloudifysource.dsl.utils.ServiceUtils;
+import org.cloudifysource.usm.USMException;
 import org.cloudifysource.usm.UniversalServiceManagerBean;
 import org.cloudifysource.usm.events.AbstractUSMEventListener;
 import org.cloudifysource.usm.events.EventResult;
@@ -49,14 +52,18 @@ import org.cloudifysource.usm.events.StartReason;
  * @author adaml
  * 
  */
-public class PortLivenessDetector extends AbstractUSMEventListener implements LivenessDetector, Plugin,
+public class PortLivenessDetector extends AbstractUSMEventListener implements PortBasedLivenessDetector, Plugin,
 		PreStartListener {
 
 	private static final java.util.logging.Logger logger = java.util.logging.Logger
 			.getLogger(PortLivenessDetector.class.getName());
 	private static final String PORT_KEY = "Port";
+	private static final String HOST_KEY = "Host";
+	private static final String DEFAULT_HOST = "127.0.0.1";
+	private static final long PORT_CHECK_TIMEOUT_MILLIS = 5000;
 	// Injected values
 	private List<Integer> portList;
+	private String host = DEFAULT_HOST;
 
 	@SuppressWarnings("unchecked")
 	@Override
@@ -66,6 +73,9 @@ public class PortLivenessDetector extends AbstractUSMEventListener implements Li
 			throw new IllegalArgumentException("Parameter portList of Plugin " + this.getClass().getName()
 					+ " is mandatory");
 		}
+		if (config.get(HOST_KEY) != null) {
+			this.host = config.get(HOST_KEY).toString();
+		}
 	}
 
 	/**
@@ -74,9 +84,19 @@ public class PortLivenessDetector extends AbstractUSMEventListener implements Li
 	 * @return true if all ports in the list are open, false if any one of them is not. 
 	 */
 	@Override
-	public boolean isProcessAlive() {
+	public boolean isProcessAlive()
+			throws USMException {
 		logger.info("Testing if the following ports are open: " + this.portList.toString());
-		return ServiceUtils.arePortsOccupied(this.portList);
+		try {
+			return PortProbe.arePortsOpen(this.host, this.portList, PORT_CHECK_TIMEOUT_MILLIS);
+		} catch (final IOException e) {
+			throw new USMException("Failed to check ports " + this.portList + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public List<InetSocketAddress> getLivenessAddresses() {
+		return PortProbe.toAddresses(this.host, this.portList);
 	}
 
 	@Override
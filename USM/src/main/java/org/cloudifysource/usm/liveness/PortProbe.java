@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.liveness;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks which of a set of TCP ports accept connections. All connection attempts are started at once with non-blocking
+ * channels, and are completed on a single selector, so checking many ports takes as long as the slowest port - not the
+ * sum of all of them.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class PortProbe {
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(PortProbe.class.getName());
+
+	private PortProbe() {
+	}
+
+	/**
+	 * Attempts to connect to all the given addresses.
+	 *
+	 * @param addresses the addresses to check.
+	 * @param timeoutMillis the maximum time to wait for connections to complete.
+	 * @return the addresses that accepted a connection.
+	 * @throws IOException if the selector could not be opened.
+	 */
+	public static Set<InetSocketAddress> findOpenAddresses(final Collection<InetSocketAddress> addresses,
+			final long timeoutMillis)
+			throws IOException {
+		final Set<InetSocketAddress> open = new HashSet<InetSocketAddress>();
+		if (addresses.isEmpty()) {
+			return open;
+		}
+
+		final Selector selector = Selector.open();
+		final List<SocketChannel> channels = new ArrayList<SocketChannel>(addresses.size());
+		try {
+			int pending = 0;
+			for (final InetSocketAddress address : addresses) {
+				try {
+					final SocketChannel channel = SocketChannel.open();
+					channels.add(channel);
+					channel.configureBlocking(false);
+					if (channel.connect(address)) {
+						open.add(address);
+					} else {
+						channel.register(selector, SelectionKey.OP_CONNECT, address);
+						++pending;
+					}
+				} catch (final IOException e) {
+					// connection refused immediately
+					logger.fine("Port " + address + " is closed: " + e.getMessage());
+				}
+			}
+
+			final long deadline = System.currentTimeMillis() + timeoutMillis;
+			while (pending > 0) {
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				if (selector.select(remaining) == 0) {
+					continue;
+				}
+				final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					final SelectionKey key = iterator.next();
+					iterator.remove();
+					final InetSocketAddress address = (InetSocketAddress) key.attachment();
+					try {
+						if (((SocketChannel) key.channel()).finishConnect()) {
+							open.add(address);
+						}
+					} catch (final IOException e) {
+						logger.fine("Port " + address + " is closed: " + e.getMessage());
+					}
+					key.cancel();
+					--pending;
+				}
+			}
+		} finally {
+			for (final SocketChannel channel : channels) {
+				try {
+					channel.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+			selector.close();
+		}
+
+		return open;
+	}
+
+	/**
+	 * Checks if all the given ports on a host accept connections.
+	 *
+	 * @param host the host.
+	 * @param ports the ports to check.
+	 * @param timeoutMillis the maximum time to wait for connections to complete.
+	 * @return true if all ports are open.
+	 * @throws IOException if the selector could not be opened.
+	 */
+	public static boolean arePortsOpen(final String host, final Collection<Integer> ports, final long timeoutMillis)
+			throws IOException {
+		final List<InetSocketAddress> addresses = toAddresses(host, ports);
+		return findOpenAddresses(addresses, timeoutMillis).containsAll(addresses);
+	}
+
+	/**
+	 * Creates the socket addresses of ports on a host.
+	 *
+	 * @param host the host.
+	 * @param ports the ports.
+	 * @return the addresses.
+	 */
+	public static List<InetSocketAddress> toAddresses(final String host, final Collection<Integer> ports) {
+		final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(ports.size());
+		for (final Integer port : ports) {
+			addresses.add(new InetSocketAddress(host, port));
+		}
+		return addresses;
+	}
+}
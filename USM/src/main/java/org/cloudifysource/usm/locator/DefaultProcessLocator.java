@@ -15,11 +15,9 @@ package org.cloudifysource.usm.locator;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
@@ -30,7 +28,6 @@ import org.cloudifysource.usm.events.EventResult;
 import org.cloudifysource.usm.events.PreStartListener;
 import org.cloudifysource.usm.events.StartReason;
 import org.hyperic.sigar.Sigar;
-import org.hyperic.sigar.SigarException;
 
 import com.gigaspaces.internal.sigar.SigarHolder;
 
@@ -38,7 +35,8 @@ import com.gigaspaces.internal.sigar.SigarHolder;
  * A process locator implementation that is executed if no other process locator is defined. It scans the process tree
  * under the current process, comparing the processes running before the start command was called, and after start
  * detection passed successfully. Then it select the 'leaf' nodes of this tree. This gives us the 'interesting'
- * processes, assuming the service process runs in the foreground.
+ * processes, assuming the service process runs in the foreground. The process tree is read from the shared
+ * {@link ProcessTable}.
  *
  * This implementation is a heuristic, and works best when executing a single process in the foreground, typical for
  * multi-threaded processes like java application servers. It is generally a good idea for a process to explicitly
@@ -78,7 +76,7 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 		this.myPid = this.sigar.getPid();
 
 		try {
-			this.childrenBeforeStart = getChildProcesses(this.myPid);
+			this.childrenBeforeStart = new HashSet<Long>(ProcessTable.getInstance().refresh().getChildren(this.myPid));
 		} catch (final USMException e) {
 			throw new IllegalStateException("Failed to read child processes", e);
 		}
@@ -87,45 +85,12 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 
 	}
 
-	/**********
-	 * Creates a process tree of the given Process IDs. Each entry in the map maps a PID to the set of its child PIDs.
-	 *
-	 * @param pids
-	 * @return
-	 */
-	private Map<Long, Set<Long>> createProcessTree(final long[] pids) {
-
-		final HashMap<Long, Set<Long>> map = new HashMap<Long, Set<Long>>();
-		for (final long pid : pids) {
-			final Set<Long> childSet = map.get(pid);
-			if (childSet == null) {
-				map.put(pid, new HashSet<Long>());
-			}
-
-			try {
-				final long ppid = this.sigar.getProcState(pid).getPpid();
-
-				Set<Long> set = map.get(ppid);
-				if (set == null) {
-					set = new HashSet<Long>();
-					map.put(ppid, set);
-				}
-				set.add(pid);
-			} catch (final SigarException e) {
-				logger.log(Level.WARNING, "Failed to get Parent Process for process: " + pid, e);
-			}
-		}
-
-		return map;
-
-	}
-
-	private long findNewChildProcessID(final Set<Long> childrenBefore, final Map<Long, Set<Long>> procTree)
+	private long findNewChildProcessID(final Set<Long> childrenBefore, final ProcessTable.Snapshot procTree)
 			throws USMException {
-		final Set<Long> childrenAfter = procTree.get(this.myPid);
-		if (childrenAfter == null) {
+		if (!procTree.contains(this.myPid)) {
 			throw new USMException("Could not find container process (" + this.myPid + ") in generated process tree");
 		}
+		final Set<Long> childrenAfter = new HashSet<Long>(procTree.getChildren(this.myPid));
 		childrenAfter.removeAll(childrenBefore);
 
 		if (childrenAfter.isEmpty()) {
@@ -154,12 +119,12 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 	 * @param leafPids
 	 *            the result leaf pids list.
 	 */
-	private void findLeafProcessIDs(final long parentProcessID, final Map<Long, Set<Long>> procTree,
+	private void findLeafProcessIDs(final long parentProcessID, final ProcessTable.Snapshot procTree,
 			final List<Long> leafPids) {
 
-		final Set<Long> pids = procTree.get(parentProcessID);
+		final Set<Long> pids = procTree.getChildren(parentProcessID);
 
-		if (pids == null || pids.isEmpty()) {
+		if (pids.isEmpty()) {
 			leafPids.add(parentProcessID);
 			return;
 		}
@@ -175,8 +140,7 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 	private void findProcessIDs()
 			throws USMException {
 
-		final long[] allPids = getAllPids();
-		final Map<Long, Set<Long>> procTree = createProcessTree(allPids);
+		final ProcessTable.Snapshot procTree = ProcessTable.getInstance().refresh();
 		this.childProcessID = findNewChildProcessID(childrenBeforeStart, procTree);
 		if (this.childProcessID == 0) {
 			logger.warning("Default foreground process locator was unable to locate a new child process. "
@@ -205,11 +169,12 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 	}
 
 	private void checkForConsoleProcess() {
+		final ProcessTable processTable = ProcessTable.getInstance();
 		final List<Long> pids = this.serviceProcesses;
 		for (final Long pid : pids) {
 			try {
-				String procName = this.sigar.getProcExe(pid).getName();
-				String[] procArgs = this.sigar.getProcArgs(pid);
+				String procName = processTable.getProcessName(pid);
+				String[] procArgs = processTable.getProcessArgs(pid);
 
 				// sigar could return anything...
 				if (procName == null) {
@@ -227,7 +192,7 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 								+ "and not for the child process it probably has. Are you missing a Start Detector?");
 					}
 				}
-			} catch (final SigarException e) {
+			} catch (final USMException e) {
 				logger.log(Level.SEVERE,
 						"While checking if process is a console, failed to read the process name for process: " + pid,
 						e);
@@ -237,42 +202,6 @@ public class DefaultProcessLocator extends AbstractUSMEventListener implements P
 
 	}
 
-	private Set<Long> getChildProcesses(final long ppid)
-			throws USMException {
-		final long[] pids = getAllPids();
-		return getChildProcesses(ppid, pids);
-	}
-
-	private long[] getAllPids()
-			throws USMException {
-		long[] pids;
-		try {
-			pids = this.sigar.getProcList();
-		} catch (final SigarException se) {
-			throw new USMException("Failed to look up process IDs. Error was: " + se.getMessage(), se);
-		}
-		return pids;
-	}
-
-	private Set<Long> getChildProcesses(final long ppid, final long[] pids) {
-
-		final Set<Long> children = new HashSet<Long>();
-		for (final long pid : pids) {
-			try {
-				if (ppid == this.sigar.getProcState(pid).getPpid()) {
-					children.add(pid);
-				}
-			} catch (final SigarException e) {
-				logger.log(Level.WARNING, "While scanning for child processes of process " + ppid
-						+ ", could not read process state of Process: " + pid + ". Ignoring.", e);
-
-			}
-
-		}
-		return children;
-
-	}
-
 	@Override
 	public void init(final UniversalServiceManagerBean usm) {
 		super.init(usm);
@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.locator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.cloudifysource.usm.USMException;
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
+
+import com.gigaspaces.internal.sigar.SigarHolder;
+
+/************
+ * Maintains an index of the process table of this host, mapping each process to its parent and children. On Linux, the
+ * index is built from /proc, reading the parent and start time of each process from a single read of its stat file. On
+ * other platforms, the index is built using SIGAR.
+ *
+ * Each process is identified by its ID together with its start time, so a process ID that was reused by a new process
+ * is never mistaken for the process it replaced.
+ *
+ * Each refresh returns an immutable snapshot, so the children of a process are found without scanning the table.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class ProcessTable {
+
+	private static final String PROC_DIR = "/proc";
+	private static final int BUFFER_SIZE = 4096;
+	// the index of the start time field in /proc/[pid]/stat, counting the state field, which follows the name, as 0.
+	private static final int STAT_START_TIME_INDEX = 19;
+
+	private static final java.util.logging.Logger logger =
+			java.util.logging.Logger.getLogger(ProcessTable.class.getName());
+
+	private static final ProcessTable INSTANCE = new ProcessTable(new File(PROC_DIR));
+
+	/************
+	 * The parent and start time of a process.
+	 */
+	public static final class ProcessInfo {
+		private final long parent;
+		private final long startTime;
+
+		private ProcessInfo(final long parent, final long startTime) {
+			this.parent = parent;
+			this.startTime = startTime;
+		}
+
+		public long getParent() {
+			return parent;
+		}
+
+		/********
+		 * Returns the start time of the process, in platform specific units. Start times can only be compared with
+		 * other start times read by the same process table.
+		 *
+		 * @return the start time.
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+	}
+
+	/************
+	 * An immutable view of the process table.
+	 */
+	public static final class Snapshot {
+		private final Map<Long, ProcessInfo> processes;
+		private final Map<Long, Set<Long>> children;
+
+		private Snapshot(final Map<Long, ProcessInfo> processes) {
+			this.processes = processes;
+			this.children = new HashMap<Long, Set<Long>>();
+			for (final Map.Entry<Long, ProcessInfo> entry : processes.entrySet()) {
+				final Long parent = entry.getValue().getParent();
+				Set<Long> set = this.children.get(parent);
+				if (set == null) {
+					set = new HashSet<Long>();
+					this.children.put(parent, set);
+				}
+				set.add(entry.getKey());
+			}
+		}
+
+		/********
+		 * Checks if a process was running when the snapshot was taken.
+		 *
+		 * @param pid
+		 *            the process ID.
+		 * @return true if the process is in the snapshot.
+		 */
+		public boolean contains(final long pid) {
+			return this.processes.containsKey(pid);
+		}
+
+		/********
+		 * Returns the parent and start time of a process.
+		 *
+		 * @param pid
+		 *            the process ID.
+		 * @return the process details, or null if the process is not in the snapshot.
+		 */
+		public ProcessInfo getProcess(final long pid) {
+			return this.processes.get(pid);
+		}
+
+		/********
+		 * Returns the direct children of a process.
+		 *
+		 * @param pid
+		 *            the process ID.
+		 * @return the child process IDs, never null. The returned set must not be modified.
+		 */
+		public Set<Long> getChildren(final long pid) {
+			final Set<Long> result = this.children.get(pid);
+			if (result == null) {
+				return Collections.emptySet();
+			}
+			return Collections.unmodifiableSet(result);
+		}
+
+		/********
+		 * Returns all descendants of a process.
+		 *
+		 * @param pid
+		 *            the root process ID.
+		 * @return the descendant process IDs, each process before its own children.
+		 */
+		public List<Long> getDescendants(final long pid) {
+			final List<Long> result = new ArrayList<Long>(getChildren(pid));
+			for (int i = 0; i < result.size(); i++) {
+				result.addAll(getChildren(result.get(i)));
+			}
+			return result;
+		}
+
+		/********
+		 * Returns the IDs of all processes in the snapshot.
+		 *
+		 * @return the process IDs.
+		 */
+		public Set<Long> getPids() {
+			return Collections.unmodifiableSet(this.processes.keySet());
+		}
+	}
+
+	private final File procDir;
+	private final boolean procAvailable;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private Map<Long, ProcessInfo> processes = new HashMap<Long, ProcessInfo>();
+
+	/*********
+	 * Creates a process table that reads the given proc file system. If it is not readable, SIGAR is used instead.
+	 * Callers should normally use the shared instance returned by {@link #getInstance()}.
+	 *
+	 * @param procDir
+	 *            the proc file system directory.
+	 */
+	public ProcessTable(final File procDir) {
+		this.procDir = procDir;
+		this.procAvailable = new File(procDir, "self/stat").canRead();
+	}
+
+	/*********
+	 * Returns the process table of this host.
+	 *
+	 * @return the process table.
+	 */
+	public static ProcessTable getInstance() {
+		return INSTANCE;
+	}
+
+	/*********
+	 * Scans the process table and returns an up to date snapshot of it.
+	 *
+	 * @return the snapshot.
+	 * @throws USMException
+	 *             if the process list could not be read.
+	 */
+	public synchronized Snapshot refresh()
+			throws USMException {
+		final long now = System.currentTimeMillis();
+		final long[] pids = procAvailable ? listProcPids() : listSigarPids();
+
+		final Map<Long, ProcessInfo> previous = this.processes;
+		final Map<Long, ProcessInfo> current = new HashMap<Long, ProcessInfo>(pids.length * 2);
+		int changed = 0;
+		for (final long pid : pids) {
+			final ProcessInfo info = readProcess(pid);
+			if (info == null) {
+				// terminated while the table was scanned
+				continue;
+			}
+			// the parent is always taken from the current read, as a process is re-parented when its parent exits
+			current.put(pid, info);
+			final ProcessInfo cached = previous.get(pid);
+			if (cached == null || cached.getStartTime() != info.getStartTime()) {
+				// a new process, or a process ID that was reused by a new process
+				++changed;
+			}
+		}
+
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Process table refreshed: " + current.size() + " processes, " + changed
+					+ " new since the previous refresh, in " + (System.currentTimeMillis() - now) + " ms");
+		}
+		this.processes = current;
+		return new Snapshot(current);
+	}
+
+	/*********
+	 * Reads the current parent and start time of a process, bypassing the index. Used to check that a process ID still
+	 * belongs to the process it was recorded for.
+	 *
+	 * @param pid
+	 *            the process ID.
+	 * @return the process details, or null if the process is not running.
+	 */
+	public synchronized ProcessInfo readProcess(final long pid) {
+		if (procAvailable) {
+			final int length = readFile(new File(procDir, pid + "/stat"));
+			return parseStat(buffer, length);
+		}
+		return readSigarProcess(pid);
+	}
+
+	/*********
+	 * Returns the executable name of a process.
+	 *
+	 * @param pid
+	 *            the process ID.
+	 * @return the executable name, or null if it is not available.
+	 * @throws USMException
+	 *             if the process details could not be read.
+	 */
+	public String getProcessName(final long pid)
+			throws USMException {
+		if (procAvailable) {
+			try {
+				// exe is a link to the executable, which is only readable by the owner of the process.
+				final File exe = new File(procDir, pid + "/exe");
+				final String path = exe.getCanonicalPath();
+				if (!path.equals(exe.getAbsolutePath())) {
+					return path;
+				}
+			} catch (final IOException e) {
+				// fall back to sigar
+			}
+		}
+		try {
+			return getSigar().getProcExe(pid).getName();
+		} catch (final SigarException e) {
+			throw new USMException("Failed to read the executable of process " + pid + ": " + e.getMessage(), e);
+		}
+	}
+
+	/*********
+	 * Returns the command line arguments of a process.
+	 *
+	 * @param pid
+	 *            the process ID.
+	 * @return the arguments, or null if they are not available.
+	 * @throws USMException
+	 *             if the process details could not be read.
+	 */
+	public String[] getProcessArgs(final long pid)
+			throws USMException {
+		try {
+			return getSigar().getProcArgs(pid);
+		} catch (final SigarException e) {
+			throw new USMException("Failed to read the arguments of process " + pid + ": " + e.getMessage(), e);
+		}
+	}
+
+	private long[] listProcPids()
+			throws USMException {
+		final String[] names = procDir.list();
+		if (names == null) {
+			throw new USMException("Failed to list process IDs in " + procDir);
+		}
+		final long[] result = new long[names.length];
+		int count = 0;
+		for (final String name : names) {
+			if (name.length() > 0 && Character.isDigit(name.charAt(0))) {
+				try {
+					result[count] = Long.parseLong(name);
+					++count;
+				} catch (final NumberFormatException e) {
+					// not a process directory
+				}
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private long[] listSigarPids()
+			throws USMException {
+		try {
+			return getSigar().getProcList();
+		} catch (final SigarException se) {
+			throw new USMException("Failed to look up process IDs. Error was: " + se.getMessage(), se);
+		}
+	}
+
+	/*********
+	 * Parses the contents of a /proc/[pid]/stat file.
+	 *
+	 * @param data
+	 *            the file contents.
+	 * @param length
+	 *            the length of the contents, or -1 if the file could not be read.
+	 * @return the parent and start time of the process, or null if the contents are not valid.
+	 */
+	static ProcessInfo parseStat(final byte[] data, final int length) {
+		// the process name may contain spaces and parentheses - the other fields follow the last ')'
+		int index = length - 1;
+		while (index >= 0 && data[index] != ')') {
+			--index;
+		}
+		if (index < 0) {
+			return null;
+		}
+		index += 2;
+
+		long parent = -1;
+		long startTime = -1;
+		for (int field = 0; field <= STAT_START_TIME_INDEX && index < length; ++field) {
+			long value = 0;
+			while (index < length && data[index] >= '0' && data[index] <= '9') {
+				value = value * 10 + (data[index] - '0');
+				++index;
+			}
+			if (field == 1) {
+				parent = value;
+			} else if (field == STAT_START_TIME_INDEX) {
+				startTime = value;
+			}
+			// skip the rest of the field, which is not numeric for the state field
+			while (index < length && data[index] != ' ') {
+				++index;
+			}
+			++index;
+		}
+		if (parent < 0 || startTime < 0) {
+			return null;
+		}
+		return new ProcessInfo(parent, startTime);
+	}
+
+	private ProcessInfo readSigarProcess(final long pid) {
+		try {
+			final Sigar sigar = getSigar();
+			return new ProcessInfo(sigar.getProcState(pid).getPpid(), sigar.getProcTime(pid).getStartTime());
+		} catch (final SigarException e) {
+			logger.log(Level.FINE, "Failed to read the details of process: " + pid, e);
+			return null;
+		}
+	}
+
+	private int readFile(final File path) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(path);
+			int total = 0;
+			int read = 0;
+			while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+				total += read;
+			}
+			return total;
+		} catch (final IOException e) {
+			return -1;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private static Sigar getSigar() {
+		return SigarHolder.getSigar();
+	}
+}
@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.monitors.process;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+
+/*************
+ * Collects process metrics on Linux by reading the /proc file system directly, instead of going through Sigar for each
+ * process. All processes are read in one pass into primitive arrays, using a single reusable read buffer. The metric
+ * key names of each process are created once and reused for as long as the process is sampled.
+ *
+ * The reported metrics match the ones reported by {@link MonitorData}. CPU usage is calculated from the CPU time
+ * consumed between two samples, so it is reported as zero on the first sample of a process, like Sigar does.
+ *
+ * This class is not thread safe.
+ *
+ * @since 2.6.0
+ *
+ */
+public class LinuxProcessSampler {
+
+	private static final String PROC_DIR = "/proc/";
+	// USER_HZ, the unit of the time values in /proc/[pid]/stat. Fixed at 100 on all common Linux platforms.
+	private static final long CLOCK_TICKS_PER_SECOND = 100;
+	private static final long DEFAULT_PAGE_SIZE = 4096;
+	// page sizes outside this range are not real page sizes, and indicate a bad calculation.
+	private static final long MIN_PAGE_SIZE = 1024;
+	private static final long MAX_PAGE_SIZE = 1024 * 1024;
+	private static final int BUFFER_SIZE = 4096;
+
+	// indexes of the fields in /proc/[pid]/stat, counted from the 'state' field that follows the command name.
+	private static final int STAT_MINOR_FAULTS = 7;
+	private static final int STAT_MAJOR_FAULTS = 9;
+	private static final int STAT_USER_TIME = 11;
+	private static final int STAT_SYSTEM_TIME = 12;
+	private static final int STAT_PRIORITY = 15;
+	private static final int STAT_THREADS = 17;
+	private static final int STAT_VIRTUAL_SIZE = 20;
+	private static final int STAT_FIELDS = 22;
+
+	// indexes of the fields in /proc/[pid]/statm
+	private static final int STATM_SIZE = 0;
+	private static final int STATM_RESIDENT = 1;
+	private static final int STATM_SHARED = 2;
+	private static final int STATM_FIELDS = 3;
+
+	// indexes of the sampled metrics
+	private static final int CPU_KERNEL_TIME = 0;
+	private static final int TOTAL_CPU_TIME = 1;
+	private static final int GROUP_ID = 2;
+	private static final int USER_ID = 3;
+	private static final int PAGE_FAULTS = 4;
+	private static final int RESIDENT_MEMORY = 5;
+	private static final int SHARED_MEMORY = 6;
+	private static final int VIRTUAL_MEMORY = 7;
+	private static final int ACTIVE_THREADS = 8;
+	private static final int READ_BYTES = 9;
+	private static final int WRITE_BYTES = 10;
+	private static final int NUM_OF_METRICS = 11;
+
+	// key names of the sampled metrics, followed by the keys of values calculated or fixed by this class.
+	private static final String[] KEYS = {
+			CloudifyConstants.USM_METRIC_PROCESS_CPU_KERNEL_TIME,
+			CloudifyConstants.USM_METRIC_PROCESS_TOTAL_CPU_TIME,
+			CloudifyConstants.USM_METRIC_PROCESS_GROUP_ID,
+			CloudifyConstants.USM_METRIC_PROCESS_USER_ID,
+			CloudifyConstants.USM_METRIC_PROCESS_TOTAL_PAGE_FAULTS,
+			CloudifyConstants.USM_METRIC_PROCESS_TOTAL_RESIDENTAL_MEMORY,
+			CloudifyConstants.USM_METRIC_PROCESS_TOTAL_SHARED_MEMORY,
+			CloudifyConstants.USM_METRIC_PROCESS_CPU_TOTAL_VIRTUAL_MEMORY,
+			CloudifyConstants.USM_METRIC_PROCESS_ACTIVE_THREADS,
+			CloudifyConstants.USM_METRIC_PROCESS_READ_BYTES,
+			CloudifyConstants.USM_METRIC_PROCESS_WRITE_BYTES,
+			// calculated and fixed values
+			CloudifyConstants.USM_METRIC_PROCESS_CPU_USAGE,
+			CloudifyConstants.USM_METRIC_PROCESS_KERNEL_SCHEDULING_PRIORITY,
+			CloudifyConstants.USM_METRIC_AVAILABLE_PROCESSORS,
+			CloudifyConstants.USM_METRIC_COMMITTED_VIRTUAL_MEM_SIZE,
+			CloudifyConstants.USM_METRIC_PROCESS_CPU_TIME,
+			CloudifyConstants.USM_METRIC_THREAD_COUNT,
+			CloudifyConstants.USM_METRIC_PEAK_THREAD_COUNT };
+	private static final int CPU_USAGE_KEY = NUM_OF_METRICS;
+	private static final int PRIORITY_KEY = NUM_OF_METRICS + 1;
+
+	private static final byte[] UID_LABEL = "\nUid:".getBytes();
+	private static final byte[] GID_LABEL = "\nGid:".getBytes();
+	private static final byte[] READ_BYTES_LABEL = "\nread_bytes:".getBytes();
+	private static final byte[] WRITE_BYTES_LABEL = "\nwrite_bytes:".getBytes();
+
+	private static final Long ZERO_LONG = Long.valueOf(0);
+	private static final Integer ZERO_INT = Integer.valueOf(0);
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(LinuxProcessSampler.class
+			.getName());
+
+	/***********
+	 * Sampling state of a single process.
+	 */
+	private static final class ProcessEntry {
+		private final String[] keys;
+		private final long[] metrics = new long[NUM_OF_METRICS];
+		private int priority;
+		private long lastTotalCpuMillis = -1;
+		private long lastSampleNanos;
+		private double cpuUsage;
+
+		private ProcessEntry(final long pid) {
+			this.keys = new String[KEYS.length];
+			final String postfix = "-" + pid;
+			for (int i = 0; i < KEYS.length; i++) {
+				this.keys[i] = KEYS[i] + postfix;
+			}
+		}
+	}
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final long[] statFields = new long[STAT_FIELDS];
+	private final long[] statmFields = new long[STATM_FIELDS];
+	private final Map<Long, ProcessEntry> entries = new HashMap<Long, ProcessEntry>();
+	private final String procDir;
+	private final long pageSize;
+
+	/*********
+	 * Constructor.
+	 */
+	public LinuxProcessSampler() {
+		this(new File(PROC_DIR));
+	}
+
+	/*********
+	 * Constructor.
+	 *
+	 * @param procDir the directory of the proc file system.
+	 */
+	public LinuxProcessSampler(final File procDir) {
+		this.procDir = procDir.getPath() + File.separator;
+		this.pageSize = calculatePageSize();
+	}
+
+	/*********
+	 * Returns the size of a memory page, used to convert the values in /proc/[pid]/statm to bytes.
+	 *
+	 * @return the page size in bytes.
+	 */
+	public long getPageSize() {
+		return pageSize;
+	}
+
+	/*********
+	 * Checks if the /proc file system is available on this host.
+	 *
+	 * @return true if this sampler can be used.
+	 */
+	public static boolean isSupported() {
+		return new File(PROC_DIR + "self/stat").canRead() && new File(PROC_DIR + "self/statm").canRead();
+	}
+
+	/*********
+	 * Samples the given processes. If a single process is sampled, the metric names are used as keys. Otherwise, the
+	 * process id is appended to each key name. Processes that are no longer in the list are forgotten.
+	 *
+	 * @param pids the processes to sample.
+	 * @return the metrics of all processes.
+	 */
+	public Map<String, Number> sample(final List<Long> pids) {
+		this.entries.keySet().retainAll(pids);
+
+		final Map<String, Number> result = new HashMap<String, Number>(pids.size() * KEYS.length * 2);
+		final boolean usePostfix = pids.size() > 1;
+		for (final Long pid : pids) {
+			ProcessEntry entry = this.entries.get(pid);
+			if (entry == null) {
+				entry = new ProcessEntry(pid);
+				this.entries.put(pid, entry);
+			}
+			sampleProcess(pid, entry);
+			putProcessMetrics(usePostfix ? entry.keys : KEYS, entry, result);
+		}
+		return result;
+	}
+
+	private void putProcessMetrics(final String[] keys, final ProcessEntry entry, final Map<String, Number> result) {
+		for (int i = 0; i < NUM_OF_METRICS; i++) {
+			result.put(keys[i], Long.valueOf(entry.metrics[i]));
+		}
+		result.put(keys[CPU_USAGE_KEY], Double.valueOf(entry.cpuUsage));
+		result.put(keys[PRIORITY_KEY], Integer.valueOf(entry.priority));
+		// values that MonitorData never fills in, kept so the reported keys stay the same
+		result.put(keys[PRIORITY_KEY + 1], ZERO_INT);
+		result.put(keys[PRIORITY_KEY + 2], ZERO_LONG);
+		result.put(keys[PRIORITY_KEY + 3], ZERO_LONG);
+		result.put(keys[PRIORITY_KEY + 4], ZERO_INT);
+		result.put(keys[PRIORITY_KEY + 5], ZERO_INT);
+	}
+
+	private void sampleProcess(final long pid, final ProcessEntry entry) {
+		final long[] metrics = entry.metrics;
+		Arrays.fill(metrics, 0);
+		entry.priority = 0;
+		final String processDir = this.procDir + pid;
+
+		int length = readFile(processDir + "/stat");
+		if (length > 0 && parseStat(length)) {
+			final long userMillis = ticksToMillis(statFields[STAT_USER_TIME]);
+			final long systemMillis = ticksToMillis(statFields[STAT_SYSTEM_TIME]);
+			metrics[CPU_KERNEL_TIME] = systemMillis;
+			metrics[TOTAL_CPU_TIME] = userMillis + systemMillis;
+			metrics[PAGE_FAULTS] = statFields[STAT_MINOR_FAULTS] + statFields[STAT_MAJOR_FAULTS];
+			metrics[ACTIVE_THREADS] = statFields[STAT_THREADS];
+			entry.priority = (int) statFields[STAT_PRIORITY];
+			updateCpuUsage(entry, metrics[TOTAL_CPU_TIME]);
+		} else {
+			logger.fine("Failed to read stat file of process " + pid);
+			entry.cpuUsage = 0;
+			entry.lastTotalCpuMillis = -1;
+		}
+
+		length = readFile(processDir + "/statm");
+		if (length > 0) {
+			parseFields(0, length, statmFields);
+			metrics[VIRTUAL_MEMORY] = statmFields[STATM_SIZE] * pageSize;
+			metrics[RESIDENT_MEMORY] = statmFields[STATM_RESIDENT] * pageSize;
+			metrics[SHARED_MEMORY] = statmFields[STATM_SHARED] * pageSize;
+		}
+
+		length = readFile(processDir + "/status");
+		if (length > 0) {
+			metrics[USER_ID] = findValue(length, UID_LABEL);
+			metrics[GROUP_ID] = findValue(length, GID_LABEL);
+		}
+
+		// only readable by the owner of the process
+		length = readFile(processDir + "/io");
+		if (length > 0) {
+			metrics[READ_BYTES] = findValue(length, READ_BYTES_LABEL);
+			metrics[WRITE_BYTES] = findValue(length, WRITE_BYTES_LABEL);
+		}
+	}
+
+	private void updateCpuUsage(final ProcessEntry entry, final long totalCpuMillis) {
+		final long now = System.nanoTime();
+		if (entry.lastTotalCpuMillis >= 0) {
+			final long elapsedMillis = (now - entry.lastSampleNanos) / 1000000;
+			if (elapsedMillis > 0) {
+				entry.cpuUsage = (double) (totalCpuMillis - entry.lastTotalCpuMillis) / elapsedMillis;
+			}
+		}
+		entry.lastTotalCpuMillis = totalCpuMillis;
+		entry.lastSampleNanos = now;
+	}
+
+	private static long ticksToMillis(final long ticks) {
+		return ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+	}
+
+	private boolean parseStat(final int length) {
+		// the command name is in parentheses and may contain spaces - fields start after the last ')'
+		int index = length - 1;
+		while (index >= 0 && buffer[index] != ')') {
+			--index;
+		}
+		if (index < 0) {
+			return false;
+		}
+		return parseFields(index + 1, length, statFields) == STAT_FIELDS;
+	}
+
+	/**********
+	 * Parses whitespace separated fields from the buffer into the given array. Fields that are not numbers are set to
+	 * zero.
+	 *
+	 * @return the number of parsed fields.
+	 */
+	private int parseFields(final int start, final int length, final long[] fields) {
+		Arrays.fill(fields, 0);
+		int fieldIndex = 0;
+		int index = start;
+		while (fieldIndex < fields.length) {
+			while (index < length && isWhitespace(buffer[index])) {
+				++index;
+			}
+			if (index >= length) {
+				break;
+			}
+			index = parseLong(index, length, fields, fieldIndex);
+			while (index < length && !isWhitespace(buffer[index])) {
+				++index;
+			}
+			++fieldIndex;
+		}
+		return fieldIndex;
+	}
+
+	// finds a label in the buffer and returns the first number that follows it, or 0 if not found.
+	private long findValue(final int length, final byte[] label) {
+		final int last = length - label.length;
+		for (int i = 0; i <= last; i++) {
+			int j = 0;
+			while (j < label.length && buffer[i + j] == label[j]) {
+				++j;
+			}
+			if (j == label.length) {
+				int index = i + j;
+				while (index < length && isWhitespace(buffer[index])) {
+					++index;
+				}
+				parseLong(index, length, statmFields, 0);
+				return statmFields[0];
+			}
+		}
+		return 0;
+	}
+
+	private int parseLong(final int start, final int length, final long[] target, final int targetIndex) {
+		int index = start;
+		boolean negative = false;
+		if (index < length && buffer[index] == '-') {
+			negative = true;
+			++index;
+		}
+		long value = 0;
+		while (index < length && buffer[index] >= '0' && buffer[index] <= '9') {
+			value = value * 10 + (buffer[index] - '0');
+			++index;
+		}
+		target[targetIndex] = negative ? -value : value;
+		return index;
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\n' || b == '\t';
+	}
+
+	private int readFile(final String path) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(path);
+			int total = 0;
+			int read = 0;
+			while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+				total += read;
+			}
+			return total;
+		} catch (final IOException e) {
+			// process terminated, or file not accessible
+			return -1;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	// the page size is the virtual size in bytes from stat, divided by the virtual size in pages from statm.
+	// The two files are not read at the same instant, so the ratio is rounded to the nearest power of two.
+	private long calculatePageSize() {
+		int length = readFile(procDir + "self/stat");
+		if (length <= 0 || !parseStat(length)) {
+			return DEFAULT_PAGE_SIZE;
+		}
+		final long virtualBytes = statFields[STAT_VIRTUAL_SIZE];
+
+		length = readFile(procDir + "self/statm");
+		if (length <= 0) {
+			return DEFAULT_PAGE_SIZE;
+		}
+		parseFields(0, length, statmFields);
+		final long virtualPages = statmFields[STATM_SIZE];
+		if (virtualBytes <= 0 || virtualPages <= 0) {
+			return DEFAULT_PAGE_SIZE;
+		}
+		final long roundedSize = roundToPowerOfTwo(virtualBytes / virtualPages);
+		if (roundedSize < MIN_PAGE_SIZE || roundedSize > MAX_PAGE_SIZE) {
+			logger.fine("Calculated an invalid page size: " + roundedSize + ", using the default page size");
+			return DEFAULT_PAGE_SIZE;
+		}
+		return roundedSize;
+	}
+
+	private static long roundToPowerOfTwo(final long value) {
+		final long lower = Long.highestOneBit(value);
+		final long upper = lower << 1;
+		return value - lower < upper - value ? lower : upper;
+	}
+}
@@ -30,7 +30,8 @@ import org.hyperic.sigar.Sigar;
 import com.gigaspaces.internal.sigar.SigarHolder;
 
 /*************
- * Monitor implementation that collects operating system metrics using SIGAR.
+ * Monitor implementation that collects operating system metrics. On Linux, metrics of all service processes are read
+ * directly from /proc in a single pass. On other platforms, metrics are collected using SIGAR.
  * 
  * @author barakme
  * @since 2.1.0
@@ -39,6 +40,8 @@ import com.gigaspaces.internal.sigar.SigarHolder;
 public class ProcessMonitor implements Monitor {
 
 	private final Sigar sigar = SigarHolder.getSigar();
+	private final LinuxProcessSampler linuxSampler = LinuxProcessSampler.isSupported() ? new LinuxProcessSampler()
+			: null;
 
 	@Override
 	public Map<String, Number> getMonitorValues(final UniversalServiceManagerBean usm,
@@ -49,6 +52,10 @@ public class ProcessMonitor implements Monitor {
 
 		if (pids.isEmpty()) {
 			return new HashMap<String, Number>();
+		} else if (linuxSampler != null) {
+			synchronized (linuxSampler) {
+				return linuxSampler.sample(pids);
+			}
 		} else if (pids.size() == 1) {
 			final MonitorData data = new MonitorData(sigar, pids.get(0));
 			final Map<String, Number> map = data.getDataMap();
@@ -15,8 +15,19 @@
  *******************************************************************************/
 package org.cloudifysource.usm.shutdown;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
 import org.cloudifysource.usm.USMException;
 import org.cloudifysource.usm.USMUtils;
+import org.cloudifysource.usm.locator.ProcessTable;
 import org.hyperic.sigar.Sigar;
 import org.hyperic.sigar.SigarException;
 
@@ -24,20 +35,37 @@ import com.gigaspaces.internal.sigar.SigarHolder;
 
 /**********
  * The default process killer implementation, which uses SIGAR to kill processes.
+ *
+ * A process is killed together with all of its descendants. The whole process tree is signalled at once with SIGTERM,
+ * and all of its processes share a single termination timeout. Processes that are still running when the timeout
+ * expires are killed with signal 9 (SIGKILL).
+ *
+ * The process tree is read from the {@link ProcessTable}, which records the start time of every process. Before each
+ * signal, every target is read again, and is only signalled if its start time did not change, and it is still a child
+ * of its recorded parent (unless that parent has exited, and the process was re-parented). A process ID that was
+ * reused by an unrelated process is therefore never signalled.
+ *
+ * On Windows, SIGAR terminates the process for any signal, so the first signal already kills the tree. Signal 9 is
+ * passed by number, as SIGAR only resolves the signal names defined by the platform, and Windows does not define
+ * SIGKILL.
  * 
  * @author barakme
  * 
  */
-public class DefaultProcessKiller implements ProcessKiller {
+public class DefaultProcessKiller implements ProcessTreeKiller {
 
-	private static final int POST_KILL_SLEEP_INTERVAL = 100;
-	private static final int PROCESS_STATUS_CHECK_INTERVAL = 200;
-	private static final int PROCESS_STATUS_CHECK_ATTEMPTS = 5;
+	private static final long PROCESS_STATUS_CHECK_INTERVAL = 100;
+	private static final long DEFAULT_TERMINATION_TIMEOUT_MILLIS = 3000;
+	private static final long DEFAULT_KILL_TIMEOUT_MILLIS = 2000;
+	private static final String TERMINATE_SIGNAL = "SIGTERM";
+	private static final String KILL_SIGNAL = "9";
 
 	private static java.util.logging.Logger logger =
 			java.util.logging.Logger.getLogger(DefaultProcessKiller.class.getName());
 
 	private int killRetries = 2;
+	private long terminationTimeoutMillis = DEFAULT_TERMINATION_TIMEOUT_MILLIS;
+	private long killTimeoutMillis = DEFAULT_KILL_TIMEOUT_MILLIS;
 
 	@Override
 	public void killProcess(final long pid)
@@ -46,51 +74,199 @@ public class DefaultProcessKiller implements ProcessKiller {
 			return; // this is possible in some end case situations, in the
 					// IntegratedProcessingUnitContainer
 		}
+		killProcessTrees(Collections.singletonList(pid));
+	}
+
+	@Override
+	public void killProcessTrees(final List<Long> pids)
+			throws USMException {
+		final Set<Long> roots = new LinkedHashSet<Long>();
+		for (final Long pid : pids) {
+			if (pid != null && pid.longValue() != 0) {
+				roots.add(pid);
+			}
+		}
+		if (roots.isEmpty()) {
+			return;
+		}
+
+		// the tree is read before any process is signalled - once a parent dies, its children are re-parented and can
+		// no longer be found from it.
+		final Map<Long, ProcessTable.ProcessInfo> survivors = new LinkedHashMap<Long, ProcessTable.ProcessInfo>();
+		collectProcessTrees(roots, survivors);
+		logger.info("Killing processes: " + survivors.keySet());
+
 		final Sigar sigar = SigarHolder.getSigar();
+		signal(sigar, survivors, TERMINATE_SIGNAL);
+		waitForExit(survivors, terminationTimeoutMillis);
+
+		for (int retries = 0; retries < Math.max(1, killRetries) && !survivors.isEmpty(); ++retries) {
+			// look for children forked while the tree was shutting down.
+			collectProcessTrees(new ArrayList<Long>(survivors.keySet()), survivors);
+			logger.warning("Processes " + survivors.keySet() + " did not shut down within "
+					+ terminationTimeoutMillis + " ms, killing them (attempt " + (retries + 1) + ")");
+			signal(sigar, survivors, KILL_SIGNAL);
+			waitForExit(survivors, killTimeoutMillis);
+		}
+
+		if (!survivors.isEmpty()) {
+			logger.severe("Processes " + survivors.keySet() + " did not die as expected!");
+			throw new USMException("Attempt to kill processes " + survivors.keySet() + " failed!");
+		}
+		logger.info("Processes " + roots + " and their descendants are dead");
+	}
+
+	// adds the running processes of the trees to the targets, each process before its own children. Processes that are
+	// already targets keep the details recorded when they were first found.
+	private void collectProcessTrees(final Iterable<Long> roots, final Map<Long, ProcessTable.ProcessInfo> targets) {
+		final ProcessTable processTable = ProcessTable.getInstance();
+		ProcessTable.Snapshot snapshot = null;
+		try {
+			snapshot = processTable.refresh();
+		} catch (final USMException e) {
+			logger.log(Level.WARNING, "Failed to read the process table, descendant processes of " + roots
+					+ " will not be killed: " + e.getMessage(), e);
+		}
+		for (final Long root : roots) {
+			if (snapshot == null) {
+				addTarget(targets, root, processTable.readProcess(root));
+			} else if (snapshot.contains(root)) {
+				addTarget(targets, root, snapshot.getProcess(root));
+				for (final Long pid : snapshot.getDescendants(root)) {
+					addTarget(targets, pid, snapshot.getProcess(pid));
+				}
+			}
+		}
+	}
 
-		for (int retries = 0; retries <= killRetries; ++retries) {
+	private static void addTarget(final Map<Long, ProcessTable.ProcessInfo> targets, final Long pid,
+			final ProcessTable.ProcessInfo info) {
+		if (info != null && !targets.containsKey(pid)) {
+			targets.put(pid, info);
+		}
+	}
+
+	private void signal(final Sigar sigar, final Map<Long, ProcessTable.ProcessInfo> targets, final String signal) {
+		// sending a signal does not block, so the whole tree is signalled at once.
+		final Iterator<Map.Entry<Long, ProcessTable.ProcessInfo>> iterator = targets.entrySet().iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<Long, ProcessTable.ProcessInfo> entry = iterator.next();
+			final Long pid = entry.getKey();
+			if (!isSameProcess(pid, entry.getValue(), targets)) {
+				iterator.remove();
+				continue;
+			}
 			try {
-				logger.info("Killing process: " + pid);
-				sigar.kill(pid, "SIGTERM"); // (9 is the only signal used for
-											// Kill on windows)
+				sigar.kill(pid, signal);
 			} catch (final SigarException e) {
-				logger.warning("Failed to shut down process: " + pid + ". Process may already be dead. Error was: "
-						+ e.getMessage() + ".");
+				logger.warning("Failed to send signal " + signal + " to process: " + pid
+						+ ". Process may already be dead. Error was: " + e.getMessage() + ".");
 			}
+		}
+	}
 
-			try {
-				// sleep for a short period so process table get cleaned up
-				Thread.sleep(POST_KILL_SLEEP_INTERVAL);
-			} catch (final InterruptedException e1) {
-				// ignore
+	// checks that a process ID still belongs to the process that was recorded as a target.
+	private boolean isSameProcess(final Long pid, final ProcessTable.ProcessInfo recorded,
+			final Map<Long, ProcessTable.ProcessInfo> targets) {
+		final ProcessTable processTable = ProcessTable.getInstance();
+		final ProcessTable.ProcessInfo current = processTable.readProcess(pid);
+		if (current == null) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Process " + pid + " is dead");
+			}
+			return false;
+		}
+		if (current.getStartTime() != recorded.getStartTime()) {
+			logger.warning("Process ID " + pid + " was reused by another process, it will not be signalled");
+			return false;
+		}
+		final long recordedParent = recorded.getParent();
+		final ProcessTable.ProcessInfo recordedParentInfo = targets.get(recordedParent);
+		if (current.getParent() != recordedParent && recordedParentInfo != null) {
+			// a process is re-parented when its parent exits - it only left the tree if its parent is still running.
+			final ProcessTable.ProcessInfo parent = processTable.readProcess(recordedParent);
+			if (parent != null && parent.getStartTime() == recordedParentInfo.getStartTime()) {
+				logger.warning("Process " + pid + " is no longer a child of process " + recordedParent
+						+ ", it will not be signalled");
+				return false;
 			}
+		}
+		return true;
+	}
 
-			// wait until process dies
-			for (int i = 0; i < PROCESS_STATUS_CHECK_ATTEMPTS; ++i) {
-				if (!USMUtils.isProcessAlive(pid)) {
-					logger.info("Process " + pid + " is dead");
-					return;
-				}
-				try {
-					Thread.sleep(PROCESS_STATUS_CHECK_INTERVAL);
-				} catch (final InterruptedException e) {
-					// ignore
+	// waits until all processes exit or the timeout expires. Processes that exited are removed from the targets.
+	private void waitForExit(final Map<Long, ProcessTable.ProcessInfo> targets, final long timeoutMillis) {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			final Iterator<Map.Entry<Long, ProcessTable.ProcessInfo>> iterator = targets.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<Long, ProcessTable.ProcessInfo> entry = iterator.next();
+				if (!isAlive(entry.getKey(), entry.getValue())) {
+					if (logger.isLoggable(Level.FINE)) {
+						logger.fine("Process " + entry.getKey() + " is dead");
+					}
+					iterator.remove();
 				}
 			}
-			logger.warning("Attempt number " + (retries + 1) + " to kill process " + pid + " failed.");
+			if (targets.isEmpty() || System.currentTimeMillis() >= deadline) {
+				return;
+			}
+			try {
+				Thread.sleep(PROCESS_STATUS_CHECK_INTERVAL);
+			} catch (final InterruptedException e) {
+				// ignore
+			}
 		}
+	}
 
-		logger.severe("Process " + pid + " did not die as expected!");
-
-		throw new USMException("Attempt to kill process " + pid + " failed!");
-
+	// a process whose ID was reused by another process has exited.
+	private boolean isAlive(final long pid, final ProcessTable.ProcessInfo recorded) {
+		final ProcessTable.ProcessInfo current = ProcessTable.getInstance().readProcess(pid);
+		if (current == null || current.getStartTime() != recorded.getStartTime()) {
+			return false;
+		}
+		try {
+			return USMUtils.isProcessAlive(pid);
+		} catch (final USMException e) {
+			// the process will be checked again, and killed if still running
+			logger.fine("Failed to check if process " + pid + " is alive: " + e.getMessage());
+			return true;
+		}
 	}
 
 	public int getKillRetries() {
 		return killRetries;
 	}
 
+	/*********
+	 * Sets the number of attempts to kill the processes that did not shut down within the termination timeout.
+	 *
+	 * @param killRetries
+	 *            the number of attempts.
+	 */
 	public void setKillRetries(final int killRetries) {
 		this.killRetries = killRetries;
 	}
+
+	public long getTerminationTimeoutMillis() {
+		return terminationTimeoutMillis;
+	}
+
+	/*********
+	 * Sets the time the processes have to shut down after SIGTERM, before they are killed.
+	 *
+	 * @param terminationTimeoutMillis
+	 *            the timeout, in milliseconds.
+	 */
+	public void setTerminationTimeoutMillis(final long terminationTimeoutMillis) {
+		this.terminationTimeoutMillis = terminationTimeoutMillis;
+	}
+
+	public long getKillTimeoutMillis() {
+		return killTimeoutMillis;
+	}
+
+	public void setKillTimeoutMillis(final long killTimeoutMillis) {
+		this.killTimeoutMillis = killTimeoutMillis;
+	}
 }
@@ -54,13 +54,20 @@ public class DefaultStop extends AbstractUSMEventListener implements
 		}
 
 		USMException firstException = null;
-		if (pids != null) {
+		final ProcessKiller killer = usm.getUsmLifecycleBean().getProcessKiller();
+		if (pids != null && killer instanceof ProcessTreeKiller) {
+			try {
+				((ProcessTreeKiller) killer).killProcessTrees(pids);
+			} catch (final USMException e) {
+				firstException = e;
+				logger.log(Level.SEVERE, "Failed to kill processes with pids: " + pids, e);
+			}
+		} else if (pids != null) {
 			for (final Long pid : pids) {
 
 				try {
 					if (USMUtils.isProcessAlive(pid)) {
-						usm.getUsmLifecycleBean().getProcessKiller()
-								.killProcess(pid);
+						killer.killProcess(pid);
 					}
 				} catch (final USMException e) {
 					firstException = e;
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.shutdown;
+
+import java.util.List;
+
+import org.cloudifysource.usm.USMException;
+
+/**********
+ * A process killer that can shut down a set of processes, and all of their descendants, together.
+ *
+ * @since 2.6.0
+ *
+ */
+public interface ProcessTreeKiller extends ProcessKiller {
+
+	/*********
+	 * Kills a set of processes and all of their descendants.
+	 *
+	 * @param pids
+	 *            the IDs of the root processes.
+	 * @throws USMException
+	 *             if at least one of the processes could not be killed.
+	 */
+	void killProcessTrees(List<Long> pids)
+			throws USMException;
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.stopDetection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+/***************
+ * Notifies listeners when a monitored process exits, so the stop detectors can run as soon as a process dies, instead
+ * of on their next scheduled execution.
+ *
+ * A process spawned by the USM is waited for by a dedicated thread, so its exit is reported immediately. Processes
+ * that were located, but not spawned, by the USM can not be waited for. On Linux, their state is checked in /proc by a
+ * single shared thread at a short interval - a check that is a single small file read per process.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class ProcessExitWatcher {
+
+	private static final long POLL_INTERVAL_MILLIS = 500;
+	private static final String PROC_DIR = "/proc/";
+
+	private static final java.util.logging.Logger logger =
+			java.util.logging.Logger.getLogger(ProcessExitWatcher.class.getName());
+
+	private static final ProcessExitWatcher INSTANCE = new ProcessExitWatcher();
+
+	/*************
+	 * Callback interface for process exit notifications.
+	 */
+	public interface Listener {
+
+		/**********
+		 * Called when a watched process has exited. Called at most once for each watched process, on the watcher
+		 * thread - implementations should return quickly.
+		 */
+		void processExited();
+	}
+
+	/*************
+	 * A registration of a listener for the exit of a set of processes.
+	 */
+	public final class Watch {
+		private final Set<Long> pids;
+		private final Listener listener;
+		private volatile boolean cancelled = false;
+
+		private Watch(final List<Long> pids, final Listener listener) {
+			this.pids = new LinkedHashSet<Long>(pids);
+			this.listener = listener;
+		}
+
+		/**********
+		 * Stops watching the processes. No notifications are sent after this method returns.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+			watches.remove(this);
+		}
+
+		private void notifyExited() {
+			if (cancelled) {
+				return;
+			}
+			try {
+				listener.processExited();
+			} catch (final RuntimeException e) {
+				logger.log(Level.WARNING, "Process exit listener failed: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private final boolean procAvailable = new File(PROC_DIR + "self/stat").canRead();
+	private final List<Watch> watches = new CopyOnWriteArrayList<Watch>();
+	private final byte[] buffer = new byte[512];
+	private Thread pollingThread;
+
+	private ProcessExitWatcher() {
+	}
+
+	/**********
+	 * Returns the process exit watcher of this JVM.
+	 *
+	 * @return the watcher.
+	 */
+	public static ProcessExitWatcher getInstance() {
+		return INSTANCE;
+	}
+
+	/**********
+	 * Checks if the exit of processes that were not spawned by the USM can be detected on this host.
+	 *
+	 * @return true if all processes can be watched.
+	 */
+	public boolean isSupported() {
+		return this.procAvailable;
+	}
+
+	/**********
+	 * Starts watching processes.
+	 *
+	 * @param pids
+	 *            the monitored process IDs.
+	 * @param spawnedProcess
+	 *            a process spawned by the USM, or null.
+	 * @param listener
+	 *            the listener notified when a process exits.
+	 * @return the watch, used to stop watching.
+	 */
+	public Watch watch(final List<Long> pids, final Process spawnedProcess, final Listener listener) {
+		final Watch watch = new Watch(this.procAvailable && pids != null ? pids : new ArrayList<Long>(), listener);
+
+		if (spawnedProcess != null) {
+			final Thread waiter = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						spawnedProcess.waitFor();
+					} catch (final InterruptedException e) {
+						return;
+					}
+					logger.fine("Spawned process has exited");
+					watch.notifyExited();
+				}
+			}, "USMProcessExitWaiter");
+			waiter.setDaemon(true);
+			waiter.start();
+		}
+
+		if (!watch.pids.isEmpty()) {
+			this.watches.add(watch);
+			startPollingThread();
+		}
+		return watch;
+	}
+
+	private synchronized void startPollingThread() {
+		if (this.pollingThread != null) {
+			return;
+		}
+		this.pollingThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				pollLoop();
+			}
+		}, "USMProcessExitWatcher");
+		this.pollingThread.setDaemon(true);
+		this.pollingThread.start();
+	}
+
+	private void pollLoop() {
+		while (true) {
+			synchronized (this) {
+				if (this.watches.isEmpty()) {
+					this.pollingThread = null;
+					return;
+				}
+			}
+
+			for (final Watch watch : this.watches) {
+				boolean exited = false;
+				final Iterator<Long> iterator = watch.pids.iterator();
+				while (iterator.hasNext()) {
+					final long pid = iterator.next();
+					if (!isRunning(pid)) {
+						if (logger.isLoggable(Level.FINE)) {
+							logger.fine("Process " + pid + " has exited");
+						}
+						iterator.remove();
+						exited = true;
+					}
+				}
+				if (watch.pids.isEmpty()) {
+					this.watches.remove(watch);
+				}
+				if (exited) {
+					watch.notifyExited();
+				}
+			}
+
+			try {
+				Thread.sleep(POLL_INTERVAL_MILLIS);
+			} catch (final InterruptedException e) {
+				synchronized (this) {
+					this.pollingThread = null;
+				}
+				return;
+			}
+		}
+	}
+
+	// a process is running if its stat file exists, and its state is not zombie or dead.
+	private boolean isRunning(final long pid) {
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(PROC_DIR + pid + "/stat");
+			final int length = in.read(this.buffer);
+			int index = length - 1;
+			while (index >= 0 && this.buffer[index] != ')') {
+				--index;
+			}
+			if (index < 0 || index + 2 >= length) {
+				// can not parse the state - assume the process is running, the stop detectors will check.
+				return true;
+			}
+			final byte state = this.buffer[index + 2];
+			return state != 'Z' && state != 'X' && state != 'x';
+		} catch (final IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.tail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+/**
+ * Writes the lines of all registered service output logs in the JVM to their loggers, on a single daemon thread, so
+ * the tailer thread never waits for the logging stack.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class OutputShipper {
+
+	private static final long IDLE_INTERVAL_MILLIS = 100;
+	private static final String THREAD_NAME = "USMOutputShipper";
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(OutputShipper.class
+			.getName());
+
+	private static final OutputShipper INSTANCE = new OutputShipper();
+
+	private final List<ServiceOutputLog> logs = new CopyOnWriteArrayList<ServiceOutputLog>();
+	private Thread thread;
+
+	private OutputShipper() {
+	}
+
+	/*******
+	 * Returns the output shipper of this JVM.
+	 *
+	 * @return the shipper.
+	 */
+	public static OutputShipper getInstance() {
+		return INSTANCE;
+	}
+
+	/*******
+	 * Starts shipping the lines of a log.
+	 *
+	 * @param log
+	 *            the log.
+	 */
+	public synchronized void register(final ServiceOutputLog log) {
+		if (!this.logs.contains(log)) {
+			this.logs.add(log);
+		}
+		if (this.thread == null) {
+			this.thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					runLoop();
+				}
+			}, THREAD_NAME);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+	}
+
+	/*******
+	 * Stops shipping the lines of a log. Lines that were not shipped yet are shipped on the calling thread, before this
+	 * method returns. The shipper thread exits when no logs are left.
+	 *
+	 * @param log
+	 *            the log.
+	 */
+	public void unregister(final ServiceOutputLog log) {
+		this.logs.remove(log);
+		// the shipper thread may still be shipping the log - the lock makes the last shipment wait for it.
+		synchronized (log) {
+			shipLog(log);
+		}
+	}
+
+	private void runLoop() {
+		while (true) {
+			synchronized (this) {
+				if (this.logs.isEmpty()) {
+					this.thread = null;
+					return;
+				}
+			}
+
+			boolean active = false;
+			for (final ServiceOutputLog log : this.logs) {
+				synchronized (log) {
+					active |= shipLog(log);
+				}
+			}
+
+			if (!active) {
+				try {
+					Thread.sleep(IDLE_INTERVAL_MILLIS);
+				} catch (final InterruptedException e) {
+					synchronized (this) {
+						this.thread = null;
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private static boolean shipLog(final ServiceOutputLog log) {
+		try {
+			return log.ship();
+		} catch (final RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to ship service output: " + e.getMessage(), e);
+			return false;
+		}
+	}
+}
@@ -15,8 +15,10 @@ package org.cloudifysource.usm.tail;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +30,9 @@ import java.util.regex.Pattern;
  * opening the files and when finding that a file has been modified, only then open the file, "grab" the newly added
  * lines and close the file when done.
  *
+ * The logs directory is only listed again when its modification time changes - which happens when a file is created,
+ * removed or renamed by a roll - or after a full rescan interval, to cover file systems with a coarse modification time.
+ *
  * @author adaml
  *
  */
@@ -68,11 +73,13 @@ public class RollingFileAppenderTailer implements Runnable {
 
 	}
 
-	private static final String BREAK_BY_LINES_NO_EMPTY_LINES_REGEX = "\\r?\\n+";
 	private static final int DEFAULT_SAMPLING_DELAY = 2000;
+	private static final long FULL_RESCAN_INTERVAL_MILLIS = 30000;
+	private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000;
 	private final String logsDirectory;
-	private final String regex;
-	private final Pattern lineSplitPattern = Pattern.compile(BREAK_BY_LINES_NO_EMPTY_LINES_REGEX);
+	private final Pattern fileNamePattern;
+	private long directoryLastModified = -1;
+	private long lastDirectoryScan;
 
 	private final Map<String, RollingFileReader> logFileMap = new HashMap<String, RollingFileReader>();
 
@@ -92,7 +99,7 @@ public class RollingFileAppenderTailer implements Runnable {
 	 */
 	public RollingFileAppenderTailer(final String dir, final String regex) {
 		this.logsDirectory = dir;
-		this.regex = regex;
+		this.fileNamePattern = Pattern.compile(regex);
 	}
 
 	/****************
@@ -107,7 +114,7 @@ public class RollingFileAppenderTailer implements Runnable {
 	 */
 	public RollingFileAppenderTailer(final String dir, final String regex, final LineHandler handler) {
 		this.logsDirectory = dir;
-		this.regex = regex;
+		this.fileNamePattern = Pattern.compile(regex);
 		this.handler = handler;
 	}
 
@@ -124,7 +131,7 @@ public class RollingFileAppenderTailer implements Runnable {
 	 */
 	public RollingFileAppenderTailer(final String dir, final String regex, final long samplingDelay) {
 		this.logsDirectory = dir;
-		this.regex = regex;
+		this.fileNamePattern = Pattern.compile(regex);
 	}
 
 	/**
@@ -159,31 +166,35 @@ public class RollingFileAppenderTailer implements Runnable {
 				TimeUnit.MILLISECONDS);
 	}
 
+	@Override
+	public void run() {
+		tail();
+	}
+
 	/*****************
-	 * The synchronized statement is used to make sure that only one invocation of the tailer will execute at any one
-	 * time. Within the context of the USM, the tailer runs in an async task every 5 seconds, but may be called on a
-	 * separate thread as well. For instance, if the USM fails to start the underlying process, it needs to dump the
-	 * file contents before continuing.
+	 * Reads the new lines of all tailed files. The synchronized statement is used to make sure that only one invocation
+	 * of the tailer will execute at any one time. Within the context of the USM, the tailer is polled by the
+	 * {@link SharedFileTailer}, but may be called on a separate thread as well. For instance, if the USM fails to start
+	 * the underlying process, it needs to dump the file contents before continuing.
+	 *
+	 * @return true if new data was found in any of the files.
 	 */
-	@Override
-	public synchronized void run() {
+	public synchronized boolean tail() {
 
+		boolean active = false;
 		try {
 			getLogFilesMap(logFileMap);
-			for (final String key : logFileMap.keySet()) {
-				if (logFileMap.get(key).wasModified()) {
-					final String lines = logFileMap.get(key).readLines();
-					final String[] seporatedLines = lineSplitPattern.split(lines);
-					for (final String line : seporatedLines) {
-						handler.handleLine(key, line);
-						// logger.info(line);
-					}
+			for (final Map.Entry<String, RollingFileReader> entry : logFileMap.entrySet()) {
+				final RollingFileReader reader = entry.getValue();
+				if (reader.wasModified()) {
+					active |= reader.readLines(handler, entry.getKey()) > 0;
 				}
 			}
 
 		} catch (final Exception e) {
 			logger.warning("Exception thrown: " + e.getMessage());
 		}
+		return active;
 
 	}
 
@@ -196,27 +207,42 @@ public class RollingFileAppenderTailer implements Runnable {
 	private void getLogFilesMap(final Map<String, RollingFileReader> logFileMap) {
 
 		final File folder = new File(logsDirectory);
+		final long now = System.currentTimeMillis();
+		final long modified = folder.lastModified();
+		if (modified == this.directoryLastModified && now - this.lastDirectoryScan < FULL_RESCAN_INTERVAL_MILLIS) {
+			return;
+		}
+		// a file created in the same time unit as the last scan would not change the modification time again
+		this.directoryLastModified = now - modified < MODIFICATION_TIME_RESOLUTION_MILLIS ? -1 : modified;
+		this.lastDirectoryScan = now;
+
 		// Get list of files according to regex.
 		final File[] files = folder.listFiles(new FilenameFilter() {
 
 			@Override
 			public boolean accept(final File dir, final String name) {
-				return java.util.regex.Pattern.matches(regex, name);
+				return fileNamePattern.matcher(name).matches();
 			}
 		});
+		if (files == null) {
+			// directory does not exist yet
+			return;
+		}
 
 		// add newly created files if exist.
+		final Set<String> fileNames = new HashSet<String>();
 		for (final File file : files) {
+			fileNames.add(file.getName());
 			if (!logFileMap.containsKey(file.getName())) {
 				logFileMap.put(file.getName(), new RollingFileReader(file));
 			}
 		}
 
 		// remove files that no longer exist.
-		final Iterator<RollingFileReader> iterator = logFileMap.values().iterator();
+		final Iterator<Map.Entry<String, RollingFileReader>> iterator = logFileMap.entrySet().iterator();
 		while (iterator.hasNext()) {
-			final RollingFileReader next = iterator.next();
-			if (!next.exists()) {
+			final Map.Entry<String, RollingFileReader> next = iterator.next();
+			if (!next.getValue().exists() || !fileNames.contains(next.getKey())) {
 				iterator.remove();
 			}
 		}
@@ -16,9 +16,18 @@
 package org.cloudifysource.usm.tail;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.cloudifysource.usm.tail.RollingFileAppenderTailer.LineHandler;
 
 /**
  * RollingFileReader was created in-order for an application to be able to access a file and tail it without locking it.
@@ -26,12 +35,22 @@ import java.io.RandomAccessFile;
  * close the file. the RFR remembers it's file-pointer and when reopening the file, the RFR will read the lines from the
  * point where it left-off.
  * 
+ * New data is streamed through a fixed size buffer and decoded incrementally, so memory use does not depend on the
+ * amount of data written to the file between reads. The number of bytes read in one call is capped - the rest of the
+ * file is read on the following calls. A line that is not terminated yet is kept until the rest of it is written, or
+ * until a read finds no new data.
+ * 
  * @author adaml
  */
 public class RollingFileReader {
 
 	private static final int TIMEOUT_BETWEEN_RETRIES = 1000;
 	private static final int DEFAULT_NUMBER_OF_RETRIES = 5;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_MAX_BYTES_PER_READ = 1024 * 1024;
+	// longer lines are split, so a file with no line breaks can not exhaust the memory.
+	private static final int MAX_LINE_LENGTH = 64 * 1024;
+
 	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(RollingFileReader.class
 			.getName());
 
@@ -41,7 +60,13 @@ public class RollingFileReader {
 	private boolean exists;
 
 	private int retryCounter;
-	private long fileLength;
+
+	private final int maxBytesPerRead;
+	// allocated on first read, as most log files of a service are never written to.
+	private ByteBuffer byteBuffer;
+	private CharBuffer charBuffer;
+	private final CharsetDecoder decoder;
+	private final StringBuilder partialLine = new StringBuilder();
 
 	/**
 	 * Constructor.
@@ -49,69 +74,101 @@ public class RollingFileReader {
 	 * @param file The file to read
 	 */
 	public RollingFileReader(final File file) {
+		this(file, Charset.defaultCharset(), DEFAULT_MAX_BYTES_PER_READ);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param file The file to read
+	 * @param charset The charset of the file
+	 * @param maxBytesPerRead The maximum number of bytes read in a single call to readLines
+	 */
+	public RollingFileReader(final File file, final Charset charset, final int maxBytesPerRead) {
 		this.lastModified = 0;
 		this.file = file;
-		this.fileLength = file.length();
 		this.exists = true;
+		this.maxBytesPerRead = maxBytesPerRead;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
 	}
 
 	/**
 	 * checks if the modification time of the file matches the last modification time since the file was last tailed.
 	 * 
-	 * @return true if the file has been modified since last polled.
+	 * @return true if the file has been modified since last polled, some of the file was not read yet, or a partial
+	 *         line is pending.
 	 */
 	public boolean wasModified() {
-		return this.lastModified != file.lastModified() || this.fileLength != file.length();
+		return this.lastModified != file.lastModified() || this.filePointer != file.length()
+				|| this.partialLine.length() > 0;
 
 	}
 
 	/**
-	 * reads the new lines added to the log file. The method supports RollingFileAppender tailing by not keeping the
-	 * file open and opening the file only when a changes have been made to it. After reading the changes, the file will
-	 * be closed and all relevant pointers and properties such as last modified date will be saved for the next
-	 * iteration.
+	 * reads the new lines added to the log file, and passes each one to the handler. Empty lines are skipped. The
+	 * method supports RollingFileAppender tailing by not keeping the file open and opening the file only when a
+	 * changes have been made to it. After reading the changes, the file will be closed and all relevant pointers and
+	 * properties such as last modified date will be saved for the next iteration.
 	 * 
 	 * note that the file is being closed in-order to enable the RFA to properly roll the file without having lock
 	 * issues.
 	 * 
-	 * @return new lines added to the log file.
+	 * @param handler the handler of the new lines.
+	 * @param fileName the file name passed to the handler.
+	 * @return the number of bytes read.
 	 * @throws IOException Indicates the lines were not read because of an IO exception
 	 */
-	public String readLines()
+	public long readLines(final LineHandler handler, final String fileName)
 			throws IOException {
 
-		RandomAccessFile randomAccessFile = null;
+		FileInputStream in = null;
 
 		try {
 
-			randomAccessFile = new RandomAccessFile(this.file, "r");
+			in = new FileInputStream(this.file);
+			final FileChannel channel = in.getChannel();
+			final long length = channel.size();
 
-			if (this.filePointer > randomAccessFile.length()) {
+			if (this.filePointer > length) {
 				// the file must have been rolled. Start form the beginning of the new file.
+				flushPartialLine(handler, fileName);
+				resetDecoding();
 				this.filePointer = 0;
 			}
 
-			// set the file pointer in the new RandomFileAccess.
-			randomAccessFile.seek(filePointer);
-
-			// allocate buffer size.
-			final byte[] buffer = new byte[(int) randomAccessFile.length() - (int) this.filePointer];
-
-			// read all new data into the buffer.
-			randomAccessFile.read(buffer);
+			if (this.byteBuffer == null && this.filePointer < length) {
+				this.byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				this.charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+			}
 
-			// save the last filePointer location before closing the file.
-			this.filePointer = randomAccessFile.length();
+			long totalRead = 0;
+			while (this.filePointer < length && totalRead < this.maxBytesPerRead) {
+				final long toRead =
+						Math.min(byteBuffer.remaining(), Math.min(length - this.filePointer, this.maxBytesPerRead
+								- totalRead));
+				byteBuffer.limit(byteBuffer.position() + (int) toRead);
+				final int read = channel.read(byteBuffer, this.filePointer);
+				byteBuffer.limit(byteBuffer.capacity());
+				if (read <= 0) {
+					break;
+				}
+				this.filePointer += read;
+				totalRead += read;
+				decode(handler, fileName);
+			}
 
-			randomAccessFile.close();
+			if (totalRead == 0) {
+				// nothing was added since the last read - the pending line is complete.
+				flushPartialLine(handler, fileName);
+			}
 
 			this.lastModified = this.file.lastModified();
 
 			retryCounter = 0;
 
-			this.fileLength = file.length();
-
-			return new String(buffer);
+			return totalRead;
 		} catch (final FileNotFoundException e) {
 			// in-case we try to access the file at the exact time it is being rolled.
 			retryCounter++;
@@ -119,21 +176,86 @@ public class RollingFileReader {
 				logger.warning("In RollingFileReader: file not found." + DEFAULT_NUMBER_OF_RETRIES
 						+ " Retries failed.");
 				this.exists = false;
-				return "";
+				flushPartialLine(handler, fileName);
+				return 0;
 			}
 			try {
 				logger.warning("file not found: " + file.getName() + ". Retring attempt #" + retryCounter);
 				Thread.sleep(TIMEOUT_BETWEEN_RETRIES);
 			} catch (final InterruptedException e1) {
-				e1.printStackTrace();
+				Thread.currentThread().interrupt();
+				return 0;
 			}
-			return readLines();
+			return readLines(handler, fileName);
 		} finally {
-			if (randomAccessFile != null) {
-				randomAccessFile.close();
+			if (in != null) {
+				in.close();
+			}
+		}
+
+	}
+
+	/**
+	 * reads the new lines added to the log file.
+	 * 
+	 * @return new lines added to the log file, separated by line breaks.
+	 * @throws IOException Indicates the lines were not read because of an IO exception
+	 * @deprecated use {@link #readLines(LineHandler, String)}, which does not collect all new lines in memory.
+	 */
+	@Deprecated
+	public String readLines()
+			throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		readLines(new LineHandler() {
+
+			@Override
+			public void handleLine(final String fileName, final String line) {
+				sb.append(line).append('\n');
+			}
+		}, file.getName());
+		return sb.toString();
+	}
+
+	// decodes the bytes in the buffer. Bytes of an incomplete character are kept in the buffer for the next read.
+	private void decode(final LineHandler handler, final String fileName) {
+		byteBuffer.flip();
+		CoderResult result;
+		do {
+			result = decoder.decode(byteBuffer, charBuffer, false);
+			charBuffer.flip();
+			splitLines(handler, fileName);
+			charBuffer.clear();
+		} while (result.isOverflow());
+		byteBuffer.compact();
+	}
+
+	private void splitLines(final LineHandler handler, final String fileName) {
+		while (charBuffer.hasRemaining()) {
+			final char c = charBuffer.get();
+			if (c == '\n' || c == '\r') {
+				flushPartialLine(handler, fileName);
+			} else {
+				partialLine.append(c);
+				if (partialLine.length() >= MAX_LINE_LENGTH) {
+					flushPartialLine(handler, fileName);
+				}
 			}
 		}
+	}
 
+	private void flushPartialLine(final LineHandler handler, final String fileName) {
+		if (partialLine.length() > 0) {
+			final String line = partialLine.toString();
+			partialLine.setLength(0);
+			handler.handleLine(fileName, line);
+		}
+	}
+
+	private void resetDecoding() {
+		decoder.reset();
+		if (byteBuffer != null) {
+			byteBuffer.clear();
+		}
 	}
 
 	/**
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.tail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * The recent output and error lines of a service instance. Lines are appended by the tailer thread to a lock-free ring
+ * buffer, which serves two readers: the {@link OutputShipper}, which writes the lines to the service loggers, one log
+ * record per line, and tail requests, which read the last lines directly from memory.
+ *
+ * Lines are shipped to the loggers at a limited rate. Lines above the rate limit, and lines that were overwritten in
+ * the ring before they were shipped, are not logged - they are counted, and the count is logged instead. The ring
+ * itself always holds the most recent lines, regardless of the rate limit, and a tail tells if any of its lines were
+ * not logged.
+ *
+ * @since 2.6.0
+ *
+ */
+public class ServiceOutputLog {
+
+	private static final int MAX_LINE_CHARS = 8 * 1024;
+	private static final long RATE_WINDOW_MILLIS = 1000;
+
+	/********
+	 * An immutable line in the ring. The sequence number identifies the slot contents, so a reader can tell if a slot
+	 * was overwritten.
+	 */
+	private static final class Line {
+		private final long sequence;
+		private final String text;
+		private final boolean error;
+
+		private Line(final long sequence, final String text, final boolean error) {
+			this.sequence = sequence;
+			this.text = text;
+			this.error = error;
+		}
+	}
+
+	private final AtomicReferenceArray<Line> ring;
+	private final int capacity;
+	// sequence number of the next line to be written. Only modified by the single writer thread.
+	private final AtomicLong writeSequence = new AtomicLong();
+
+	private final Logger outputLogger;
+	private final Logger errorLogger;
+	private final int maxLinesPerSecond;
+
+	// the fields below are only accessed by the shipper thread.
+	private long shipSequence = 0;
+	private long rateWindowStart = 0;
+	private int rateWindowCount = 0;
+	private long droppedSinceReport = 0;
+	private long lastReportMillis = 0;
+
+	private final AtomicLong droppedLines = new AtomicLong();
+	// sequence number of the last line that was not logged, or -1 if all lines were logged.
+	private final AtomicLong lastDroppedSequence = new AtomicLong(-1);
+
+	/*******
+	 * The last lines of the log.
+	 */
+	public static final class Tail {
+		private final List<String> lines;
+		private final boolean unlogged;
+
+		private Tail(final List<String> lines, final boolean unlogged) {
+			this.lines = lines;
+			this.unlogged = unlogged;
+		}
+
+		/*******
+		 * @return the lines, oldest first.
+		 */
+		public List<String> getLines() {
+			return lines;
+		}
+
+		/*******
+		 * @return true if some of the lines were not written to the loggers.
+		 */
+		public boolean hasUnloggedLines() {
+			return unlogged;
+		}
+	}
+
+	/*******
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            the number of recent lines kept in memory.
+	 * @param outputLogger
+	 *            the logger of the output lines.
+	 * @param errorLogger
+	 *            the logger of the error lines.
+	 * @param maxLinesPerSecond
+	 *            the maximum number of lines logged per second, or zero for no limit.
+	 */
+	public ServiceOutputLog(final int capacity, final Logger outputLogger, final Logger errorLogger,
+			final int maxLinesPerSecond) {
+		this.capacity = Math.max(1, capacity);
+		this.ring = new AtomicReferenceArray<Line>(this.capacity);
+		this.outputLogger = outputLogger;
+		this.errorLogger = errorLogger;
+		this.maxLinesPerSecond = maxLinesPerSecond;
+	}
+
+	/*******
+	 * Appends a line. Must only be called by a single thread at a time - the tailer thread.
+	 *
+	 * @param text
+	 *            the line.
+	 * @param error
+	 *            true if the line was written to the error stream.
+	 */
+	public void append(final String text, final boolean error) {
+		final String trimmed =
+				text.length() > MAX_LINE_CHARS ? text.substring(0, MAX_LINE_CHARS) + "... [line truncated]" : text;
+		final long sequence = writeSequence.get();
+		ring.set((int) (sequence % capacity), new Line(sequence, trimmed, error));
+		// publish the line only after it was written to its slot
+		writeSequence.set(sequence + 1);
+	}
+
+	/*******
+	 * Returns the most recent lines. May be called by any thread.
+	 *
+	 * @param maxLines
+	 *            the maximum number of lines to return.
+	 * @return the lines, oldest first.
+	 */
+	public List<String> getLastLines(final int maxLines) {
+		return getTail(maxLines).getLines();
+	}
+
+	/*******
+	 * Returns the most recent lines, and whether any of them were not logged. May be called by any thread.
+	 *
+	 * @param maxLines
+	 *            the maximum number of lines to return.
+	 * @return the tail.
+	 */
+	public Tail getTail(final int maxLines) {
+		final long end = writeSequence.get();
+		final long start = Math.max(0, end - Math.min(maxLines, capacity));
+		final List<String> result = new ArrayList<String>((int) (end - start));
+		for (long sequence = start; sequence < end; sequence++) {
+			final Line line = ring.get((int) (sequence % capacity));
+			// a line overwritten while reading is skipped - a newer line replaced it.
+			if (line != null && line.sequence == sequence) {
+				result.add(line.text);
+			}
+		}
+		// lines that were dropped before the first returned line do not affect this tail.
+		return new Tail(result, lastDroppedSequence.get() >= start);
+	}
+
+	/*******
+	 * Returns the number of lines that were not logged since the log was created, because of the rate limit or because
+	 * the shipper fell behind.
+	 *
+	 * @return the number of dropped lines.
+	 */
+	public long getDroppedLines() {
+		return droppedLines.get();
+	}
+
+	/*******
+	 * Writes the lines appended since the previous call to the loggers. Called by the shipper thread only.
+	 *
+	 * @return true if any lines were found.
+	 */
+	boolean ship() {
+		return ship(System.currentTimeMillis());
+	}
+
+	/*******
+	 * Writes the lines appended since the previous call to the loggers, using the given time for the rate limit. Called
+	 * by a single thread at a time.
+	 *
+	 * @param now
+	 *            the current time, in milliseconds.
+	 * @return true if any lines were found.
+	 */
+	public boolean ship(final long now) {
+		final long end = writeSequence.get();
+		if (shipSequence == end) {
+			reportDroppedLines(now);
+			return false;
+		}
+		if (end - shipSequence > capacity) {
+			drop(end - capacity - 1, end - capacity - shipSequence);
+			shipSequence = end - capacity;
+		}
+
+		if (now - rateWindowStart >= RATE_WINDOW_MILLIS) {
+			rateWindowStart = now;
+			rateWindowCount = 0;
+		}
+
+		for (; shipSequence < end; shipSequence++) {
+			final Line line = ring.get((int) (shipSequence % capacity));
+			if (line == null || line.sequence != shipSequence) {
+				// overwritten by the writer after the capacity check
+				drop(shipSequence, 1);
+				continue;
+			}
+			if (maxLinesPerSecond > 0 && rateWindowCount >= maxLinesPerSecond) {
+				drop(shipSequence, 1);
+				continue;
+			}
+			++rateWindowCount;
+			(line.error ? errorLogger : outputLogger).info(line.text);
+		}
+		reportDroppedLines(now);
+		return true;
+	}
+
+	// lines are dropped in sequence order, so the last dropped sequence only grows.
+	private void drop(final long lastSequence, final long count) {
+		droppedSinceReport += count;
+		droppedLines.addAndGet(count);
+		lastDroppedSequence.set(lastSequence);
+	}
+
+	// reported at most once per rate window, so the report itself does not flood the log.
+	private void reportDroppedLines(final long now) {
+		if (droppedSinceReport > 0 && now - lastReportMillis >= RATE_WINDOW_MILLIS) {
+			outputLogger.warning(droppedSinceReport + " lines of service output were not logged, as output was "
+					+ "written faster than it could be logged. Rate limit: " + maxLinesPerSecond
+					+ " lines per second");
+			droppedSinceReport = 0;
+			lastReportMillis = now;
+		}
+	}
+}
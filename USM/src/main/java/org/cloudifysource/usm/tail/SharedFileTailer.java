@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.usm.tail;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Runs all registered tailers in the JVM on a single daemon thread, instead of a scheduled task for each USM. The
+ * polling interval of each tailer adapts to the activity of its files: after new lines are found the tailer is polled
+ * again quickly, and while its files are idle the interval doubles up to the maximum interval of the tailer.
+ *
+ * @since 2.6.0
+ *
+ */
+public final class SharedFileTailer {
+
+	private static final long MIN_INTERVAL_MILLIS = 200;
+	private static final String THREAD_NAME = "USMSharedFileTailer";
+
+	private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger(SharedFileTailer.class
+			.getName());
+
+	private static final SharedFileTailer INSTANCE = new SharedFileTailer();
+
+	/********
+	 * Polling state of a registered tailer.
+	 */
+	private static final class Registration {
+		private final RollingFileAppenderTailer tailer;
+		private final long maxIntervalMillis;
+		private long intervalMillis;
+		private long nextRunMillis;
+
+		private Registration(final RollingFileAppenderTailer tailer, final long maxIntervalMillis) {
+			this.tailer = tailer;
+			this.maxIntervalMillis = Math.max(MIN_INTERVAL_MILLIS, maxIntervalMillis);
+			this.intervalMillis = MIN_INTERVAL_MILLIS;
+			this.nextRunMillis = System.currentTimeMillis();
+		}
+	}
+
+	private final Map<RollingFileAppenderTailer, Registration> registrations =
+			new IdentityHashMap<RollingFileAppenderTailer, Registration>();
+	private Thread thread;
+
+	private SharedFileTailer() {
+	}
+
+	/*******
+	 * Returns the tailer service of this JVM.
+	 *
+	 * @return the shared tailer.
+	 */
+	public static SharedFileTailer getInstance() {
+		return INSTANCE;
+	}
+
+	/*******
+	 * Starts polling a tailer. Registering a tailer that is already registered has no effect.
+	 *
+	 * @param tailer
+	 *            the tailer.
+	 * @param maxIntervalMillis
+	 *            the polling interval while the tailed files are idle.
+	 */
+	public synchronized void register(final RollingFileAppenderTailer tailer, final long maxIntervalMillis) {
+		if (this.registrations.containsKey(tailer)) {
+			return;
+		}
+		this.registrations.put(tailer, new Registration(tailer, maxIntervalMillis));
+		if (this.thread == null) {
+			this.thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					runLoop();
+				}
+			}, THREAD_NAME);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		notifyAll();
+	}
+
+	/*******
+	 * Stops polling a tailer. The polling thread exits when no tailers are left.
+	 *
+	 * @param tailer
+	 *            the tailer.
+	 */
+	public synchronized void unregister(final RollingFileAppenderTailer tailer) {
+		this.registrations.remove(tailer);
+		notifyAll();
+	}
+
+	private void runLoop() {
+		final List<Registration> due = new ArrayList<Registration>();
+		while (true) {
+			synchronized (this) {
+				if (!waitForDueTailers(due)) {
+					this.thread = null;
+					return;
+				}
+			}
+
+			// tailers are executed outside the lock, so a slow file system does not block registration.
+			for (final Registration registration : due) {
+				boolean active = false;
+				try {
+					active = registration.tailer.tail();
+				} catch (final RuntimeException e) {
+					logger.log(Level.WARNING, "Tailer failed: " + e.getMessage(), e);
+				}
+
+				synchronized (this) {
+					if (active) {
+						registration.intervalMillis = MIN_INTERVAL_MILLIS;
+					} else {
+						registration.intervalMillis =
+								Math.min(registration.intervalMillis * 2, registration.maxIntervalMillis);
+					}
+					registration.nextRunMillis = System.currentTimeMillis() + registration.intervalMillis;
+				}
+			}
+			due.clear();
+		}
+	}
+
+	// called with the lock held. Returns false if there are no more tailers.
+	private boolean waitForDueTailers(final List<Registration> due) {
+		while (true) {
+			if (this.registrations.isEmpty()) {
+				return false;
+			}
+			final long now = System.currentTimeMillis();
+			long nextRun = Long.MAX_VALUE;
+			for (final Registration registration : this.registrations.values()) {
+				if (registration.nextRunMillis <= now) {
+					due.add(registration);
+				} else {
+					nextRun = Math.min(nextRun, registration.nextRunMillis);
+				}
+			}
+			if (!due.isEmpty()) {
+				return true;
+			}
+			try {
+				wait(nextRun - now);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cloudifysource.dsl.CustomCommandsExecution;
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.usm.CustomCommandExecutor;
+import org.cloudifysource.usm.events.EventResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the execution of custom commands: concurrency limits, queue bounds, timeouts, collapsing of identical
+ * invocations and shutdown.
+ *
+ */
+public class CustomCommandExecutorTest {
+
+	private static final long WAIT_SECONDS = 10;
+
+	/**
+	 * Blocks until released, and counts its executions and the maximal number of concurrent executions.
+	 */
+	private static class BlockingCommand implements Callable<EventResult> {
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final CountDownLatch started;
+		private final CountDownLatch interrupted = new CountDownLatch(1);
+		private final AtomicInteger executions = new AtomicInteger();
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+
+		BlockingCommand(final int expectedStarts) {
+			this.started = new CountDownLatch(expectedStarts);
+		}
+
+		@Override
+		public EventResult call() throws Exception {
+			executions.incrementAndGet();
+			final int current = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), current));
+			}
+			started.countDown();
+			try {
+				if (!release.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+					throw new TimeoutException("Command was not released");
+				}
+				return new EventResult("done");
+			} catch (final InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Invokes a command on a thread of its own, and keeps the result.
+	 */
+	private static class Caller extends Thread {
+		private final CustomCommandExecutor executor;
+		private final String commandName;
+		private final Map<String, Object> args;
+		private final Callable<EventResult> command;
+		private final AtomicReference<Object> result = new AtomicReference<Object>();
+
+		Caller(final CustomCommandExecutor executor, final String commandName, final Map<String, Object> args,
+				final Callable<EventResult> command) {
+			this.executor = executor;
+			this.commandName = commandName;
+			this.args = args;
+			this.command = command;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				result.set(executor.execute(commandName, args, command));
+			} catch (final Exception e) {
+				result.set(e);
+			}
+		}
+
+		Object awaitResult() throws InterruptedException {
+			join(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+			Assert.assertFalse("Custom command invocation did not complete", isAlive());
+			return result.get();
+		}
+
+		// the caller is blocked once its invocation was accepted, and it waits for the result.
+		void awaitBlocked() throws InterruptedException {
+			final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+			while (getState() != Thread.State.WAITING && getState() != Thread.State.TIMED_WAITING) {
+				Assert.assertTrue("Custom command invocation did not block", System.currentTimeMillis() < end);
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private CustomCommandsExecution settings;
+	private CustomCommandExecutor executor;
+
+	@Before
+	public void before() {
+		settings = new CustomCommandsExecution();
+	}
+
+	@After
+	public void after() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDefaultIsNoTimeout() {
+		Assert.assertEquals(0, new CustomCommandsExecution().getTimeoutSeconds());
+	}
+
+	@Test
+	public void testMaxConcurrencyQueuesInvocations() throws Exception {
+		settings.setThreads(4);
+		settings.getMaxConcurrency().put("backup", 1);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(1);
+		final Caller first = start("backup", args("1"), command);
+		Assert.assertTrue(command.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		final Caller second = start("backup", args("2"), command);
+		second.awaitBlocked();
+		// the second invocation waits in the queue of the command, though the pool has free threads
+		Assert.assertEquals(1, command.executions.get());
+
+		command.release.countDown();
+		Assert.assertEquals("done", ((EventResult) first.awaitResult()).getResult());
+		Assert.assertEquals("done", ((EventResult) second.awaitResult()).getResult());
+		Assert.assertEquals(2, command.executions.get());
+		Assert.assertEquals(1, command.maxRunning.get());
+	}
+
+	@Test
+	public void testCommandsWithoutLimitRunConcurrently() throws Exception {
+		settings.setThreads(2);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(2);
+		final Caller first = start("status", args("1"), command);
+		final Caller second = start("status", args("2"), command);
+		Assert.assertTrue(command.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		command.release.countDown();
+		first.awaitResult();
+		second.awaitResult();
+		Assert.assertEquals(2, command.maxRunning.get());
+	}
+
+	@Test
+	public void testFullQueueRejectsInvocations() throws Exception {
+		settings.setThreads(1);
+		settings.setQueueSize(0);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(1);
+		final Caller first = start("backup", args("1"), command);
+		Assert.assertTrue(command.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		// all threads are busy, and no invocation may wait
+		try {
+			executor.execute("other", args("2"), command);
+			Assert.fail("Expected the invocation to be rejected");
+		} catch (final RejectedExecutionException e) {
+			// expected
+		}
+
+		command.release.countDown();
+		first.awaitResult();
+		// once a thread is free, invocations are accepted again
+		Assert.assertEquals("ok", executor.execute("other", args("3"), constant("ok")).getResult());
+	}
+
+	@Test
+	public void testTimeoutCancelsInvocation() throws Exception {
+		final Map<String, Long> timeouts = new HashMap<String, Long>();
+		timeouts.put("slow", 1L);
+		settings.setTimeouts(timeouts);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(1);
+		final long start = System.currentTimeMillis();
+		try {
+			executor.execute("slow", args("1"), command);
+			Assert.fail("Expected the invocation to time out");
+		} catch (final TimeoutException e) {
+			Assert.assertTrue(e.getMessage().contains("slow"));
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+		// the running command is interrupted
+		Assert.assertTrue(command.interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		// the timeout applies to its command only
+		Assert.assertEquals("ok", executor.execute("fast", args("2"), constant("ok")).getResult());
+	}
+
+	@Test
+	public void testTimeoutCancelsWaitingInvocation() throws Exception {
+		settings.getMaxConcurrency().put("backup", 1);
+		settings.setTimeoutSeconds(1);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand running = new BlockingCommand(1);
+		final Caller first = start("backup", args("1"), running);
+		Assert.assertTrue(running.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		final BlockingCommand waiting = new BlockingCommand(1);
+		final Caller second = start("backup", args("2"), waiting);
+		Assert.assertTrue(second.awaitResult() instanceof TimeoutException);
+		Assert.assertTrue(first.awaitResult() instanceof TimeoutException);
+		// the queued invocation was removed from the queue, and never executed
+		Assert.assertEquals(0, waiting.executions.get());
+	}
+
+	@Test
+	public void testIdenticalInvocationsOfIdempotentCommandCollapse() throws Exception {
+		settings.setIdempotentCommands(Arrays.asList("status"));
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(1);
+		final Caller first = start("status", args("1"), command);
+		Assert.assertTrue(command.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		final Caller second = start("status", args("1"), command);
+		second.awaitBlocked();
+		// different parameters are a different invocation
+		final Caller third = start("status", args("2"), command);
+		third.awaitBlocked();
+
+		command.release.countDown();
+		final Object firstResult = first.awaitResult();
+		Assert.assertTrue(firstResult instanceof EventResult);
+		Assert.assertSame(firstResult, second.awaitResult());
+		Assert.assertNotSame(firstResult, third.awaitResult());
+		Assert.assertEquals(2, command.executions.get());
+	}
+
+	@Test
+	public void testInvocationsOfOtherCommandsDoNotCollapse() throws Exception {
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand command = new BlockingCommand(2);
+		final Caller first = start("backup", args("1"), command);
+		final Caller second = start("backup", args("1"), command);
+		Assert.assertTrue(command.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+		command.release.countDown();
+		Assert.assertNotSame(first.awaitResult(), second.awaitResult());
+		Assert.assertEquals(2, command.executions.get());
+	}
+
+	@Test
+	public void testShutdownCancelsInvocations() throws Exception {
+		settings.setThreads(1);
+		executor = new CustomCommandExecutor(settings, null);
+
+		final BlockingCommand running = new BlockingCommand(1);
+		final Caller first = start("backup", args("1"), running);
+		Assert.assertTrue(running.started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		final BlockingCommand waiting = new BlockingCommand(1);
+		final Caller second = start("backup", args("2"), waiting);
+		second.awaitBlocked();
+
+		executor.shutdown();
+		Assert.assertTrue(running.interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		Assert.assertTrue(first.awaitResult() instanceof ExecutionException);
+		Assert.assertTrue(second.awaitResult() instanceof ExecutionException);
+		Assert.assertEquals(0, waiting.executions.get());
+
+		try {
+			executor.execute("backup", args("3"), constant("ok"));
+			Assert.fail("Expected the invocation to be rejected");
+		} catch (final RejectedExecutionException e) {
+			// expected
+		}
+	}
+
+	private Caller start(final String commandName, final Map<String, Object> args,
+			final Callable<EventResult> command) {
+		final Caller caller = new Caller(executor, commandName, args, command);
+		caller.start();
+		return caller;
+	}
+
+	private static Map<String, Object> args(final String value) {
+		final Map<String, Object> args = new HashMap<String, Object>();
+		args.put(CloudifyConstants.INVOCATION_PARAMETERS_KEY + "0", value);
+		return args;
+	}
+
+	private static Callable<EventResult> constant(final String result) {
+		return new Callable<EventResult>() {
+			@Override
+			public EventResult call() throws Exception {
+				return new EventResult(result);
+			}
+		};
+	}
+}
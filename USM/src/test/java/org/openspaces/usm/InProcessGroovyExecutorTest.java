@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudifysource.usm.USMException;
+import org.cloudifysource.usm.launcher.GroovyExceptionHandler;
+import org.cloudifysource.usm.launcher.InProcessGroovyExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for in-process execution of groovy lifecycle scripts.
+ *
+ */
+public class InProcessGroovyExecutorTest {
+
+	private File scriptDir;
+	private InProcessGroovyExecutor executor;
+
+	@Before
+	public void before() {
+		scriptDir = new File(System.getProperty("java.io.tmpdir"), "inProcessGroovyExecutorTest");
+		scriptDir.mkdirs();
+		executor = new InProcessGroovyExecutor(this.getClass().getClassLoader(), 10);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(scriptDir);
+	}
+
+	@Test
+	public void testOutputAndArgs() throws IOException, USMException {
+		final File script = writeScript("args.groovy", "println \"Hello \" + args[0]");
+
+		final StringWriter out = new StringWriter();
+		final int exitCode = executor.execute(script, Arrays.asList("World"), null, out, new StringWriter());
+
+		Assert.assertEquals(InProcessGroovyExecutor.EXIT_CODE_SUCCESS, exitCode);
+		Assert.assertEquals("Hello World", out.toString().trim());
+	}
+
+	@Test
+	public void testScriptIsRecompiledWhenChanged() throws IOException, USMException {
+		final File script = writeScript("changed.groovy", "println 'first'");
+		StringWriter out = new StringWriter();
+		executor.execute(script, Arrays.<String>asList(), null, out, out);
+		Assert.assertEquals("first", out.toString().trim());
+
+		writeScript("changed.groovy", "println 'second'");
+		out = new StringWriter();
+		executor.execute(script, Arrays.<String>asList(), null, out, out);
+		Assert.assertEquals("second", out.toString().trim());
+	}
+
+	@Test
+	public void testFailures() throws IOException, USMException {
+		final File failing = writeScript("failing.groovy", "throw new Exception('install failed')");
+		StringWriter err = new StringWriter();
+		int exitCode = executor.execute(failing, Arrays.<String>asList(), null, new StringWriter(), err);
+		Assert.assertEquals(InProcessGroovyExecutor.EXIT_CODE_FAILURE, exitCode);
+		Assert.assertTrue(err.toString(), err.toString().contains("Caught: java.lang.Exception: install failed"));
+
+		final File broken = writeScript("broken.groovy", "import java.lang.Exception throw new Exception(Go\");");
+		err = new StringWriter();
+		exitCode = executor.execute(broken, Arrays.<String>asList(), null, new StringWriter(), err);
+		Assert.assertEquals(InProcessGroovyExecutor.EXIT_CODE_FAILURE, exitCode);
+		Assert.assertTrue(err.toString(),
+				GroovyExceptionHandler.getExceptionString(err.toString()).contains("broken.groovy: 1:"));
+	}
+
+	@Test
+	public void testContextClassLoaderAndVariables() throws IOException, USMException {
+		final ClassLoader parent = new URLClassLoader(new URL[0], this.getClass().getClassLoader());
+		final InProcessGroovyExecutor parentExecutor = new InProcessGroovyExecutor(parent, 10);
+		final File script = writeScript("context.groovy",
+				"println Thread.currentThread().contextClassLoader.is(expectedLoader)\n"
+						+ "println env.USM_INSTANCE_ID");
+
+		final Map<String, Object> variables = new HashMap<String, Object>();
+		variables.put("expectedLoader", parent);
+		variables.put("env", Collections.singletonMap("USM_INSTANCE_ID", "3"));
+		final ClassLoader before = Thread.currentThread().getContextClassLoader();
+		final StringWriter out = new StringWriter();
+		final int exitCode = parentExecutor.execute(script, Arrays.<String>asList(), variables, out, out);
+
+		Assert.assertEquals(out.toString(), InProcessGroovyExecutor.EXIT_CODE_SUCCESS, exitCode);
+		final String[] lines = out.toString().trim().split("\\r?\\n");
+		Assert.assertEquals("true", lines[0].trim());
+		Assert.assertEquals("3", lines[1].trim());
+		Assert.assertSame(before, Thread.currentThread().getContextClassLoader());
+	}
+
+	private File writeScript(final String name, final String contents) throws IOException {
+		final File script = new File(scriptDir, name);
+		FileUtils.writeStringToFile(script, contents);
+		return script;
+	}
+}
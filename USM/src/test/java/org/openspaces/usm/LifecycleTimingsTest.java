@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.Map;
+
+import org.cloudifysource.usm.LifecycleTimings;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the lifecycle timing histograms.
+ *
+ */
+public class LifecycleTimingsTest {
+
+	@Test
+	public void testSummary() {
+		final LifecycleTimings timings = new LifecycleTimings();
+		for (int i = 0; i < 98; i++) {
+			timings.record("install", 40);
+		}
+		timings.record("install", 3000);
+		timings.record("install", 7000);
+		timings.record("start", 5);
+
+		final Map<String, LifecycleTimings.Summary> summaries = timings.getSummaries();
+		Assert.assertEquals(2, summaries.size());
+
+		final LifecycleTimings.Summary install = summaries.get("install");
+		Assert.assertEquals(100, install.getCount());
+		Assert.assertEquals(98 * 40 + 3000 + 7000, install.getTotalMillis());
+		Assert.assertEquals(7000, install.getMaxMillis());
+		Assert.assertEquals(50, install.getP50Millis());
+		Assert.assertEquals(5000, install.getP99Millis());
+
+		// percentiles never exceed the largest duration
+		final LifecycleTimings.Summary start = summaries.get("start");
+		Assert.assertEquals(5, start.getP50Millis());
+		Assert.assertEquals(5, start.getP99Millis());
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.usm.monitors.process.LinuxProcessSampler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the parsing of the /proc files of processes and the page size calculation of the Linux process sampler,
+ * using a simulated /proc directory.
+ *
+ */
+public class LinuxProcessSamplerTest {
+
+	private static final long PAGE_SIZE = 4096;
+
+	private File procDir;
+
+	@Before
+	public void before()
+			throws IOException {
+		procDir = new File(System.getProperty("java.io.tmpdir"), "linuxProcessSamplerTest");
+		FileUtils.deleteQuietly(procDir);
+		writeSelf(40960000, 10000);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(procDir);
+	}
+
+	@Test
+	public void testPageSize() throws Exception {
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+
+		writeSelf(16384 * 10000L, 10000);
+		Assert.assertEquals(16384, new LinuxProcessSampler(procDir).getPageSize());
+	}
+
+	@Test
+	public void testPageSizeIsRoundedToPowerOfTwo() throws Exception {
+		// the process grew between the reads of stat and statm
+		writeSelf(40960000 + 3 * PAGE_SIZE, 10000);
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+
+		writeSelf(40960000, 10003);
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+	}
+
+	@Test
+	public void testInvalidPageSizeFallsBackToDefault() throws Exception {
+		writeSelf(1000, 10);
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+
+		writeSelf(40960000, 0);
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+
+		FileUtils.deleteQuietly(procDir);
+		Assert.assertEquals(PAGE_SIZE, new LinuxProcessSampler(procDir).getPageSize());
+	}
+
+	@Test
+	public void testSample() throws Exception {
+		writeProcess(1234, "java");
+
+		final Map<String, Number> metrics = new LinuxProcessSampler(procDir).sample(Arrays.asList(1234L));
+		assertProcessMetrics(metrics, "");
+	}
+
+	@Test
+	public void testCommandNameWithSpacesAndParentheses() throws Exception {
+		writeProcess(1234, "my (weird) name");
+		writeProcess(5678, "evil) 1 2 3 (");
+
+		final Map<String, Number> metrics = new LinuxProcessSampler(procDir).sample(Arrays.asList(1234L, 5678L));
+		// metric names of several processes end with the process id
+		assertProcessMetrics(metrics, "-1234");
+		assertProcessMetrics(metrics, "-5678");
+	}
+
+	@Test
+	public void testTerminatedProcess() throws Exception {
+		writeProcess(1234, "java");
+		final LinuxProcessSampler sampler = new LinuxProcessSampler(procDir);
+		sampler.sample(Arrays.asList(1234L));
+
+		FileUtils.deleteDirectory(new File(procDir, "1234"));
+		final Map<String, Number> metrics = sampler.sample(Arrays.asList(1234L));
+		Assert.assertEquals(0L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_CPU_TIME));
+		Assert.assertEquals(0L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_RESIDENTAL_MEMORY));
+		Assert.assertEquals(0.0, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_CPU_USAGE));
+	}
+
+	private static void assertProcessMetrics(final Map<String, Number> metrics, final String postfix) {
+		// times are in clock ticks of 10 milliseconds
+		Assert.assertEquals(500L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_CPU_KERNEL_TIME + postfix));
+		Assert.assertEquals(3000L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_CPU_TIME + postfix));
+		Assert.assertEquals(123L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_PAGE_FAULTS + postfix));
+		Assert.assertEquals(7L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_ACTIVE_THREADS + postfix));
+		Assert.assertEquals(20, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_KERNEL_SCHEDULING_PRIORITY + postfix));
+		Assert.assertEquals(2500 * PAGE_SIZE,
+				metrics.get(CloudifyConstants.USM_METRIC_PROCESS_CPU_TOTAL_VIRTUAL_MEMORY + postfix));
+		Assert.assertEquals(300 * PAGE_SIZE,
+				metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_RESIDENTAL_MEMORY + postfix));
+		Assert.assertEquals(100 * PAGE_SIZE,
+				metrics.get(CloudifyConstants.USM_METRIC_PROCESS_TOTAL_SHARED_MEMORY + postfix));
+		Assert.assertEquals(1000L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_USER_ID + postfix));
+		Assert.assertEquals(100L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_GROUP_ID + postfix));
+		Assert.assertEquals(4096L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_READ_BYTES + postfix));
+		Assert.assertEquals(8192L, metrics.get(CloudifyConstants.USM_METRIC_PROCESS_WRITE_BYTES + postfix));
+	}
+
+	private void writeSelf(final long virtualBytes, final long virtualPages)
+			throws IOException {
+		writeFile("self/stat", stat(1, "init", 0, 0, 0, 0, 1, virtualBytes));
+		writeFile("self/statm", virtualPages + " 300 100 10 0 200 0\n");
+	}
+
+	private void writeProcess(final long pid, final String name)
+			throws IOException {
+		writeFile(pid + "/stat", stat(pid, name, 120, 3, 250, 50, 7, 2500 * PAGE_SIZE));
+		writeFile(pid + "/statm", "2500 300 100 10 0 200 0\n");
+		writeFile(pid + "/status", "Name:\t" + name + "\nState:\tS (sleeping)\nPPid:\t1\n"
+				+ "Uid:\t1000\t1000\t1000\t1000\nGid:\t100\t100\t100\t100\nThreads:\t7\n");
+		writeFile(pid + "/io", "rchar: 5000\nwchar: 6000\nsyscr: 10\nsyscw: 20\nread_bytes: 4096\n"
+				+ "write_bytes: 8192\ncancelled_write_bytes: 0\n");
+	}
+
+	// pid (comm) state ppid pgrp session tty_nr tpgid flags minflt cminflt majflt cmajflt utime stime cutime cstime
+	// priority nice num_threads itrealvalue starttime vsize rss
+	private static String stat(final long pid, final String name, final long minorFaults, final long majorFaults,
+			final long userTicks, final long systemTicks, final long threads, final long virtualBytes) {
+		return pid + " (" + name + ") S 1 " + pid + " " + pid + " 0 -1 4202752 " + minorFaults + " 0 " + majorFaults
+				+ " 0 " + userTicks + " " + systemTicks + " 0 0 20 0 " + threads + " 0 1000 " + virtualBytes
+				+ " 300\n";
+	}
+
+	private void writeFile(final String path, final String contents)
+			throws IOException {
+		FileUtils.writeStringToFile(new File(procDir, path), contents);
+	}
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudifysource.dsl.Service;
+import org.cloudifysource.usm.USMException;
+import org.cloudifysource.usm.USMLifecycleBean;
+import org.cloudifysource.usm.UniversalServiceManagerBean;
+import org.cloudifysource.usm.dsl.ServiceConfiguration;
+import org.cloudifysource.usm.events.EventResult;
+import org.cloudifysource.usm.events.PreInstallListener;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the execution of the lifecycle listeners of plugins by order group: listeners in the same order group run
+ * concurrently, groups run in order, and a failure in a group fails the event.
+ *
+ */
+public class ListenerOrderGroupsTest {
+
+	private static final long WAIT_SECONDS = 10;
+
+	/**
+	 * A pre-install listener that runs an action.
+	 */
+	private static final class ActionListener implements PreInstallListener {
+		private final Callable<EventResult> action;
+
+		ActionListener(final Callable<EventResult> action) {
+			this.action = action;
+		}
+
+		@Override
+		public EventResult onPreInstall() {
+			try {
+				return action.call();
+			} catch (final RuntimeException e) {
+				throw e;
+			} catch (final Exception e) {
+				return new EventResult(e);
+			}
+		}
+
+		@Override
+		public void init(final UniversalServiceManagerBean usm) {
+		}
+
+		@Override
+		public int getOrder() {
+			return 5;
+		}
+	}
+
+	private List<String> executed;
+	private ServiceConfiguration configuration;
+	private USMLifecycleBean bean;
+
+	@Before
+	public void before() {
+		executed = Collections.synchronizedList(new ArrayList<String>());
+		final Service service = new Service();
+		service.setName("groups");
+		configuration = new ServiceConfiguration(service, null, null, null, null);
+		bean = new USMLifecycleBean();
+		bean.setConfiguration(configuration);
+		bean.init();
+	}
+
+	@Test
+	public void testSameGroupListenersRunConcurrently() throws Exception {
+		// each listener waits for the other, so the event succeeds only if the listeners run at the same time
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final Callable<EventResult> action = new Callable<EventResult>() {
+			@Override
+			public EventResult call() throws Exception {
+				barrier.await(WAIT_SECONDS, TimeUnit.SECONDS);
+				return EventResult.SUCCESS;
+			}
+		};
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(action, "group"),
+				listener(action, "group") });
+
+		bean.firePreInstall();
+	}
+
+	@Test
+	public void testGroupsRunInOrder() throws Exception {
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(record("first-1", 200), "first"),
+				listener(record("first-2", 100), "first"),
+				listener(record("ungrouped", 0), null),
+				listener(record("second-1", 100), "second"),
+				listener(record("second-2", 0), "second") });
+
+		bean.firePreInstall();
+
+		Assert.assertEquals(10, executed.size());
+		// a step starts only after every listener of the previous step completed
+		assertBefore("end first-1", "start ungrouped");
+		assertBefore("end first-2", "start ungrouped");
+		assertBefore("end ungrouped", "start second-1");
+		assertBefore("end ungrouped", "start second-2");
+		// listeners of the same group overlap
+		assertBefore("start first-2", "end first-1");
+		assertBefore("start second-2", "end second-1");
+	}
+
+	@Test
+	public void testSameClassInDifferentGroups() throws Exception {
+		// all listeners are of the same class - each instance is grouped by its own plugin configuration
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(record("first", 100), "first"),
+				listener(record("second-1", 100), "second"),
+				listener(record("second-2", 0), "second") });
+
+		bean.firePreInstall();
+
+		assertBefore("end first", "start second-1");
+		assertBefore("end first", "start second-2");
+		assertBefore("start second-2", "end second-1");
+	}
+
+	@Test
+	public void testFailedListenerFailsGroup() throws Exception {
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(new Callable<EventResult>() {
+					@Override
+					public EventResult call() throws Exception {
+						slowStarted.countDown();
+						try {
+							Thread.sleep(TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+						} catch (final InterruptedException e) {
+							interrupted.countDown();
+						}
+						return EventResult.SUCCESS;
+					}
+				}, "group"),
+				listener(new Callable<EventResult>() {
+					@Override
+					public EventResult call() throws Exception {
+						Assert.assertTrue(slowStarted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+						return new EventResult(new IllegalStateException("pre-install failed"));
+					}
+				}, "group"),
+				listener(record("later", 0), null) });
+
+		// the failure is reported as soon as it happens, without waiting for the rest of the group
+		final long start = System.currentTimeMillis();
+		try {
+			bean.firePreInstall();
+			Assert.fail("Expected the listener failure");
+		} catch (final USMException e) {
+			Assert.assertTrue(e.getMessage().contains("pre-install failed"));
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+
+		// the listeners still running in the group are interrupted, and later listeners are not executed
+		Assert.assertTrue(interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		Assert.assertTrue(executed.isEmpty());
+	}
+
+	@Test
+	public void testRuntimeExceptionInGroupPropagates() throws Exception {
+		final IllegalArgumentException failure = new IllegalArgumentException("bad plugin");
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(record("first", 0), "group"),
+				listener(new Callable<EventResult>() {
+					@Override
+					public EventResult call() throws Exception {
+						throw failure;
+					}
+				}, "group"),
+				listener(record("later", 0), null) });
+
+		try {
+			bean.firePreInstall();
+			Assert.fail("Expected the listener exception");
+		} catch (final IllegalArgumentException e) {
+			Assert.assertSame(failure, e);
+		}
+		Assert.assertFalse(executed.contains("start later"));
+	}
+
+	@Test
+	public void testSameGroupListenersThatAreNotAdjacentRunInOrder() throws Exception {
+		bean.setPreInstallListeners(new PreInstallListener[] {
+				listener(record("first", 100), "group"),
+				listener(record("second", 100), null),
+				listener(record("third", 0), "group") });
+
+		bean.firePreInstall();
+
+		assertBefore("end first", "start second");
+		assertBefore("end second", "start third");
+	}
+
+	private ActionListener listener(final Callable<EventResult> action, final String orderGroup) {
+		final ActionListener listener = new ActionListener(action);
+		if (orderGroup != null) {
+			configuration.setPluginOrderGroup(listener, orderGroup);
+		}
+		return listener;
+	}
+
+	private Callable<EventResult> record(final String name, final long durationMillis) {
+		return new Callable<EventResult>() {
+			@Override
+			public EventResult call() throws Exception {
+				executed.add("start " + name);
+				Thread.sleep(durationMillis);
+				executed.add("end " + name);
+				return EventResult.SUCCESS;
+			}
+		};
+	}
+
+	private void assertBefore(final String first, final String second) {
+		final int firstIndex = executed.indexOf(first);
+		final int secondIndex = executed.indexOf(second);
+		Assert.assertTrue(first + " was not recorded: " + executed, firstIndex >= 0);
+		Assert.assertTrue(second + " was not recorded: " + executed, secondIndex >= 0);
+		Assert.assertTrue(first + " should precede " + second + ": " + executed, firstIndex < secondIndex);
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cloudifysource.usm.MonitorsHistory;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the monitors history ring buffers.
+ *
+ */
+public class MonitorsHistoryTest {
+
+	@Test
+	public void testOldestSamplesAreOverwritten() {
+		final MonitorsHistory history = new MonitorsHistory(3);
+		for (int i = 0; i < 5; i++) {
+			history.record(1000 + i, createSample(i));
+		}
+
+		final Map<String, Object> result = history.query(0, Long.MAX_VALUE, 0, null);
+		Assert.assertFalse("Non numeric monitors should not be recorded", result.containsKey("text"));
+		Assert.assertArrayEquals(new long[] { 1002, 1003, 1004 }, getTimestamps(result, "long"));
+		Assert.assertArrayEquals(new long[] { 2, 3, 4 }, (long[]) getValues(result, "long"));
+		Assert.assertTrue(Arrays.equals(new double[] { 1.0, 1.5, 2.0 }, (double[]) getValues(result, "double")));
+	}
+
+	@Test
+	public void testDownsampling() {
+		final MonitorsHistory history = new MonitorsHistory(10);
+		for (int i = 0; i < 6; i++) {
+			history.record(1000 + i * 10, createSample(i));
+		}
+
+		final Map<String, Object> result = history.query(1010, 2000, 20, Arrays.asList("long"));
+		Assert.assertEquals(1, result.size());
+		Assert.assertArrayEquals(new long[] { 1010, 1030, 1050 }, getTimestamps(result, "long"));
+		// averages of (1, 2), (3, 4) and (5)
+		Assert.assertArrayEquals(new long[] { 2, 4, 5 }, (long[]) getValues(result, "long"));
+	}
+
+	@Test
+	public void testIntegralMonitorIsWidenedByFractionalValue() {
+		final MonitorsHistory history = new MonitorsHistory(10);
+		history.record(1000, Collections.<String, Object>singletonMap("load", Integer.valueOf(1)));
+		history.record(1001, Collections.<String, Object>singletonMap("load", Long.valueOf(2)));
+		history.record(1002, Collections.<String, Object>singletonMap("load", Double.valueOf(2.75)));
+		history.record(1003, Collections.<String, Object>singletonMap("load", Integer.valueOf(3)));
+
+		final Map<String, Object> result = history.query(0, Long.MAX_VALUE, 0, null);
+		Assert.assertArrayEquals(new long[] { 1000, 1001, 1002, 1003 }, getTimestamps(result, "load"));
+		Assert.assertTrue(Arrays.equals(new double[] { 1.0, 2.0, 2.75, 3.0 }, (double[]) getValues(result, "load")));
+	}
+
+	private static Map<String, Object> createSample(final int value) {
+		final Map<String, Object> sample = new HashMap<String, Object>();
+		sample.put("long", Long.valueOf(value));
+		sample.put("double", Double.valueOf(value / 2.0));
+		sample.put("text", "value" + value);
+		return sample;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static long[] getTimestamps(final Map<String, Object> result, final String monitor) {
+		return (long[]) ((Map<String, Object>) result.get(monitor)).get(MonitorsHistory.TIMESTAMPS_KEY);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object getValues(final Map<String, Object> result, final String monitor) {
+		return ((Map<String, Object>) result.get(monitor)).get(MonitorsHistory.VALUES_KEY);
+	}
+}
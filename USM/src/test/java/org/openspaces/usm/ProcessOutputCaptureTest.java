@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.cloudifysource.usm.launcher.GroovyExceptionHandler;
+import org.cloudifysource.usm.launcher.ProcessOutputCapture;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the bounded capture of command output.
+ *
+ */
+public class ProcessOutputCaptureTest {
+
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	@Test
+	public void testShortOutputIsKept()
+			throws IOException {
+		final ProcessOutputCapture capture = new ProcessOutputCapture(100, 100, null);
+		capture.consume(new ByteArrayInputStream("first\r\nsecond\nthird".getBytes()));
+
+		Assert.assertFalse(capture.isTruncated());
+		Assert.assertEquals("first" + NEWLINE + "second" + NEWLINE + "third" + NEWLINE, capture.getOutput());
+	}
+
+	@Test
+	public void testHeadAndTailAreKept()
+			throws IOException {
+		final String compilationError = "/tmp/install.groovy: 3: unexpected token: } @ line 3, column 26";
+		final StringBuilder sb = new StringBuilder();
+		sb.append(compilationError).append('\n');
+		for (int i = 0; i < 1000; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		sb.append("Caught: java.lang.Exception: failed\n");
+
+		final ProcessOutputCapture capture = new ProcessOutputCapture(100, 100, null);
+		capture.consume(new ByteArrayInputStream(sb.toString().getBytes()));
+
+		Assert.assertTrue(capture.isTruncated());
+		final String output = capture.getOutput();
+		Assert.assertTrue(output.length() < 300);
+		Assert.assertTrue(output.startsWith(compilationError + NEWLINE));
+		Assert.assertTrue(output.endsWith("line 999" + NEWLINE + "Caught: java.lang.Exception: failed" + NEWLINE));
+		Assert.assertTrue(output.contains("characters of output omitted"));
+		Assert.assertEquals(compilationError, GroovyExceptionHandler.getExceptionString(output));
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.cloudifysource.usm.locator.ProcessTable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the process table index, read from a simulated /proc directory.
+ *
+ */
+public class ProcessTableTest {
+
+	private File procDir;
+
+	@Before
+	public void before()
+			throws IOException {
+		procDir = new File(System.getProperty("java.io.tmpdir"), "processTableTest");
+		FileUtils.deleteQuietly(procDir);
+		writeStat("self", 1, "init", 0, 1);
+	}
+
+	@After
+	public void after() {
+		FileUtils.deleteQuietly(procDir);
+	}
+
+	@Test
+	public void testDescendants()
+			throws Exception {
+		writeStat(100, "java", 1, 500);
+		writeStat(200, "bash", 100, 600);
+		writeStat(300, "my (weird) process", 200, 700);
+		writeStat(400, "other", 1, 800);
+
+		final ProcessTable.Snapshot snapshot = new ProcessTable(procDir).refresh();
+		Assert.assertEquals(Arrays.asList(200L, 300L), snapshot.getDescendants(100));
+		Assert.assertEquals(200, snapshot.getProcess(300).getParent());
+		Assert.assertEquals(700, snapshot.getProcess(300).getStartTime());
+		Assert.assertFalse(snapshot.contains(500));
+	}
+
+	@Test
+	public void testReusedPidIsNotADescendant()
+			throws Exception {
+		writeStat(100, "java", 1, 500);
+		writeStat(200, "bash", 100, 600);
+		writeStat(300, "sleep", 200, 700);
+		final ProcessTable table = new ProcessTable(procDir);
+		Assert.assertEquals(Arrays.asList(200L, 300L), table.refresh().getDescendants(100));
+
+		// 200 exits, its child is re-parented, and an unrelated process gets its ID
+		writeStat(300, "sleep", 1, 700);
+		writeStat(200, "unrelated", 1, 900);
+
+		final ProcessTable.Snapshot snapshot = table.refresh();
+		Assert.assertTrue(snapshot.getDescendants(100).isEmpty());
+		Assert.assertEquals(1, snapshot.getProcess(200).getParent());
+		Assert.assertEquals(900, snapshot.getProcess(200).getStartTime());
+		Assert.assertEquals(900, table.readProcess(200).getStartTime());
+	}
+
+	@Test
+	public void testTerminatedProcess()
+			throws Exception {
+		writeStat(100, "java", 1, 500);
+		final ProcessTable table = new ProcessTable(procDir);
+		Assert.assertTrue(table.refresh().contains(100));
+
+		FileUtils.deleteDirectory(new File(procDir, "100"));
+		Assert.assertNull(table.readProcess(100));
+		Assert.assertFalse(table.refresh().contains(100));
+	}
+
+	private void writeStat(final long pid, final String name, final long parent, final long startTime)
+			throws IOException {
+		writeStat(Long.toString(pid), pid, name, parent, startTime);
+	}
+
+	private void writeStat(final String dir, final long pid, final String name, final long parent,
+			final long startTime)
+			throws IOException {
+		// pid (comm) state ppid pgrp session tty_nr tpgid flags minflt cminflt majflt cmajflt utime stime cutime
+		// cstime priority nice num_threads itrealvalue starttime vsize rss
+		final String stat = pid + " (" + name + ") S " + parent + " " + pid + " " + pid + " 0 -1 4202752 120 0 0 0 "
+				+ "5 3 0 0 20 -5 1 0 " + startTime + " 10485760 300\n";
+		FileUtils.writeStringToFile(new File(procDir, dir + "/stat"), stat);
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.cloudifysource.usm.tail.OutputShipper;
+import org.cloudifysource.usm.tail.ServiceOutputLog;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the in-memory service output log, and the shipping of its lines to the loggers.
+ *
+ */
+public class ServiceOutputLogTest {
+
+	/**
+	 * Keeps the messages of the INFO records, which are the shipped lines.
+	 */
+	private static final class LinesHandler extends Handler {
+		private final List<String> lines = new ArrayList<String>();
+
+		@Override
+		public void publish(final LogRecord record) {
+			if (Level.INFO.equals(record.getLevel())) {
+				lines.add(record.getMessage());
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private LinesHandler output;
+	private LinesHandler errors;
+	private Logger outputLogger;
+	private Logger errorLogger;
+
+	@Before
+	public void before() {
+		output = new LinesHandler();
+		errors = new LinesHandler();
+		outputLogger = createLogger(output);
+		errorLogger = createLogger(errors);
+	}
+
+	@Test
+	public void testRingWraparound() {
+		final ServiceOutputLog log = new ServiceOutputLog(3, outputLogger, errorLogger, 0);
+		appendLines(log, 0, 5);
+
+		Assert.assertEquals(Arrays.asList("line 2", "line 3", "line 4"), log.getLastLines(10));
+		Assert.assertEquals(Arrays.asList("line 3", "line 4"), log.getLastLines(2));
+	}
+
+	@Test
+	public void testLinesOverwrittenBeforeShippingAreDropped() {
+		final ServiceOutputLog log = new ServiceOutputLog(3, outputLogger, errorLogger, 0);
+		appendLines(log, 0, 5);
+		log.append("error line", true);
+
+		Assert.assertTrue(log.ship(1000));
+		// one record per line
+		Assert.assertEquals(Arrays.asList("line 3", "line 4"), output.lines);
+		Assert.assertEquals(Arrays.asList("error line"), errors.lines);
+		Assert.assertEquals(3, log.getDroppedLines());
+		Assert.assertFalse(log.ship(1000));
+	}
+
+	@Test
+	public void testRateLimit() {
+		final ServiceOutputLog log = new ServiceOutputLog(10, outputLogger, errorLogger, 2);
+		appendLines(log, 0, 5);
+		log.ship(1000);
+		Assert.assertEquals(Arrays.asList("line 0", "line 1"), output.lines);
+		Assert.assertEquals(3, log.getDroppedLines());
+
+		// same rate window - the limit was already reached
+		appendLines(log, 5, 2);
+		log.ship(1500);
+		Assert.assertEquals(2, output.lines.size());
+		Assert.assertEquals(5, log.getDroppedLines());
+
+		// a new rate window
+		appendLines(log, 7, 1);
+		log.ship(2000);
+		Assert.assertEquals(Arrays.asList("line 0", "line 1", "line 7"), output.lines);
+		Assert.assertEquals(5, log.getDroppedLines());
+
+		// the ring keeps all recent lines, regardless of the rate limit
+		Assert.assertEquals(8, log.getLastLines(10).size());
+	}
+
+	@Test
+	public void testTailReportsUnloggedLines() {
+		final ServiceOutputLog log = new ServiceOutputLog(10, outputLogger, errorLogger, 2);
+		appendLines(log, 0, 3);
+		log.ship(1000);
+		// line 2 was dropped by the rate limit
+		Assert.assertTrue(log.getTail(10).hasUnloggedLines());
+		Assert.assertTrue(log.getTail(1).hasUnloggedLines());
+
+		// later lines were all logged, so a tail of these lines only is complete
+		appendLines(log, 3, 2);
+		log.ship(2000);
+		Assert.assertEquals(Arrays.asList("line 3", "line 4"), log.getTail(2).getLines());
+		Assert.assertFalse(log.getTail(2).hasUnloggedLines());
+		Assert.assertTrue(log.getTail(3).hasUnloggedLines());
+		// the count of dropped lines is kept since the log was created
+		Assert.assertEquals(1, log.getDroppedLines());
+	}
+
+	@Test
+	public void testUnregisterShipsRemainingLines() {
+		final ServiceOutputLog log = new ServiceOutputLog(10, outputLogger, errorLogger, 0);
+		final OutputShipper shipper = OutputShipper.getInstance();
+		shipper.register(log);
+		appendLines(log, 0, 3);
+		shipper.unregister(log);
+
+		Assert.assertEquals(Arrays.asList("line 0", "line 1", "line 2"), output.lines);
+	}
+
+	private static void appendLines(final ServiceOutputLog log, final int first, final int count) {
+		for (int i = first; i < first + count; i++) {
+			log.append("line " + i, false);
+		}
+	}
+
+	private static Logger createLogger(final Handler handler) {
+		final Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.ALL);
+		logger.addHandler(handler);
+		return logger;
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.openspaces.usm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cloudifysource.usm.StartupOrchestrator;
+import org.cloudifysource.usm.USMException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the ordering, dependency waits and failure propagation of the USM start-up phases.
+ *
+ */
+public class StartupOrchestratorTest {
+
+	private static final long WAIT_SECONDS = 10;
+
+	/**
+	 * Records its name when executed.
+	 */
+	private static class RecordingPhase implements StartupOrchestrator.Phase {
+		private final String name;
+		private final List<String> executed;
+
+		RecordingPhase(final String name, final List<String> executed) {
+			this.name = name;
+			this.executed = executed;
+		}
+
+		@Override
+		public void execute()
+				throws USMException, TimeoutException {
+			executed.add(name);
+		}
+	}
+
+	private StartupOrchestrator orchestrator;
+	private List<String> executed;
+
+	@Before
+	public void before() {
+		orchestrator = new StartupOrchestrator();
+		executed = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	@After
+	public void after() {
+		orchestrator.shutdown();
+	}
+
+	@Test
+	public void testDependentPhasesRunInOrder() throws Exception {
+		orchestrator.addPhase("install", new RecordingPhase("install", executed) {
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				sleep(200);
+				super.execute();
+			}
+		});
+		orchestrator.addPhase("preStart", new RecordingPhase("preStart", executed), "install");
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "preStart");
+		orchestrator.start();
+		orchestrator.await();
+
+		Assert.assertEquals(Arrays.asList("install", "preStart", "start"), executed);
+		Assert.assertEquals(Arrays.asList("install", "preStart", "start"),
+				new ArrayList<String>(orchestrator.getTimings().keySet()));
+	}
+
+	@Test
+	public void testIndependentPhasesRunConcurrently() throws Exception {
+		// each phase waits for the other, so the phases complete only if they run at the same time
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final StartupOrchestrator.Phase phase = new StartupOrchestrator.Phase() {
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				try {
+					barrier.await(WAIT_SECONDS, TimeUnit.SECONDS);
+				} catch (final TimeoutException e) {
+					throw e;
+				} catch (final Exception e) {
+					throw new USMException(e);
+				}
+			}
+		};
+		orchestrator.addPhase("monitors", phase);
+		orchestrator.addPhase("install", phase);
+		orchestrator.start();
+		orchestrator.await();
+
+		Assert.assertEquals(2, orchestrator.getTimings().size());
+	}
+
+	@Test
+	public void testPhaseWaitsForDependency() throws Exception {
+		final CountDownLatch installStarted = new CountDownLatch(1);
+		final CountDownLatch releaseInstall = new CountDownLatch(1);
+		orchestrator.addPhase("install", new RecordingPhase("install", executed) {
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				installStarted.countDown();
+				await(releaseInstall);
+				super.execute();
+			}
+		});
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "install");
+		orchestrator.addPhase("monitors", new RecordingPhase("monitors", executed));
+		orchestrator.start();
+
+		Assert.assertTrue(installStarted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+		orchestrator.await("monitors");
+		// the independent phase completed, the dependent phase is still waiting
+		Assert.assertEquals(Arrays.asList("monitors"), executed);
+
+		releaseInstall.countDown();
+		orchestrator.await("start");
+		Assert.assertEquals(Arrays.asList("monitors", "install", "start"), executed);
+	}
+
+	@Test
+	public void testPhaseAddedAfterStart() throws Exception {
+		orchestrator.addPhase("install", new RecordingPhase("install", executed));
+		orchestrator.start();
+		orchestrator.await("install");
+
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "install");
+		Assert.assertTrue(orchestrator.hasPhase("start"));
+		orchestrator.start();
+		orchestrator.await();
+
+		Assert.assertEquals(Arrays.asList("install", "start"), executed);
+	}
+
+	@Test
+	public void testFailurePropagates() throws Exception {
+		final USMException failure = new USMException("install failed");
+		orchestrator.addPhase("install", new StartupOrchestrator.Phase() {
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				throw failure;
+			}
+		});
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "install");
+		orchestrator.addPhase("monitors", new RecordingPhase("monitors", executed));
+		orchestrator.start();
+
+		// waiting for all phases reports the root cause
+		try {
+			orchestrator.await();
+			Assert.fail("Expected the phase failure");
+		} catch (final USMException e) {
+			Assert.assertSame(failure, e);
+		}
+
+		// a dependent phase is not executed, and reports the failure of its dependency
+		try {
+			orchestrator.await("start");
+			Assert.fail("Expected the dependency failure");
+		} catch (final USMException e) {
+			Assert.assertSame(failure, e.getCause());
+		}
+
+		orchestrator.await("monitors");
+		Assert.assertEquals(Arrays.asList("monitors"), executed);
+		Assert.assertFalse(orchestrator.getTimings().containsKey("install"));
+		Assert.assertFalse(orchestrator.getTimings().containsKey("start"));
+	}
+
+	@Test
+	public void testTimeoutPropagates() throws Exception {
+		final TimeoutException timeout = new TimeoutException("install timed out");
+		orchestrator.addPhase("install", new StartupOrchestrator.Phase() {
+			@Override
+			public void execute()
+					throws USMException, TimeoutException {
+				throw timeout;
+			}
+		});
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "install");
+		orchestrator.start();
+
+		try {
+			orchestrator.await("install");
+			Assert.fail("Expected the phase timeout");
+		} catch (final TimeoutException e) {
+			Assert.assertSame(timeout, e);
+		}
+
+		try {
+			orchestrator.await("start");
+			Assert.fail("Expected the dependency failure");
+		} catch (final USMException e) {
+			Assert.assertSame(timeout, e.getCause());
+		}
+		Assert.assertTrue(executed.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownDependency() {
+		orchestrator.addPhase("start", new RecordingPhase("start", executed), "install");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAwaitPhaseNotStarted() throws Exception {
+		orchestrator.addPhase("install", new RecordingPhase("install", executed));
+		orchestrator.await("install");
+	}
+
+	private static void sleep(final long millis) throws USMException {
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new USMException(e);
+		}
+	}
+
+	private static void await(final CountDownLatch latch) throws TimeoutException, USMException {
+		try {
+			if (!latch.await(WAIT_SECONDS, TimeUnit.SECONDS)) {
+				throw new TimeoutException("Latch was not released");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new USMException(e);
+		}
+	}
+}
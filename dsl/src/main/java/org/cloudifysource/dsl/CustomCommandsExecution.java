@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.dsl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudifysource.dsl.internal.CloudifyDSLEntity;
+import org.cloudifysource.dsl.internal.DSLValidationContext;
+import org.cloudifysource.dsl.internal.DSLValidationException;
+
+/*******
+ * Domain Object for the execution settings of the custom commands of a service. Example:
+ *
+ * <pre>
+ * customCommandsExecution {
+ *     threads 4
+ *     queueSize 50
+ *     timeoutSeconds 120
+ *     maxConcurrency ([&quot;backup&quot; : 1])
+ *     timeouts ([&quot;backup&quot; : 3600])
+ *     idempotentCommands ([&quot;status&quot;])
+ * }
+ * </pre>
+ *
+ * @since 2.6.0
+ */
+@CloudifyDSLEntity(name = "customCommandsExecution", clazz = CustomCommandsExecution.class, allowInternalNode = true,
+		allowRootNode = false, parent = "service")
+public class CustomCommandsExecution {
+
+	private static final int DEFAULT_THREADS = 10;
+	private static final int DEFAULT_QUEUE_SIZE = 100;
+	// no timeout - a command runs until it completes, unless the recipe sets a timeout.
+	private static final long DEFAULT_TIMEOUT_SECONDS = 0;
+
+	private int threads = DEFAULT_THREADS;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private long timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+	private Map<String, Integer> maxConcurrency = new HashMap<String, Integer>();
+	private Map<String, Long> timeouts = new HashMap<String, Long>();
+	private List<String> idempotentCommands = new LinkedList<String>();
+
+	/**
+	 * @return the maximum number of custom commands that execute at the same time.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(final int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return the maximum number of invocations waiting for execution. Invocations beyond this limit are rejected.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(final int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @return the default timeout of an invocation, in seconds. Used for commands that have no timeout of their own.
+	 *         Zero, the default, means that invocations have no timeout.
+	 */
+	public long getTimeoutSeconds() {
+		return timeoutSeconds;
+	}
+
+	public void setTimeoutSeconds(final long timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	/**
+	 * @return the maximum number of concurrent executions of each command. Commands that are not listed are only
+	 *         limited by the number of threads.
+	 */
+	public Map<String, Integer> getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(final Map<String, Integer> maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * @return the timeouts of specific commands, in seconds. A timeout that is not positive is replaced by the default
+	 *         timeout.
+	 */
+	public Map<String, Long> getTimeouts() {
+		return timeouts;
+	}
+
+	public void setTimeouts(final Map<String, Long> timeouts) {
+		this.timeouts = timeouts;
+	}
+
+	/**
+	 * @return the commands that have no side effects. Identical concurrent invocations of these commands are executed
+	 *         once, and share the result.
+	 */
+	public List<String> getIdempotentCommands() {
+		return idempotentCommands;
+	}
+
+	public void setIdempotentCommands(final List<String> idempotentCommands) {
+		this.idempotentCommands = idempotentCommands;
+	}
+
+	@DSLValidation
+	void checkLimits(final DSLValidationContext validationContext)
+			throws DSLValidationException {
+		if (threads <= 0) {
+			throw new DSLValidationException("The threads value of the customCommandsExecution block must be a "
+					+ "positive integer.");
+		}
+		if (queueSize < 0) {
+			throw new DSLValidationException("The queueSize value of the customCommandsExecution block can't be "
+					+ "negative.");
+		}
+		if (timeoutSeconds < 0) {
+			throw new DSLValidationException("The timeoutSeconds value of the customCommandsExecution block can't be "
+					+ "negative.");
+		}
+	}
+}
@@ -41,6 +41,7 @@ public class PluginDescriptor implements Serializable {
 	private String className;
 	private Map<String, Object> config;
 	private String name;
+	private String orderGroup;
 
 	public Map<String, Object> getConfig() {
 		return config;
@@ -66,4 +67,19 @@ public class PluginDescriptor implements Serializable {
 		this.className = className;
 	}
 
+	/**********
+	 * The order group of the plugin. Event listeners of plugins in the same order group are independent of each other,
+	 * and when they are next to each other in the order of an event, they are executed concurrently. Plugins with no
+	 * order group are executed one after the other.
+	 * 
+	 * @return the order group, or null.
+	 */
+	public String getOrderGroup() {
+		return orderGroup;
+	}
+
+	public void setOrderGroup(final String orderGroup) {
+		this.orderGroup = orderGroup;
+	}
+
 }
@@ -80,6 +80,8 @@ public class Service {
 
 	private ExecutableEntriesMap customCommands = new ExecutableEntriesMap();
 
+	private CustomCommandsExecution customCommandsExecution = new CustomCommandsExecution();
+
 	private String type = ServiceTierType.UNDEFINED.toString();
 
 	private StatelessProcessingUnit statelessProcessingUnit;
@@ -701,6 +703,14 @@ public class Service {
 		this.customCommands = customCommands;
 	}
 
+	public CustomCommandsExecution getCustomCommandsExecution() {
+		return customCommandsExecution;
+	}
+
+	public void setCustomCommandsExecution(final CustomCommandsExecution customCommandsExecution) {
+		this.customCommandsExecution = customCommandsExecution;
+	}
+
 	public boolean isLocationAware() {
 		return locationAware;
 	}
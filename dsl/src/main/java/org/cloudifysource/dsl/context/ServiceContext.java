@@ -157,4 +157,10 @@ public interface ServiceContext {
 	 * @return - the address cloudify bind on.
 	 */
 	String getBindAddress();
+
+	/*********
+	 * Discards the cached details of this service instance. The details are computed again the next time they are
+	 * read. Use this when a value returned by the details of the service has changed.
+	 */
+	void invalidateDetails();
 }
\ No newline at end of file
@@ -40,6 +40,7 @@ public final class ServiceContextFactory {
 			.getLogger(ServiceContextFactory.class.getName());
 	private static Admin admin = null;
 	private static ServiceContext context = null;
+	private static final ThreadLocal<ServiceContext> IN_PROCESS_CONTEXT = new ThreadLocal<ServiceContext>();
 
 	/*****
 	 * Private constructor to avoid initialization.
@@ -55,6 +56,11 @@ public final class ServiceContextFactory {
 	 */
 	public static synchronized ServiceContext getServiceContext() {
 
+		final ServiceContext inProcessContext = IN_PROCESS_CONTEXT.get();
+		if (inProcessContext != null) {
+			return inProcessContext;
+		}
+
 		if (context == null) {
 
 			// TODO - this code does not support setting a specific service file
@@ -90,6 +96,20 @@ public final class ServiceContextFactory {
 		return context;
 	}
 
+	/*****
+	 * Sets the service context returned to scripts that the USM executes in-process on the current thread. Such
+	 * scripts do not have the environment variables this factory relies on, so the USM hands them its own context.
+	 *
+	 * @param serviceContext the context, or null to clear it once the script has finished.
+	 */
+	public static void setInProcessServiceContext(final ServiceContext serviceContext) {
+		if (serviceContext == null) {
+			IN_PROCESS_CONTEXT.remove();
+		} else {
+			IN_PROCESS_CONTEXT.set(serviceContext);
+		}
+	}
+
 	private static synchronized Admin getAdmin() {
 		if (admin != null) {
 			return admin;
@@ -34,6 +34,7 @@ import org.apache.commons.lang.StringUtils;
 import org.cloudifysource.dsl.AppSharedIsolationSLADescriptor;
 import org.cloudifysource.dsl.Application;
 import org.cloudifysource.dsl.ComputeDetails;
+import org.cloudifysource.dsl.CustomCommandsExecution;
 import org.cloudifysource.dsl.DSLValidation;
 import org.cloudifysource.dsl.DataGrid;
 import org.cloudifysource.dsl.DedicatedIsolationSLADescriptor;
@@ -608,6 +609,7 @@ public abstract class BaseDslScript extends Script {
 			addObjectInitializerForClass(dslObjectInitializersByName, CloudStorage.class);
 			addObjectInitializerForClass(dslObjectInitializersByName, StorageTemplate.class);
 			addObjectInitializerForClass(dslObjectInitializersByName, StorageDetails.class);
+			addObjectInitializerForClass(dslObjectInitializersByName, CustomCommandsExecution.class);
 
 			addObjectInitializerForClass(dslObjectInitializersByName, ComputeDetails.class);
 			addObjectInitializerForClass(dslObjectInitializersByName, Sla.class);
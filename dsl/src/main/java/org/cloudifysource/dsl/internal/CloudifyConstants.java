@@ -84,6 +84,16 @@ public final class CloudifyConstants {
 	public static final String INVOCATION_RESPONSE_COMMAND_NAME = "Invocation_Command_Name";
 	public static final String INVOCATION_RESPONSE_INSTANCE_ID = "Invocation_Instance_ID";
 	public static final String INVOCATION_RESPONSE_INSTANCE_NAME = "Invocation_Instance_Name";
+	// true if some of the lines returned by the log tail invocation were not written to the container log.
+	public static final String INVOCATION_RESPONSE_UNLOGGED_LINES = "Invocation_Unlogged_Lines";
+	// the name of the USM bean that handles invocations of a service instance.
+	public static final String USM_BEAN_NAME = "universalServiceManagerBean";
+	// built-in invocation handled by the USM itself. Parameters: window millis, step millis, comma separated monitors.
+	public static final String INVOCATION_COMMAND_MONITORS_HISTORY = "cloudify:monitors-history";
+	// built-in invocation handled by the USM itself. Parameters: number of lines.
+	public static final String INVOCATION_COMMAND_LOG_TAIL = "cloudify:log-tail";
+	// built-in invocation handled by the USM itself. Discards the cached service details. No parameters.
+	public static final String INVOCATION_COMMAND_INVALIDATE_DETAILS = "cloudify:invalidate-details";
 
 	/*************
 	 * Key names of environment variables passed to USM external scripts
@@ -103,6 +113,13 @@ public final class CloudifyConstants {
 	public static final String USM_MONITORS_STATE_ID = "USM_State";
 	public static final String USM_MONITORS_CHILD_PROCESS_ID = "USM_Child Process ID";
 	public static final String USM_MONITORS_ACTUAL_PROCESS_ID = "USM_Actual Process ID";
+	public static final String USM_MONITORS_SAMPLE_LATENCY_PREFIX = "USM_Monitor Latency Millis-";
+	public static final String USM_MONITORS_SAMPLE_FAILURES_PREFIX = "USM_Monitor Failures-";
+	public static final String USM_MONITORS_LIFECYCLE_TIMING_PREFIX = "USM_Lifecycle Millis-";
+	public static final String USM_LIFECYCLE_TIMING_COUNT_SUFFIX = "-count";
+	public static final String USM_LIFECYCLE_TIMING_P50_SUFFIX = "-p50";
+	public static final String USM_LIFECYCLE_TIMING_P99_SUFFIX = "-p99";
+	public static final String USM_LIFECYCLE_TIMING_MAX_SUFFIX = "-max";
 
 	/****************
 	 * Key names for USM Details
@@ -115,6 +132,7 @@ public final class CloudifyConstants {
 	public static final String USM_DETAILS_HARDWARE_ID = "Cloud Hardware ID";
 	public static final String USM_DETAILS_INSTANCE_ID = "Instance ID";
 	public static final String USM_DETAILS_MACHINE_ID = "Machine ID";
+	public static final String USM_DETAILS_STARTUP_PHASE_PREFIX = "USM_Startup Phase Millis-";
 
 	/****************
 	 * Key names for USM Exposed Monitors and Details
@@ -207,7 +225,16 @@ public final class CloudifyConstants {
 	public static final String CUSTOM_PROPERTY_ENABLE_START_PROCESS_MONITOR = "org.cloudifysource.enable-start-process-monitor";
 	public static final String CUSTOM_PROPERTY_STOP_DETECTION_ON_ALL_PROCESSES = "org.cloudifysource.stop-detection-on-all-processes";
 	public static final String CUSTOM_PROPERTY_MONITORS_CACHE_EXPIRATION_TIMEOUT = "org.cloudifysource.monitors-cache-timeout";
+	public static final String CUSTOM_PROPERTY_MONITOR_TIMEOUT = "org.cloudifysource.monitor-timeout";
+	public static final String CUSTOM_PROPERTY_MONITORS_HISTORY_SIZE = "org.cloudifysource.monitors-history-size";
+	public static final String CUSTOM_PROPERTY_MONITORS_PUBLISH_INTERVAL =
+			"org.cloudifysource.monitors-publish-interval";
+	public static final String CUSTOM_PROPERTY_DETAILS_CACHE_TTL = "org.cloudifysource.details-cache-ttl";
 	public static final String CUSTOM_PROPERTY_PIDS_SIZE_LIMIT = "org.cloudifysource.pids-size-limit";
+	// comma separated names of the groovy scripts of a service that may execute in the USM's JVM
+	public static final String CUSTOM_PROPERTY_IN_PROCESS_GROOVY_SCRIPTS = "org.cloudifysource.in-process-groovy-scripts";
+	public static final String CUSTOM_PROPERTY_OUTPUT_LOG_SIZE = "org.cloudifysource.output-log-size";
+	public static final String CUSTOM_PROPERTY_OUTPUT_LOG_RATE_LIMIT = "org.cloudifysource.output-log-rate-limit";
 	public static final String CUSTOM_CLOUD_PROPERTY_UNICAST_DISCOVERY_PORT = "org.cloudifysource.unicast-discovery-port";
 	public static final String CUSTOM_PROPERTY_CLEAN_REMOTE_DIR_ON_START = "org.cloudifysource.clearRemoteDirectoryOnStart";
 
@@ -250,6 +277,8 @@ public final class CloudifyConstants {
 	public static final String USM_METRIC_COMMITTED_VIRTUAL_MEM_SIZE = "Committed Virtual Memory Size";
 	public static final String USM_METRIC_THREAD_COUNT = "Thread Count";
 	public static final String USM_METRIC_PEAK_THREAD_COUNT = "Peak Thread Count";
+	public static final String USM_METRIC_PROCESS_READ_BYTES = "Process Read Bytes";
+	public static final String USM_METRIC_PROCESS_WRITE_BYTES = "Process Write Bytes";
 
 	public static final int SSH_PORT = 22;
 
@@ -15,12 +15,24 @@
  *******************************************************************************/
 package org.cloudifysource.dsl.internal;
 
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class EventLogConstants {
 	private static final String timeStamp = "timeStamp";
 	private static final String machineHostName = "machineHostName";
 	private static final String machineHostAddress = "machineHostAddress";
 	private static final String serviceName = "serviceName";
 	private static final String eventText = "eventText";
+	private static final String lifecycleEvent = "lifecycleEvent";
+	private static final String eventDurationMillis = "eventDurationMillis";
+
+	// structured fields are appended to the event text as " {key=value, key=value}"
+	private static final String FIELDS_START = " {";
+	private static final String FIELDS_END = "}";
+	private static final String FIELDS_SEPARATOR = ", ";
+	private static final Pattern FIELDS_PATTERN = Pattern.compile(" \\{([\\w]+=[^,{}]*(, [\\w]+=[^,{}]*)*)\\}\\s*$");
 //	private static String ee = USMLifecycleBean
 
 	public static String getTimeStampKey() {
@@ -42,4 +54,53 @@ public class EventLogConstants {
 	public static String getEventTextKey() {
 		return eventText;
 	}
+
+	public static String getLifecycleEventKey() {
+		return lifecycleEvent;
+	}
+
+	public static String getEventDurationMillisKey() {
+		return eventDurationMillis;
+	}
+
+	/**
+	 * Formats structured fields, to be appended to the text of an event log entry.
+	 * 
+	 * @param fields
+	 *            the field names and values. Values may not contain commas or curly braces.
+	 * @return the formatted fields.
+	 */
+	public static String formatEventFields(final Map<String, String> fields) {
+		final StringBuilder sb = new StringBuilder(FIELDS_START);
+		boolean first = true;
+		for (final Map.Entry<String, String> field : fields.entrySet()) {
+			if (!first) {
+				sb.append(FIELDS_SEPARATOR);
+			}
+			sb.append(field.getKey()).append('=').append(field.getValue());
+			first = false;
+		}
+		return sb.append(FIELDS_END).toString();
+	}
+
+	/**
+	 * Extracts the structured fields that were appended to the text of an event log entry.
+	 * 
+	 * @param text
+	 *            the event text.
+	 * @param fields
+	 *            the map the fields are added to.
+	 * @return the event text without the fields.
+	 */
+	public static String extractEventFields(final String text, final Map<String, String> fields) {
+		final Matcher matcher = FIELDS_PATTERN.matcher(text);
+		if (!matcher.find()) {
+			return text;
+		}
+		for (final String field : matcher.group(1).split(FIELDS_SEPARATOR)) {
+			final int index = field.indexOf('=');
+			fields.put(field.substring(0, index), field.substring(index + 1));
+		}
+		return text.substring(0, matcher.start());
+	}
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.dsl.internal;
+
+import java.util.Map;
+
+import com.gigaspaces.annotation.pojo.SpaceClass;
+import com.gigaspaces.annotation.pojo.SpaceId;
+
+/**
+ * The monitors of a service instance, as published by its USM to the management space. The USM writes the entry once,
+ * and from then on only changes the monitor values that changed since the previous publication. Readers can register
+ * for notifications on this class instead of polling the instance statistics.
+ *
+ * The entry is written with a lease that the USM renews on every publication, so the entry of an instance that is
+ * gone expires.
+ *
+ * @since 2.6.0
+ *
+ */
+@SpaceClass
+public class ServiceInstanceMonitorsHolder {
+
+	/**
+	 * The name of the monitors map property, used in change operations.
+	 */
+	public static final String MONITORS_PROPERTY = "monitors";
+	/**
+	 * The name of the version property, used in change operations.
+	 */
+	public static final String VERSION_PROPERTY = "version";
+	/**
+	 * The name of the timestamp property, used in change operations.
+	 */
+	public static final String TIMESTAMP_PROPERTY = "timestamp";
+
+	private String id;
+	private String processingUnitName;
+	private Integer instanceId;
+	private Long version;
+	private Long timestamp;
+	private Long publishIntervalMillis;
+	private Map<String, Object> monitors;
+
+	public ServiceInstanceMonitorsHolder() {
+
+	}
+
+	/**
+	 * Creates the ID of the entry of a service instance.
+	 *
+	 * @param processingUnitName
+	 *            the absolute processing unit name of the service.
+	 * @param instanceId
+	 *            the instance ID.
+	 * @return the entry ID.
+	 */
+	public static String createId(final String processingUnitName, final int instanceId) {
+		return processingUnitName + "[" + instanceId + "]";
+	}
+
+	@SpaceId(autoGenerate = false)
+	public String getId() {
+		return id;
+	}
+
+	public void setId(final String id) {
+		this.id = id;
+	}
+
+	public String getProcessingUnitName() {
+		return processingUnitName;
+	}
+
+	public void setProcessingUnitName(final String processingUnitName) {
+		this.processingUnitName = processingUnitName;
+	}
+
+	public Integer getInstanceId() {
+		return instanceId;
+	}
+
+	public void setInstanceId(final Integer instanceId) {
+		this.instanceId = instanceId;
+	}
+
+	/**
+	 * @return the number of times the monitor values changed since the entry was written.
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(final Long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return the time of the last publication, in the clock of the USM host.
+	 */
+	public Long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(final Long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return the interval between publications.
+	 */
+	public Long getPublishIntervalMillis() {
+		return publishIntervalMillis;
+	}
+
+	public void setPublishIntervalMillis(final Long publishIntervalMillis) {
+		this.publishIntervalMillis = publishIntervalMillis;
+	}
+
+	public Map<String, Object> getMonitors() {
+		return monitors;
+	}
+
+	public void setMonitors(final Map<String, Object> monitors) {
+		this.monitors = monitors;
+	}
+
+	@Override
+	public String toString() {
+		return "ServiceInstanceMonitorsHolder [id=" + id + ", version=" + version + ", timestamp=" + timestamp
+				+ ", monitors=" + monitors + "]";
+	}
+}
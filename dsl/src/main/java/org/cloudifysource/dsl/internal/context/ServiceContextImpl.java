@@ -17,6 +17,7 @@ package org.cloudifysource.dsl.internal.context;
 
 import org.cloudifysource.dsl.Service;
 import org.cloudifysource.dsl.context.ServiceContext;
+import org.cloudifysource.dsl.context.ServiceInstance;
 import org.cloudifysource.dsl.context.blockstorage.StorageFacade;
 import org.cloudifysource.dsl.context.kvstorage.AttributesFacade;
 import org.cloudifysource.dsl.context.kvstorage.AttributesFacadeImpl;
@@ -42,6 +43,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class ServiceContextImpl implements ServiceContext {
 
+	private static final int INVALIDATE_DETAILS_TIMEOUT_SECONDS = 60;
+
 	private org.cloudifysource.dsl.Service service;
 	private Admin admin;	
 	private final String serviceDirectory;
@@ -60,6 +63,9 @@ public class ServiceContextImpl implements ServiceContext {
 	// this pid may be modified due to process crashed, so volatile is required.
 	private volatile long externalProcessId;
 
+	// set by the USM, on the context it owns.
+	private volatile Runnable detailsInvalidationHandler;
+
 	/*************
 	 * Constructor.
 	 *
@@ -396,4 +402,50 @@ public class ServiceContextImpl implements ServiceContext {
 	public String getBindAddress() {
 		return System.getenv(CloudifyConstants.CLOUDIFY_CLOUD_MACHINE_IP_ADDRESS_ENV);
 	}
+
+	@Override
+	public void invalidateDetails() {
+		final Runnable handler = this.detailsInvalidationHandler;
+		if (handler != null) {
+			// running inside the USM
+			handler.run();
+			return;
+		}
+
+		// running in an external script - ask the USM of this instance to invalidate its details.
+		checkInitialized();
+		if (this.admin == null) {
+			return;
+		}
+		final org.cloudifysource.dsl.context.Service myService =
+				waitForService(this.serviceName, INVALIDATE_DETAILS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		if (myService == null) {
+			throw new IllegalStateException("Service " + this.serviceName + " was not found, details can not be "
+					+ "invalidated");
+		}
+		for (final ServiceInstance instance : myService.getInstances()) {
+			if (instance.getInstanceId() == getInstanceId()) {
+				try {
+					instance.invoke(CloudifyConstants.INVOCATION_COMMAND_INVALIDATE_DETAILS, new Object[0],
+							INVALIDATE_DETAILS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				} catch (final Exception e) {
+					throw new IllegalStateException("Failed to invalidate the details of instance "
+							+ getInstanceId() + " of service " + this.serviceName + ": " + e.getMessage(), e);
+				}
+				return;
+			}
+		}
+		throw new IllegalStateException("Instance " + getInstanceId() + " of service " + this.serviceName
+				+ " was not found, details can not be invalidated");
+	}
+
+	/**********
+	 * Sets the handler that invalidates the details of the service, when this context is used by the USM itself.
+	 *
+	 * @param detailsInvalidationHandler
+	 *            the handler.
+	 */
+	public void setDetailsInvalidationHandler(final Runnable detailsInvalidationHandler) {
+		this.detailsInvalidationHandler = detailsInvalidationHandler;
+	}
 }
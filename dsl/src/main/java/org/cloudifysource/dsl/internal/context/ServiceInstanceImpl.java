@@ -164,7 +164,7 @@ public class ServiceInstanceImpl implements ServiceInstance {
 			paramsMap.put(CloudifyConstants.INVOCATION_PARAMETERS_KEY + i, params[i]);
 		}
 
-		final Future<Object> future = ((DefaultProcessingUnitInstance) pui).invoke("universalServiceManagerBean",
+		final Future<Object> future = ((DefaultProcessingUnitInstance) pui).invoke(CloudifyConstants.USM_BEAN_NAME,
 				paramsMap);
 
 		return new InvocationFuture(future);
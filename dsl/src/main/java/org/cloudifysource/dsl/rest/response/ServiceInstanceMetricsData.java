@@ -23,8 +23,16 @@ import java.util.Map;
  */
 public class ServiceInstanceMetricsData {
 
+	/** The metrics were read from the instance. */
+	public static final String STATUS_OK = "ok";
+	/** The instance did not respond in time, metrics are not available. */
+	public static final String STATUS_TIMEOUT = "timeout";
+	/** Reading the metrics failed, metrics are not available. */
+	public static final String STATUS_ERROR = "error";
+
 	private int instanceId;
 	private Map<String, Object> metrics;
+	private String status = STATUS_OK;
 
 	public ServiceInstanceMetricsData() {
 	}
@@ -51,4 +59,16 @@ public class ServiceInstanceMetricsData {
 		this.metrics = metrics;
 	}
 
+	/**
+	 * @return the status of the metrics read, one of {@link #STATUS_OK}, {@link #STATUS_TIMEOUT} or
+	 *         {@link #STATUS_ERROR}.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
 }
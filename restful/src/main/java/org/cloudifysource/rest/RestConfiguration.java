@@ -13,7 +13,9 @@
 package org.cloudifysource.rest;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -21,6 +23,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cloudifysource.dsl.cloud.Cloud;
@@ -36,6 +39,9 @@ import org.openspaces.admin.Admin;
  */
 public class RestConfiguration {
 
+	private static final long LIFECYCLE_EVENTS_EVICTION_INTERVAL_MINUTES = 1;
+	private static final long LIFECYCLE_EVENTS_EVICTION_IDLE_MILLIS = 5 * 60 * 1000;
+
 	private Admin admin;
 	private Cloud cloud = null;
 	private CloudConfigurationHolder cloudConfigurationHolder;
@@ -46,9 +52,9 @@ public class RestConfiguration {
 	private final AtomicInteger lastTemplateFileNum = new AtomicInteger(0);
 	private String temporaryFolderPath;
 	/**
-	 * A set containing all of the executed lifecycle events. used to avoid duplicate prints.
+	 * A set containing the hashes of all of the executed lifecycle events. used to avoid duplicate prints.
 	 */
-	private final Set<String> eventsSet = new HashSet<String>();
+	private final Set<Long> eventsSet = Collections.synchronizedSet(new HashSet<Long>());
 	private final Map<UUID, RestPollingRunnable> lifecyclePollingThreadContainer =
 			new ConcurrentHashMap<UUID, RestPollingRunnable>();
 	private final ScheduledExecutorService scheduledExecutor = Executors
@@ -133,7 +139,7 @@ public class RestConfiguration {
 		this.temporaryFolderPath = temporaryFolderPath;
 	}
 
-	public Set<String> getEventsSet() {
+	public Set<Long> getEventsSet() {
 		return eventsSet;
 	}
 
@@ -145,4 +151,27 @@ public class RestConfiguration {
 		return scheduledExecutor;
 	}
 
+	/**
+	 * Starts evicting the events of polling tasks that are done, once clients stop reading them.
+	 */
+	public void startLifecycleEventsEvictionTask() {
+		scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				final Iterator<Map.Entry<UUID, RestPollingRunnable>> it =
+						lifecyclePollingThreadContainer.entrySet().iterator();
+				while (it.hasNext()) {
+					final RestPollingRunnable restPollingRunnable = it.next().getValue();
+					if (restPollingRunnable.isDone()
+							&& restPollingRunnable.getLifecycleEventsContainer().getIdleMillis()
+							> LIFECYCLE_EVENTS_EVICTION_IDLE_MILLIS) {
+						restPollingRunnable.getLifecycleEventsContainer().evict();
+						it.remove();
+					}
+				}
+			}
+		}, LIFECYCLE_EVENTS_EVICTION_INTERVAL_MINUTES, LIFECYCLE_EVENTS_EVICTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
 }
@@ -55,6 +55,7 @@ public class RestConfigurationFactoryBean implements FactoryBean<RestConfigurati
 	public RestConfiguration getObject() throws Exception {
 		config = new RestConfiguration();
 		initRestConfiguration();
+		config.startLifecycleEventsEvictionTask();
 		return config;
 	}
 
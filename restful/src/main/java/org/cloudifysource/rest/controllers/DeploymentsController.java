@@ -64,12 +64,17 @@ import org.cloudifysource.rest.deploy.ElasticProcessingUnitDeploymentFactory;
 import org.cloudifysource.rest.deploy.ElasticProcessingUnitDeploymentFactoryImpl;
 import org.cloudifysource.rest.interceptors.ApiVersionValidationAndRestResponseBuilderInterceptor;
 import org.cloudifysource.rest.repo.UploadRepo;
-import org.cloudifysource.security.CustomPermissionEvaluator;
+import org.cloudifysource.rest.util.DeploymentStateView;
+import org.cloudifysource.rest.util.InstanceFanOut;
+import org.cloudifysource.rest.util.InstanceFanOut.InstanceResult;
+import org.cloudifysource.rest.util.InstanceFanOut.InstanceTask;
 import org.cloudifysource.rest.util.IsolationUtils;
 import org.cloudifysource.rest.util.LifecycleEventsContainer;
+import org.cloudifysource.rest.util.PublishedMonitorsCache;
 import org.cloudifysource.rest.util.RestPollingRunnable;
 import org.cloudifysource.rest.validators.InstallServiceValidationContext;
 import org.cloudifysource.rest.validators.InstallServiceValidator;
+import org.cloudifysource.security.CustomPermissionEvaluator;
 import org.openspaces.admin.Admin;
 import org.openspaces.admin.AdminException;
 import org.openspaces.admin.application.Application;
@@ -117,6 +122,9 @@ public class DeploymentsController extends BaseRestContoller {
 	private static final Logger logger = Logger
 			.getLogger(DeploymentsController.class.getName());
 
+	// the time to wait for the metrics of all instances of a service.
+	private static final long SERVICE_METRICS_TIMEOUT_SEC = 5;
+
 	@Autowired
 	private UploadRepo repo;
 
@@ -129,6 +137,15 @@ public class DeploymentsController extends BaseRestContoller {
 	@Autowired(required = false)
 	private CustomPermissionEvaluator permissionEvaluator;
 
+	@Autowired(required = false)
+	private PublishedMonitorsCache publishedMonitorsCache;
+
+	@Autowired(required = false)
+	private DeploymentStateView deploymentStateView;
+
+	@Autowired
+	private InstanceFanOut instanceFanOut;
+
 	/**
 	 * This method provides metadata about a service belonging to a specific application.
 	 * 
@@ -496,6 +513,7 @@ public class DeploymentsController extends BaseRestContoller {
 				minutes);
 		restPollingRunnable.addService(serviceName, plannedNumberOfInstances);
 		restPollingRunnable.setAdmin(restConfig.getAdmin());
+		restPollingRunnable.setDeploymentStateView(deploymentStateView);
 		restPollingRunnable.setIsServiceInstall(isServiceInstall);
 		restPollingRunnable.setLifecycleEventsContainer(lifecycleEventsContainer);
 		restPollingRunnable.setEndTime(timeout, TimeUnit.MINUTES);
@@ -1104,14 +1122,26 @@ public class DeploymentsController extends BaseRestContoller {
 		// get service
 		final ProcessingUnit service = getService(appName, serviceName);
 
-		// set metrics for every instance
-		for (final ProcessingUnitInstance serviceInstance : service.getInstances()) {
-
-			final Map<String, Object> metrics = serviceInstance.getStatistics()
-					.getMonitors().get("USM").getMonitors();
-			serviceInstanceMetricsDatas.add(new ServiceInstanceMetricsData(
-					serviceInstance.getInstanceId(), metrics));
+		// read the metrics of all instances concurrently, instances that did not respond in time are reported
+		// without metrics.
+		final List<InstanceResult<Map<String, Object>>> results = instanceFanOut.execute(service.getInstances(),
+				new InstanceTask<Map<String, Object>>() {
 
+					@Override
+					public Map<String, Object> execute(final ProcessingUnitInstance instance) {
+						return getInstanceMetrics(instance);
+					}
+				}, SERVICE_METRICS_TIMEOUT_SEC, TimeUnit.SECONDS);
+
+		for (final InstanceResult<Map<String, Object>> result : results) {
+			final ServiceInstanceMetricsData data = new ServiceInstanceMetricsData(
+					result.getInstance().getInstanceId(), result.getValue());
+			if (result.getStatus() == InstanceFanOut.Status.TIMEOUT) {
+				data.setStatus(ServiceInstanceMetricsData.STATUS_TIMEOUT);
+			} else if (result.getStatus() == InstanceFanOut.Status.ERROR) {
+				data.setStatus(ServiceInstanceMetricsData.STATUS_ERROR);
+			}
+			serviceInstanceMetricsDatas.add(data);
 		}
 
 		// create response instance
@@ -1124,6 +1154,18 @@ public class DeploymentsController extends BaseRestContoller {
 
 	}
 
+	// published monitors are used if the instance publishes them, to avoid a remote call to the instance.
+	private Map<String, Object> getInstanceMetrics(final ProcessingUnitInstance serviceInstance) {
+		if (publishedMonitorsCache != null) {
+			final Map<String, Object> published = publishedMonitorsCache.getMonitors(
+					serviceInstance.getProcessingUnit().getName(), serviceInstance.getInstanceId());
+			if (published != null) {
+				return published;
+			}
+		}
+		return serviceInstance.getStatistics().getMonitors().get("USM").getMonitors();
+	}
+
 	/******
 	 * get service instance metrics by given specific instanceId.
 	 * 
@@ -1148,8 +1190,7 @@ public class DeploymentsController extends BaseRestContoller {
 				serviceName, instanceId);
 
 		// get metrics data
-		final Map<String, Object> metrics = serviceInstance.getStatistics()
-				.getMonitors().get("USM").getMonitors();
+		final Map<String, Object> metrics = getInstanceMetrics(serviceInstance);
 
 		final ServiceInstanceMetricsData serviceInstanceMetricsData = new ServiceInstanceMetricsData(
 				instanceId, metrics);
@@ -38,6 +38,7 @@ import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -113,6 +114,12 @@ import org.cloudifysource.security.CloudifyAuthorizationDetails;
 import org.cloudifysource.security.CustomPermissionEvaluator;
 import org.cloudifysource.rest.util.ApplicationDescriptionFactory;
 import org.cloudifysource.rest.util.ApplicationInstallerRunnable;
+import org.cloudifysource.rest.util.DeploymentStateView;
+import org.cloudifysource.rest.util.DeploymentStateView.InstanceState;
+import org.cloudifysource.rest.util.DeploymentStateView.ServiceState;
+import org.cloudifysource.rest.util.InstanceFanOut;
+import org.cloudifysource.rest.util.InstanceFanOut.InstanceResult;
+import org.cloudifysource.rest.util.InstanceFanOut.InstanceTask;
 import org.cloudifysource.rest.util.IsolationUtils;
 import org.cloudifysource.rest.util.LifecycleEventsContainer;
 import org.cloudifysource.rest.util.RestPollingRunnable;
@@ -149,6 +156,7 @@ import org.openspaces.admin.machine.Machine;
 import org.openspaces.admin.pu.ProcessingUnit;
 import org.openspaces.admin.pu.ProcessingUnitAlreadyDeployedException;
 import org.openspaces.admin.pu.ProcessingUnitInstance;
+import org.openspaces.admin.pu.ProcessingUnitType;
 import org.openspaces.admin.pu.ProcessingUnits;
 import org.openspaces.admin.pu.elastic.ElasticMachineProvisioningConfig;
 import org.openspaces.admin.pu.elastic.ElasticStatefulProcessingUnitDeployment;
@@ -211,9 +219,16 @@ public class ServiceController implements ServiceDetailsProvider {
 	private static final int TIMEOUT_WAITING_FOR_GSM_SEC = 10;
 	private static final int THREAD_POOL_SIZE = 20;
 	private static final int PU_DISCOVERY_TIMEOUT_SEC = 8;
+	// the in-memory output is read from memory, so a USM that does not respond quickly is not waited for.
+	private static final int LOG_TAIL_INVOCATION_TIMEOUT_SEC = 3;
+	// the time to wait for the log tails of all instances of a service - covers reading the container log and the USM
+	// invocation.
+	private static final int SERVICE_LOG_TAIL_TIMEOUT_SEC = 30;
 	private static final int LIFECYCLE_EVENT_POLLING_INTERVAL_SEC = 4;
 	private static final long LIFECYCLE_EVENT_CLEANUP_INTERVAL_SEC = 60;
 	private static final long MINIMAL_POLLING_TASK_EXPIRATION = 5 * 60 * 1000;
+	private static final long LIFECYCLE_EVENTS_EVICTION_IDLE_MILLIS = 5 * 60 * 1000;
+	private static final int MAX_LIFECYCLE_EVENTS_WAIT_SEC = 30;
 
 	private static final String LOCALCLOUD_ZONE = "localcloud";
 	private static final String SHARED_ISOLATION_ID = "public";
@@ -227,14 +242,19 @@ public class ServiceController implements ServiceDetailsProvider {
 	private static final String SUCCESSFULLY_ADDED_TEMPLATES_KEY = "successfully added templates";
 
 	/**
-	 * A set containing all of the executed lifecycle events. used to avoid duplicate prints.
+	 * A set containing the hashes of all of the executed lifecycle events. used to avoid duplicate prints.
 	 */
-	private final Set<String> eventsSet = new HashSet<String>();
+	private final Set<Long> eventsSet = Collections.synchronizedSet(new HashSet<Long>());
 
 	@Autowired(required = true)
 	private Admin admin;
 	@Autowired(required = false)
 	private CustomPermissionEvaluator permissionEvaluator;
+	@Autowired(required = false)
+	private DeploymentStateView deploymentStateView;
+
+	@Autowired
+	private InstanceFanOut instanceFanOut;
 	@GigaSpaceContext(name = "gigaSpace")
 	private GigaSpace gigaSpace;
 
@@ -317,10 +337,14 @@ public class ServiceController implements ServiceDetailsProvider {
 								.next();
 						final RestPollingRunnable restPollingRunnable = entry
 								.getValue();
-						if (restPollingRunnable.isDone()) {
+						// events of a done task are kept until clients stop reading them
+						if (restPollingRunnable.isDone()
+								&& restPollingRunnable.getLifecycleEventsContainer().getIdleMillis()
+								> LIFECYCLE_EVENTS_EVICTION_IDLE_MILLIS) {
 							logger.log(Level.INFO, "Polling Task with UUID "
 									+ entry.getKey().toString()
 									+ " has expired");
+							restPollingRunnable.getLifecycleEventsContainer().evict();
 							it.remove();
 						}
 					}
@@ -796,9 +820,19 @@ public class ServiceController implements ServiceDetailsProvider {
 			logger.finer("received request to list application descriptions");
 		}
 
-		final Applications apps = admin.getApplications();
 		final List<ApplicationDescription> appDescriptions = new ArrayList<ApplicationDescription>();
-		final ApplicationDescriptionFactory applicationDescriptionFactory = new ApplicationDescriptionFactory(admin);
+		final ApplicationDescriptionFactory applicationDescriptionFactory =
+				new ApplicationDescriptionFactory(admin, deploymentStateView);
+		if (deploymentStateView != null) {
+			for (final String applicationName : deploymentStateView.getApplicationNames()) {
+				if (!applicationName.equals(CloudifyConstants.MANAGEMENT_APPLICATION_NAME)) {
+					appDescriptions.add(applicationDescriptionFactory.getApplicationDescription(applicationName));
+				}
+			}
+			return successStatus(appDescriptions);
+		}
+
+		final Applications apps = admin.getApplications();
 		for (final Application app : apps) {
 			if (!app.getName().equals(CloudifyConstants.MANAGEMENT_APPLICATION_NAME)) {
 				final ApplicationDescription applicationDescription = applicationDescriptionFactory
@@ -835,13 +869,15 @@ public class ServiceController implements ServiceDetailsProvider {
 		if (logger.isLoggable(Level.FINER)) {
 			logger.finer("received request to list applications");
 		}
-		final Application app = admin.getApplications().waitFor(
-				applicationName, 5, TimeUnit.SECONDS);
-		if (app == null) {
-			throw new RestErrorException(FAILED_TO_LOCATE_APP, applicationName);
+		if (deploymentStateView == null || deploymentStateView.getServices(applicationName).isEmpty()) {
+			final Application app = admin.getApplications().waitFor(
+					applicationName, 5, TimeUnit.SECONDS);
+			if (app == null) {
+				throw new RestErrorException(FAILED_TO_LOCATE_APP, applicationName);
+			}
 		}
 		final ApplicationDescriptionFactory appDescriptionFactory = new ApplicationDescriptionFactory(
-				admin);
+				admin, deploymentStateView);
 		final ApplicationDescription applicationDescription = appDescriptionFactory
 				.getApplicationDescription(applicationName);
 		final List<ApplicationDescription> applicationDescriptionList = new ArrayList<ApplicationDescription>();
@@ -879,6 +915,13 @@ public class ServiceController implements ServiceDetailsProvider {
 			logger.finer("received request to list instances for service "
 					+ absolutePuName + " of application " + applicationName);
 		}
+		if (deploymentStateView != null) {
+			final ServiceState service = deploymentStateView.getService(absolutePuName);
+			if (service != null) {
+				return getServiceInstanceList(service);
+			}
+		}
+
 		// todo: application awareness
 		final ProcessingUnit pu = admin.getProcessingUnits().waitFor(
 				absolutePuName, PU_DISCOVERY_TIMEOUT_SEC, TimeUnit.SECONDS);
@@ -916,6 +959,24 @@ public class ServiceController implements ServiceDetailsProvider {
 		return successStatus(instanceMap);
 	}
 
+	private Map<String, Object> getServiceInstanceList(final ServiceState service) {
+		if (permissionEvaluator != null) {
+			final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+			final CloudifyAuthorizationDetails authDetails = new CloudifyAuthorizationDetails(authentication);
+			permissionEvaluator.verifyPermission(authDetails, service.getAuthGroups(), "view");
+		}
+
+		final Map<Integer, String> instanceMap = new HashMap<Integer, String>();
+		for (final InstanceState instance : service.getInstances()) {
+			String description = instance.getHostName();
+			if (instance.getPublicIp() != null) {
+				description += "/" + instance.getPublicIp();
+			}
+			instanceMap.put(instance.getInstanceId(), description);
+		}
+		return successStatus(instanceMap);
+	}
+
 	/**
 	 * Creates and returns a map containing all of the deployed application names.
 	 *
@@ -1337,6 +1398,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		restPollingRunnable.addService(serviceName, 0);
 		restPollingRunnable.setIsServiceInstall(false);
 		restPollingRunnable.setAdmin(admin);
+		restPollingRunnable.setDeploymentStateView(deploymentStateView);
 		restPollingRunnable.setLifecycleEventsContainer(lifecycleEventsContainer);
 		restPollingRunnable.setIsUninstall(true);
 		restPollingRunnable.setUndeployTask(undeployTask);
@@ -2030,6 +2092,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		}
 		restPollingRunnable.setIsServiceInstall(false);
 		restPollingRunnable.setAdmin(admin);
+		restPollingRunnable.setDeploymentStateView(deploymentStateView);
 		restPollingRunnable.setLifecycleEventsContainer(lifecycleEventsContainer);
 		restPollingRunnable.setIsUninstall(true);
 		restPollingRunnable.setUndeployTask(undeployTask);
@@ -2064,6 +2127,7 @@ public class ServiceController implements ServiceDetailsProvider {
 				minutes);
 		restPollingRunnable.addService(serviceName, plannedNumberOfInstances);
 		restPollingRunnable.setAdmin(admin);
+		restPollingRunnable.setDeploymentStateView(deploymentStateView);
 		restPollingRunnable.setIsServiceInstall(isServiceInstall);
 		restPollingRunnable.setLifecycleEventsContainer(lifecycleEventsContainer);
 		restPollingRunnable.setEndTime(timeout, TimeUnit.MINUTES);
@@ -2098,6 +2162,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		restPollingRunnable.setIsServiceInstall(false);
 		restPollingRunnable.setLifecycleEventsContainer(lifecycleEventsContainer);
 		restPollingRunnable.setAdmin(admin);
+		restPollingRunnable.setDeploymentStateView(deploymentStateView);
 		restPollingRunnable.setEndTime(timeout, TimeUnit.MINUTES);
 		this.lifecyclePollingThreadContainer.put(lifecycleEventsContainerUUID,
 				restPollingRunnable);
@@ -2187,6 +2252,52 @@ public class ServiceController implements ServiceDetailsProvider {
 		return successStatus(resultsMap);
 	}
 
+	/**
+	 * Returns the lifecycle events after the cursor position, like {@link #getLifecycleEvents(String, int)}. If there
+	 * are no such events, the request is held until new events arrive, the polling task is done, or the timeout
+	 * expires - so clients following an installation do not have to poll at a fixed interval.
+	 *
+	 * @param lifecycleEventContainerID
+	 *            the unique task ID.
+	 * @param cursor
+	 *            event entry cursor
+	 * @param timeoutSeconds
+	 *            the maximum time to wait for new events, up to 30 seconds.
+	 * @return a map containing the events and the task state.
+	 * @throws RestErrorException
+	 *             When polling task has expired or if the task ended unexpectedly.
+	 */
+	@JsonResponseExample(status = "success", responseBody =
+			"{\"isDone\":false,\"lifecycleLogs\":[\"[service1] Deployed 1 planned 1\","
+					+ "\"Service &#92&#34service1&#92&#34 successfully installed (1 Instances)\"],"
+					+ "\"PollingTaskExpirationTimeMillis\":\"575218\",\"curserPos\":12}")
+	@PossibleResponseStatuses(responseStatuses = {
+			@PossibleResponseStatus(code = HTTP_OK, description = "success"),
+			@PossibleResponseStatus(code = HTTP_INTERNAL_SERVER_ERROR,
+					description = "Lifecycle events container with UUID ... does not exist or expired"),
+			@PossibleResponseStatus(code = HTTP_INTERNAL_SERVER_ERROR, description = "execution exception message") })
+	@RequestMapping(value = "/lifecycleEventContainerID/{lifecycleEventContainerID}/cursor/{cursor}"
+			+ "/timeout/{timeoutSeconds}", method = RequestMethod.GET)
+	@ResponseBody
+	public Object waitForLifecycleEvents(
+			@PathVariable final String lifecycleEventContainerID,
+			@PathVariable final int cursor,
+			@PathVariable final int timeoutSeconds) throws RestErrorException {
+		final RestPollingRunnable restPollingRunnable = this.lifecyclePollingThreadContainer
+				.get(UUID.fromString(lifecycleEventContainerID));
+		if (restPollingRunnable != null && !restPollingRunnable.isDone()) {
+			final int waitSeconds = Math.max(0, Math.min(timeoutSeconds, MAX_LIFECYCLE_EVENTS_WAIT_SEC));
+			try {
+				restPollingRunnable.getLifecycleEventsContainer().awaitLifecycleEvents(cursor,
+						TimeUnit.SECONDS.toMillis(waitSeconds));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RestErrorException("Interrupted while waiting for lifecycle events");
+			}
+		}
+		return getLifecycleEvents(lifecycleEventContainerID, cursor);
+	}
+
 	private void extendThreadTimeout(final RestPollingRunnable pollingRunnable,
 			final int timeoutInMinutes) {
 		final long taskExpiration = pollingRunnable.getEndTime()
@@ -3680,19 +3791,19 @@ public class ServiceController implements ServiceDetailsProvider {
 			@RequestParam(value = "numLines", required = true) final int numLines)
 			throws RestErrorException {
 
-		final GridServiceContainer container = getContainerAccordingToInstanceId(
+		final ProcessingUnitInstance instance = getInstanceAccordingToInstanceId(
 				applicationName, serviceName, instanceId);
 
-		if (container == null) {
+		if (instance == null) {
 			final String absolutePuName = ServiceUtils.getAbsolutePUName(
 					applicationName, serviceName);
 			logger.severe("Could not find service " + absolutePuName);
 			return unavailableServiceError(absolutePuName);
 		}
-		final String logTailFromContainer = getLogTailFromContainer(container,
+		final String logTailFromInstance = getLogTailFromInstance(instance,
 				numLines);
 
-		return successStatus(logTailFromContainer);
+		return successStatus(logTailFromInstance);
 	}
 
 	/**
@@ -3726,15 +3837,15 @@ public class ServiceController implements ServiceDetailsProvider {
 			@RequestParam(value = "numLines", required = true) final int numLines)
 			throws RestErrorException {
 
-		final GridServiceContainer container = getContainerAccordingToHostAddress(
+		final ProcessingUnitInstance instance = getInstanceAccordingToHostAddress(
 				applicationName, serviceName, hostAddress);
-		if (container == null) {
+		if (instance == null) {
 			final String absolutePuName = ServiceUtils.getAbsolutePUName(
 					applicationName, serviceName);
 			logger.severe("Could not find service " + absolutePuName);
 			return unavailableServiceError(absolutePuName);
 		}
-		final String logTail = getLogTailFromContainer(container, numLines);
+		final String logTail = getLogTailFromInstance(instance, numLines);
 
 		return successStatus(logTail);
 	}
@@ -3775,17 +3886,79 @@ public class ServiceController implements ServiceDetailsProvider {
 			return unavailableServiceError(absolutePuName);
 		}
 
-		for (final ProcessingUnitInstance processingUnitInstance : processingUnit) {
-			stringBuilder.append("service instance id #").append(processingUnitInstance.getInstanceId())
-					.append(System.getProperty("line.separator"));
-			final String instanceLogTail = getLogTailFromContainer(
-					processingUnitInstance.getGridServiceContainer(), numLines);
-			stringBuilder.append(instanceLogTail);
+		final List<InstanceResult<String>> results = instanceFanOut.execute(processingUnit.getInstances(),
+				new InstanceTask<String>() {
+
+					@Override
+					public String execute(final ProcessingUnitInstance instance) {
+						return getLogTailFromInstance(instance, numLines);
+					}
+				}, SERVICE_LOG_TAIL_TIMEOUT_SEC, TimeUnit.SECONDS);
+
+		final String lineSeparator = System.getProperty("line.separator");
+		for (final InstanceResult<String> result : results) {
+			stringBuilder.append("service instance id #").append(result.getInstance().getInstanceId())
+					.append(lineSeparator);
+			if (result.getStatus() == InstanceFanOut.Status.OK) {
+				stringBuilder.append(result.getValue());
+			} else if (result.getStatus() == InstanceFanOut.Status.TIMEOUT) {
+				stringBuilder.append("log tail is not available - the instance did not respond in time")
+						.append(lineSeparator);
+			} else {
+				stringBuilder.append("log tail is not available - ").append(result.getError())
+						.append(lineSeparator);
+			}
 		}
 
 		return successStatus(stringBuilder.toString());
 	}
 
+	/**
+	 * Returns the last lines of the log of a service instance. The lines are read from the log of the container, which
+	 * holds the USM and lifecycle logs, and the logged service output. Service output lines that were not logged,
+	 * because of the output rate limit, are still kept in the memory of the instance's USM - if any of the last output
+	 * lines were not logged, they are read from there, and appended.
+	 */
+	private String getLogTailFromInstance(
+			final ProcessingUnitInstance instance, final int numLines) {
+		final String containerTail = getLogTailFromContainer(instance.getGridServiceContainer(), numLines);
+		final String outputTail = getUnloggedOutputTail(instance, numLines);
+		if (outputTail == null) {
+			return containerTail;
+		}
+		final String lineSeparator = System.getProperty("line.separator");
+		return containerTail + lineSeparator + "Some of the service output was not written to the log, last lines of "
+				+ "the service output:" + lineSeparator + outputTail;
+	}
+
+	// returns null if the last lines of the service output were logged, or the USM can not be reached.
+	private String getUnloggedOutputTail(
+			final ProcessingUnitInstance instance, final int numLines) {
+		if (instance.getProcessingUnit().getType() != ProcessingUnitType.UNIVERSAL) {
+			// only the USM keeps the service output in memory
+			return null;
+		}
+		final int numberOfLinesToTail = Math.min(numLines, MAX_NUMBER_OF_LINES_TO_TAIL_ALLOWED);
+		final Map<String, Object> params = new HashMap<String, Object>();
+		params.put(CloudifyConstants.INVOCATION_PARAMETER_COMMAND_NAME, CloudifyConstants.INVOCATION_COMMAND_LOG_TAIL);
+		params.put(CloudifyConstants.INVOCATION_PARAMETERS_KEY + 0, Integer.toString(numberOfLinesToTail));
+		try {
+			final Future<?> future = ((InternalProcessingUnitInstance) instance).invoke(
+					CloudifyConstants.USM_BEAN_NAME, params);
+			final Object result = future.get(LOG_TAIL_INVOCATION_TIMEOUT_SEC, TimeUnit.SECONDS);
+			if (result instanceof Map<?, ?>) {
+				final Map<?, ?> resultMap = (Map<?, ?>) result;
+				if (Boolean.TRUE.equals(resultMap.get(CloudifyConstants.INVOCATION_RESPONSE_STATUS))
+						&& Boolean.TRUE.equals(resultMap.get(CloudifyConstants.INVOCATION_RESPONSE_UNLOGGED_LINES))) {
+					return (String) resultMap.get(CloudifyConstants.INVOCATION_RESPONSE_RESULT);
+				}
+			}
+		} catch (final Exception e) {
+			logger.log(Level.FINE, "Failed to read the in-memory output of instance " + instance.getInstanceId(), e);
+		}
+		return null;
+	}
+
 	private String getLogTailFromContainer(
 			final GridServiceContainer container, final int numLines) {
 		int numberOfLinesToTail;
@@ -3812,7 +3985,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		return sb.toString();
 	}
 
-	private GridServiceContainer getContainerAccordingToInstanceId(
+	private ProcessingUnitInstance getInstanceAccordingToInstanceId(
 			final String applicationName, final String serviceName,
 			final int instanceId) {
 
@@ -3820,7 +3993,7 @@ public class ServiceController implements ServiceDetailsProvider {
 				applicationName, serviceName);
 		for (final ProcessingUnitInstance processingUnitInstance : processingUnit) {
 			if (processingUnitInstance.getInstanceId() == instanceId) {
-				return processingUnitInstance.getGridServiceContainer();
+				return processingUnitInstance;
 			}
 		}
 		return null;
@@ -3840,7 +4013,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		return processingUnit;
 	}
 
-	private GridServiceContainer getContainerAccordingToHostAddress(
+	private ProcessingUnitInstance getInstanceAccordingToHostAddress(
 			final String applicationName, final String serviceName,
 			final String hostAddress) {
 
@@ -3864,7 +4037,7 @@ public class ServiceController implements ServiceDetailsProvider {
 		for (final ProcessingUnitInstance instance : processingUnitInstances) {
 			if (instance.getOperatingSystem().getDetails().getHostAddress()
 					.equals(hostAddress)) {
-				return instance.getGridServiceContainer();
+				return instance;
 			}
 		}
 		return null;
@@ -32,6 +32,8 @@ import org.cloudifysource.dsl.rest.InstanceDescription;
 import org.cloudifysource.dsl.rest.ServiceDescription;
 import org.cloudifysource.dsl.utils.ServiceUtils;
 import org.cloudifysource.rest.controllers.RestErrorException;
+import org.cloudifysource.rest.util.DeploymentStateView.InstanceState;
+import org.cloudifysource.rest.util.DeploymentStateView.ServiceState;
 import org.openspaces.admin.Admin;
 import org.openspaces.admin.application.Application;
 import org.openspaces.admin.internal.pu.DefaultProcessingUnit;
@@ -47,20 +49,33 @@ import org.openspaces.pu.service.ServiceMonitors;
  * The application description will consist of all the application's services and their status.
  * The application status is made out of an intersection between all of it's service's status.
  * A service status is determined by the status of all it's service instances.   
+ * If a deployment state view is available, descriptions are created from the view, without accessing the admin or
+ * the service instances.
  * 
  * @author adaml
  *
  */
 public class ApplicationDescriptionFactory {
 	private Admin admin;
+	private DeploymentStateView deploymentStateView;
 	
 	private static final Logger logger = Logger
 			.getLogger(ApplicationDescriptionFactory.class.getName());
+
+	/**
+	 * The status of a USM service instance whose USM state is not known yet.
+	 */
+	public static final String UNKNOWN_INSTANCE_STATUS = "UNKNOWN";
 	
 	public ApplicationDescriptionFactory(final Admin admin) {
 		this.admin = admin;
 	}
 	
+	public ApplicationDescriptionFactory(final Admin admin, final DeploymentStateView deploymentStateView) {
+		this.admin = admin;
+		this.deploymentStateView = deploymentStateView;
+	}
+	
 	/**
 	 * returns an application description POJO.
 	 * 
@@ -73,6 +88,13 @@ public class ApplicationDescriptionFactory {
 	public ApplicationDescription getApplicationDescription(final String applicationName) 
 			throws RestErrorException {
 		
+		if (deploymentStateView != null) {
+			final List<ServiceState> services = deploymentStateView.getServices(applicationName);
+			if (!services.isEmpty()) {
+				return createApplicationDescription(applicationName, services);
+			}
+			// the application may still be deploying - wait for it in the admin
+		}
 		Application application = admin.getApplications().waitFor(applicationName, 5, TimeUnit.SECONDS);
 		if (application == null) {
 			throw new RestErrorException(FAILED_TO_LOCATE_APP, applicationName);
@@ -107,6 +129,55 @@ public class ApplicationDescriptionFactory {
 		return applicationDescription;
 	}
 
+	private ApplicationDescription createApplicationDescription(final String applicationName,
+			final List<ServiceState> services) {
+		logger.log(Level.FINE, "Creating application description for application " + applicationName
+				+ " from the deployment state view");
+		List<ServiceDescription> serviceDescriptionList = new ArrayList<ServiceDescription>(services.size());
+		for (ServiceState service : services) {
+			serviceDescriptionList.add(createServiceDescription(service));
+		}
+		
+		ApplicationDescription applicationDescription = new ApplicationDescription();
+		applicationDescription.setApplicationName(applicationName);
+		// assuming all services have the same authorization groups, like getApplicationAuthorizationGroups
+		applicationDescription.setAuthGroups(services.get(0).getAuthGroups());
+		applicationDescription.setServicesDescription(serviceDescriptionList);
+		applicationDescription.setApplicationState(getApplicationState(serviceDescriptionList));
+		return applicationDescription;
+	}
+	
+	private ServiceDescription createServiceDescription(final ServiceState service) {
+		List<InstanceDescription> instancesDescriptionList = new ArrayList<InstanceDescription>();
+		for (InstanceState instance : service.getInstances()) {
+			InstanceDescription instanceDescription = new InstanceDescription();
+			instanceDescription.setInstanceStatus(service.isUniversal()
+					? getInstanceStatus(instance.getUsmState()) : service.getDeploymentStatus().toString());
+			instanceDescription.setInstanceName(instance.getInstanceName());
+			instanceDescription.setInstanceId(instance.getInstanceId());
+			instanceDescription.setHostName(instance.getHostName());
+			instanceDescription.setHostAddress(instance.getHostAddress());
+			instancesDescriptionList.add(instanceDescription);
+		}
+		int numberOfServiceInstances = service.isUniversal()
+				? service.getNumberOfInstancesInState(USMState.RUNNING) : service.getInstances().size();
+		
+		ServiceDescription serviceDescription = new ServiceDescription();
+		serviceDescription.setPlannedInstances(service.getPlannedInstances());
+		serviceDescription.setInstanceCount(numberOfServiceInstances);
+		serviceDescription.setApplicationName(service.getApplicationName());
+		serviceDescription.setServiceName(service.getServiceName());
+		serviceDescription.setInstancesDescription(instancesDescriptionList);
+		serviceDescription.setServiceState(getServiceState(service.isUniversal(), instancesDescriptionList,
+				numberOfServiceInstances, service.getPlannedInstances(), service.getDeploymentStatus()));
+		return serviceDescription;
+	}
+
+	// the USM state of an instance is not known until it was sampled
+	private static String getInstanceStatus(final USMState usmState) {
+		return usmState == null ? UNKNOWN_INSTANCE_STATUS : usmState.toString();
+	}
+
 	private List<ServiceDescription> getServicesDescription(
 			final String applicationName, final Application app) {
 		List<ServiceDescription> serviceDescriptionList = new ArrayList<ServiceDescription>();
@@ -161,7 +232,7 @@ public class ApplicationDescriptionFactory {
 		String instanceState;
 		ProcessingUnit processingUnit = processingUnitInstance.getProcessingUnit();
 		if (processingUnit.getType() == ProcessingUnitType.UNIVERSAL) {
-			instanceState = getInstanceUsmState(processingUnitInstance).toString();
+			instanceState = getInstanceStatus(getInstanceUsmState(processingUnitInstance));
 		} else {
 			instanceState = processingUnit.getStatus().toString();
 		}
@@ -211,20 +282,28 @@ public class ApplicationDescriptionFactory {
 			final String absolutePuName) {
 		ProcessingUnit pu = getProcessingUnit(absolutePuName);
 		logger.log(Level.FINE, "Determining service state for service " + absolutePuName);
-		if (pu.getType() == ProcessingUnitType.UNIVERSAL) {
+		return getServiceState(pu.getType() == ProcessingUnitType.UNIVERSAL, serviceInstancesStatus,
+				getNumberOfServiceInstances(absolutePuName), getPlannedNumberOfInstances(absolutePuName),
+				pu.getStatus());
+	}
+	
+	private DeploymentState getServiceState(final boolean universal,
+			final List<InstanceDescription> serviceInstancesStatus, final int numberOfServiceInstances,
+			final int plannedNumberOfInstances, final DeploymentStatus status) {
+		if (universal) {
 			for (InstanceDescription instanceDescription : serviceInstancesStatus) {
 				String instanceState = instanceDescription.getInstanceStatus();
 				if (instanceState.equals(USMState.ERROR.toString())) {
 					return DeploymentState.FAILED;
 				} 
 			}
-			if (getNumberOfServiceInstances(absolutePuName) != getPlannedNumberOfInstances(absolutePuName)) {
+			if (numberOfServiceInstances != plannedNumberOfInstances) {
 				return DeploymentState.INSTALLING;
 			}
 			return DeploymentState.STARTED;
 
 		} else { //The service is not a USM service.
-			if (pu.getStatus() != DeploymentStatus.INTACT) {
+			if (status != DeploymentStatus.INTACT) {
 				return DeploymentState.INSTALLING;
 			} else {
 				return DeploymentState.STARTED;
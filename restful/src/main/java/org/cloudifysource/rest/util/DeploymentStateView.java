@@ -0,0 +1,609 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.rest.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.cloudifysource.dsl.internal.CloudifyConstants;
+import org.cloudifysource.dsl.internal.CloudifyConstants.USMState;
+import org.cloudifysource.dsl.utils.ServiceUtils;
+import org.openspaces.admin.Admin;
+import org.openspaces.admin.application.Application;
+import org.openspaces.admin.internal.pu.DefaultProcessingUnit;
+import org.openspaces.admin.pu.DeploymentStatus;
+import org.openspaces.admin.pu.ProcessingUnit;
+import org.openspaces.admin.pu.ProcessingUnitInstance;
+import org.openspaces.admin.pu.ProcessingUnitInstanceStatistics;
+import org.openspaces.admin.pu.ProcessingUnitType;
+import org.openspaces.admin.pu.events.ProcessingUnitAddedEventListener;
+import org.openspaces.admin.pu.events.ProcessingUnitInstanceAddedEventListener;
+import org.openspaces.admin.pu.events.ProcessingUnitInstanceRemovedEventListener;
+import org.openspaces.admin.pu.events.ProcessingUnitRemovedEventListener;
+import org.openspaces.pu.service.ServiceMonitors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * A materialized view of the deployed services and their instances, so read requests do not walk the admin object
+ * graph, or call every instance for its statistics.
+ *
+ * Services and instances are added and removed by admin event listeners. The USM state of each instance, and the
+ * planned number of instances and deployment status of each service, are sampled periodically in the background. The
+ * USM state is taken from the published monitors when the instance publishes them. The instances that do not publish
+ * their monitors are sampled remotely, from their statistics, and only while the view is being read - no remote calls
+ * are made while no client is asking. These samples run on a small pool of their own, with at most one sample of each
+ * instance queued or running, so a container that does not respond never delays other instances or other requests.
+ *
+ * An instance keeps its last known USM state until a new state is sampled. The state of an instance that was not
+ * sampled yet is read when the instance is first requested.
+ *
+ * The view holds an immutable state object per service, which is replaced on every change. Every change increments
+ * the view version.
+ *
+ * @since 2.6.0
+ *
+ */
+@Component
+public class DeploymentStateView {
+
+	private static final long SAMPLE_INTERVAL_SECONDS = 2;
+	// instance statistics are sampled while the view was read within this window.
+	private static final long READ_ACTIVITY_WINDOW_MILLIS = 60000;
+	private static final int STATISTICS_SAMPLER_THREADS = 4;
+	private static final long STATISTICS_SAMPLER_KEEP_ALIVE_SECONDS = 60;
+
+	private static final String PARTITIONED_SYNC2BACKUP_SCHEMA = "partitioned-sync2backup";
+
+	private static final Logger logger = Logger.getLogger(DeploymentStateView.class.getName());
+
+	/**
+	 * The state of a service instance.
+	 */
+	public static final class InstanceState {
+		private final int instanceId;
+		private final String instanceName;
+		private final String hostName;
+		private final String hostAddress;
+		private final String publicIp;
+		private final USMState usmState;
+
+		private InstanceState(final int instanceId, final String instanceName, final String hostName,
+				final String hostAddress, final String publicIp, final USMState usmState) {
+			this.instanceId = instanceId;
+			this.instanceName = instanceName;
+			this.hostName = hostName;
+			this.hostAddress = hostAddress;
+			this.publicIp = publicIp;
+			this.usmState = usmState;
+		}
+
+		private InstanceState withUsmState(final USMState newState) {
+			return new InstanceState(instanceId, instanceName, hostName, hostAddress, publicIp, newState);
+		}
+
+		public int getInstanceId() {
+			return instanceId;
+		}
+
+		public String getInstanceName() {
+			return instanceName;
+		}
+
+		public String getHostName() {
+			return hostName;
+		}
+
+		public String getHostAddress() {
+			return hostAddress;
+		}
+
+		/**
+		 * @return the public IP of the instance host, or null if it is not known.
+		 */
+		public String getPublicIp() {
+			return publicIp;
+		}
+
+		/**
+		 * @return the last known USM state, or null if the service is not a USM service or the state is not known
+		 *         yet.
+		 */
+		public USMState getUsmState() {
+			return usmState;
+		}
+	}
+
+	/**
+	 * The state of a service, and of its instances.
+	 */
+	public static final class ServiceState {
+		private final String absolutePuName;
+		private final String applicationName;
+		private final boolean universal;
+		private final int plannedInstances;
+		private final DeploymentStatus deploymentStatus;
+		private final String authGroups;
+		private final Map<Integer, InstanceState> instances;
+		private final long version;
+
+		private ServiceState(final String absolutePuName, final String applicationName, final boolean universal,
+				final int plannedInstances, final DeploymentStatus deploymentStatus, final String authGroups,
+				final Map<Integer, InstanceState> instances, final long version) {
+			this.absolutePuName = absolutePuName;
+			this.applicationName = applicationName;
+			this.universal = universal;
+			this.plannedInstances = plannedInstances;
+			this.deploymentStatus = deploymentStatus;
+			this.authGroups = authGroups;
+			this.instances = instances;
+			this.version = version;
+		}
+
+		public String getAbsolutePuName() {
+			return absolutePuName;
+		}
+
+		/**
+		 * @return the application name, or null if it is not known yet.
+		 */
+		public String getApplicationName() {
+			return applicationName;
+		}
+
+		/**
+		 * @return the service name, without the application prefix.
+		 */
+		public String getServiceName() {
+			if (applicationName == null) {
+				return absolutePuName;
+			}
+			return ServiceUtils.getApplicationServiceName(absolutePuName, applicationName);
+		}
+
+		/**
+		 * @return true if the service is a USM service.
+		 */
+		public boolean isUniversal() {
+			return universal;
+		}
+
+		public int getPlannedInstances() {
+			return plannedInstances;
+		}
+
+		public DeploymentStatus getDeploymentStatus() {
+			return deploymentStatus;
+		}
+
+		public String getAuthGroups() {
+			return authGroups;
+		}
+
+		/**
+		 * @return the instances, ordered by instance ID.
+		 */
+		public Collection<InstanceState> getInstances() {
+			return instances.values();
+		}
+
+		public InstanceState getInstance(final int instanceId) {
+			return instances.get(instanceId);
+		}
+
+		/**
+		 * @param state
+		 *            a USM state.
+		 * @return the number of instances in the state.
+		 */
+		public int getNumberOfInstancesInState(final USMState state) {
+			int count = 0;
+			for (final InstanceState instance : instances.values()) {
+				if (instance.getUsmState() == state) {
+					++count;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * @return the view version of the last change to this service.
+		 */
+		public long getVersion() {
+			return version;
+		}
+	}
+
+	@Autowired(required = true)
+	private Admin admin;
+
+	@Autowired(required = false)
+	private PublishedMonitorsCache publishedMonitorsCache;
+
+	// by absolute PU name. Entries are replaced, never modified, while holding the view lock.
+	private final ConcurrentMap<String, ServiceState> services = new ConcurrentHashMap<String, ServiceState>();
+	private final AtomicLong version = new AtomicLong();
+	private final Object lock = new Object();
+	private volatile long lastReadMillis;
+
+	private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "DeploymentStateSampler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ThreadPoolExecutor statisticsSampler = createStatisticsSampler();
+	// the instances with a statistics sample queued or running. An instance is only submitted again once its previous
+	// sample completed, so the queue never holds more than one sample per instance.
+	private final Set<String> statisticsInProgress =
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ProcessingUnitAddedEventListener puAddedListener = new ProcessingUnitAddedEventListener() {
+
+		@Override
+		public void processingUnitAdded(final ProcessingUnit processingUnit) {
+			refreshService(processingUnit);
+		}
+	};
+
+	private final ProcessingUnitRemovedEventListener puRemovedListener = new ProcessingUnitRemovedEventListener() {
+
+		@Override
+		public void processingUnitRemoved(final ProcessingUnit processingUnit) {
+			synchronized (lock) {
+				if (services.remove(processingUnit.getName()) != null) {
+					version.incrementAndGet();
+				}
+			}
+		}
+	};
+
+	private final ProcessingUnitInstanceAddedEventListener puiAddedListener =
+			new ProcessingUnitInstanceAddedEventListener() {
+
+				@Override
+				public void processingUnitInstanceAdded(final ProcessingUnitInstance processingUnitInstance) {
+					refreshService(processingUnitInstance.getProcessingUnit());
+				}
+			};
+
+	private final ProcessingUnitInstanceRemovedEventListener puiRemovedListener =
+			new ProcessingUnitInstanceRemovedEventListener() {
+
+				@Override
+				public void processingUnitInstanceRemoved(final ProcessingUnitInstance processingUnitInstance) {
+					refreshService(processingUnitInstance.getProcessingUnit());
+				}
+			};
+
+	/**
+	 * Registers for admin events, which also adds the services that are already deployed, and starts sampling.
+	 */
+	@PostConstruct
+	public void init() {
+		admin.getProcessingUnits().getProcessingUnitAdded().add(puAddedListener);
+		admin.getProcessingUnits().getProcessingUnitRemoved().add(puRemovedListener);
+		admin.getProcessingUnits().getProcessingUnitInstanceAdded().add(puiAddedListener);
+		admin.getProcessingUnits().getProcessingUnitInstanceRemoved().add(puiRemovedListener);
+		sampler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					sample();
+				} catch (final Exception e) {
+					logger.log(Level.WARNING, "Failed to sample the deployment state: " + e.getMessage(), e);
+				}
+			}
+		}, 0, SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops sampling and removes the admin event listeners.
+	 */
+	@PreDestroy
+	public void destroy() {
+		sampler.shutdownNow();
+		statisticsSampler.shutdownNow();
+		admin.getProcessingUnits().getProcessingUnitAdded().remove(puAddedListener);
+		admin.getProcessingUnits().getProcessingUnitRemoved().remove(puRemovedListener);
+		admin.getProcessingUnits().getProcessingUnitInstanceAdded().remove(puiAddedListener);
+		admin.getProcessingUnits().getProcessingUnitInstanceRemoved().remove(puiRemovedListener);
+	}
+
+	/**
+	 * @return the version of the view, incremented on every change.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * @return the names of the applications with deployed services, sorted.
+	 */
+	public Set<String> getApplicationNames() {
+		final Set<String> result = new TreeSet<String>();
+		for (final ServiceState service : services.values()) {
+			if (service.getApplicationName() != null) {
+				result.add(service.getApplicationName());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param applicationName
+	 *            the application name.
+	 * @return the services of the application, or an empty list if the application has no deployed services.
+	 */
+	public List<ServiceState> getServices(final String applicationName) {
+		lastReadMillis = System.currentTimeMillis();
+		final List<ServiceState> result = new ArrayList<ServiceState>();
+		for (final ServiceState service : services.values()) {
+			if (applicationName.equals(service.getApplicationName())) {
+				result.add(readMissingStates(service));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param absolutePuName
+	 *            the absolute processing unit name of the service.
+	 * @return the service state, or null if the service is not deployed.
+	 */
+	public ServiceState getService(final String absolutePuName) {
+		lastReadMillis = System.currentTimeMillis();
+		final ServiceState service = services.get(absolutePuName);
+		return service == null ? null : readMissingStates(service);
+	}
+
+	// reads the USM state of instances that were not sampled yet, so a new instance is never reported without a state
+	// while its USM is reachable.
+	private ServiceState readMissingStates(final ServiceState service) {
+		if (!service.isUniversal() || service.getNumberOfInstancesInState(null) == 0) {
+			return service;
+		}
+		final ProcessingUnit processingUnit = admin.getProcessingUnits().getProcessingUnit(service.getAbsolutePuName());
+		if (processingUnit == null) {
+			return service;
+		}
+		for (final ProcessingUnitInstance instance : processingUnit.getInstances()) {
+			final InstanceState state = service.getInstance(instance.getInstanceId());
+			if (state != null && state.getUsmState() == null) {
+				Map<String, Object> monitors = getPublishedMonitors(instance);
+				if (monitors == null) {
+					monitors = getStatisticsMonitors(instance);
+				}
+				updateUsmState(service.getAbsolutePuName(), instance.getInstanceId(), getUsmState(monitors));
+			}
+		}
+		final ServiceState updated = services.get(service.getAbsolutePuName());
+		return updated == null ? service : updated;
+	}
+
+	// executed on the sampler thread only
+	private void sample() {
+		final boolean read = System.currentTimeMillis() - lastReadMillis < READ_ACTIVITY_WINDOW_MILLIS;
+		for (final ProcessingUnit processingUnit : admin.getProcessingUnits()) {
+			refreshService(processingUnit);
+			if (processingUnit.getType() == ProcessingUnitType.UNIVERSAL) {
+				for (final ProcessingUnitInstance instance : processingUnit.getInstances()) {
+					final Map<String, Object> monitors = getPublishedMonitors(instance);
+					if (monitors != null) {
+						updateUsmState(processingUnit.getName(), instance.getInstanceId(), getUsmState(monitors));
+					} else if (read) {
+						sampleStatistics(instance);
+					}
+				}
+			}
+		}
+	}
+
+	// the statistics of an instance that does not publish its monitors are read remotely, on the statistics sampler.
+	// The sampler thread does not wait for the result - an instance that does not respond keeps its last known state.
+	private void sampleStatistics(final ProcessingUnitInstance instance) {
+		final String absolutePuName = instance.getProcessingUnit().getName();
+		final int instanceId = instance.getInstanceId();
+		final String key = absolutePuName + "/" + instanceId;
+		if (!statisticsInProgress.add(key)) {
+			return;
+		}
+		try {
+			statisticsSampler.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						updateUsmState(absolutePuName, instanceId, getUsmState(getStatisticsMonitors(instance)));
+					} catch (final Exception e) {
+						logger.log(Level.FINE, "Failed to sample the USM state of instance " + instanceId + " of "
+								+ absolutePuName + ": " + e.getMessage(), e);
+					} finally {
+						statisticsInProgress.remove(key);
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// the view is shutting down
+			statisticsInProgress.remove(key);
+		}
+	}
+
+	private void refreshService(final ProcessingUnit processingUnit) {
+		synchronized (lock) {
+			final ServiceState current = services.get(processingUnit.getName());
+			final Map<Integer, InstanceState> instances = new TreeMap<Integer, InstanceState>();
+			for (final ProcessingUnitInstance instance : processingUnit.getInstances()) {
+				final InstanceState currentInstance =
+						current == null ? null : current.getInstance(instance.getInstanceId());
+				instances.put(instance.getInstanceId(), currentInstance != null
+						? currentInstance : createInstanceState(instance));
+			}
+
+			final ServiceState refreshed = new ServiceState(processingUnit.getName(),
+					getApplicationName(processingUnit), processingUnit.getType() == ProcessingUnitType.UNIVERSAL,
+					getPlannedNumberOfInstances(processingUnit), processingUnit.getStatus(),
+					processingUnit.getBeanLevelProperties().getContextProperties()
+							.getProperty(CloudifyConstants.CONTEXT_PROPERTY_AUTH_GROUPS),
+					Collections.unmodifiableMap(instances), 0);
+			if (current == null || isChanged(current, refreshed)) {
+				replace(refreshed, instances);
+			}
+		}
+	}
+
+	// a null state, which was not sampled, does not replace the last known state.
+	private void updateUsmState(final String absolutePuName, final int instanceId, final USMState state) {
+		if (state == null) {
+			return;
+		}
+		synchronized (lock) {
+			final ServiceState current = services.get(absolutePuName);
+			if (current == null) {
+				return;
+			}
+			final InstanceState instance = current.getInstance(instanceId);
+			if (instance == null || instance.getUsmState() == state) {
+				return;
+			}
+			final Map<Integer, InstanceState> instances = new TreeMap<Integer, InstanceState>(current.instances);
+			instances.put(instanceId, instance.withUsmState(state));
+			replace(current, instances);
+		}
+	}
+
+	// called while holding the lock
+	private void replace(final ServiceState service, final Map<Integer, InstanceState> instances) {
+		final long newVersion = version.incrementAndGet();
+		services.put(service.getAbsolutePuName(), new ServiceState(service.getAbsolutePuName(),
+				service.getApplicationName(), service.isUniversal(), service.getPlannedInstances(),
+				service.getDeploymentStatus(), service.getAuthGroups(), Collections.unmodifiableMap(instances),
+				newVersion));
+	}
+
+	private static ThreadPoolExecutor createStatisticsSampler() {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(STATISTICS_SAMPLER_THREADS,
+				STATISTICS_SAMPLER_THREADS, STATISTICS_SAMPLER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r, "DeploymentStateStatisticsSampler-"
+								+ threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static boolean isChanged(final ServiceState current, final ServiceState refreshed) {
+		return !equal(current.getApplicationName(), refreshed.getApplicationName())
+				|| current.getPlannedInstances() != refreshed.getPlannedInstances()
+				|| current.getDeploymentStatus() != refreshed.getDeploymentStatus()
+				|| !equal(current.getAuthGroups(), refreshed.getAuthGroups())
+				|| !current.instances.keySet().equals(refreshed.instances.keySet());
+	}
+
+	private static boolean equal(final Object first, final Object second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	private static InstanceState createInstanceState(final ProcessingUnitInstance instance) {
+		final String publicIp = instance.getVirtualMachine().getDetails().getEnvironmentVariables()
+				.get(CloudifyConstants.GIGASPACES_AGENT_ENV_PUBLIC_IP);
+		return new InstanceState(instance.getInstanceId(), instance.getName(),
+				instance.getVirtualMachine().getMachine().getHostName(),
+				instance.getVirtualMachine().getMachine().getHostAddress(), publicIp, null);
+	}
+
+	private static String getApplicationName(final ProcessingUnit processingUnit) {
+		final String applicationName = processingUnit.getBeanLevelProperties().getContextProperties()
+				.getProperty(CloudifyConstants.CONTEXT_PROPERTY_APPLICATION_NAME);
+		if (applicationName != null) {
+			return applicationName;
+		}
+		final Application application = processingUnit.getApplication();
+		return application == null ? null : application.getName();
+	}
+
+	private static int getPlannedNumberOfInstances(final ProcessingUnit processingUnit) {
+		final Map<String, String> elasticProperties =
+				((DefaultProcessingUnit) processingUnit).getElasticProperties();
+		if (PARTITIONED_SYNC2BACKUP_SCHEMA.equals(elasticProperties.get("schema"))) {
+			return processingUnit.getTotalNumberOfInstances();
+		}
+		return processingUnit.getNumberOfInstances();
+	}
+
+	private Map<String, Object> getPublishedMonitors(final ProcessingUnitInstance instance) {
+		if (publishedMonitorsCache == null) {
+			return null;
+		}
+		return publishedMonitorsCache.getMonitors(instance.getProcessingUnit().getName(), instance.getInstanceId());
+	}
+
+	private static Map<String, Object> getStatisticsMonitors(final ProcessingUnitInstance instance) {
+		final ProcessingUnitInstanceStatistics statistics = instance.getStatistics();
+		if (statistics == null || statistics.getMonitors() == null) {
+			return null;
+		}
+		final ServiceMonitors serviceMonitors =
+				statistics.getMonitors().get(CloudifyConstants.USM_MONITORS_SERVICE_ID);
+		if (serviceMonitors == null) {
+			return null;
+		}
+		return serviceMonitors.getMonitors();
+	}
+
+	private static USMState getUsmState(final Map<String, Object> monitors) {
+		if (monitors == null) {
+			return null;
+		}
+		final Object state = monitors.get(CloudifyConstants.USM_MONITORS_STATE_ID);
+		if (!(state instanceof Integer)) {
+			return null;
+		}
+		return USMState.values()[(Integer) state];
+	}
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.rest.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+
+import org.openspaces.admin.pu.ProcessingUnitInstance;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a task against each instance of a service concurrently, and waits for all of them up to a single deadline, so
+ * one slow or unresponsive instance does not block a whole request.
+ *
+ * Tasks run on a bounded pool shared by all requests. Every instance gets a result - tasks that did not complete by the
+ * deadline are cancelled and reported as timed out, and tasks that failed, or could not be scheduled, are reported as
+ * failed.
+ *
+ * @since 2.6.0
+ *
+ */
+@Component
+public class InstanceFanOut {
+
+	private static final int MAX_THREADS = 16;
+	private static final int MAX_QUEUED_TASKS = 1024;
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	private static final Logger logger = Logger.getLogger(InstanceFanOut.class.getName());
+
+	/**
+	 * The status of a task executed against a single instance.
+	 */
+	public enum Status {
+		/** The task completed. */
+		OK,
+		/** The task did not complete by the deadline. */
+		TIMEOUT,
+		/** The task failed, or could not be scheduled. */
+		ERROR
+	}
+
+	/**
+	 * A task executed against a single instance.
+	 *
+	 * @param <T>
+	 *            the task result type.
+	 */
+	public interface InstanceTask<T> {
+
+		/**
+		 * Executes the task.
+		 *
+		 * @param instance
+		 *            the instance.
+		 * @return the result.
+		 * @throws Exception
+		 *             if the task failed.
+		 */
+		T execute(ProcessingUnitInstance instance) throws Exception;
+	}
+
+	/**
+	 * The result of a task executed against a single instance.
+	 *
+	 * @param <T>
+	 *            the task result type.
+	 */
+	public static final class InstanceResult<T> {
+		private final ProcessingUnitInstance instance;
+		private final Status status;
+		private final T value;
+		private final Throwable error;
+
+		private InstanceResult(final ProcessingUnitInstance instance, final Status status, final T value,
+				final Throwable error) {
+			this.instance = instance;
+			this.status = status;
+			this.value = value;
+			this.error = error;
+		}
+
+		public ProcessingUnitInstance getInstance() {
+			return instance;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the task result, or null if the task did not complete.
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		/**
+		 * @return the failure, or null if the task did not fail.
+		 */
+		public Throwable getError() {
+			return error;
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructor.
+	 */
+	public InstanceFanOut() {
+		this.executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS), new ThreadFactory() {
+
+					private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r, "InstanceFanOut-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Stops the pool.
+	 */
+	@PreDestroy
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Executes a task against each of the given instances concurrently, and waits for the results up to the given
+	 * timeout.
+	 *
+	 * @param <T>
+	 *            the task result type.
+	 * @param instances
+	 *            the instances.
+	 * @param task
+	 *            the task.
+	 * @param timeout
+	 *            the time to wait for all of the tasks to complete.
+	 * @param unit
+	 *            the timeout unit.
+	 * @return a result for every instance, in the order of the given instances.
+	 */
+	public <T> List<InstanceResult<T>> execute(final ProcessingUnitInstance[] instances, final InstanceTask<T> task,
+			final long timeout, final TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		final List<Future<T>> futures = new ArrayList<Future<T>>(instances.length);
+		for (final ProcessingUnitInstance instance : instances) {
+			try {
+				futures.add(executor.submit(new Callable<T>() {
+
+					@Override
+					public T call() throws Exception {
+						return task.execute(instance);
+					}
+				}));
+			} catch (final RejectedExecutionException e) {
+				logger.warning("Too many pending instance tasks, not executing task for "
+						+ describe(instance));
+				futures.add(null);
+			}
+		}
+
+		final List<InstanceResult<T>> results = new ArrayList<InstanceResult<T>>(instances.length);
+		boolean interrupted = false;
+		for (int i = 0; i < instances.length; i++) {
+			final ProcessingUnitInstance instance = instances[i];
+			final Future<T> future = futures.get(i);
+			if (future == null) {
+				results.add(new InstanceResult<T>(instance, Status.ERROR, null,
+						new RejectedExecutionException("Too many pending instance tasks")));
+				continue;
+			}
+			if (interrupted) {
+				future.cancel(true);
+				results.add(new InstanceResult<T>(instance, Status.TIMEOUT, null, null));
+				continue;
+			}
+			try {
+				final T value = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				results.add(new InstanceResult<T>(instance, Status.OK, value, null));
+			} catch (final TimeoutException e) {
+				future.cancel(true);
+				logger.fine("Task for " + describe(instance) + " did not complete in time");
+				results.add(new InstanceResult<T>(instance, Status.TIMEOUT, null, null));
+			} catch (final ExecutionException e) {
+				logger.log(Level.FINE, "Task for " + describe(instance) + " failed: " + e.getCause(),
+						e.getCause());
+				results.add(new InstanceResult<T>(instance, Status.ERROR, null, e.getCause()));
+			} catch (final InterruptedException e) {
+				interrupted = true;
+				future.cancel(true);
+				results.add(new InstanceResult<T>(instance, Status.TIMEOUT, null, null));
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return results;
+	}
+
+	private static String describe(final ProcessingUnitInstance instance) {
+		return "instance " + instance.getInstanceId() + " of " + instance.getProcessingUnit().getName();
+	}
+}
@@ -16,11 +16,11 @@
 package org.cloudifysource.rest.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +29,11 @@ import org.cloudifysource.dsl.internal.EventLogConstants;
 /**
  * a container holding all of the lifecycle events.
  * 
+ * Events are kept in an append-only log made of fixed size segments, so appending never copies earlier events and
+ * reading from a cursor is a direct lookup. Duplicate events are detected by a 64 bit hash of their details, kept in a
+ * set shared by all containers. Once the polling task of a container is done and its events are no longer read, the
+ * container can be evicted, which releases its events and removes its hashes from the shared set.
+ * 
  * @author adaml
  * 
  */
@@ -36,16 +41,38 @@ public class LifecycleEventsContainer {
 
 	private static final String EVENT_TEXT_SEPARATOR = " - ";
 
+	private static final int SEGMENT_SIZE = 256;
+	private static final int INITIAL_HASHES_CAPACITY = 64;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
 	/**
-	 * A list of processed events.
+	 * The event log segments. All segments but the last are full.
 	 */
-	private List<String> eventsList;
+	private final List<String[]> segments = new ArrayList<String[]>();
+
+	private int size;
 
 	/**
-	 * A set containing all of the executed lifecycle events. used to avoid
+	 * The hashes of all events executed by all containers. used to avoid
 	 * duplicate prints.
 	 */
-	private Set<String> lifecycleEventsSet;
+	private Set<Long> lifecycleEventsSet;
+
+	/**
+	 * The hashes this container added to the shared set, removed from it when
+	 * the container is evicted.
+	 */
+	private long[] ownHashes = new long[INITIAL_HASHES_CAPACITY];
+
+	private int ownHashesCount;
+
+	private boolean evicted;
+
+	private boolean pollingDone;
+
+	private volatile long lastAccessTime = System.currentTimeMillis();
 
 	private Set<String> serviceInstanceCountEventsSet;
 
@@ -58,7 +85,6 @@ public class LifecycleEventsContainer {
 	 */
 	public LifecycleEventsContainer() {
 		this.serviceInstanceCountEventsSet = new HashSet<String>();
-		this.eventsList = new ArrayList<String>();
 	}
 
 	/**
@@ -69,18 +95,65 @@ public class LifecycleEventsContainer {
 	 * @return a list of lifecycle events
 	 */
 	public List<String> getLifecycleEvents(final int curser) {
+		this.lastAccessTime = System.currentTimeMillis();
 		synchronized (this.lock) {
-			if (curser >= this.eventsList.size()
+			if (curser >= this.size
 					|| curser < 0) {
 				return null;
 			}
-			return new ArrayList<String>(eventsList.subList(curser, eventsList.size()));
+			final List<String> result = new ArrayList<String>(this.size - curser);
+			int segmentIndex = curser / SEGMENT_SIZE;
+			int offset = curser % SEGMENT_SIZE;
+			for (int i = curser; i < this.size; i++) {
+				result.add(this.segments.get(segmentIndex)[offset]);
+				if (++offset == SEGMENT_SIZE) {
+					++segmentIndex;
+					offset = 0;
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Waits until there are events after the cursor position, the polling task
+	 * is done, or the timeout expires.
+	 * 
+	 * @param curser
+	 *            the cursor position
+	 * @param timeoutMillis
+	 *            the maximum time to wait
+	 * @throws InterruptedException
+	 *             if the waiting thread was interrupted
+	 */
+	public void awaitLifecycleEvents(final int curser, final long timeoutMillis)
+			throws InterruptedException {
+		final long end = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this.lock) {
+			while (curser >= this.size && !this.pollingDone && !this.evicted) {
+				final long remaining = end - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return;
+				}
+				this.lock.wait(remaining);
+			}
+		}
+	}
+
+	/**
+	 * Marks the polling task of this container as done, and releases the
+	 * threads waiting for events.
+	 */
+	public void markPollingDone() {
+		synchronized (this.lock) {
+			this.pollingDone = true;
+			this.lock.notifyAll();
 		}
 	}
 
 	/**
 	 * Checks if the lifecycle event already exists in the set of events. If
-	 * not, adds the formatted event message into the eventsList.
+	 * not, adds the formatted event message into the events log.
 	 * 
 	 * @param allLifecycleEvents
 	 *            - All events logged.
@@ -89,21 +162,22 @@ public class LifecycleEventsContainer {
 			final List<Map<String, String>> allLifecycleEvents) {
 		synchronized (this.lock) {
 
-			if (allLifecycleEvents == null || allLifecycleEvents.isEmpty()) {
+			if (allLifecycleEvents == null || allLifecycleEvents.isEmpty() || this.evicted) {
 				return;
 			}
+			this.lastAccessTime = System.currentTimeMillis();
 			String outputMessage;
 			for (Map<String, String> map : allLifecycleEvents) {
-				Map<String, Object> sortedMap = new TreeMap<String, Object>(map);
-				if (this.lifecycleEventsSet.contains(sortedMap.toString())) {
+				final long hash = hashEvent(map);
+				if (!this.lifecycleEventsSet.add(hash)) {
 					if (logger.isLoggable(Level.FINEST)) {
-						outputMessage = getParsedLifecyceEventMessageFromMap(sortedMap);
+						outputMessage = getParsedLifecyceEventMessageFromMap(map);
 						logger.finest("Ignoring Lifecycle Event: " + outputMessage);
 					}
 				} else {
-					this.lifecycleEventsSet.add(sortedMap.toString());
-					outputMessage = getParsedLifecyceEventMessageFromMap(sortedMap);
-					this.eventsList.add(outputMessage);
+					addOwnHash(hash);
+					outputMessage = getParsedLifecyceEventMessageFromMap(map);
+					append(outputMessage);
 					if (logger.isLoggable(Level.FINE)) {
 						logger.fine("Lifecycle Event: " + outputMessage);
 					}
@@ -121,13 +195,16 @@ public class LifecycleEventsContainer {
 	 */
 	public final void addNonLifecycleEvents(final String event) {
 		synchronized (this.lock) {
+			if (this.evicted) {
+				return;
+			}
 			if (this.serviceInstanceCountEventsSet.contains(event)) {
 				if (logger.isLoggable(Level.FINEST)) {
 					logger.finest("Ignoring Instance Count Event: " + event);
 				}
 			} else {
 				this.serviceInstanceCountEventsSet.add(event);
-				this.eventsList.add(event);
+				append(event);
 				if (logger.isLoggable(Level.FINE)) {
 					logger.fine("Instance Count Event: " + event);
 				}
@@ -135,6 +212,93 @@ public class LifecycleEventsContainer {
 		}
 	}
 
+	/**
+	 * Returns the time since events were last added to, or read from, this
+	 * container.
+	 * 
+	 * @return the idle time in milliseconds.
+	 */
+	public long getIdleMillis() {
+		return System.currentTimeMillis() - this.lastAccessTime;
+	}
+
+	/**
+	 * Releases the events of this container, and removes their hashes from the
+	 * shared set. Events added after the container was evicted are ignored.
+	 */
+	public void evict() {
+		synchronized (this.lock) {
+			if (this.evicted) {
+				return;
+			}
+			this.evicted = true;
+			for (int i = 0; i < this.ownHashesCount; i++) {
+				this.lifecycleEventsSet.remove(this.ownHashes[i]);
+			}
+			this.ownHashes = null;
+			this.ownHashesCount = 0;
+			this.segments.clear();
+			this.size = 0;
+			this.serviceInstanceCountEventsSet = null;
+			this.lock.notifyAll();
+		}
+	}
+
+	// called while holding the lock
+	private void append(final String event) {
+		final int offset = this.size % SEGMENT_SIZE;
+		if (offset == 0) {
+			this.segments.add(new String[SEGMENT_SIZE]);
+		}
+		this.segments.get(this.segments.size() - 1)[offset] = event;
+		++this.size;
+		this.lock.notifyAll();
+	}
+
+	// called while holding the lock
+	private void addOwnHash(final long hash) {
+		if (this.ownHashesCount == this.ownHashes.length) {
+			this.ownHashes = Arrays.copyOf(this.ownHashes, this.ownHashes.length * 2);
+		}
+		this.ownHashes[this.ownHashesCount++] = hash;
+	}
+
+	/**
+	 * A 64 bit hash of the event details. The hash does not depend on the
+	 * iteration order of the map.
+	 */
+	static long hashEvent(final Map<String, String> event) {
+		long hash = event.size();
+		for (final Map.Entry<String, String> entry : event.entrySet()) {
+			hash += mix(hashString(entry.getKey()) * FNV_PRIME ^ hashString(entry.getValue()));
+		}
+		return mix(hash);
+	}
+
+	// FNV-1a
+	private static long hashString(final String value) {
+		if (value == null) {
+			return 0;
+		}
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	// the murmur3 finalizer, spreads the bits of the combined hashes
+	private static long mix(final long value) {
+		long hash = value;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
 	/**
 	 * Creates a formatted message based on a given map of details.
 	 * 
@@ -142,7 +306,7 @@ public class LifecycleEventsContainer {
 	 *            a map of details
 	 * @return formatted message
 	 */
-	private String getParsedLifecyceEventMessageFromMap(final Map<String, Object> map) {
+	private String getParsedLifecyceEventMessageFromMap(final Map<String, String> map) {
 		// TODO:Check nulls
 
 		String eventText = (map.get(EventLogConstants.getEventTextKey()))
@@ -168,7 +332,7 @@ public class LifecycleEventsContainer {
 		return cleanEventText;
 	}
 
-	public void setEventsSet(final Set<String> eventsSet) {
+	public void setEventsSet(final Set<Long> eventsSet) {
 		this.lifecycleEventsSet = eventsSet;
 	}
 }
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2013 GigaSpaces Technologies Ltd. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *******************************************************************************/
+package org.cloudifysource.rest.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.cloudifysource.dsl.internal.ServiceInstanceMonitorsHolder;
+import org.openspaces.core.GigaSpace;
+import org.openspaces.core.context.GigaSpaceContext;
+import org.openspaces.events.SpaceDataEventListener;
+import org.openspaces.events.notify.SimpleNotifyContainerConfigurer;
+import org.openspaces.events.notify.SimpleNotifyEventListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
+
+import com.j_spaces.core.client.EntryArrivedRemoteEvent;
+import com.j_spaces.core.client.NotifyActionType;
+
+/**
+ * Holds the service instance monitors that USMs publish to the management space. The cache subscribes to the published
+ * entries, so reading the monitors of an instance does not require a remote call to the instance.
+ *
+ * Monitors are only published by services that enable it, so callers must fall back to the instance statistics when
+ * the cache has no up to date monitors for an instance.
+ *
+ * @since 2.6.0
+ *
+ */
+@Component
+public class PublishedMonitorsCache {
+
+	// published monitors are considered up to date for a few publication intervals after they were received.
+	private static final int STALE_INTERVALS = 3;
+
+	private static final Logger logger = Logger.getLogger(PublishedMonitorsCache.class.getName());
+
+	/**
+	 * A published entry and the local time it was received at.
+	 */
+	private static final class ReceivedMonitors {
+		private final ServiceInstanceMonitorsHolder holder;
+		private final long receivedAt;
+
+		private ReceivedMonitors(final ServiceInstanceMonitorsHolder holder) {
+			this.holder = holder;
+			this.receivedAt = System.currentTimeMillis();
+		}
+	}
+
+	@GigaSpaceContext(name = "gigaSpace")
+	private GigaSpace gigaSpace;
+
+	private final Map<String, ReceivedMonitors> monitors = new ConcurrentHashMap<String, ReceivedMonitors>();
+	private SimpleNotifyEventListenerContainer notifyContainer;
+
+	/**
+	 * Subscribes to the published monitors, and reads the entries that were already published.
+	 */
+	@PostConstruct
+	public void init() {
+		try {
+			this.notifyContainer = new SimpleNotifyContainerConfigurer(gigaSpace)
+					.template(new ServiceInstanceMonitorsHolder())
+					.notifyWrite(true)
+					.notifyUpdate(true)
+					.notifyTake(true)
+					.notifyLeaseExpire(true)
+					.eventListener(new SpaceDataEventListener<ServiceInstanceMonitorsHolder>() {
+
+						@Override
+						public void onEvent(final ServiceInstanceMonitorsHolder data, final GigaSpace space,
+								final TransactionStatus txStatus, final Object source) {
+							onMonitorsEvent(data, source);
+						}
+					})
+					.notifyContainer();
+
+			// entries published before the subscription started
+			final ServiceInstanceMonitorsHolder[] existing = gigaSpace.readMultiple(
+					new ServiceInstanceMonitorsHolder(), Integer.MAX_VALUE);
+			for (final ServiceInstanceMonitorsHolder holder : existing) {
+				update(holder);
+			}
+		} catch (final Exception e) {
+			logger.log(Level.WARNING, "Failed to subscribe to published service monitors, monitors will be read from "
+					+ "the service instances: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Stops the subscription.
+	 */
+	@PreDestroy
+	public void destroy() {
+		if (this.notifyContainer != null) {
+			this.notifyContainer.destroy();
+		}
+	}
+
+	/**
+	 * Returns the published monitors of a service instance.
+	 *
+	 * @param processingUnitName
+	 *            the absolute processing unit name of the service.
+	 * @param instanceId
+	 *            the instance ID.
+	 * @return the monitors, or null if the instance does not publish its monitors, or the published values are not up
+	 *         to date.
+	 */
+	public Map<String, Object> getMonitors(final String processingUnitName, final int instanceId) {
+		final ReceivedMonitors received =
+				this.monitors.get(ServiceInstanceMonitorsHolder.createId(processingUnitName, instanceId));
+		if (received == null || received.holder.getMonitors() == null) {
+			return null;
+		}
+		final Long interval = received.holder.getPublishIntervalMillis();
+		if (interval == null
+				|| System.currentTimeMillis() - received.receivedAt > interval * STALE_INTERVALS) {
+			return null;
+		}
+		return Collections.unmodifiableMap(received.holder.getMonitors());
+	}
+
+	private void onMonitorsEvent(final ServiceInstanceMonitorsHolder data, final Object source) {
+		if (source instanceof EntryArrivedRemoteEvent) {
+			final NotifyActionType type = ((EntryArrivedRemoteEvent) source).getNotifyActionType();
+			if (NotifyActionType.NOTIFY_TAKE.equals(type) || NotifyActionType.NOTIFY_LEASE_EXPIRATION.equals(type)) {
+				this.monitors.remove(data.getId());
+				return;
+			}
+		}
+		update(data);
+	}
+
+	private void update(final ServiceInstanceMonitorsHolder holder) {
+		if (holder.getId() == null) {
+			return;
+		}
+		synchronized (this.monitors) {
+			// notifications may be delivered out of order - an older publication never replaces a newer one.
+			final ReceivedMonitors current = this.monitors.get(holder.getId());
+			if (current != null && isNewer(current.holder, holder)) {
+				return;
+			}
+			this.monitors.put(holder.getId(), new ReceivedMonitors(holder));
+		}
+	}
+
+	private static boolean isNewer(final ServiceInstanceMonitorsHolder first,
+			final ServiceInstanceMonitorsHolder second) {
+		return first.getTimestamp() != null && second.getTimestamp() != null
+				&& first.getTimestamp() > second.getTimestamp();
+	}
+}
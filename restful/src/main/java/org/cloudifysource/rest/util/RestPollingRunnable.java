@@ -15,15 +15,18 @@
  *******************************************************************************/
 package org.cloudifysource.rest.util;
 
+import static com.gigaspaces.log.LogEntryMatchers.continuous;
 import static com.gigaspaces.log.LogEntryMatchers.regex;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
@@ -78,6 +81,8 @@ public class RestPollingRunnable implements Runnable {
 
 	private Admin admin;
 
+	private DeploymentStateView deploymentStateView;
+
 	private long endTime;
 
 	private static final String USM_EVENT_LOGGER_NAME = ".*.USMEventLogger.{0}\\].*";
@@ -100,10 +105,18 @@ public class RestPollingRunnable implements Runnable {
 	 */
 	private Future<?> futureTask;
 
-	private boolean isDone = false;
+	private volatile boolean isDone = false;
 
 	private final Map<String, Date> gscStartTimeMap = new HashMap<String, Date>();
 
+	// the lifecycle event matcher of each service, by absolute PU name.
+	private final Map<String, LogEntryMatcher> serviceLogMatchers = new HashMap<String, LogEntryMatcher>();
+
+	// continuous matchers by absolute PU name and GSC uid. A continuous matcher remembers the last entry it returned
+	// from its GSC, so each poll only transfers the entries logged since the previous poll.
+	private final Map<String, Map<String, LogEntryMatcher>> containerLogMatchers =
+			new HashMap<String, Map<String, LogEntryMatcher>>();
+
 	private final Object lock = new Object();
 
 	private FutureTask<Boolean> undeployTask;
@@ -144,6 +157,17 @@ public class RestPollingRunnable implements Runnable {
 		this.admin = admin;
 	}
 
+	/**
+	 * sets the deployment state view. If set, instance states are read from
+	 * the view instead of the instance statistics.
+	 * 
+	 * @param deploymentStateView
+	 *            the deployment state view, or null.
+	 */
+	public void setDeploymentStateView(final DeploymentStateView deploymentStateView) {
+		this.deploymentStateView = deploymentStateView;
+	}
+
 	/**
 	 * sets the current lifecycleEventsContainer to be updated by the callable
 	 * task.
@@ -313,6 +337,9 @@ public class RestPollingRunnable implements Runnable {
 
 	private void terminateTaskGracefully() {
 		this.isDone = true;
+		if (this.lifecycleEventsContainer != null) {
+			this.lifecycleEventsContainer.markPollingDone();
+		}
 		if (this.futureTask != null) {
 			this.futureTask.cancel(true);
 		}
@@ -395,18 +422,15 @@ public class RestPollingRunnable implements Runnable {
 		if (zone == null) {
 			return;
 		}
-		// TODO: this is not very efficient. Maybe possible to move the
-		// LogEntryMatcher
-		// as field add to init to call .
-		final String regex = MessageFormat.format(USM_EVENT_LOGGER_NAME,
-				absolutePuName);
-		final LogEntryMatcher matcher = regex(regex);
+		final Set<String> containerUids = new HashSet<String>();
 		for (final GridServiceContainer container : zone
 				.getGridServiceContainers()) {
 			logger.log(Level.FINE,
 					"Polling GSC with uid: " + container.getUid());
+			containerUids.add(container.getUid());
 
 			final Date pollingStartTime = getGSCSamplingStartTime(container);
+			final LogEntryMatcher matcher = getContainerLogMatcher(absolutePuName, container.getUid());
 			LogEntries logEntries = null;
 			try {
 				logEntries = container.logEntries(matcher);
@@ -430,6 +454,37 @@ public class RestPollingRunnable implements Runnable {
 			this.lifecycleEventsContainer
 					.addLifecycleEvents(servicesLifecycleEventDetailes);
 		}
+
+		// GSCs that left the zone will not be polled again
+		final Map<String, LogEntryMatcher> matchers = this.containerLogMatchers.get(absolutePuName);
+		if (matchers != null) {
+			matchers.keySet().retainAll(containerUids);
+		}
+	}
+
+	private LogEntryMatcher getContainerLogMatcher(final String absolutePuName, final String containerUid) {
+		Map<String, LogEntryMatcher> matchers = this.containerLogMatchers.get(absolutePuName);
+		if (matchers == null) {
+			matchers = new HashMap<String, LogEntryMatcher>();
+			this.containerLogMatchers.put(absolutePuName, matchers);
+		}
+		LogEntryMatcher matcher = matchers.get(containerUid);
+		if (matcher == null) {
+			matcher = continuous(getServiceLogMatcher(absolutePuName));
+			matchers.put(containerUid, matcher);
+		}
+		return matcher;
+	}
+
+	private LogEntryMatcher getServiceLogMatcher(final String absolutePuName) {
+		LogEntryMatcher matcher = this.serviceLogMatchers.get(absolutePuName);
+		if (matcher == null) {
+			final String regex = MessageFormat.format(USM_EVENT_LOGGER_NAME,
+					absolutePuName);
+			matcher = regex(regex);
+			this.serviceLogMatchers.put(absolutePuName, matcher);
+		}
+		return matcher;
 	}
 
 	// Returns the time the polling started for the specific gsc.
@@ -579,6 +634,12 @@ public class RestPollingRunnable implements Runnable {
 
 	private int getNumberOfUSMServicesWithState(final String absolutePUName,
 			final USMState state) {
+		if (this.deploymentStateView != null) {
+			final DeploymentStateView.ServiceState service = this.deploymentStateView.getService(absolutePUName);
+			if (service != null) {
+				return service.getNumberOfInstancesInState(state);
+			}
+		}
 		int puInstanceCounter = 0;
 		final ProcessingUnit processingUnit = admin.getProcessingUnits()
 				.getProcessingUnit(absolutePUName);
@@ -661,9 +722,11 @@ public class RestPollingRunnable implements Runnable {
 		final String modifiedText = originalText.replaceFirst(
 				absolutePuName + "-",
 				serviceName);
+		// structured fields, like the event duration, are kept as separate entries and not displayed.
+		final String eventText = EventLogConstants.extractEventFields(modifiedText, returnMap);
 		returnMap.put(
 				EventLogConstants.getEventTextKey(),
-				modifiedText);
+				eventText);
 
 		return returnMap;
 	}